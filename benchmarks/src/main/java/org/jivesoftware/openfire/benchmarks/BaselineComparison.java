@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the results of a JMH run (in JMH's JSON output format) with a previously recorded baseline, and reports
+ * every benchmark that regressed by more than a threshold.
+ *
+ * A benchmark is considered to have regressed only when the difference in score is larger than both the threshold and
+ * the combined error margins that JMH reported for both runs. The process exits with a non-zero status code when at
+ * least one regression is found, which allows this to be used as a build gate.
+ *
+ * Usage: {@code BaselineComparison <baseline.json> <results.json> [threshold-percentage]}
+ */
+public final class BaselineComparison
+{
+    public static void main(final String[] args) throws IOException
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison <baseline.json> <results.json> [threshold-percentage]");
+            System.exit(2);
+        }
+        final Path baselinePath = Paths.get(args[0]);
+        if (!Files.isRegularFile(baselinePath)) {
+            System.err.println("No baseline found at " + baselinePath + ". Record one first (see benchmarks/README.md).");
+            System.exit(2);
+        }
+        final Map<String, JSONObject> baseline = read(baselinePath);
+        final Map<String, JSONObject> results = read(Paths.get(args[1]));
+        final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+
+        int regressions = 0;
+        for (final Map.Entry<String, JSONObject> entry : results.entrySet()) {
+            final JSONObject previous = baseline.get(entry.getKey());
+            if (previous == null) {
+                System.out.printf("NEW        %s%n", entry.getKey());
+                continue;
+            }
+            final JSONObject current = entry.getValue();
+            final double oldScore = previous.getJSONObject("primaryMetric").getDouble("score");
+            final double oldError = errorOf(previous);
+            final double newScore = current.getJSONObject("primaryMetric").getDouble("score");
+            final double newError = errorOf(current);
+            final String unit = current.getJSONObject("primaryMetric").getString("scoreUnit");
+
+            // For throughput, higher is better. For all other modes (average time, sample time, single shot) lower is better.
+            final boolean higherIsBetter = "thrpt".equals(current.getString("mode"));
+            final double change = oldScore == 0 ? 0 : (newScore - oldScore) / oldScore * 100.0;
+            final double worsening = higherIsBetter ? -change : change;
+            final boolean significant = Math.abs(newScore - oldScore) > oldError + newError;
+
+            final String verdict;
+            if (significant && worsening > threshold) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else if (significant && -worsening > threshold) {
+                verdict = "IMPROVED";
+            } else {
+                verdict = "OK";
+            }
+            System.out.printf("%-10s %s: %.3f -> %.3f %s (%+.1f%%)%n", verdict, entry.getKey(), oldScore, newScore, unit, change);
+        }
+        for (final String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.printf("MISSING    %s%n", key);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.1f%%.%n", regressions, threshold);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads a JMH JSON result file, returning the results keyed by benchmark name, mode and parameter values.
+     */
+    private static Map<String, JSONObject> read(final Path path) throws IOException
+    {
+        final JSONArray array = new JSONArray(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        final Map<String, JSONObject> result = new LinkedHashMap<>();
+        for (int i = 0; i < array.length(); i++) {
+            final JSONObject run = array.getJSONObject(i);
+            final StringBuilder key = new StringBuilder(run.getString("benchmark")).append(" [").append(run.getString("mode")).append(']');
+            final JSONObject params = run.optJSONObject("params");
+            if (params != null) {
+                final Map<String, Object> sorted = new TreeMap<>(params.toMap());
+                key.append(' ').append(sorted);
+            }
+            result.put(key.toString(), run);
+        }
+        return result;
+    }
+
+    private static double errorOf(final JSONObject run)
+    {
+        final double error = run.getJSONObject("primaryMetric").optDouble("scoreError", 0);
+        return Double.isNaN(error) ? 0 : error;
+    }
+}
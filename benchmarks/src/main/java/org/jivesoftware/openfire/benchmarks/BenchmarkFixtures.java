@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.benchmarks;
+
+import org.jivesoftware.openfire.PacketRouter;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.XMPPServerInfo;
+import org.jivesoftware.openfire.cluster.NodeID;
+import org.jivesoftware.openfire.muc.MultiUserChatManager;
+import org.jivesoftware.util.cache.CacheFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Data and server stubs that are shared by the benchmarks in this module.
+ *
+ * The stubbed server is a Mockito mock, that provides just enough of the environment for the code under test to run
+ * without a database or network. Interactions with the mocks are not recorded, to prevent them from accumulating
+ * memory while a benchmark iterates.
+ */
+public final class BenchmarkFixtures
+{
+    public static final String XMPP_DOMAIN = "benchmark.example.org";
+
+    /**
+     * A typical one-to-one chat message, including chat state and receipt request.
+     */
+    public static final String MESSAGE = "<message xmlns='jabber:client' to='juliet@" + XMPP_DOMAIN + "/balcony' from='romeo@" + XMPP_DOMAIN + "/orchard' type='chat' id='ktx72v49'>" +
+        "<body>Art thou not Romeo, and a Montague? Neither, fair saint, if either thee dislike.</body>" +
+        "<active xmlns='http://jabber.org/protocol/chatstates'/>" +
+        "<request xmlns='urn:xmpp:receipts'/>" +
+        "<origin-id xmlns='urn:xmpp:sid:0' id='de305d54-75b4-431b-adb2-eb6b9e546014'/>" +
+        "</message>";
+
+    /**
+     * A typical available presence, including entity capabilities and an avatar hash.
+     */
+    public static final String PRESENCE = "<presence xmlns='jabber:client' from='romeo@" + XMPP_DOMAIN + "/orchard' id='pres1'>" +
+        "<show>away</show><status>Wherefore art thou?</status><priority>5</priority>" +
+        "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='https://conversations.im' ver='QgayPKawpkPSDYmwT/WM94uAlu0='/>" +
+        "<x xmlns='vcard-temp:x:update'><photo>01b87fcd030b72895ff8e88db57ec525450f000d</photo></x>" +
+        "</presence>";
+
+    /**
+     * A roster push containing a number of roster items, representative of a 'large' stanza.
+     */
+    public static final String IQ;
+
+    static {
+        final StringBuilder sb = new StringBuilder("<iq xmlns='jabber:client' to='juliet@" + XMPP_DOMAIN + "/balcony' type='set' id='push1'><query xmlns='jabber:iq:roster' ver='ver42'>");
+        for (int i = 0; i < 100; i++) {
+            sb.append("<item jid='contact").append(i).append('@').append(XMPP_DOMAIN).append("' name='Contact ").append(i).append("' subscription='both'><group>Friends</group><group>Verona</group></item>");
+        }
+        sb.append("</query></iq>");
+        IQ = sb.toString();
+    }
+
+    private BenchmarkFixtures() {}
+
+    /**
+     * Returns the XML of a stanza of the requested kind.
+     *
+     * @param kind 'message', 'presence' or 'iq'
+     * @return XML (never null).
+     */
+    public static String stanza(final String kind)
+    {
+        switch (kind) {
+            case "message": return MESSAGE;
+            case "presence": return PRESENCE;
+            case "iq": return IQ;
+            default: throw new IllegalArgumentException("Unknown stanza kind: " + kind);
+        }
+    }
+
+    /**
+     * Returns the UTF-8 encoded representation of a number of concatenated stanzas of the requested kind, as they
+     * would be received on a network connection.
+     *
+     * @param kind 'message', 'presence' or 'iq'
+     * @param count The number of stanzas.
+     * @return UTF-8 encoded XML (never null).
+     */
+    public static byte[] stream(final String kind, final int count)
+    {
+        final String stanza = stanza(kind);
+        final StringBuilder sb = new StringBuilder(stanza.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(stanza);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Initializes the (non-clustered) cache factory and registers a stubbed XMPPServer instance.
+     *
+     * @return the stubbed server (never null)
+     * @throws Exception on any problem initializing the environment.
+     */
+    @SuppressWarnings("deprecation")
+    public static XMPPServer initializeServer() throws Exception
+    {
+        CacheFactory.initialize();
+
+        final XMPPServerInfo serverInfo = mock(XMPPServerInfo.class, withSettings().stubOnly());
+        doReturn(XMPP_DOMAIN).when(serverInfo).getXMPPDomain();
+        doReturn(XMPP_DOMAIN).when(serverInfo).getHostname();
+
+        final XMPPServer xmppServer = mock(XMPPServer.class, withSettings().stubOnly());
+        doReturn(serverInfo).when(xmppServer).getServerInfo();
+        doReturn(NodeID.getInstance(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8))).when(xmppServer).getNodeID();
+        doReturn(mock(PacketRouter.class, withSettings().stubOnly())).when(xmppServer).getPacketRouter();
+        doReturn(mock(MultiUserChatManager.class, withSettings().stubOnly())).when(xmppServer).getMultiUserChatManager();
+
+        XMPPServer.setInstance(xmppServer);
+        return xmppServer;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.traffic.ChannelTrafficShapingHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.dom4j.Element;
+import org.jivesoftware.openfire.PacketRouter;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.auth.UnauthorizedException;
+import org.jivesoftware.openfire.benchmarks.BenchmarkFixtures;
+import org.jivesoftware.openfire.nio.NettyConnection;
+import org.jivesoftware.openfire.session.LocalClientSession;
+import org.jivesoftware.openfire.spi.NettyServerInitializer;
+import org.openjdk.jmh.annotations.*;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures the cost of broadcasting a stanza to all occupants of a chat room, using {@link MUCRoom#broadcast(Message)}
+ * and {@link MUCRoom#broadcast(Presence, boolean)}.
+ *
+ * The room has {@link #occupants} occupants, that are all local users. Each occupant has a {@link NettyConnection} on
+ * an {@link EmbeddedChannel}, of which the pipeline encodes outbound data like that of a client connection, and then
+ * discards it (instead of writing it to a socket). Stanzas that the room sends to an occupant are delivered to its
+ * connection by a stub packet router, which means that this benchmark measures the work done by the room itself
+ * (including the addition of the message to the room's history and the conversation log) and the serialization and
+ * encoding of every stanza by {@link NettyConnection#deliver(Packet)}. Routing is not included (that is measured by
+ * {@code RoutingTableBenchmark}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MUCRoomBroadcastBenchmark
+{
+    @Param({"10", "200", "2000"})
+    public int occupants;
+
+    private MUCRoom room;
+
+    private final List<EmbeddedChannel> channels = new ArrayList<>();
+
+    private Message message;
+
+    private Presence presence;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        final XMPPServer xmppServer = BenchmarkFixtures.initializeServer();
+        final ConnectionRouter router = new ConnectionRouter();
+        doReturn(router).when(xmppServer).getPacketRouter();
+
+        final MultiUserChatService service = mock(MultiUserChatService.class, withSettings().stubOnly());
+        doReturn("conference").when(service).getServiceName();
+        doReturn("conference." + BenchmarkFixtures.XMPP_DOMAIN).when(service).getServiceDomain();
+
+        room = new MUCRoom(service, "benchmark");
+        room.setLogEnabled(true);
+        for (int i = 0; i < occupants; i++) {
+            final JID userAddress = new JID("user" + i, BenchmarkFixtures.XMPP_DOMAIN, "resource");
+            final Presence joinPresence = new Presence();
+            joinPresence.setFrom(userAddress);
+            room.addOccupantRole(new MUCRole(room, "nick" + i, MUCRole.Role.participant, MUCRole.Affiliation.member, userAddress, joinPresence));
+
+            final EmbeddedChannel channel = new EmbeddedChannel();
+            channel.pipeline()
+                .addLast(new DiscardingHandler())
+                .addLast(NettyServerInitializer.TRAFFIC_HANDLER_NAME, new ChannelTrafficShapingHandler(0))
+                .addLast(new StringEncoder(StandardCharsets.UTF_8))
+                .addLast(new ChannelInboundHandlerAdapter());
+            channels.add(channel);
+            final NettyConnection connection = new NettyConnection(channel.pipeline().lastContext(), null, null);
+            connection.init(mock(LocalClientSession.class, withSettings().stubOnly()));
+            router.connections.put(userAddress, connection);
+        }
+
+        message = new Message();
+        message.setType(Message.Type.groupchat);
+        message.setFrom(new JID(room.getName(), service.getServiceDomain(), "nick0"));
+        message.setID("benchmark-message");
+        message.setBody("But soft, what light through yonder window breaks? It is the east, and Juliet is the sun.");
+
+        presence = new Presence();
+        presence.setFrom(new JID(room.getName(), service.getServiceDomain(), "nick0"));
+        presence.setShow(Presence.Show.away);
+        final Element item = presence.addChildElement("x", "http://jabber.org/protocol/muc#user").addElement("item");
+        item.addAttribute("affiliation", "member");
+        item.addAttribute("role", "participant");
+        item.addAttribute("jid", new JID("user0", BenchmarkFixtures.XMPP_DOMAIN, "resource").toString());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        channels.forEach(EmbeddedChannel::finishAndReleaseAll);
+        channels.clear();
+    }
+
+    @Benchmark
+    public void broadcastMessage()
+    {
+        room.broadcast(message);
+    }
+
+    @Benchmark
+    public void broadcastPresence()
+    {
+        room.broadcast(presence, false);
+    }
+
+    /**
+     * Delivers stanzas to the connection of the occupant that they are addressed to.
+     */
+    private static final class ConnectionRouter implements PacketRouter
+    {
+        private final Map<JID, NettyConnection> connections = new HashMap<>();
+
+        @Override
+        public void route(final Packet packet)
+        {
+            final NettyConnection connection = connections.get(packet.getTo());
+            if (connection == null) {
+                throw new IllegalStateException("No connection for: " + packet.getTo());
+            }
+            try {
+                connection.deliver(packet);
+            } catch (UnauthorizedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void route(final IQ packet)
+        {
+            route((Packet) packet);
+        }
+
+        @Override
+        public void route(final Message packet)
+        {
+            route((Packet) packet);
+        }
+
+        @Override
+        public void route(final Presence packet)
+        {
+            route((Packet) packet);
+        }
+    }
+
+    /**
+     * Takes the place of the socket: releases all data that is written to the channel.
+     */
+    private static final class DiscardingHandler extends ChannelOutboundHandlerAdapter
+    {
+        @Override
+        public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise)
+        {
+            if (!(msg instanceof ByteBuf)) {
+                // Everything is expected to have been encoded by the handlers that precede this one.
+                ReferenceCountUtil.release(msg);
+                promise.setFailure(new IllegalStateException("Unexpected data written to channel: " + msg));
+                return;
+            }
+            ReferenceCountUtil.release(msg);
+            promise.setSuccess();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.net;
+
+import org.dom4j.Element;
+import org.dom4j.io.XMPPPacketReader;
+import org.jivesoftware.openfire.benchmarks.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.*;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of turning the text of one inbound stanza into a {@link Packet}, as is done by
+ * {@link StanzaHandler#process(String, XMPPPacketReader)} for every stanza received from a peer: the text is parsed
+ * into a DOM by a (thread-local) {@link XMPPPacketReader}, which is then wrapped in a Packet instance (which includes
+ * validation of the addresses in the stanza).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StanzaParsingBenchmark
+{
+    @Param({"message", "presence", "iq"})
+    public String kind;
+
+    private String stanza;
+
+    private XMPPPacketReader reader;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        stanza = BenchmarkFixtures.stanza(kind);
+
+        // Configured identically to the parsers used by NettyConnectionHandler.
+        final XmlPullParserFactory factory = XmlPullParserFactory.newInstance(MXParser.class.getName(), null);
+        factory.setNamespaceAware(true);
+        reader = new XMPPPacketReader();
+        reader.setXPPFactory(factory);
+    }
+
+    @Benchmark
+    public Element parse() throws Exception
+    {
+        return reader.read(new StringReader(stanza)).getRootElement();
+    }
+
+    @Benchmark
+    public Packet parseAndWrap() throws Exception
+    {
+        final Element doc = reader.read(new StringReader(stanza)).getRootElement();
+        switch (doc.getName()) {
+            case "message": return new Message(doc, false);
+            case "presence": return new Presence(doc, false);
+            default: return new IQ(doc, false);
+        }
+    }
+}
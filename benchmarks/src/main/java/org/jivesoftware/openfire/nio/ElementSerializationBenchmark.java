@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import org.dom4j.Element;
+import org.jivesoftware.openfire.benchmarks.BenchmarkFixtures;
+import org.jivesoftware.util.SAXReaderUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of serializing a stanza to XML, as is done by {@link NettyConnection#deliver(org.xmpp.packet.Packet)}
+ * for every stanza that is sent to a peer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ElementSerializationBenchmark
+{
+    @Param({"message", "presence", "iq"})
+    public String kind;
+
+    private Element element;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        element = SAXReaderUtil.readRootElement(BenchmarkFixtures.stanza(kind));
+    }
+
+    @Benchmark
+    public String asXML()
+    {
+        return element.asXML();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.jivesoftware.openfire.benchmarks.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of splitting inbound network data into stanzas, comparing the character-based
+ * {@link XMLLightweightParser} (including the decoding that is required to feed it) with the byte-based
+ * {@link XMLStanzaFramer} that is used by {@link NettyXMPPDecoder}.
+ *
+ * Each invocation processes a buffer that holds {@link #count} concatenated stanzas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StanzaFramingBenchmark
+{
+    @Param({"message", "presence", "iq"})
+    public String kind;
+
+    @Param({"1", "32"})
+    public int count;
+
+    private byte[] data;
+
+    @Setup
+    public void setup()
+    {
+        data = BenchmarkFixtures.stream(kind, count);
+    }
+
+    @Benchmark
+    public void lightweightParser(final Blackhole blackhole) throws Exception
+    {
+        final ByteBuf in = Unpooled.wrappedBuffer(data);
+        final XMLLightweightParser parser = new XMLLightweightParser();
+        parser.read(in.readCharSequence(in.readableBytes(), StandardCharsets.UTF_8).toString().toCharArray());
+        blackhole.consume(parser.getMsgs());
+        in.release();
+    }
+
+    @Benchmark
+    public void stanzaFramer(final Blackhole blackhole) throws Exception
+    {
+        final ByteBuf in = Unpooled.wrappedBuffer(data);
+        final XMLStanzaFramer framer = new XMLStanzaFramer();
+        final List<Object> out = new ArrayList<>(count);
+        framer.decode(in, out);
+        for (final Object stanza : out) {
+            // Include the decoding that NettyConnectionHandler applies to each stanza.
+            blackhole.consume(((ByteBuf) stanza).toString(StandardCharsets.UTF_8));
+            ((ByteBuf) stanza).release();
+        }
+        in.release();
+    }
+}
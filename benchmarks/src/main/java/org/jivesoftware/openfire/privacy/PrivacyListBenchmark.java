@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.privacy;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.jivesoftware.openfire.benchmarks.BenchmarkFixtures;
+import org.jivesoftware.openfire.roster.Roster;
+import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.openjdk.jmh.annotations.*;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures the cost of finding the first item of a privacy list that matches a stanza, as done by
+ * {@link PrivacyList#shouldBlockPacket(Packet)}, by evaluating {@link PrivacyItem#matchesCondition(Packet, Roster, JID)}
+ * for each item in order ({@link #perItem()}, the implementation prior to {@link PrivacyListEvaluator}) and by using a
+ * {@link PrivacyListEvaluator} ({@link #indexed()}).
+ *
+ * The privacy list is shaped like a XEP-0191 blocklist that is preceded by a few roster-based rules: it has two group
+ * and one subscription item, followed by {@link #items} items that each deny a different bare JID. Half of the stanzas
+ * are sent by blocked contacts, the other half by contacts that are not blocked (and are therefore evaluated against
+ * all items by the per-item implementation).
+ *
+ * Both implementations are checked to find the same item for every stanza when the benchmark is set up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PrivacyListBenchmark
+{
+    private static final JID OWNER = new JID("owner", BenchmarkFixtures.XMPP_DOMAIN, null);
+
+    private static final int STANZAS = 1024;
+
+    @Param({"10", "100", "5000"})
+    public int items;
+
+    private List<PrivacyItem> privacyItems;
+
+    private PrivacyListEvaluator evaluator;
+
+    private Roster roster;
+
+    private Packet[] packets;
+
+    private int next;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        privacyItems = new ArrayList<>();
+        privacyItems.add(createItem(1, "allow", "group", "Friends"));
+        privacyItems.add(createItem(2, "deny", "group", "Spammers"));
+        privacyItems.add(createItem(3, "allow", "subscription", "both"));
+        for (int i = 0; i < items; i++) {
+            privacyItems.add(createItem(10 + i, "deny", "jid", "blocked" + i + "@example.com"));
+        }
+        Collections.sort(privacyItems);
+        evaluator = new PrivacyListEvaluator(privacyItems, OWNER);
+
+        // Contacts are not in the roster, which is the typical case for blocked contacts.
+        roster = mock(Roster.class, withSettings().stubOnly());
+        doThrow(new UserNotFoundException()).when(roster).getRosterItem(any(JID.class));
+
+        final Random random = new Random(0);
+        packets = new Packet[STANZAS];
+        for (int i = 0; i < STANZAS; i++) {
+            final JID contact = random.nextBoolean()
+                ? new JID("blocked" + random.nextInt(items), "example.com", "desktop")
+                : new JID("contact" + random.nextInt(items), "example.net", "desktop");
+            final Packet packet = random.nextBoolean() ? new Message() : new Presence();
+            packet.setFrom(contact);
+            packet.setTo(OWNER);
+            packets[i] = packet;
+        }
+
+        for (final Packet packet : packets) {
+            if (perItem(packet) != evaluator.findMatch(packet, () -> roster)) {
+                throw new IllegalStateException("Implementations find a different item for: " + packet.toXML());
+            }
+        }
+    }
+
+    private static PrivacyItem createItem(final int order, final String action, final String type, final String value)
+    {
+        final Element element = DocumentHelper.createElement("item");
+        element.addAttribute("action", action);
+        element.addAttribute("order", String.valueOf(order));
+        element.addAttribute("type", type);
+        element.addAttribute("value", value);
+        return new PrivacyItem(element);
+    }
+
+    private Packet nextPacket()
+    {
+        return packets[next++ & (STANZAS - 1)];
+    }
+
+    private PrivacyItem perItem(final Packet packet)
+    {
+        for (final PrivacyItem item : privacyItems) {
+            if (item.matchesCondition(packet, roster, OWNER)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public PrivacyItem perItem()
+    {
+        return perItem(nextPacket());
+    }
+
+    @Benchmark
+    public PrivacyItem indexed()
+    {
+        return evaluator.findMatch(nextPacket(), () -> roster);
+    }
+}
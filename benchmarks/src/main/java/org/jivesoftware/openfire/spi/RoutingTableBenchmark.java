@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.spi;
+
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.auth.AuthToken;
+import org.jivesoftware.openfire.benchmarks.BenchmarkFixtures;
+import org.jivesoftware.openfire.session.LocalClientSession;
+import org.jivesoftware.util.SAXReaderUtil;
+import org.openjdk.jmh.annotations.*;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Presence;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures the cost of {@link RoutingTableImpl#routePacket(JID, org.xmpp.packet.Packet)} for stanzas addressed to
+ * full JIDs of users that are connected to the local cluster node.
+ *
+ * The routing table is populated with {@link #sessions} client sessions (stubs that discard everything that is
+ * delivered to them), each for a different user. Stanzas are addressed to a random session in each invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RoutingTableBenchmark
+{
+    @Param({"1000", "100000"})
+    public int sessions;
+
+    private RoutingTableImpl routingTable;
+
+    private JID[] addresses;
+
+    private Message message;
+
+    private Presence presence;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        final XMPPServer xmppServer = BenchmarkFixtures.initializeServer();
+        routingTable = new RoutingTableImpl();
+        routingTable.initialize(xmppServer);
+        routingTable.start();
+
+        addresses = new JID[sessions];
+        for (int i = 0; i < sessions; i++) {
+            addresses[i] = new JID("user" + i, BenchmarkFixtures.XMPP_DOMAIN, "resource");
+            final LocalClientSession session = mock(LocalClientSession.class, withSettings().stubOnly());
+            doReturn(new Presence()).when(session).getPresence();
+            doReturn(AuthToken.generateUserToken("user" + i)).when(session).getAuthToken();
+            doReturn(addresses[i]).when(session).getAddress();
+            routingTable.addClientRoute(addresses[i], session);
+        }
+
+        message = new Message(SAXReaderUtil.readRootElement(BenchmarkFixtures.MESSAGE));
+        presence = new Presence(SAXReaderUtil.readRootElement(BenchmarkFixtures.PRESENCE));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        routingTable.stop();
+    }
+
+    private JID randomAddress()
+    {
+        return addresses[ThreadLocalRandom.current().nextInt(addresses.length)];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void routeMessage()
+    {
+        final JID recipient = randomAddress();
+        final Message stanza = message.createCopy();
+        stanza.setTo(recipient);
+        routingTable.routePacket(recipient, stanza);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void routeMessageContended()
+    {
+        final JID recipient = randomAddress();
+        final Message stanza = message.createCopy();
+        stanza.setTo(recipient);
+        routingTable.routePacket(recipient, stanza);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void routePresence()
+    {
+        final JID recipient = randomAddress();
+        final Presence stanza = presence.createCopy();
+        stanza.setTo(recipient);
+        routingTable.routePacket(recipient, stanza);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util.cache;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link DefaultCache} under concurrent access, using a read-heavy mix (comparable to how
+ * the routing tables use their caches) as well as a write-heavy mix.
+ *
+ * The cache is pre-populated with {@link #entries} entries. All operations pick a random key from that key space.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DefaultCacheBenchmark
+{
+    @Param({"10000"})
+    public int entries;
+
+    private String[] keys;
+
+    private Cache<String, String> cache;
+
+    @Setup
+    public void setup()
+    {
+        keys = new String[entries];
+        cache = new DefaultCache<>("benchmark", -1, -1);
+        for (int i = 0; i < entries; i++) {
+            keys[i] = "user" + i + "@example.org/resource";
+            cache.put(keys[i], "value" + i);
+        }
+    }
+
+    private String randomKey()
+    {
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String getSingleThreaded()
+    {
+        return cache.get(randomKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String getContended()
+    {
+        return cache.get(randomKey());
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(7)
+    public String readMostlyGet()
+    {
+        return cache.get(randomKey());
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public String readMostlyPut()
+    {
+        final String key = randomKey();
+        return cache.put(key, key);
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(4)
+    public String writeHeavyGet()
+    {
+        return cache.get(randomKey());
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(4)
+    public String writeHeavyPut()
+    {
+        final String key = randomKey();
+        return cache.put(key, key);
+    }
+}
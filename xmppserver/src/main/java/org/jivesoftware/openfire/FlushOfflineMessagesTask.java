@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire;
+
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * A cluster task used to instruct other cluster nodes that they must write the offline messages that they have queued
+ * (see {@link OfflineMessageStore#WRITE_BEHIND_ENABLED}) to the database.
+ *
+ * This task can be used to write the queued messages of all users, or of a specific user only.
+ */
+public class FlushOfflineMessagesTask implements ClusterTask<Void>
+{
+    /**
+     * The username of the user of which queued messages are to be written, or null when the messages of all users are
+     * to be written.
+     */
+    @Nullable
+    private String username;
+
+    /**
+     * Instantiates a task that writes the queued messages of a specific user.
+     *
+     * @param username The username of the user.
+     */
+    public FlushOfflineMessagesTask(@Nonnull final String username)
+    {
+        this.username = username;
+    }
+
+    /**
+     * Instantiates a task that writes the queued messages of all users.
+     */
+    public FlushOfflineMessagesTask()
+    {
+        this.username = null;
+    }
+
+    @Override
+    public void run()
+    {
+        final OfflineMessageStore store = XMPPServer.getInstance().getOfflineMessageStore();
+        if (username != null) {
+            store.flushPendingMessages(username, false); // just this member
+        } else {
+            store.flushPendingMessages(false); // just this member
+        }
+    }
+
+    @Override
+    public Void getResult()
+    {
+        return null;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        ExternalizableUtil.getInstance().writeBoolean(out, username != null);
+        if (username != null) {
+            ExternalizableUtil.getInstance().writeSafeUTF(out, username);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException
+    {
+        if (ExternalizableUtil.getInstance().readBoolean(in)) {
+            username = ExternalizableUtil.getInstance().readSafeUTF(in);
+        } else {
+            username = null;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the offline messages of a user, in the order in which they were stored, without loading all of them
+ * in memory at once.
+ *
+ * Messages are read from the database in pages of a fixed size. A message is parsed only when it is about to be
+ * returned by {@link #next()}. When the cursor was created to delete the messages that it returns, these are deleted
+ * one page at a time, after all messages of a page have been returned. Messages that are returned from the last page
+ * are deleted when the cursor is exhausted or closed. A cursor should therefore always be closed, typically by using
+ * it in a try-with-resources block.
+ *
+ * Instances are obtained from {@link OfflineMessageStore#getMessageCursor(String, boolean)}. This class is not
+ * thread-safe.
+ */
+public class OfflineMessageCursor implements Iterator<OfflineMessage>, AutoCloseable {
+
+    private static final Logger Log = LoggerFactory.getLogger(OfflineMessageCursor.class);
+
+    private final OfflineMessageStore store;
+    private final String username;
+    private final boolean delete;
+    private final int pageSize;
+
+    /**
+     * Messages of the current page that have not been returned yet.
+     */
+    private final Deque<OfflineMessageStore.StoredMessage> page = new ArrayDeque<>();
+
+    /**
+     * Identifiers of the messages that have been returned (or skipped), that are yet to be deleted.
+     */
+    private final List<Long> consumed = new ArrayList<>();
+
+    /**
+     * The last message that was read from the database, used as the starting point for the next page.
+     */
+    private OfflineMessageStore.StoredMessage last = null;
+
+    private boolean lastPage = false;
+    private boolean closed = false;
+    private OfflineMessage next = null;
+    private long nextMessageID;
+
+    OfflineMessageCursor(OfflineMessageStore store, String username, boolean delete, int pageSize) {
+        this.store = store;
+        this.username = username;
+        this.delete = delete;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !closed) {
+            if (page.isEmpty()) {
+                // All messages of the previous page have been returned.
+                deleteConsumed();
+                if (lastPage) {
+                    close();
+                    return false;
+                }
+                final List<OfflineMessageStore.StoredMessage> loaded = store.loadMessagePage(username, last, pageSize);
+                lastPage = loaded.size() < pageSize;
+                if (!loaded.isEmpty()) {
+                    page.addAll(loaded);
+                    last = loaded.get(loaded.size() - 1);
+                }
+                continue;
+            }
+
+            final OfflineMessageStore.StoredMessage stored = page.poll();
+            try {
+                next = store.parseMessage(stored);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Log.error("Offline Message retrieval interrupted", e);
+                close(); // Skip all further offline messages
+                return false;
+            }
+            if (next == null) {
+                // Messages that cannot be parsed are skipped, but deleted all the same.
+                consumed.add(stored.messageID);
+            } else {
+                nextMessageID = stored.messageID;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public OfflineMessage next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final OfflineMessage result = next;
+        next = null;
+        consumed.add(nextMessageID);
+        return result;
+    }
+
+    /**
+     * Stops iterating. When messages are to be deleted, the messages that have been returned by this cursor and that
+     * have not yet been deleted, are deleted.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        deleteConsumed();
+        page.clear();
+        next = null;
+    }
+
+    private void deleteConsumed() {
+        if (delete && !consumed.isEmpty()) {
+            store.deleteMessages(username, consumed);
+        }
+        consumed.clear();
+    }
+}
@@ -21,6 +21,7 @@ import org.dom4j.Namespace;
 import org.dom4j.QName;
 import org.jivesoftware.database.DbConnectionManager;
 import org.jivesoftware.database.SequenceManager;
+import org.jivesoftware.openfire.archive.Archiver;
 import org.jivesoftware.openfire.cluster.ClusterManager;
 import org.jivesoftware.openfire.container.BasicModule;
 import org.jivesoftware.openfire.event.UserEventDispatcher;
@@ -43,7 +44,15 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,8 +72,13 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
     private static final String INSERT_OFFLINE =
         "INSERT INTO ofOffline (username, messageID, creationDate, messageSize, stanza) " +
         "VALUES (?, ?, ?, ?, ?)";
-    private static final String LOAD_OFFLINE =
-        "SELECT stanza, creationDate FROM ofOffline WHERE username=? ORDER BY creationDate ASC";
+    private static final String LOAD_OFFLINE_PAGE =
+        "SELECT stanza, creationDate, messageID FROM ofOffline WHERE username=? " +
+        "ORDER BY creationDate ASC, messageID ASC";
+    private static final String LOAD_OFFLINE_PAGE_AFTER =
+        "SELECT stanza, creationDate, messageID FROM ofOffline WHERE username=? " +
+        "AND (creationDate > ? OR (creationDate = ? AND messageID > ?)) " +
+        "ORDER BY creationDate ASC, messageID ASC";
     private static final String LOAD_OFFLINE_MESSAGE =
         "SELECT stanza FROM ofOffline WHERE username=? AND creationDate=?";
     private static final String SELECT_COUNT_OFFLINE =
@@ -77,6 +91,8 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
         "DELETE FROM ofOffline WHERE username=?";
     private static final String DELETE_OFFLINE_MESSAGE =
         "DELETE FROM ofOffline WHERE username=? AND creationDate=?";
+    private static final String DELETE_OFFLINE_MESSAGE_BY_ID =
+        "DELETE FROM ofOffline WHERE username=? AND messageID=?";
     private static final String DELETE_OFFLINE_MESSAGE_BEFORE =
         "DELETE FROM ofOffline WHERE creationDate < ?";
     private static final String SELECT_SIZE_OFFLINE_ALL_USERS =
@@ -108,8 +124,104 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
     .setDynamic(false)
     .build();
 
+    /**
+     * Enables storing offline messages in the database asynchronously, in batches, instead of one at a time on the
+     * thread that routes the message.
+     */
+    public static final SystemProperty<Boolean> WRITE_BEHIND_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.offline.write-behind.enabled")
+        .setDefaultValue(false)
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The maximum amount of offline messages that are written to the database in one batch.
+     */
+    public static final SystemProperty<Integer> WRITE_BEHIND_BATCH_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.offline.write-behind.batch-size")
+        .setDefaultValue(100)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum amount of time that an offline message is kept in memory before it is written to the database.
+     */
+    public static final SystemProperty<Duration> WRITE_BEHIND_FLUSH_INTERVAL = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.offline.write-behind.flush-interval")
+        .setDefaultValue(Duration.ofSeconds(1))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum amount of time to wait for more offline messages to arrive, before writing a batch to the database.
+     * Must not exceed the flush interval.
+     */
+    public static final SystemProperty<Duration> WRITE_BEHIND_GRACE_PERIOD = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.offline.write-behind.grace-period")
+        .setDefaultValue(Duration.ofMillis(50))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum amount of offline messages that are waiting to be written to the database. When this amount is
+     * reached, offline messages are written to the database immediately, on the thread that routes them.
+     */
+    public static final SystemProperty<Integer> WRITE_BEHIND_QUEUE_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.offline.write-behind.queue-size")
+        .setDefaultValue(10000)
+        .setMinValue(0)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum amount of time to wait for an offline message that is being written to the database by another
+     * thread, before messages are read from the database.
+     */
+    public static final SystemProperty<Duration> WRITE_BEHIND_STORE_TIMEOUT = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.offline.write-behind.store-timeout")
+        .setDefaultValue(Duration.ofSeconds(30))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setMinValue(Duration.ZERO)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The amount of offline messages that are read from the database at once, when these are retrieved.
+     */
+    public static final SystemProperty<Integer> RETRIEVAL_PAGE_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.offline.retrieval.page-size")
+        .setDefaultValue(100)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
     private Timer timer = null;
 
+    /**
+     * Writes offline messages to the database in batches, when write-behind is enabled (otherwise null).
+     */
+    private volatile OfflineMessageArchiver archiver = null;
+
+    /**
+     * Guards {@link #archiver}: queueing a message and stopping the archiver are mutually exclusive, which guarantees
+     * that every queued message is either written by the archiver, or when it is stopped.
+     */
+    private final ReadWriteLock archiverLock = new ReentrantReadWriteLock();
+
+    /**
+     * Offline messages that are queued on this cluster node to be written to the database, by username. Before offline
+     * messages are read from the database, the queued messages of the user are written on all cluster nodes.
+     */
+    private final Map<String, Queue<PendingOfflineMessage>> pendingMessages = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of messages in {@link #pendingMessages}.
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
     /**
      * Pattern to use for detecting invalid XML characters. Invalid XML characters will
      * be removed from the stored offline messages.
@@ -143,6 +255,21 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
                                                         cancelTimer();
                                                         setTimer();
                                                     } } );
+        WRITE_BEHIND_BATCH_SIZE.addListener( size -> {
+                                                final Archiver<PendingOfflineMessage> writer = archiver;
+                                                if (writer != null) {
+                                                    writer.setMaxWorkQueueSize(size);
+                                                } } );
+        WRITE_BEHIND_FLUSH_INTERVAL.addListener( interval -> {
+                                                final Archiver<PendingOfflineMessage> writer = archiver;
+                                                if (writer != null) {
+                                                    writer.setMaxPurgeInterval(interval);
+                                                } } );
+        WRITE_BEHIND_GRACE_PERIOD.addListener( period -> {
+                                                final Archiver<PendingOfflineMessage> writer = archiver;
+                                                if (writer != null) {
+                                                    writer.setGracePeriod(period);
+                                                } } );
     }
 
     /**
@@ -178,6 +305,28 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
         // Get the message in XML format.
         String msgXML = message.getElement().asXML();
 
+        // When write-behind is enabled, queue the message to be written in a batch (unless the queue is full).
+        archiverLock.readLock().lock();
+        try {
+            final OfflineMessageArchiver writer = archiver;
+            if (writer != null && pendingCount.get() < WRITE_BEHIND_QUEUE_SIZE.getValue()) {
+                final PendingOfflineMessage pending = new PendingOfflineMessage(username, messageID, new Date(), msgXML);
+                pendingCount.incrementAndGet();
+                pendingMessages.compute(username, (k, queue) -> {
+                    if (queue == null) {
+                        queue = new ConcurrentLinkedQueue<>();
+                    }
+                    queue.add(pending);
+                    return queue;
+                });
+                writer.archive(pending);
+                updateSizeCache(username, msgXML.length());
+                return new OfflineMessage(pending.creationDate, message.getElement());
+            }
+        } finally {
+            archiverLock.readLock().unlock();
+        }
+
         Connection con = null;
         PreparedStatement pstmt = null;
         OfflineMessage offlineMessage = null;
@@ -203,13 +352,17 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
             DbConnectionManager.closeConnection(pstmt, con);
         }
 
+        updateSizeCache(username, msgXML.length());
+        return offlineMessage;
+    }
+
+    private void updateSizeCache(String username, int messageSize) {
         // Update the cached size if it exists.
         if (sizeCache.containsKey(username)) {
             int size = sizeCache.get(username);
-            size += msgXML.length();
+            size += messageSize;
             sizeCache.put(username, size);
         }
-        return offlineMessage;
     }
 
     /**
@@ -217,75 +370,63 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
      * Messages may be deleted after being selected from the database depending on
      * the delete param.
      *
+     * As this method loads all messages in memory, {@link #getMessageCursor(String, boolean)} should be preferred
+     * when the messages can be processed one at a time.
+     *
      * @param username the username of the user who's messages you'd like to receive.
      * @param delete true if the offline messages should be deleted.
      * @return An iterator of packets containing all offline messages.
      */
     public Collection<OfflineMessage> getMessages(String username, boolean delete) {
         List<OfflineMessage> messages = new ArrayList<>();
+        try (OfflineMessageCursor cursor = getMessageCursor(username, delete)) {
+            cursor.forEachRemaining(messages::add);
+        }
+        return messages;
+    }
+
+    /**
+     * Returns a cursor over all messages in the store for a user, in the order in which they were stored. Messages
+     * are read from the database in pages, and are parsed one at a time, as they are returned by the cursor.
+     * When the delete param is true, messages that have been returned are deleted, one page at a time.
+     *
+     * The cursor must be closed after use.
+     *
+     * @param username the username of the user who's messages you'd like to receive.
+     * @param delete true if the offline messages that are returned by the cursor should be deleted.
+     * @return A cursor over all offline messages.
+     */
+    public OfflineMessageCursor getMessageCursor(String username, boolean delete) {
+        flushPendingMessages(username, true);
+        return new OfflineMessageCursor(this, username, delete, RETRIEVAL_PAGE_SIZE.getValue());
+    }
+
+    /**
+     * Reads a page of offline messages of a user from the database, without parsing them.
+     *
+     * @param username the username of the user.
+     * @param after the last message of the previous page, or null to read the first page.
+     * @param pageSize the maximum amount of messages to read.
+     * @return the messages that were read, in the order in which they were stored (possibly empty).
+     */
+    List<StoredMessage> loadMessagePage(String username, StoredMessage after, int pageSize) {
+        final List<StoredMessage> result = new ArrayList<>(pageSize);
         Connection con = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         try {
             con = DbConnectionManager.getConnection();
-            pstmt = con.prepareStatement(LOAD_OFFLINE);
+            pstmt = con.prepareStatement(after == null ? LOAD_OFFLINE_PAGE : LOAD_OFFLINE_PAGE_AFTER);
+            DbConnectionManager.limitRowsAndFetchSize(pstmt, 0, pageSize);
             pstmt.setString(1, username);
-            rs = pstmt.executeQuery();
-            while (rs.next()) {
-                String msgXML = rs.getString(1);
-                Date creationDate = new Date(Long.parseLong(rs.getString(2).trim()));
-                OfflineMessage message;
-                try {
-                    message = new OfflineMessage(creationDate, SAXReaderUtil.readRootElement(msgXML));
-                } catch (ExecutionException e) {
-                    // Try again after removing invalid XML chars (e.g. &#12;)
-                    Matcher matcher = pattern.matcher(msgXML);
-                    if (matcher.find()) {
-                        msgXML = matcher.replaceAll("");
-                    }
-                    try {
-                        message = new OfflineMessage(creationDate, SAXReaderUtil.readRootElement(msgXML));
-                    } catch (ExecutionException de) {
-                        Log.error("Failed to route packet (offline message): " + msgXML, de);
-                        continue; // skip and process remaining offline messages
-                    } catch (InterruptedException de) {
-                        Thread.currentThread().interrupt();
-                        Log.error("Offline Message retrieval interrupted", de);
-                        break; // Skip all further offline messages
-                    }
-                }
-                catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    Log.error("Offline Message retrieval interrupted", e);
-                    break; // Skip all further offline messages
-                }
-
-                // if there is already a delay stamp, we shouldn't add another.
-                Element delaytest = message.getChildElement("delay", "urn:xmpp:delay");
-                if (delaytest == null) {
-                    // Add a delayed delivery (XEP-0203) element to the message.
-                    Element delay = message.addChildElement("delay", "urn:xmpp:delay");
-                    delay.addAttribute("from", XMPPServer.getInstance().getServerInfo().getXMPPDomain());
-                    delay.addAttribute("stamp", XMPPDateTimeFormat.format(creationDate));
-                }
-                messages.add(message);
+            if (after != null) {
+                pstmt.setString(2, after.creationDate);
+                pstmt.setString(3, after.creationDate);
+                pstmt.setLong(4, after.messageID);
             }
-            // Check if the offline messages loaded should be deleted, and that there are
-            // messages to delete.
-            if (delete && !messages.isEmpty()) {
-                PreparedStatement pstmt2 = null;
-                try {
-                    pstmt2 = con.prepareStatement(DELETE_OFFLINE);
-                    pstmt2.setString(1, username);
-                    pstmt2.executeUpdate();
-                    removeUsernameFromSizeCache(username);
-                }
-                catch (Exception e) {
-                    Log.error("Error deleting offline messages of username: " + username, e);
-                }
-                finally {
-                    DbConnectionManager.closeStatement(pstmt2);
-                } 
+            rs = pstmt.executeQuery();
+            while (rs.next() && result.size() < pageSize) {
+                result.add(new StoredMessage(rs.getLong(3), rs.getString(2), rs.getString(1)));
             }
         }
         catch (Exception e) {
@@ -294,7 +435,75 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
         finally {
             DbConnectionManager.closeConnection(rs, pstmt, con);
         }
-        return messages;
+        return result;
+    }
+
+    /**
+     * Parses an offline message that was read from the database, adding a delayed delivery element to it.
+     *
+     * @param stored the message as read from the database.
+     * @return the parsed message, or null if the message could not be parsed.
+     * @throws InterruptedException if interrupted while parsing.
+     */
+    OfflineMessage parseMessage(StoredMessage stored) throws InterruptedException {
+        String msgXML = stored.stanza;
+        Date creationDate = new Date(Long.parseLong(stored.creationDate.trim()));
+        OfflineMessage message;
+        try {
+            message = new OfflineMessage(creationDate, SAXReaderUtil.readRootElement(msgXML));
+        } catch (ExecutionException e) {
+            // Try again after removing invalid XML chars (e.g. &#12;)
+            Matcher matcher = pattern.matcher(msgXML);
+            if (matcher.find()) {
+                msgXML = matcher.replaceAll("");
+            }
+            try {
+                message = new OfflineMessage(creationDate, SAXReaderUtil.readRootElement(msgXML));
+            } catch (ExecutionException de) {
+                Log.error("Failed to route packet (offline message): " + msgXML, de);
+                return null; // skip and process remaining offline messages
+            }
+        }
+
+        // if there is already a delay stamp, we shouldn't add another.
+        Element delaytest = message.getChildElement("delay", "urn:xmpp:delay");
+        if (delaytest == null) {
+            // Add a delayed delivery (XEP-0203) element to the message.
+            Element delay = message.addChildElement("delay", "urn:xmpp:delay");
+            delay.addAttribute("from", XMPPServer.getInstance().getServerInfo().getXMPPDomain());
+            delay.addAttribute("stamp", XMPPDateTimeFormat.format(creationDate));
+        }
+        return message;
+    }
+
+    /**
+     * Deletes offline messages of a user, in one transaction.
+     *
+     * @param username the username of the user who's messages are going to be deleted.
+     * @param messageIDs the identifiers of the messages to delete.
+     */
+    void deleteMessages(String username, Collection<Long> messageIDs) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        boolean abortTransaction = false;
+        try {
+            con = DbConnectionManager.getTransactionConnection();
+            pstmt = con.prepareStatement(DELETE_OFFLINE_MESSAGE_BY_ID);
+            for (final long messageID : messageIDs) {
+                pstmt.setString(1, username);
+                pstmt.setLong(2, messageID);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        catch (Exception e) {
+            Log.error("Error deleting offline messages of username: " + username, e);
+            abortTransaction = true;
+        }
+        finally {
+            DbConnectionManager.closeTransactionConnection(pstmt, con, abortTransaction);
+        }
+        removeUsernameFromSizeCache(username);
     }
 
     /**
@@ -306,6 +515,7 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
      * @return the offline message of the specified user with the given creation stamp.
      */
     public OfflineMessage getMessage(String username, Date creationDate) {
+        flushPendingMessages(username, true);
         OfflineMessage message = null;
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -344,6 +554,7 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
      * @param username the username of the user who's messages are going to be deleted.
      */
     public void deleteMessages(String username) {
+        flushPendingMessages(username, true);
         Connection con = null;
         PreparedStatement pstmt = null;
         try {
@@ -375,6 +586,7 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
      * @param creationDate the date when the offline message was stored in the database.
      */
     public void deleteMessage(String username, Date creationDate) {
+        flushPendingMessages(username, true);
         Connection con = null;
         PreparedStatement pstmt = null;
         try {
@@ -407,6 +619,7 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
     public int getCount(String username) {
         // No cache: this needs to be more accurate than the 'size' method (that does have a cache).
         // Maintaining a cache would likely add more overhead than that the cache would save.
+        flushPendingMessages(username, true);
         int count = 0;
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -441,6 +654,7 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
         if (sizeCache.containsKey(username)) {
             return sizeCache.get(username);
         }
+        flushPendingMessages(username, true);
         int size = 0;
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -472,6 +686,7 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
      * @return the approximate size of all stored messages (in bytes).
      */
     public int getSize() {
+        flushPendingMessages(true);
         int size = 0;
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -521,6 +736,18 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
         {
             setTimer();
         }
+        // Start writing offline messages in batches, if enabled.
+        if (WRITE_BEHIND_ENABLED.getValue())
+        {
+            Duration gracePeriod = WRITE_BEHIND_GRACE_PERIOD.getValue();
+            if (gracePeriod.compareTo(WRITE_BEHIND_FLUSH_INTERVAL.getValue()) > 0) {
+                Log.warn("The value of '{}' exceeds that of '{}'. Using the latter instead.", WRITE_BEHIND_GRACE_PERIOD.getKey(), WRITE_BEHIND_FLUSH_INTERVAL.getKey());
+                gracePeriod = WRITE_BEHIND_FLUSH_INTERVAL.getValue();
+            }
+            final OfflineMessageArchiver writer = new OfflineMessageArchiver(WRITE_BEHIND_BATCH_SIZE.getValue(), WRITE_BEHIND_FLUSH_INTERVAL.getValue(), gracePeriod);
+            XMPPServer.getInstance().getArchiveManager().add(writer);
+            archiver = writer;
+        }
     }
 
     @Override
@@ -530,6 +757,153 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
         UserEventDispatcher.removeListener(this);
         //stop timer if started
         cancelTimer();
+        // Stop writing offline messages in batches, making sure that all queued messages are written.
+        final OfflineMessageArchiver writer;
+        archiverLock.writeLock().lock();
+        try {
+            writer = archiver;
+            archiver = null;
+        } finally {
+            archiverLock.writeLock().unlock();
+        }
+        if (writer != null) {
+            XMPPServer.getInstance().getArchiveManager().remove(writer);
+            try {
+                if (!writer.awaitTermination(writer.getMaxPurgeInterval().multipliedBy(2))) {
+                    Log.debug("Offline message writer did not terminate in time. Writing the remaining messages synchronously.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushPendingMessages(false);
+        }
+    }
+
+    /**
+     * Writes all queued offline messages of a user to the database, returning only after these have been written.
+     *
+     * @param username the username of the user.
+     * @param sendToCluster set to 'true' to also write the messages that are queued on other cluster nodes. If false,
+     *                      only the messages that are queued on the local node are written.
+     */
+    void flushPendingMessages(String username, boolean sendToCluster) {
+        // forward to other cluster members and wait for response
+        if (sendToCluster && isClusterFlushNeeded()) {
+            CacheFactory.doSynchronousClusterTask(new FlushOfflineMessagesTask(username), false);
+        }
+
+        final Queue<PendingOfflineMessage> queue = pendingMessages.get(username);
+        if (queue == null) {
+            return;
+        }
+        final List<PendingOfflineMessage> claimed = new ArrayList<>();
+        final List<PendingOfflineMessage> inProgress = new ArrayList<>();
+        for (final PendingOfflineMessage pending : queue) {
+            if (pending.claim()) {
+                claimed.add(pending);
+            } else {
+                inProgress.add(pending);
+            }
+        }
+        if (!claimed.isEmpty()) {
+            storePendingMessages(claimed);
+        }
+        // Messages that are claimed by the archiver are being written right now. Wait for that to finish.
+        for (final PendingOfflineMessage pending : inProgress) {
+            pending.awaitStored();
+        }
+    }
+
+    /**
+     * Writes all queued offline messages to the database, returning only after these have been written.
+     *
+     * @param sendToCluster set to 'true' to also write the messages that are queued on other cluster nodes. If false,
+     *                      only the messages that are queued on the local node are written.
+     */
+    void flushPendingMessages(boolean sendToCluster) {
+        // forward to other cluster members and wait for response
+        if (sendToCluster && isClusterFlushNeeded()) {
+            CacheFactory.doSynchronousClusterTask(new FlushOfflineMessagesTask(), false);
+        }
+
+        for (final String username : new ArrayList<>(pendingMessages.keySet())) {
+            flushPendingMessages(username, false);
+        }
+    }
+
+    /**
+     * Checks if other cluster nodes can have queued offline messages. As write-behind cannot be enabled without a
+     * restart, and its configuration is shared by all cluster nodes, this is the case only when it is enabled locally.
+     *
+     * @return true if the messages that are queued on other cluster nodes are to be written.
+     */
+    private static boolean isClusterFlushNeeded() {
+        return WRITE_BEHIND_ENABLED.getValue() && ClusterManager.isClusteringStarted();
+    }
+
+    /**
+     * Writes queued offline messages to the database, in one batch, after which they are no longer queued. The
+     * caller must have claimed these messages.
+     *
+     * When the batch cannot be written, each message is written individually, so that one message that cannot be
+     * written does not cause the other messages in the batch to be lost.
+     *
+     * @param batch the messages to write.
+     */
+    void storePendingMessages(List<PendingOfflineMessage> batch) {
+        try {
+            insertMessages(batch);
+        }
+        catch (Exception e) {
+            Log.warn("Unable to store a batch of {} offline messages. Storing these messages one by one.", batch.size(), e);
+            for (final PendingOfflineMessage pending : batch) {
+                try {
+                    insertMessages(Collections.singletonList(pending));
+                }
+                catch (Exception ex) {
+                    Log.error("Unable to store offline message {} of user {}.", pending.messageID, pending.username, ex);
+                }
+            }
+        }
+        finally {
+            for (final PendingOfflineMessage pending : batch) {
+                pendingMessages.computeIfPresent(pending.username, (k, queue) -> {
+                    queue.remove(pending);
+                    return queue.isEmpty() ? null : queue;
+                });
+                pendingCount.decrementAndGet();
+                pending.stored.countDown();
+            }
+        }
+    }
+
+    /**
+     * Inserts offline messages in the database, in one transaction.
+     *
+     * @param messages the messages to insert.
+     * @throws SQLException if the messages could not be inserted (in which case none of them are).
+     */
+    void insertMessages(List<PendingOfflineMessage> messages) throws SQLException {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        boolean abortTransaction = true;
+        try {
+            con = DbConnectionManager.getTransactionConnection();
+            pstmt = con.prepareStatement(INSERT_OFFLINE);
+            for (final PendingOfflineMessage pending : messages) {
+                pstmt.setString(1, pending.username);
+                pstmt.setLong(2, pending.messageID);
+                pstmt.setString(3, StringUtils.dateToMillis(pending.creationDate));
+                pstmt.setInt(4, pending.stanza.length());
+                pstmt.setString(5, pending.stanza);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            abortTransaction = false;
+        }
+        finally {
+            DbConnectionManager.closeTransactionConnection(pstmt, con, abortTransaction);
+        }
     }
 
     /**
@@ -643,6 +1017,7 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
     }
 
     public void readSizeForAllUsers() {
+        flushPendingMessages(true);
         // See if the size is cached.
         sizeCache.clear();
 
@@ -697,4 +1072,80 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
             DbConnectionManager.closeConnection(pstmt, con);
         }
     }
+
+    /**
+     * An offline message as read from the database, before it is parsed.
+     */
+    static class StoredMessage {
+        final long messageID;
+        final String creationDate;
+        final String stanza;
+
+        StoredMessage(long messageID, String creationDate, String stanza) {
+            this.messageID = messageID;
+            this.creationDate = creationDate;
+            this.stanza = stanza;
+        }
+    }
+
+    /**
+     * An offline message that is queued to be written to the database.
+     */
+    static class PendingOfflineMessage {
+        private final String username;
+        private final long messageID;
+        private final Date creationDate;
+        private final String stanza;
+
+        // Set by the first thread that takes responsibility for writing this message.
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        // Released after the message has been written (or writing it failed).
+        private final CountDownLatch stored = new CountDownLatch(1);
+
+        PendingOfflineMessage(String username, long messageID, Date creationDate, String stanza) {
+            this.username = username;
+            this.messageID = messageID;
+            this.creationDate = creationDate;
+            this.stanza = stanza;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void awaitStored() {
+            try {
+                if (!stored.await(WRITE_BEHIND_STORE_TIMEOUT.getValue().toMillis(), TimeUnit.MILLISECONDS)) {
+                    Log.warn("Timed out waiting for offline message {} of user {} to be stored.", messageID, username);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Writes queued offline messages to the database in batches.
+     */
+    private class OfflineMessageArchiver extends Archiver<PendingOfflineMessage> {
+
+        OfflineMessageArchiver(int maxWorkQueueSize, Duration maxPurgeInterval, Duration gracePeriod) {
+            super("Offline Message Store", maxWorkQueueSize, maxPurgeInterval, gracePeriod);
+        }
+
+        @Override
+        protected void store(List<PendingOfflineMessage> batch) {
+            // Skip messages that have already been written, by a thread that needed to read them.
+            final List<PendingOfflineMessage> claimed = new ArrayList<>(batch.size());
+            for (final PendingOfflineMessage pending : batch) {
+                if (pending.claim()) {
+                    claimed.add(pending);
+                }
+            }
+            if (!claimed.isEmpty()) {
+                storePendingMessages(claimed);
+            }
+        }
+    }
 }
@@ -20,6 +20,7 @@ import org.jivesoftware.openfire.session.*;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
 
 import java.util.Collection;
 import java.util.List;
@@ -366,4 +367,20 @@ public interface RoutingTable {
      * @param onlyLocal true if only client sessions connect to the local JVM will get the message.
      */
     void broadcastPacket(Message packet, boolean onlyLocal);
+
+    /**
+     * Routes a presence stanza to all available sessions of a number of entities. This is equivalent to routing the
+     * stanza to each route returned by {@link #getRoutes(JID, JID)} for each of the entities, with the 'to' address of
+     * the stanza set to that entity.<p>
+     *
+     * Sessions that are hosted by this cluster node receive a stanza that is serialized only once. Sessions that are
+     * hosted by other cluster nodes are grouped by node, and each of these nodes is requested to deliver the stanza to
+     * all of its sessions at once. Privacy lists of recipients are applied by the session of each recipient. Privacy
+     * lists of the sender should be applied before invoking this method. A failure to route the stanza to one entity
+     * does not prevent it from being routed to the others.
+     *
+     * @param presence the presence stanza to route (its 'to' address is modified).
+     * @param recipients the bare JIDs of the entities to route the stanza to.
+     */
+    void broadcastPresence(Presence presence, Collection<JID> recipients);
 }
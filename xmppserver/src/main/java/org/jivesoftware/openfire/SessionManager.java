@@ -844,9 +844,10 @@ public class SessionManager extends BasicModule implements ClusterEventListener
         // User sessions had negative presence before this change so deliver messages
         if (!session.isAnonymousUser() && session.canFloodOfflineMessages()) {
             OfflineMessageStore messageStore = server.getOfflineMessageStore();
-            Collection<OfflineMessage> messages = messageStore.getMessages(session.getAuthToken().getUsername(), true);
-            for (Message message : messages) {
-                session.process(message);
+            try (OfflineMessageCursor messages = messageStore.getMessageCursor(session.getAuthToken().getUsername(), true)) {
+                while (messages.hasNext()) {
+                    session.process(messages.next());
+                }
             }
         }
     }
@@ -913,45 +914,66 @@ public class SessionManager extends BasicModule implements ClusterEventListener
     }
 
 
+    /**
+     * Returns the client sessions of the cluster that match a filter, sorted and paginated according to that filter.
+     *
+     * Every cluster node evaluates the filter against the sessions that it hosts, and returns (in a single cluster
+     * task) only a summary of the sessions that can be part of the requested page. Only the sessions that are part of
+     * the requested page are looked up.
+     *
+     * @param filter the filter that defines the sessions to return (cannot be null).
+     * @return the requested page of matching client sessions.
+     */
     public Collection<ClientSession> getSessions(SessionResultFilter filter) {
         List<ClientSession> results = new ArrayList<>();
         if (filter != null) {
-            // Grab all the matching sessions
-            results.addAll(getSessions());
-
-            // Now we have a copy of the references so we can spend some time
-            // doing the rest of the filtering without locking out session access
-            // so let's iterate and filter each session one by one
-            List<ClientSession> filteredResults = new ArrayList<>();
-            for (ClientSession session : results) {
-                // Now filter on creation date if needed
-                filteredResults.add(session);
-            }
-
-            // Sort list.
-            Collections.sort(filteredResults, filter.getSortComparator());
-
-            int maxResults = filter.getNumResults();
-            if (maxResults == SessionResultFilter.NO_RESULT_LIMIT) {
-                maxResults = filteredResults.size();
+            final List<ClientSessionSummary> summaries = new ArrayList<>(getLocalSessionSummaries(filter));
+            final Collection<ArrayList<ClientSessionSummary>> remoteSummaries =
+                    CacheFactory.doSynchronousClusterTask(new GetClientSessionSummariesTask(filter), false);
+            for (ArrayList<ClientSessionSummary> remoteSummary : remoteSummaries) {
+                if (remoteSummary != null) {
+                    summaries.addAll(remoteSummary);
+                }
             }
 
-            // Now generate the final list. I believe it's faster to to build up a new
-            // list than it is to remove items from head and tail of the sorted tree
-            List<ClientSession> finalResults = new ArrayList<>();
-            int startIndex = filter.getStartIndex();
-            Iterator<ClientSession> sortedIter = filteredResults.iterator();
-            for (int i = 0; sortedIter.hasNext() && finalResults.size() < maxResults; i++) {
-                ClientSession result = sortedIter.next();
-                if (i >= startIndex) {
-                    finalResults.add(result);
+            final RemoteSessionLocator locator = server.getRemoteSessionLocator();
+            for (ClientSessionSummary summary : filter.page(summaries)) {
+                final ClientSession session;
+                if (server.getNodeID().equals(summary.getNodeID())) {
+                    session = routingTable.getClientRoute(summary.getAddress());
+                }
+                else if (locator != null) {
+                    session = locator.getClientSession(summary.getNodeID().toByteArray(), summary.getAddress());
+                }
+                else {
+                    session = null;
+                }
+                // The session might have been closed in the meantime.
+                if (session != null) {
+                    results.add(session);
                 }
             }
-            return finalResults;
         }
         return results;
     }
 
+    /**
+     * Returns the summaries of the client sessions hosted by this JVM that match a filter, and that can be part of the
+     * page of results that is requested by that filter, once combined with the sessions of other cluster nodes.
+     *
+     * @param filter the filter that defines the sessions to return.
+     * @return summaries of matching client sessions hosted by this JVM, sorted according to the filter.
+     * @see SessionResultFilter#select(Collection)
+     */
+    public List<ClientSessionSummary> getLocalSessionSummaries(@Nonnull final SessionResultFilter filter) {
+        final NodeID nodeID = server.getNodeID();
+        final List<ClientSessionSummary> summaries = new ArrayList<>();
+        for (ClientSession session : routingTable.getClientsRoutes(true)) {
+            summaries.add(new ClientSessionSummary(session, nodeID));
+        }
+        return filter.select(summaries);
+    }
+
     /**
      * Returns the incoming server session hosted by this JVM that matches the specified stream ID.
      *
@@ -17,10 +17,16 @@
 package org.jivesoftware.openfire;
 
 import org.jivesoftware.openfire.session.ClientSession;
+import org.jivesoftware.openfire.session.ClientSessionSummary;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.Objects;
+import java.util.PriorityQueue;
 
 /**
  * Filters and sorts lists of sessions. This allows for a very rich set of possible
@@ -197,6 +203,226 @@ public class SessionResultFilter {
         this.startIndex = startIndex;
     }
 
+    /**
+     * Returns the username of the sessions to return, or null if sessions of all
+     * users are returned.
+     *
+     * @return the username of the sessions to return, or null.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Limits the results to sessions of a particular user. Anonymous sessions do
+     * not match any username. Use null to return sessions of all users (the default).
+     *
+     * @param username the username of the sessions to return, or null.
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * Returns the lower bound (inclusive) of the creation date of the sessions
+     * to return, or null if there is no lower bound.
+     *
+     * @return the lower bound of the creation date, or null.
+     */
+    public Date getCreationDateRangeMin() {
+        return creationDateRangeMin;
+    }
+
+    /**
+     * Sets the lower bound (inclusive) of the creation date of the sessions to
+     * return. Use null for no lower bound (the default).
+     *
+     * @param creationDateRangeMin the lower bound of the creation date, or null.
+     */
+    public void setCreationDateRangeMin(Date creationDateRangeMin) {
+        this.creationDateRangeMin = creationDateRangeMin;
+    }
+
+    /**
+     * Returns the upper bound (inclusive) of the creation date of the sessions
+     * to return, or null if there is no upper bound.
+     *
+     * @return the upper bound of the creation date, or null.
+     */
+    public Date getCreationDateRangeMax() {
+        return creationDateRangeMax;
+    }
+
+    /**
+     * Sets the upper bound (inclusive) of the creation date of the sessions to
+     * return. Use null for no upper bound (the default).
+     *
+     * @param creationDateRangeMax the upper bound of the creation date, or null.
+     */
+    public void setCreationDateRangeMax(Date creationDateRangeMax) {
+        this.creationDateRangeMax = creationDateRangeMax;
+    }
+
+    /**
+     * Returns the lower bound (inclusive) of the last activity date of the
+     * sessions to return, or null if there is no lower bound.
+     *
+     * @return the lower bound of the last activity date, or null.
+     */
+    public Date getLastActivityDateRangeMin() {
+        return lastActivityDateRangeMin;
+    }
+
+    /**
+     * Sets the lower bound (inclusive) of the last activity date of the sessions
+     * to return. Use null for no lower bound (the default).
+     *
+     * @param lastActivityDateRangeMin the lower bound of the last activity date, or null.
+     */
+    public void setLastActivityDateRangeMin(Date lastActivityDateRangeMin) {
+        this.lastActivityDateRangeMin = lastActivityDateRangeMin;
+    }
+
+    /**
+     * Returns the upper bound (inclusive) of the last activity date of the
+     * sessions to return, or null if there is no upper bound.
+     *
+     * @return the upper bound of the last activity date, or null.
+     */
+    public Date getLastActivityDateRangeMax() {
+        return lastActivityDateRangeMax;
+    }
+
+    /**
+     * Sets the upper bound (inclusive) of the last activity date of the sessions
+     * to return. Use null for no upper bound (the default).
+     *
+     * @param lastActivityDateRangeMax the upper bound of the last activity date, or null.
+     */
+    public void setLastActivityDateRangeMax(Date lastActivityDateRangeMax) {
+        this.lastActivityDateRangeMax = lastActivityDateRangeMax;
+    }
+
+    /**
+     * Returns true if a session matches the criteria of this filter (pagination
+     * and sort order are not taken into account).
+     *
+     * @param session the session to check.
+     * @return true if the session matches this filter.
+     */
+    public boolean matches(ClientSessionSummary session) {
+        if (username != null && (session.isAnonymous() || !username.equals(session.getAddress().getNode()))) {
+            return false;
+        }
+        if (creationDateRangeMin != null && session.getCreationDate().before(creationDateRangeMin)) {
+            return false;
+        }
+        if (creationDateRangeMax != null && session.getCreationDate().after(creationDateRangeMax)) {
+            return false;
+        }
+        if (lastActivityDateRangeMin != null && session.getLastActiveDate().before(lastActivityDateRangeMin)) {
+            return false;
+        }
+        if (lastActivityDateRangeMax != null && session.getLastActiveDate().after(lastActivityDateRangeMax)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sessions that match this filter and that are in the range of
+     * results up to the end of the requested page, sorted according to this
+     * filter's sort order. The results of this method for disjoint collections
+     * of sessions can be combined, and passed to {@link #page(Collection)} to
+     * obtain the requested page of the combined collection.
+     *
+     * @param sessions the sessions to filter.
+     * @return the matching sessions up to and including the requested page.
+     */
+    public List<ClientSessionSummary> select(Collection<ClientSessionSummary> sessions) {
+        final Comparator<ClientSessionSummary> comparator = getSummaryComparator();
+        if (numResults == NO_RESULT_LIMIT) {
+            final List<ClientSessionSummary> results = new ArrayList<>(sessions.size());
+            for (final ClientSessionSummary session : sessions) {
+                if (matches(session)) {
+                    results.add(session);
+                }
+            }
+            results.sort(comparator);
+            return results;
+        }
+
+        // Keep the 'limit' first sessions in a heap that has the last of those at its head.
+        final int limit = (int) Math.min(Integer.MAX_VALUE, (long) startIndex + numResults);
+        final PriorityQueue<ClientSessionSummary> heap = new PriorityQueue<>(Math.max(1, Math.min(limit, sessions.size())), comparator.reversed());
+        for (final ClientSessionSummary session : sessions) {
+            if (limit == 0 || !matches(session)) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.add(session);
+            } else if (comparator.compare(session, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(session);
+            }
+        }
+        final List<ClientSessionSummary> results = new ArrayList<>(heap);
+        results.sort(comparator);
+        return results;
+    }
+
+    /**
+     * Returns the requested page of the sessions that match this filter, sorted
+     * according to this filter's sort order.
+     *
+     * @param sessions the sessions to filter.
+     * @return the requested page of matching sessions.
+     */
+    public List<ClientSessionSummary> page(Collection<ClientSessionSummary> sessions) {
+        final List<ClientSessionSummary> results = select(sessions);
+        if (startIndex >= results.size()) {
+            return Collections.emptyList();
+        }
+        final int endIndex = numResults == NO_RESULT_LIMIT ? results.size() : (int) Math.min(results.size(), (long) startIndex + numResults);
+        return new ArrayList<>(results.subList(startIndex, endIndex));
+    }
+
+    /**
+     * Returns a comparator that sorts session summaries according to this
+     * filter's sort order. Sessions that are equal according to the sort order
+     * are sorted by address, which makes pagination consistent across queries.
+     *
+     * @return a comparator that sorts session summaries matching the sort order for this filter.
+     */
+    public Comparator<ClientSessionSummary> getSummaryComparator() {
+        Comparator<ClientSessionSummary> comparator;
+        switch (sortField) {
+            case SessionResultFilter.SORT_CREATION_DATE:
+                comparator = Comparator.comparing(ClientSessionSummary::getCreationDate);
+                break;
+            case SessionResultFilter.SORT_LAST_ACTIVITY_DATE:
+                comparator = Comparator.comparing(ClientSessionSummary::getLastActiveDate);
+                break;
+            case SessionResultFilter.SORT_NUM_CLIENT_PACKETS:
+                comparator = Comparator.comparingLong(ClientSessionSummary::getNumClientPackets);
+                break;
+            case SessionResultFilter.SORT_NUM_SERVER_PACKETS:
+                comparator = Comparator.comparingLong(ClientSessionSummary::getNumServerPackets);
+                break;
+            case SessionResultFilter.SORT_USER:
+                // sort first by name, then by resource
+                comparator = Comparator.comparing((ClientSessionSummary session) -> session.isAnonymous() ? "" : Objects.toString(session.getAddress().getNode(), ""))
+                    .thenComparing(session -> Objects.toString(session.getAddress().getResource(), ""));
+                break;
+            default:
+                comparator = (lhs, rhs) -> 0;
+        }
+        if (sortOrder == SessionResultFilter.DESCENDING) {
+            comparator = comparator.reversed(); // Naturally ascending, flip if descending
+        }
+        return comparator.thenComparing(session -> session.getAddress().toString());
+    }
+
     /**
      * Returns a comparator that will sort a standard sorted set according
      * to this filter's sort order.
@@ -222,13 +448,13 @@ public class SessionResultFilter {
                     comparison = lhs.getCreationDate().compareTo(rhs.getCreationDate());
                     break;
                 case SessionResultFilter.SORT_LAST_ACTIVITY_DATE:
-                    comparison = lhs.getLastActiveDate().compareTo(rhs.getCreationDate());
+                    comparison = lhs.getLastActiveDate().compareTo(rhs.getLastActiveDate());
                     break;
                 case SessionResultFilter.SORT_NUM_CLIENT_PACKETS:
-                    comparison = (int)(lhs.getNumClientPackets() - rhs.getNumClientPackets());
+                    comparison = Long.compare(lhs.getNumClientPackets(), rhs.getNumClientPackets());
                     break;
                 case SessionResultFilter.SORT_NUM_SERVER_PACKETS:
-                    comparison = (int)(lhs.getNumServerPackets() - rhs.getNumServerPackets());
+                    comparison = Long.compare(lhs.getNumServerPackets(), rhs.getNumServerPackets());
                     break;
                 case SessionResultFilter.SORT_USER:
                     // sort first by name, then by resource
@@ -63,6 +63,7 @@ import org.jivesoftware.openfire.session.RemoteSessionLocator;
 import org.jivesoftware.openfire.session.SoftwareServerVersionManager;
 import org.jivesoftware.openfire.session.SoftwareVersionManager;
 import org.jivesoftware.openfire.spi.*;
+import org.jivesoftware.openfire.stats.StanzaPipelineMetrics;
 import org.jivesoftware.openfire.transport.TransportHandler;
 import org.jivesoftware.openfire.update.UpdateManager;
 import org.jivesoftware.openfire.user.User;
@@ -676,6 +677,7 @@ public class XMPPServer {
             }
             // Initialize statistics
             ServerTrafficCounter.initStatistics();
+            StanzaPipelineMetrics.initStatistics();
 
             // Load plugins (when in setup mode only the admin console will be loaded)
             pluginManager.start();
@@ -1276,6 +1278,9 @@ public class XMPPServer {
             logger.error("Exception during DB shutdown", ex);
         }
 
+        // Remove the statistics and MBeans of the routing pipeline.
+        StanzaPipelineMetrics.shutdown();
+
         // Shutdown the task engine.
         TaskEngine.getInstance().shutdown();
 
@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -68,7 +69,10 @@ public abstract class Archiver<E> implements Runnable
     // Reference to the queue in which work is produced.
     final PriorityBlockingQueue<ArchiveCandidate<E>> queue = new PriorityBlockingQueue<>();
 
-    private boolean running = true;
+    private volatile boolean running = true;
+
+    // Released when this archiver has stopped, after all data that was queued has been stored.
+    private final CountDownLatch terminated = new CountDownLatch( 1 );
 
     private Instant lastProcessed = null;
 
@@ -111,6 +115,28 @@ public abstract class Archiver<E> implements Runnable
     }
 
     public void run()
+    {
+        try
+        {
+            process();
+
+            // Store data that was queued before this archiver was stopped.
+            while ( !queue.isEmpty() )
+            {
+                final List<ArchiveCandidate<E>> remaining = new ArrayList<>();
+                queue.drainTo( remaining, maxWorkQueueSize );
+                Log.debug( "Storing {} element(s) of data that was queued before this archiver was stopped.", remaining.size() );
+                store( remaining.stream().map( ArchiveCandidate::getElement ).collect( Collectors.toList() ) );
+                lastProcessed = remaining.get( remaining.size() - 1 ).createdAt();
+            }
+        }
+        finally
+        {
+            terminated.countDown();
+        }
+    }
+
+    private void process()
     {
         Log.debug( "Running with max work queue size {}, max purge interval {}, grace period {}.", maxWorkQueueSize, maxPurgeInterval, gracePeriod);
 
@@ -159,11 +185,30 @@ public abstract class Archiver<E> implements Runnable
         }
     }
 
+    /**
+     * Stops this archiver. Data that has already been provided to this archiver will still be stored, after which the
+     * thread that is executing this archiver terminates.
+     *
+     * @see #awaitTermination(Duration)
+     */
     public void stop()
     {
         running = false;
     }
 
+    /**
+     * Blocks until this archiver has stored all data and has terminated after it was {@link #stop() stopped}, or the
+     * timeout occurs, whichever happens first.
+     *
+     * @param timeout the maximum time to wait.
+     * @return true if this archiver terminated, false if the timeout elapsed before termination.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination( final Duration timeout ) throws InterruptedException
+    {
+        return terminated.await( timeout.toMillis(), TimeUnit.MILLISECONDS );
+    }
+
     /**
      * Returns an estimation on how long it takes for all data that arrived before a certain instant will have become
      * available in the data store. When data is immediately available, 'zero', is returned;
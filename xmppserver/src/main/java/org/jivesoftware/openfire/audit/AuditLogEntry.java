@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.audit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Instant;
+
+/**
+ * An audited packet, as found in the audit log.
+ */
+public class AuditLogEntry
+{
+    private final Instant timestamp;
+    private final String from;
+    private final String to;
+    private final String xml;
+
+    public AuditLogEntry(@Nonnull final Instant timestamp, @Nullable final String from, @Nullable final String to, @Nonnull final String xml)
+    {
+        this.timestamp = timestamp;
+        this.from = from;
+        this.to = to;
+        this.xml = xml;
+    }
+
+    /**
+     * Returns the moment at which the packet was audited.
+     *
+     * @return the audit timestamp.
+     */
+    @Nonnull
+    public Instant getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Returns the address of the sender of the packet, if any.
+     *
+     * @return the sender address, or null.
+     */
+    @Nullable
+    public String getFrom()
+    {
+        return from;
+    }
+
+    /**
+     * Returns the address of the recipient of the packet, if any.
+     *
+     * @return the recipient address, or null.
+     */
+    @Nullable
+    public String getTo()
+    {
+        return to;
+    }
+
+    /**
+     * Returns the XML representation of the audit log entry, which includes the packet.
+     *
+     * @return the XML of the entry.
+     */
+    @Nonnull
+    public String getXml()
+    {
+        return xml;
+    }
+}
@@ -17,8 +17,14 @@
 package org.jivesoftware.openfire.audit;
 
 import org.jivesoftware.openfire.session.Session;
+import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * <p>Use auditors to audit events and messages on the server.</p>
  * <p>All events and messages are sent to the auditor for recording.
@@ -49,4 +55,18 @@ public interface Auditor {
      * @return the number of queued packets that are still in memory.
      */
     int getQueuedPacketsNumber();
+
+    /**
+     * Searches the audit log for packets that were sent or received by an entity.
+     *
+     * @param jid the address of the sender or recipient, or null to match any packet. A bare JID matches any of its full JIDs.
+     * @param from the moment from which packets are to be matched (inclusive), or null for no lower bound.
+     * @param to the moment until which packets are to be matched (exclusive), or null for no upper bound.
+     * @param maxResults the maximum number of entries to return.
+     * @return the matching entries, in chronological order (possibly empty).
+     * @throws IOException when the audit log could not be read.
+     */
+    default List<AuditLogEntry> search(JID jid, Instant from, Instant to, int maxResults) throws IOException {
+        return Collections.emptyList();
+    }
 }
@@ -0,0 +1,752 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.audit.spi;
+
+import org.jivesoftware.openfire.audit.AuditLogEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only audit log, that is stored in segments (files) of limited size.
+ *
+ * Records are serialized by the threads that audit packets, and queued in a bounded buffer. A dedicated thread appends
+ * queued records to the current segment. All records that are available are written in one batch, after which the
+ * segment is forced to storage once (group commit). When the buffer is full, records are dropped rather than blocking
+ * the threads that audit packets.
+ *
+ * Segments are XML files named 'jive.audit-yyyyMMdd-nnn.log' (as written by earlier versions of the auditor). Each
+ * segment is accompanied by a binary index ('jive.audit-yyyyMMdd-nnn.idx') that holds the timestamp, the sender, the
+ * recipient and the position of each record in the segment. The index allows the log to be searched without parsing
+ * the segments.
+ *
+ * A segment only contains records of one day (UTC), which allows segments to be removed by age based on their name.
+ */
+public class SegmentedAuditLog
+{
+    private static final Logger Log = LoggerFactory.getLogger(SegmentedAuditLog.class);
+
+    static final String FILE_PREFIX = "jive.audit-";
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final String HEADER = "<jive xmlns=\"http://www.jivesoftware.org\">";
+    private static final String FOOTER = "</jive>";
+
+    /**
+     * Allow only a limited number of segments for each day, max. three digits (000-999)
+     */
+    private static final int MAX_SEGMENTS_PER_DAY = 1000;
+
+    /**
+     * The maximum number of records that are written before the segment is forced to storage.
+     */
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    /**
+     * The delay after which records that could not be written are retried.
+     */
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    /**
+     * The number of times that writing records is attempted after the log has been closed, before these records are
+     * dropped.
+     */
+    private static final int MAX_ATTEMPTS_AFTER_CLOSE = 3;
+
+    /**
+     * The maximum duration that stopping the log waits for the writer thread, at each stage.
+     */
+    private static final Duration STOP_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+    /**
+     * Signals the writer thread to stop.
+     */
+    private static final Record STOP = new Record(0, null, null, new byte[0]);
+
+    private final BlockingQueue<Record> queue;
+    private final boolean forceOnCommit;
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    private volatile File directory;
+    private volatile long maxTotalSize = Long.MAX_VALUE;
+    private volatile long maxFileSize = Long.MAX_VALUE;
+    private volatile Duration retention = Duration.ofDays(-1);
+    private volatile Duration maintenanceInterval = Duration.ofMinutes(2);
+    private volatile boolean closed = false;
+
+    private Thread writerThread;
+
+    /**
+     * The segment that is being appended to. Guarded by 'this'.
+     */
+    private Segment segment;
+
+    /**
+     * Creates an audit log. Records are not written until {@link #start()} is invoked.
+     *
+     * @param directory the directory in which segments are stored.
+     * @param capacity the maximum number of records that can be queued.
+     * @param forceOnCommit true if segments are to be forced to storage after each batch of records.
+     */
+    public SegmentedAuditLog(@Nonnull final File directory, final int capacity, final boolean forceOnCommit)
+    {
+        this.directory = directory;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.forceOnCommit = forceOnCommit;
+    }
+
+    /**
+     * Starts the thread that writes queued records. Invoking this method more than once has no effect.
+     */
+    public synchronized void start()
+    {
+        if (writerThread == null && !closed) {
+            writerThread = new Thread(this::run, "audit-log-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    /**
+     * Stops accepting records, writes the records that are queued and closes the current segment.
+     *
+     * When the records cannot be written, they are retried a limited number of times, after which they are dropped.
+     * When the writer thread does not accept the signal to stop in time, it is interrupted.
+     */
+    public void stop()
+    {
+        final Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = writerThread;
+        }
+        if (thread == null) {
+            return;
+        }
+        try {
+            if (!queue.offer(STOP, STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                Log.warn("The audit log writer did not accept the signal to stop in time. Interrupting it.");
+                thread.interrupt();
+            }
+            thread.join(STOP_TIMEOUT.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sets the directory in which segments are stored. The next record is written to a new segment in that directory.
+     *
+     * @param directory the directory.
+     */
+    public void setDirectory(@Nonnull final File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Sets the limits that determine the size of segments and the removal of segments.
+     *
+     * @param maxTotalSize the maximum number of bytes of all segments combined.
+     * @param maxFileSize the number of bytes after which a new segment is started.
+     * @param retention the maximum age of segments, or a negative duration when segments are not to be removed by age.
+     */
+    public void setLimits(final long maxTotalSize, final long maxFileSize, @Nonnull final Duration retention)
+    {
+        this.maxTotalSize = maxTotalSize;
+        this.maxFileSize = maxFileSize;
+        this.retention = retention;
+    }
+
+    /**
+     * Sets the interval at which segments that exceed the limits are removed.
+     *
+     * @param maintenanceInterval the interval.
+     */
+    public void setMaintenanceInterval(@Nonnull final Duration maintenanceInterval)
+    {
+        this.maintenanceInterval = maintenanceInterval;
+    }
+
+    /**
+     * Queues a record to be appended to the log.
+     *
+     * @param record the record.
+     * @return false if the record was dropped, because the log is closed or because the queue is full.
+     */
+    public boolean append(@Nonnull final Record record)
+    {
+        if (closed) {
+            return false;
+        }
+        if (!queue.offer(record)) {
+            if (droppedRecords.incrementAndGet() % 1000 == 1) {
+                Log.warn("The audit log queue is full. Audited packets are being dropped (total dropped: {}).", droppedRecords.get());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of records that are queued, but that have not yet been written.
+     *
+     * @return the number of queued records.
+     */
+    public int getQueuedRecords()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of records that were dropped, because the queue was full.
+     *
+     * @return the number of dropped records.
+     */
+    public long getDroppedRecords()
+    {
+        return droppedRecords.get();
+    }
+
+    private void run()
+    {
+        final Deque<Record> batch = new ArrayDeque<>(MAX_BATCH_SIZE);
+        long nextMaintenance = 0;
+        boolean stopping = false;
+        int attemptsAfterClose = 0;
+        while (!stopping) {
+            try {
+                if (System.nanoTime() - nextMaintenance >= 0) {
+                    ensureMaxDays();
+                    ensureMaxTotalSize();
+                    nextMaintenance = System.nanoTime() + maintenanceInterval.toNanos();
+                }
+
+                if (batch.isEmpty()) {
+                    final Record first = queue.poll(Math.max(1, maintenanceInterval.toMillis()), TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        stopping = closed;
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+                batch.remove(STOP);
+                write(batch);
+                stopping = closed && queue.isEmpty();
+            } catch (InterruptedException e) {
+                Log.debug("Audit log writer was interrupted.");
+                stopping = closed;
+            } catch (Throwable t) {
+                // The records that were not written remain in the batch, and are retried in a new segment.
+                Log.error("Unable to write to the audit log. Retrying {} record(s).", batch.size(), t);
+                synchronized (this) {
+                    closeSegment();
+                }
+                if (closed && ++attemptsAfterClose >= MAX_ATTEMPTS_AFTER_CLOSE) {
+                    // Give up. The final attempt below drops the records when it fails.
+                    stopping = true;
+                } else {
+                    try {
+                        Thread.sleep(RETRY_DELAY.toMillis());
+                    } catch (InterruptedException e) {
+                        Log.debug("Audit log writer was interrupted.");
+                    }
+                }
+            }
+        }
+
+        // Write the records that were queued before the log was closed.
+        queue.drainTo(batch);
+        batch.remove(STOP);
+        try {
+            write(batch);
+        } catch (Throwable t) {
+            Log.error("Unable to write to the audit log. Dropping {} record(s).", batch.size(), t);
+        }
+        synchronized (this) {
+            closeSegment();
+        }
+    }
+
+    /**
+     * Appends records to the log, and forces the segments to storage afterwards.
+     *
+     * @param records the records to write.
+     * @throws IOException when the records could not be written.
+     */
+    synchronized void write(@Nonnull final List<Record> records) throws IOException
+    {
+        write(new ArrayDeque<>(records));
+    }
+
+    /**
+     * Appends records to the log, and forces the segments to storage afterwards. Records are removed from the batch
+     * once they have been written, leaving the records that are yet to be written in the batch when writing fails.
+     *
+     * @param batch the records to write.
+     * @throws IOException when the records could not be written.
+     */
+    private synchronized void write(@Nonnull final Deque<Record> batch) throws IOException
+    {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Record record;
+        while ((record = batch.peek()) != null) {
+            final LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(record.timestamp), ZoneOffset.UTC);
+            if (segment == null || !segment.date.equals(date) || !segment.directory.equals(directory)
+                || (segment.size >= maxFileSize && segment.number < MAX_SEGMENTS_PER_DAY - 1))
+            {
+                if (segment != null) {
+                    segment.force();
+                }
+                closeSegment();
+                ensureMaxTotalSize();
+                segment = Segment.open(directory, date);
+            }
+            segment.append(record);
+            batch.poll();
+        }
+        if (forceOnCommit) {
+            segment.force();
+        }
+    }
+
+    private void closeSegment()
+    {
+        if (segment != null) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                Log.warn("Unable to close audit log segment '{}'.", segment.logFile, e);
+            }
+            segment = null;
+        }
+    }
+
+    /**
+     * Ensures that max total size limit is not exceeded. If total size of segments exceed the limit then oldest
+     * segments will be removed until total size does not exceed limit.
+     */
+    synchronized void ensureMaxTotalSize()
+    {
+        final List<File> segments = listSegments(directory);
+        long totalLength = 0;
+        for (final File file : segments) {
+            totalLength += file.length() + indexFileOf(file).length();
+        }
+        // Delete as many old segments as required to be under the limit
+        while (totalLength > maxTotalSize && !segments.isEmpty()) {
+            final File fileToDelete = segments.remove(0);
+            totalLength -= fileToDelete.length() + indexFileOf(fileToDelete).length();
+            delete(fileToDelete, "size");
+        }
+    }
+
+    /**
+     * Deletes segments that exceeded the max number of days limit.
+     */
+    synchronized void ensureMaxDays()
+    {
+        final Duration retention = this.retention;
+        if (retention.isNegative()) {
+            // Do nothing since we don't have any limit
+            return;
+        }
+
+        // Set limit date after which we need to delete old segments
+        final String oldestFile = FILE_PREFIX + DATE_FORMAT.format(Instant.now().minus(retention)) + "-000" + LOG_SUFFIX;
+        for (final File fileToDelete : listSegments(directory)) {
+            if (fileToDelete.getName().compareTo(oldestFile) < 0) {
+                delete(fileToDelete, "age");
+            }
+        }
+    }
+
+    private void delete(@Nonnull final File fileToDelete, @Nonnull final String reason)
+    {
+        if (segment != null && segment.logFile.equals(fileToDelete)) {
+            closeSegment();
+        }
+        final File indexToDelete = indexFileOf(fileToDelete);
+        if (!fileToDelete.delete()) {
+            Log.warn("Unable to delete file '{}' as part of regular log rotation based on {} of files (Openfire failed to clean up after itself)!", fileToDelete, reason);
+        }
+        if (indexToDelete.exists() && !indexToDelete.delete()) {
+            Log.warn("Unable to delete file '{}' as part of regular log rotation based on {} of files (Openfire failed to clean up after itself)!", indexToDelete, reason);
+        }
+    }
+
+    /**
+     * Searches the log for records of packets that were sent or received by an entity, using the indexes of the
+     * segments.
+     *
+     * @param jid the address of the sender or recipient, or null to match any record. A bare JID matches any of its full JIDs.
+     * @param from the moment from which records are to be matched (inclusive), or null for no lower bound.
+     * @param to the moment until which records are to be matched (exclusive), or null for no upper bound.
+     * @param maxResults the maximum number of entries to return.
+     * @return the matching entries, in chronological order (possibly empty).
+     * @throws IOException when a segment could not be read.
+     */
+    @Nonnull
+    public List<AuditLogEntry> search(@Nullable final JID jid, @Nullable final Instant from, @Nullable final Instant to, final int maxResults) throws IOException
+    {
+        final List<AuditLogEntry> results = new ArrayList<>();
+        final String fromName = from == null ? null : FILE_PREFIX + DATE_FORMAT.format(from);
+        final String toName = to == null ? null : FILE_PREFIX + DATE_FORMAT.format(to) + "-999";
+        for (final File logFile : listSegments(directory)) {
+            final String name = logFile.getName();
+            if ((fromName != null && name.compareTo(fromName) < 0) || (toName != null && name.compareTo(toName) > 0)) {
+                continue;
+            }
+            final File indexFile = indexFileOf(logFile);
+            if (!indexFile.exists()) {
+                continue;
+            }
+
+            final ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath()));
+            try (final FileChannel log = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+                final long logSize = log.size();
+                IndexEntry entry;
+                while ((entry = IndexEntry.read(index)) != null) {
+                    if ((from != null && entry.timestamp < from.toEpochMilli()) || (to != null && entry.timestamp >= to.toEpochMilli())) {
+                        continue;
+                    }
+                    if (jid != null && !matches(entry.from, jid) && !matches(entry.to, jid)) {
+                        continue;
+                    }
+                    if (entry.offset + entry.length > logSize) {
+                        // The record was not completely written (eg: the server crashed).
+                        continue;
+                    }
+                    final ByteBuffer xml = ByteBuffer.allocate(entry.length);
+                    while (xml.hasRemaining()) {
+                        if (log.read(xml, entry.offset + xml.position()) < 0) {
+                            break;
+                        }
+                    }
+                    results.add(new AuditLogEntry(Instant.ofEpochMilli(entry.timestamp), entry.from, entry.to, new String(xml.array(), 0, xml.position(), StandardCharsets.UTF_8)));
+                    if (results.size() >= maxResults) {
+                        return results;
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    static boolean matches(@Nullable final String address, @Nonnull final JID jid)
+    {
+        if (address == null) {
+            return false;
+        }
+        if (jid.getResource() != null) {
+            return address.equals(jid.toString());
+        }
+        final String bareJID = jid.toBareJID();
+        return address.equals(bareJID) || (address.startsWith(bareJID) && address.length() > bareJID.length() && address.charAt(bareJID.length()) == '/');
+    }
+
+    /**
+     * Returns the segments in a directory, in chronological order.
+     */
+    @Nonnull
+    static List<File> listSegments(@Nullable final File directory)
+    {
+        final File[] files = directory == null ? null : directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(LOG_SUFFIX));
+        if (files == null) {
+            Log.debug("Path '{}' does not denote a directory, or an IO exception occurred while trying to list its content.", directory);
+            return new ArrayList<>();
+        }
+        final List<File> result = new ArrayList<>(Arrays.asList(files));
+        result.sort(Comparator.comparing(File::getName));
+        return result;
+    }
+
+    @Nonnull
+    static File indexFileOf(@Nonnull final File logFile)
+    {
+        final String name = logFile.getName();
+        return new File(logFile.getParentFile(), name.substring(0, name.length() - LOG_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * An audited packet, serialized at the moment it was audited.
+     */
+    public static final class Record
+    {
+        private final long timestamp;
+        private final String from;
+        private final String to;
+        private final byte[] xml;
+
+        /**
+         * Creates a record.
+         *
+         * @param timestamp the moment the packet was audited (in milliseconds since the epoch).
+         * @param from the address of the sender of the packet, or null.
+         * @param to the address of the recipient of the packet, or null.
+         * @param xml the UTF-8 encoded XML representation of the audited packet.
+         */
+        public Record(final long timestamp, @Nullable final String from, @Nullable final String to, @Nonnull final byte[] xml)
+        {
+            this.timestamp = timestamp;
+            this.from = from;
+            this.to = to;
+            this.xml = xml;
+        }
+    }
+
+    /**
+     * The position of a record in a segment, and the attributes by which records can be searched. Each entry consists
+     * of: timestamp (8 bytes), offset (8 bytes), length (4 bytes), sender (2 byte length, followed by UTF-8) and
+     * recipient (2 byte length, followed by UTF-8).
+     */
+    private static final class IndexEntry
+    {
+        private final long timestamp;
+        private final long offset;
+        private final int length;
+        private final String from;
+        private final String to;
+
+        private IndexEntry(final long timestamp, final long offset, final int length, @Nullable final String from, @Nullable final String to)
+        {
+            this.timestamp = timestamp;
+            this.offset = offset;
+            this.length = length;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Nonnull
+        static ByteBuffer encode(@Nonnull final Record record, final long offset)
+        {
+            final byte[] from = record.from == null ? new byte[0] : record.from.getBytes(StandardCharsets.UTF_8);
+            final byte[] to = record.to == null ? new byte[0] : record.to.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 4 + 2 + from.length + 2 + to.length);
+            buffer.putLong(record.timestamp);
+            buffer.putLong(offset);
+            buffer.putInt(record.xml.length);
+            buffer.putShort((short) from.length);
+            buffer.put(from);
+            buffer.putShort((short) to.length);
+            buffer.put(to);
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * Reads the next entry, or returns null when no complete entry remains (the last entry might not have been
+         * completely written).
+         */
+        @Nullable
+        static IndexEntry read(@Nonnull final ByteBuffer buffer)
+        {
+            if (buffer.remaining() < 8 + 8 + 4 + 2) {
+                return null;
+            }
+            final long timestamp = buffer.getLong();
+            final long offset = buffer.getLong();
+            final int length = buffer.getInt();
+            final String from = readString(buffer);
+            if (from == null || buffer.remaining() < 2) {
+                return null;
+            }
+            final String to = readString(buffer);
+            if (to == null) {
+                return null;
+            }
+            return new IndexEntry(timestamp, offset, length, from.isEmpty() ? null : from, to.isEmpty() ? null : to);
+        }
+
+        @Nullable
+        private static String readString(@Nonnull final ByteBuffer buffer)
+        {
+            final int length = buffer.getShort() & 0xFFFF;
+            if (buffer.remaining() < length) {
+                return null;
+            }
+            final String result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return result;
+        }
+    }
+
+    /**
+     * A segment of the log that is open for appending, with its index.
+     */
+    private static final class Segment
+    {
+        private final File directory;
+        private final LocalDate date;
+        private final int number;
+        private final File logFile;
+        private final FileChannel log;
+        private final FileChannel index;
+        private long size;
+
+        private Segment(@Nonnull final File directory, @Nonnull final LocalDate date, final int number) throws IOException
+        {
+            this.directory = directory;
+            this.date = date;
+            this.number = number;
+            this.logFile = new File(directory, FILE_PREFIX + DATE_FORMAT.format(date) + "-" + String.format("%03d", number) + LOG_SUFFIX);
+            this.log = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            try {
+                this.index = FileChannel.open(indexFileOf(logFile).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                log.close();
+                throw e;
+            }
+            this.size = log.size();
+        }
+
+        /**
+         * Opens a new segment for a date, which is numbered after the existing segments of that date. When the maximum
+         * number of segments for the date has been reached, the last segment is reopened: its footer is removed, so that
+         * records are appended within the existing root element.
+         */
+        @Nonnull
+        static Segment open(@Nonnull final File directory, @Nonnull final LocalDate date) throws IOException
+        {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Unable to create log directory: " + directory);
+            }
+            final String prefix = FILE_PREFIX + DATE_FORMAT.format(date) + "-";
+            int number = 0;
+            for (final File file : listSegments(directory)) {
+                final String name = file.getName();
+                if (name.startsWith(prefix)) {
+                    try {
+                        number = Math.max(number, Integer.parseInt(name.substring(prefix.length(), name.length() - LOG_SUFFIX.length())) + 1);
+                    } catch (NumberFormatException e) {
+                        Log.debug("Ignoring unexpected file name '{}'", name);
+                    }
+                }
+            }
+            if (number >= MAX_SEGMENTS_PER_DAY) {
+                Log.warn("Maximum number of audit files reached for this date: {}", DATE_FORMAT.format(date));
+                number = MAX_SEGMENTS_PER_DAY - 1;
+            } else if (number == MAX_SEGMENTS_PER_DAY - 1) {
+                Log.warn("Creating last audit file for this date: {}", DATE_FORMAT.format(date));
+            }
+            final Segment segment = new Segment(directory, date, number);
+            try {
+                if (segment.size == 0) {
+                    segment.writeFully(segment.log, ByteBuffer.wrap(HEADER.getBytes(StandardCharsets.UTF_8)));
+                } else {
+                    segment.removeFooter();
+                }
+            } catch (IOException e) {
+                segment.log.close();
+                segment.index.close();
+                throw e;
+            }
+            return segment;
+        }
+
+        /**
+         * Truncates the footer from the end of the segment, if the segment ends with one.
+         */
+        private void removeFooter() throws IOException
+        {
+            final byte[] footer = FOOTER.getBytes(StandardCharsets.UTF_8);
+            if (size < footer.length) {
+                return;
+            }
+            final ByteBuffer tail = ByteBuffer.allocate(footer.length);
+            try (final FileChannel reader = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+                while (tail.hasRemaining()) {
+                    if (reader.read(tail, size - footer.length + tail.position()) < 0) {
+                        return;
+                    }
+                }
+            }
+            if (Arrays.equals(tail.array(), footer)) {
+                size -= footer.length;
+                log.truncate(size);
+            }
+        }
+
+        void append(@Nonnull final Record record) throws IOException
+        {
+            final long offset = size;
+            writeFully(log, ByteBuffer.wrap(record.xml));
+            writeFully(index, IndexEntry.encode(record, offset));
+        }
+
+        void force() throws IOException
+        {
+            log.force(false);
+            index.force(false);
+        }
+
+        void close() throws IOException
+        {
+            try {
+                writeFully(log, ByteBuffer.wrap(FOOTER.getBytes(StandardCharsets.UTF_8)));
+                force();
+            } finally {
+                log.close();
+                index.close();
+            }
+        }
+
+        private void writeFully(@Nonnull final FileChannel channel, @Nonnull final ByteBuffer buffer) throws IOException
+        {
+            final int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (channel == log) {
+                size += length;
+            }
+        }
+    }
+}
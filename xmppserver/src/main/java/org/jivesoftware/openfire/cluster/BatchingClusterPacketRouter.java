@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.cluster;
+
+import org.jivesoftware.openfire.RemotePacketRouter;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.util.NamedThreadFactory;
+import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Routes packets to other nodes of the cluster, combining packets that are addressed to the same node in batches.
+ *
+ * Packets are queued per cluster node. The queue of a node is sent as one cluster task when it contains the maximum
+ * number of packets of a batch, or when the oldest packet in the queue has waited for the maximum delay. Packets are
+ * encoded when they are queued, so that changes that are applied to a packet after it was routed do not affect the
+ * packet that is delivered. Packets that are addressed to the same node are delivered in the order in which they were
+ * routed.
+ *
+ * A packet that is addressed to a node that is not a member of the cluster is not queued: this is reported as the
+ * result of {@link #routePacket(byte[], JID, Packet)}, allowing the routing table to drop the route or to try another
+ * node. As packets are otherwise sent asynchronously, a batch that cannot be sent is handled after the fact: when its
+ * node has left the cluster, its packets are routed again (so that the routing table can drop the stale route, or
+ * select another node); otherwise, the router that is responsible for each packet is informed of the failure, to
+ * handle the error reply logic.
+ *
+ * This router is to be registered as a {@link ClusterEventListener}, so that the packets that are queued for a node
+ * that leaves the cluster are routed again, rather than being retained.
+ *
+ * @see ClusterPacketRouter
+ */
+public class BatchingClusterPacketRouter implements RemotePacketRouter, ClusterEventListener {
+
+    private static final Logger Log = LoggerFactory.getLogger(BatchingClusterPacketRouter.class);
+
+    /**
+     * Determines if packets that are routed to other cluster nodes are sent in batches. This value is evaluated when
+     * clustering is started.
+     */
+    public static final SystemProperty<Boolean> ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.cluster.routing.batch.enabled")
+        .setDefaultValue(true)
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The maximum number of packets in a batch.
+     */
+    public static final SystemProperty<Integer> MAX_BATCH_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.cluster.routing.batch.max-size")
+        .setDefaultValue(64)
+        .setMinValue(1)
+        .setDynamic(true)
+        .addListener(value -> maxBatchSize = value)
+        .build();
+
+    /**
+     * The maximum duration (in microseconds) that a packet waits for other packets to be added to its batch. When zero,
+     * every packet is sent without delay.
+     */
+    public static final SystemProperty<Long> MAX_DELAY_MICROS = SystemProperty.Builder.ofType(Long.class)
+        .setKey("xmpp.cluster.routing.batch.max-delay-micros")
+        .setDefaultValue(200L)
+        .setMinValue(0L)
+        .setDynamic(true)
+        .addListener(value -> maxDelayMicros = value)
+        .build();
+
+    private static volatile int maxBatchSize = MAX_BATCH_SIZE.getValue();
+    private static volatile long maxDelayMicros = MAX_DELAY_MICROS.getValue();
+
+    /**
+     * Sends a cluster task to the node identified by the byte array. Throws an {@link IllegalStateException} when the
+     * node is not available.
+     */
+    private final BiConsumer<byte[], ClusterTask<?>> sender;
+
+    /**
+     * Determines if the node identified by the byte array is a member of the cluster.
+     */
+    private final Predicate<byte[]> isMember;
+
+    private final Map<NodeID, Batch> batches = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    public BatchingClusterPacketRouter() {
+        this((nodeID, task) -> CacheFactory.doClusterTask(task, nodeID), ClusterManager::isClusterMember);
+    }
+
+    BatchingClusterPacketRouter(@Nonnull final BiConsumer<byte[], ClusterTask<?>> sender, @Nonnull final Predicate<byte[]> isMember) {
+        this.sender = sender;
+        this.isMember = isMember;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("cluster-packet-batcher-", Executors.defaultThreadFactory(), true, Thread.NORM_PRIORITY));
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    public boolean routePacket(byte[] nodeID, JID receipient, Packet packet) {
+        if (!isMember.test(nodeID)) {
+            Log.warn("Unable to route packet to node that is not a member of the cluster: {}", NodeID.getInstance(nodeID));
+            return false;
+        }
+
+        final StanzaCodec.EncodedStanza stanza;
+        try {
+            stanza = StanzaCodec.encode(packet);
+        } catch (IOException e) {
+            Log.warn("Unable to route packet to remote node: {}", packet, e);
+            return false;
+        }
+
+        final Batch batch = batches.computeIfAbsent(NodeID.getInstance(nodeID), id -> new Batch(nodeID));
+        boolean flushNow;
+        synchronized (batch) {
+            batch.add(receipient, packet, stanza);
+            flushNow = batch.size() >= maxBatchSize || maxDelayMicros == 0;
+            if (!flushNow && batch.deadline == null) {
+                try {
+                    batch.deadline = scheduler.schedule(() -> flush(batch), maxDelayMicros, TimeUnit.MICROSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // This router has been shut down. Do not leave the packet behind.
+                    flushNow = true;
+                }
+            }
+        }
+        if (flushNow) {
+            flush(batch);
+        }
+        return true;
+    }
+
+    public void broadcastPacket(Message packet) {
+        // Execute the broadcast task across the cluster
+        CacheFactory.doClusterTask(new BroadcastMessage(packet));
+    }
+
+    /**
+     * Sends all queued packets, and stops the thread that sends packets of which the maximum delay has expired. This
+     * is to be invoked while this node is still a member of the cluster.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        for (final Batch batch : batches.values()) {
+            flush(batch);
+        }
+        batches.clear();
+    }
+
+    /**
+     * Returns the number of nodes for which packets can be queued.
+     */
+    // @VisibleForTesting
+    int getNodeCount() {
+        return batches.size();
+    }
+
+    /**
+     * Sends the packets that are queued for a node. Batches of the same node are sent one at a time, in the order in
+     * which they were taken from the queue.
+     */
+    private void flush(@Nonnull final Batch batch) {
+        final List<JID> recipients;
+        final List<Packet> packets;
+        synchronized (batch.sendLock) {
+            final List<StanzaCodec.EncodedStanza> stanzas;
+            synchronized (batch) {
+                if (batch.size() == 0) {
+                    return;
+                }
+                recipients = batch.recipients;
+                packets = batch.packets;
+                stanzas = batch.stanzas;
+                batch.clear();
+            }
+
+            try {
+                sender.accept(batch.nodeID, new RemotePacketBatch(recipients, stanzas));
+                return;
+            } catch (IllegalStateException e) {
+                Log.warn("Error while routing {} packet(s) to remote node: {}", packets.size(), e.toString());
+            }
+        }
+
+        // Handle the failure outside of the lock, as this can route packets to other nodes.
+        final boolean nodeLeft = !isMember.test(batch.nodeID);
+        for (int i = 0; i < packets.size(); i++) {
+            if (nodeLeft) {
+                reroute(recipients.get(i), packets.get(i));
+            } else {
+                routingFailed(recipients.get(i), packets.get(i));
+            }
+        }
+    }
+
+    /**
+     * Routes a packet of which the node that it was queued for has left the cluster. As the node is no longer a
+     * member, the routing table drops the stale route or selects another node.
+     */
+    private static void reroute(@Nonnull final JID recipient, @Nonnull final Packet packet) {
+        try {
+            XMPPServer.getInstance().getRoutingTable().routePacket(recipient, packet);
+        } catch (Exception e) {
+            Log.warn("Unable to route packet again after its cluster node left: {}", packet, e);
+        }
+    }
+
+    private static void routingFailed(@Nonnull final JID recipient, @Nonnull final Packet packet) {
+        try {
+            if (packet instanceof IQ) {
+                XMPPServer.getInstance().getIQRouter().routingFailed(recipient, packet);
+            } else if (packet instanceof Message) {
+                XMPPServer.getInstance().getMessageRouter().routingFailed(recipient, packet);
+            } else if (packet instanceof Presence) {
+                XMPPServer.getInstance().getPresenceRouter().routingFailed(recipient, packet);
+            }
+        } catch (Exception e) {
+            Log.warn("Unable to process routing failure of packet: {}", packet, e);
+        }
+    }
+
+    @Override
+    public void joinedCluster() {
+    }
+
+    @Override
+    public void joinedCluster(byte[] nodeID) {
+    }
+
+    @Override
+    public void leftCluster() {
+    }
+
+    /**
+     * Stops queueing packets for the node that left the cluster, and routes the packets that were queued for it again.
+     */
+    @Override
+    public void leftCluster(byte[] nodeID) {
+        final Batch batch = batches.remove(NodeID.getInstance(nodeID));
+        if (batch != null) {
+            flush(batch);
+        }
+    }
+
+    @Override
+    public void markedAsSeniorClusterMember() {
+    }
+
+    /**
+     * The packets that are queued for one cluster node. Guarded by the instance itself.
+     */
+    private static class Batch {
+        final byte[] nodeID;
+
+        /**
+         * Ensures that batches of the same node are sent one at a time.
+         */
+        final Object sendLock = new Object();
+
+        List<JID> recipients = new ArrayList<>();
+        List<Packet> packets = new ArrayList<>();
+        List<StanzaCodec.EncodedStanza> stanzas = new ArrayList<>();
+        ScheduledFuture<?> deadline;
+
+        Batch(@Nonnull final byte[] nodeID) {
+            this.nodeID = nodeID;
+        }
+
+        void add(@Nonnull final JID recipient, @Nonnull final Packet packet, @Nonnull final StanzaCodec.EncodedStanza stanza) {
+            recipients.add(recipient);
+            packets.add(packet);
+            stanzas.add(stanza);
+        }
+
+        int size() {
+            return stanzas.size();
+        }
+
+        void clear() {
+            final int capacity = Math.min(stanzas.size(), maxBatchSize);
+            recipients = new ArrayList<>(capacity);
+            packets = new ArrayList<>(capacity);
+            stanzas = new ArrayList<>(capacity);
+            if (deadline != null) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+        }
+    }
+}
@@ -15,11 +15,8 @@
  */
 package org.jivesoftware.openfire.cluster;
 
-import org.dom4j.Element;
-import org.dom4j.tree.DefaultElement;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.util.cache.ClusterTask;
-import org.jivesoftware.util.cache.ExternalizableUtil;
 import org.xmpp.packet.Message;
 
 import java.io.IOException;
@@ -54,11 +51,10 @@ public class BroadcastMessage implements ClusterTask<Void> {
     }
 
     public void writeExternal(ObjectOutput out) throws IOException {
-        ExternalizableUtil.getInstance().writeSerializable(out, (DefaultElement) packet.getElement());
+        StanzaCodec.writePacket(out, packet);
     }
 
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-        Element packetElement = (Element) ExternalizableUtil.getInstance().readSerializable(in);
-        packet = new Message(packetElement, true);
+        packet = (Message) StanzaCodec.readPacket(in);
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.cluster;
+
+import org.jivesoftware.openfire.RoutingTable;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Task to be executed by remote nodes to deliver a batch of packets to their receivers, in the order in which the
+ * packets were added to the batch.
+ *
+ * @see BatchingClusterPacketRouter
+ */
+public class RemotePacketBatch implements ClusterTask<Void> {
+
+    private static final Logger Log = LoggerFactory.getLogger(RemotePacketBatch.class);
+
+    private List<JID> recipients;
+    private List<StanzaCodec.EncodedStanza> stanzas;
+    private List<Packet> packets;
+
+    public RemotePacketBatch() {
+    }
+
+    RemotePacketBatch(@Nonnull final List<JID> recipients, @Nonnull final List<StanzaCodec.EncodedStanza> stanzas) {
+        if (recipients.size() != stanzas.size()) {
+            throw new IllegalArgumentException("The number of recipients (" + recipients.size() + ") does not match the number of stanzas (" + stanzas.size() + ")");
+        }
+        this.recipients = recipients;
+        this.stanzas = stanzas;
+    }
+
+    public Void getResult() {
+        return null;
+    }
+
+    public void run() {
+        // Route each packet to the entity hosted by this node. If delivery fails then the routing table
+        // will inform the proper router of the failure and the router will handle the error reply logic
+        final RoutingTable routingTable = XMPPServer.getInstance().getRoutingTable();
+        for (int i = 0; i < packets.size(); i++) {
+            try {
+                routingTable.routePacket(recipients.get(i), packets.get(i));
+            } catch (final Exception e) {
+                Log.warn("Unable to route packet that was received from another cluster node: {}", packets.get(i), e);
+            }
+        }
+    }
+
+    /**
+     * Returns the packets of this batch, as read by {@link #readExternal(ObjectInput)}.
+     *
+     * @return the packets, or null if this batch was not read.
+     */
+    List<Packet> getPackets() {
+        return packets;
+    }
+
+    /**
+     * Returns the recipients of the packets of this batch.
+     *
+     * @return the recipients, in the order of the packets.
+     */
+    List<JID> getRecipients() {
+        return recipients;
+    }
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        ExternalizableUtil.getInstance().writeInt(out, recipients.size());
+        for (final JID recipient : recipients) {
+            StanzaCodec.writeJID(out, recipient);
+        }
+        StanzaCodec.writePackets(out, stanzas);
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        final int count = ExternalizableUtil.getInstance().readInt(in);
+        recipients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            recipients.add(StanzaCodec.readJID(in));
+        }
+        packets = StanzaCodec.readPackets(in);
+        if (packets.size() != count) {
+            throw new IOException("Expected " + count + " packets, but read " + packets.size());
+        }
+    }
+
+    public String toString() {
+        return super.toString() + " packets: " + recipients.size();
+    }
+}
@@ -16,12 +16,10 @@
 
 package org.jivesoftware.openfire.cluster;
 
-import org.dom4j.Element;
-import org.dom4j.tree.DefaultElement;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.util.cache.ClusterTask;
-import org.jivesoftware.util.cache.ExternalizableUtil;
-import org.xmpp.packet.*;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
 
 import java.io.IOException;
 import java.io.ObjectInput;
@@ -57,35 +55,13 @@ public class RemotePacketExecution implements ClusterTask<Void> {
     }
 
     public void writeExternal(ObjectOutput out) throws IOException {
-        ExternalizableUtil.getInstance().writeSerializable(out, recipient);
-        if (packet instanceof IQ) {
-            ExternalizableUtil.getInstance().writeInt(out, 1);
-        }
-        else if (packet instanceof Message) {
-            ExternalizableUtil.getInstance().writeInt(out, 2);
-        }
-        else if (packet instanceof Presence) {
-            ExternalizableUtil.getInstance().writeInt(out, 3);
-        }
-        ExternalizableUtil.getInstance().writeSerializable(out, (DefaultElement) packet.getElement());
+        StanzaCodec.writeJID(out, recipient);
+        StanzaCodec.writePacket(out, packet);
     }
 
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-        recipient = (JID) ExternalizableUtil.getInstance().readSerializable(in);
-
-        int packetType = ExternalizableUtil.getInstance().readInt(in);
-        Element packetElement = (Element) ExternalizableUtil.getInstance().readSerializable(in);
-        switch (packetType) {
-            case 1:
-                packet = new IQ(packetElement, true);
-                break;
-            case 2:
-                packet = new Message(packetElement, true);
-                break;
-            case 3:
-                packet = new Presence(packetElement, true);
-                break;
-        }
+        recipient = StanzaCodec.readJID(in);
+        packet = StanzaCodec.readPacket(in);
     }
 
     public String toString() {
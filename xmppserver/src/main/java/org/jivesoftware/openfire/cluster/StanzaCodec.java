@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.cluster;
+
+import org.dom4j.Element;
+import org.jivesoftware.util.SAXReaderUtil;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Encodes stanzas and addresses for transport between cluster nodes.
+ *
+ * Stanzas are written as type indicators, followed by the UTF-8 encoded XML representation of the stanzas. This is
+ * considerably smaller, and cheaper to produce, than the Java serialization of the DOM tree of a stanza. An address
+ * is written as its node, domain and resource parts. As these parts were validated on the node that wrote them, they
+ * are not subjected to stringprep again when they are read.
+ */
+public final class StanzaCodec
+{
+    private static final int TYPE_IQ = 1;
+    private static final int TYPE_MESSAGE = 2;
+    private static final int TYPE_PRESENCE = 3;
+
+    private static final byte[] BATCH_START = "<stanzas>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BATCH_END = "</stanzas>".getBytes(StandardCharsets.UTF_8);
+
+    private static final int HAS_NODE = 1;
+    private static final int HAS_RESOURCE = 2;
+
+    private StanzaCodec() {}
+
+    /**
+     * Encodes a stanza. As the encoded form is immutable, it can be written at a later time, regardless of any changes
+     * that are applied to the stanza in the mean time.
+     *
+     * @param packet the stanza to encode.
+     * @return the encoded stanza.
+     * @throws IOException if the stanza is of an unsupported type.
+     */
+    @Nonnull
+    public static EncodedStanza encode(@Nonnull final Packet packet) throws IOException
+    {
+        final int type;
+        if (packet instanceof IQ) {
+            type = TYPE_IQ;
+        } else if (packet instanceof Message) {
+            type = TYPE_MESSAGE;
+        } else if (packet instanceof Presence) {
+            type = TYPE_PRESENCE;
+        } else {
+            throw new IOException("Unable to encode stanza of unsupported type: " + packet.getClass().getName());
+        }
+        return new EncodedStanza(type, packet.toXML().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a stanza to the output.
+     *
+     * @param out the output stream.
+     * @param packet the stanza to write.
+     * @throws IOException if an error occurs.
+     */
+    public static void writePacket(@Nonnull final DataOutput out, @Nonnull final Packet packet) throws IOException
+    {
+        writePackets(out, Collections.singletonList(encode(packet)));
+    }
+
+    /**
+     * Reads a stanza that was written by {@link #writePacket(DataOutput, Packet)}.
+     *
+     * @param in the input stream.
+     * @return the stanza.
+     * @throws IOException if an error occurs.
+     */
+    @Nonnull
+    public static Packet readPacket(@Nonnull final DataInput in) throws IOException
+    {
+        final List<Packet> packets = readPackets(in);
+        if (packets.size() != 1) {
+            throw new IOException("Expected one stanza, but read " + packets.size());
+        }
+        return packets.get(0);
+    }
+
+    /**
+     * Writes stanzas that were encoded by {@link #encode(Packet)} to the output.
+     *
+     * The XML representations of the stanzas are written as one XML document, so that the stanzas can be read using
+     * one invocation of the XML parser.
+     *
+     * @param out the output stream.
+     * @param stanzas the encoded stanzas to write.
+     * @throws IOException if an error occurs.
+     */
+    public static void writePackets(@Nonnull final DataOutput out, @Nonnull final List<EncodedStanza> stanzas) throws IOException
+    {
+        ExternalizableUtil.getInstance().writeInt(out, stanzas.size());
+        int length = BATCH_START.length + BATCH_END.length;
+        for (final EncodedStanza stanza : stanzas) {
+            ExternalizableUtil.getInstance().writeInt(out, stanza.type);
+            length += stanza.xml.length;
+        }
+
+        final byte[] document = new byte[length];
+        int offset = 0;
+        System.arraycopy(BATCH_START, 0, document, offset, BATCH_START.length);
+        offset += BATCH_START.length;
+        for (final EncodedStanza stanza : stanzas) {
+            System.arraycopy(stanza.xml, 0, document, offset, stanza.xml.length);
+            offset += stanza.xml.length;
+        }
+        System.arraycopy(BATCH_END, 0, document, offset, BATCH_END.length);
+        ExternalizableUtil.getInstance().writeByteArray(out, document);
+    }
+
+    /**
+     * Reads stanzas that were written by {@link #writePackets(DataOutput, List)}.
+     *
+     * @param in the input stream.
+     * @return the stanzas, in the order in which they were written.
+     * @throws IOException if an error occurs.
+     */
+    @Nonnull
+    public static List<Packet> readPackets(@Nonnull final DataInput in) throws IOException
+    {
+        final int count = ExternalizableUtil.getInstance().readInt(in);
+        final int[] types = new int[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = ExternalizableUtil.getInstance().readInt(in);
+        }
+        final byte[] document = ExternalizableUtil.getInstance().readByteArray(in);
+
+        final Element root;
+        try {
+            root = SAXReaderUtil.readRootElement(new ByteArrayInputStream(document));
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to parse data as stanzas", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing data as stanzas", e);
+        }
+
+        final List<Element> elements = new ArrayList<>(root.elements());
+        if (elements.size() != count) {
+            throw new IOException("Expected " + count + " stanzas, but parsed " + elements.size());
+        }
+        final List<Packet> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Element element = elements.get(i);
+            element.detach();
+            result.add(toPacket(types[i], element));
+        }
+        return result;
+    }
+
+    @Nonnull
+    private static Packet toPacket(final int type, @Nonnull final Element element) throws IOException
+    {
+        switch (type) {
+            case TYPE_IQ:
+                return new IQ(element, true);
+            case TYPE_MESSAGE:
+                return new Message(element, true);
+            case TYPE_PRESENCE:
+                return new Presence(element, true);
+            default:
+                throw new IOException("Unable to decode stanza of unsupported type: " + type);
+        }
+    }
+
+    /**
+     * Writes an address to the output.
+     *
+     * @param out the output stream.
+     * @param jid the address to write.
+     * @throws IOException if an error occurs.
+     */
+    public static void writeJID(@Nonnull final DataOutput out, @Nonnull final JID jid) throws IOException
+    {
+        final int flags = (jid.getNode() != null ? HAS_NODE : 0) | (jid.getResource() != null ? HAS_RESOURCE : 0);
+        ExternalizableUtil.getInstance().writeInt(out, flags);
+        if (jid.getNode() != null) {
+            ExternalizableUtil.getInstance().writeSafeUTF(out, jid.getNode());
+        }
+        ExternalizableUtil.getInstance().writeSafeUTF(out, jid.getDomain());
+        if (jid.getResource() != null) {
+            ExternalizableUtil.getInstance().writeSafeUTF(out, jid.getResource());
+        }
+    }
+
+    /**
+     * Reads an address that was written by {@link #writeJID(DataOutput, JID)}.
+     *
+     * @param in the input stream.
+     * @return the address.
+     * @throws IOException if an error occurs.
+     */
+    @Nonnull
+    public static JID readJID(@Nonnull final DataInput in) throws IOException
+    {
+        final int flags = ExternalizableUtil.getInstance().readInt(in);
+        @Nullable final String node = (flags & HAS_NODE) != 0 ? ExternalizableUtil.getInstance().readSafeUTF(in) : null;
+        final String domain = ExternalizableUtil.getInstance().readSafeUTF(in);
+        @Nullable final String resource = (flags & HAS_RESOURCE) != 0 ? ExternalizableUtil.getInstance().readSafeUTF(in) : null;
+        return new JID(node, domain, resource, true);
+    }
+
+    /**
+     * A stanza in its encoded form.
+     */
+    public static final class EncodedStanza
+    {
+        private final int type;
+        private final byte[] xml;
+
+        private EncodedStanza(final int type, @Nonnull final byte[] xml)
+        {
+            this.type = type;
+            this.xml = xml;
+        }
+
+        /**
+         * Returns the number of bytes of the XML representation of the stanza.
+         *
+         * @return a size in bytes.
+         */
+        public int getLength()
+        {
+            return xml.length;
+        }
+    }
+}
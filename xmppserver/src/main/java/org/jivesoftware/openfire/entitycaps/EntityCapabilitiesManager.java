@@ -23,10 +23,14 @@ import org.dom4j.QName;
 import org.jivesoftware.openfire.IQRouter;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.container.BasicModule;
+import org.jivesoftware.openfire.event.SessionEventDispatcher;
+import org.jivesoftware.openfire.event.SessionEventListener;
 import org.jivesoftware.openfire.event.UserEventDispatcher;
 import org.jivesoftware.openfire.event.UserEventListener;
+import org.jivesoftware.openfire.session.Session;
 import org.jivesoftware.openfire.user.User;
 import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.TaskEngine;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
@@ -38,6 +42,7 @@ import org.xmpp.packet.Presence;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.locks.Lock;
@@ -61,7 +66,7 @@ import java.util.stream.Collectors;
  * @author Armando Jagucki
  * @see <a href="https://xmpp.org/extensions/xep-0115.html>XEP-0115: Entity Capabilities</a>
  */
-public class EntityCapabilitiesManager extends BasicModule implements IQResultListener, UserEventListener {
+public class EntityCapabilitiesManager extends BasicModule implements IQResultListener, UserEventListener, SessionEventListener {
 
     private static final Logger Log = LoggerFactory.getLogger( EntityCapabilitiesManager.class );
 
@@ -130,6 +135,21 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
      */
     private Map<String, EntityCapabilities> verAttributes;
 
+    /**
+     * The entities that expressed interest in notifications of PEP nodes, by node ID. This mirrors the capabilities
+     * that are registered in {@link #entityCapabilitiesUserMap}.
+     *
+     * Updates for an entity should be guarded by the same lock as the corresponding operation on
+     * {@link #entityCapabilitiesUserMap}. Registrations expire after the maximum lifetime of the entries of that cache.
+     */
+    private final NotifyInterestIndex notifyInterests = new NotifyInterestIndex(
+        () -> entityCapabilitiesUserMap == null ? -1 : entityCapabilitiesUserMap.getMaxLifetime(), System::currentTimeMillis);
+
+    /**
+     * Periodically removes registrations from {@link #notifyInterests} that have expired.
+     */
+    private TimerTask notifyInterestsPurgeTask;
+
     /**
      * Listeners that are invoked when new or changed capabilities for an entity are detected.
      */
@@ -153,12 +173,25 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
         capabilitiesBeingUpdated = new HashMap<>();
         verAttributes = new HashMap<>();
         UserEventDispatcher.addListener( this );
+        SessionEventDispatcher.addListener( this );
+        notifyInterestsPurgeTask = new TimerTask() {
+            @Override
+            public void run() {
+                purgeExpiredNotifyInterests();
+            }
+        };
+        TaskEngine.getInstance().schedule( notifyInterestsPurgeTask, Duration.ofMinutes(15), Duration.ofMinutes(15) );
     }
 
     @Override
     public void destroy()
     {
         UserEventDispatcher.removeListener( this );
+        SessionEventDispatcher.removeListener( this );
+        if ( notifyInterestsPurgeTask != null ) {
+            TaskEngine.getInstance().cancelScheduledTask( notifyInterestsPurgeTask );
+            notifyInterestsPurgeTask = null;
+        }
         allUserCapabilitiesListeners.clear();
         userSpecificCapabilitiesListener.clear();
     }
@@ -166,20 +199,7 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
     public void process(Presence packet) {
         if (Presence.Type.unavailable == packet.getType()) {
             if (packet.getFrom() != null ) {
-                final String oldVer;
-
-                final Lock lock = this.entityCapabilitiesUserMap.getLock(packet.getFrom().asBareJID());
-                lock.lock();
-                try {
-                    this.capabilitiesBeingUpdated.remove( packet.getFrom() );
-                    oldVer = this.entityCapabilitiesUserMap.remove( packet.getFrom() );
-                } finally {
-                    lock.unlock();
-                }
-
-                if ( oldVer != null ) {
-                    checkObsolete( oldVer );
-                }
+                unregisterCapabilities( packet.getFrom() );
             }
             return;
         }
@@ -236,6 +256,7 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
                 if ( ver != null ) {
                     capabilitiesBeingUpdated.put( packet.getFrom(), ver );
                 }
+                notifyInterests.update( packet.getFrom(), null );
             } finally {
                 lock.unlock();
             }
@@ -412,6 +433,36 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
         return entityCapabilitiesMap.get(verAttribute);
     }
 
+    /**
+     * Returns the addresses that are to receive notifications for a PEP node, from a collection of candidate addresses.
+     *
+     * An address is to receive notifications when the entity capabilities of the entity that uses the address
+     * include a '+notify' feature for the node (as defined in XEP-0163), or when its capabilities are unknown.
+     *
+     * This method uses an index that is maintained when capabilities change, and is therefore cheaper than obtaining
+     * the capabilities of each candidate address through {@link #getEntityCapabilities(JID)}.
+     *
+     * @param nodeID the node identifier (can be null, in which case only addresses with unknown capabilities are returned).
+     * @param addresses the full JIDs of the candidate recipients.
+     * @return the addresses that are to receive notifications, in iteration order of the candidates.
+     */
+    @Nonnull
+    public List<JID> getNotificationRecipients(@Nullable String nodeID, @Nonnull Collection<JID> addresses) {
+        return notifyInterests.filter(nodeID, addresses);
+    }
+
+    /**
+     * Returns the entities (typically full JIDs) of which the entity capabilities include a '+notify' feature for a
+     * PEP node (as defined in XEP-0163).
+     *
+     * @param nodeID the node identifier.
+     * @return the interested entities (an unmodifiable view, possibly empty).
+     */
+    @Nonnull
+    public Set<JID> getNotifyInterestedEntities(@Nonnull String nodeID) {
+        return notifyInterests.getInterestedEntities(nodeID);
+    }
+
     /**
      * Extracts a list of identities from an IQ packet.
      * 
@@ -559,6 +610,7 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
             if (oldVerAttribute == null) {
                 oldVerAttribute = updatedVerValue;
             }
+            notifyInterests.update(entity, newCapabilities);
         } finally {
             lock.unlock();
         }
@@ -581,6 +633,48 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
         }
     }
 
+    /**
+     * Removes the registrations of entities that expressed interest in notifications of PEP nodes, when the capabilities
+     * of these entities have expired from {@link #entityCapabilitiesUserMap}.
+     */
+    void purgeExpiredNotifyInterests()
+    {
+        for ( final JID entity : notifyInterests.getExpiredEntities() ) {
+            final Lock lock = entityCapabilitiesUserMap.getLock(entity.asBareJID());
+            lock.lock();
+            try {
+                notifyInterests.removeIfExpired( entity );
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Removes the capabilities that are registered for a particular entity, for example because the entity is no longer
+     * available.
+     *
+     * @param entity The entity for which capabilities are to be removed.
+     */
+    protected void unregisterCapabilities( @Nonnull JID entity )
+    {
+        final String oldVer;
+
+        final Lock lock = this.entityCapabilitiesUserMap.getLock(entity.asBareJID());
+        lock.lock();
+        try {
+            this.capabilitiesBeingUpdated.remove( entity );
+            oldVer = this.entityCapabilitiesUserMap.remove( entity );
+            this.notifyInterests.update( entity, null );
+        } finally {
+            lock.unlock();
+        }
+
+        if ( oldVer != null ) {
+            checkObsolete( oldVer );
+        }
+    }
+
     /**
      * Registers an event listener that will be invoked when the detected entity capabilities for a particular entity
      * have changed.
@@ -714,6 +808,7 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
                 if (removed != null) {
                     deletedUserVerHashes.add(removed);
                 }
+                notifyInterests.update(jidToRemove, null);
             }
         } finally {
             lock.unlock();
@@ -750,6 +845,32 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
         // Do nothing.
     }
 
+    @Override
+    public void sessionCreated(Session session) {
+        // Do nothing.
+    }
+
+    @Override
+    public void sessionDestroyed(Session session) {
+        // A session can be closed without it sending unavailable presence.
+        unregisterCapabilities(session.getAddress());
+    }
+
+    @Override
+    public void anonymousSessionCreated(Session session) {
+        // Do nothing.
+    }
+
+    @Override
+    public void anonymousSessionDestroyed(Session session) {
+        unregisterCapabilities(session.getAddress());
+    }
+
+    @Override
+    public void resourceBound(Session session) {
+        // Do nothing.
+    }
+
     /**
      * Returns the 'ver' hash for this server.
      *
@@ -775,5 +896,6 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
         entityCapabilitiesUserMap.clear();
         verAttributes.clear();
         capabilitiesBeingUpdated.clear();
+        notifyInterests.clear();
     }
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.entitycaps;
+
+import org.xmpp.packet.JID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps track of the entities that are interested in notifications of PEP nodes, as expressed by the '+notify'
+ * features (XEP-0163 "Filtered Notifications") in their entity capabilities.
+ *
+ * The index is maintained incrementally, whenever the capabilities of an entity change or become unknown. This allows
+ * the recipients of a notification to be determined without looking up (and searching) the capabilities of each
+ * recipient.
+ *
+ * Registrations expire after the same lifetime as the cache that holds the capabilities of entities: an entity of which
+ * the registration has expired is treated as an entity of which the capabilities are not known. Expired registrations
+ * are removed by {@link #removeIfExpired(JID)}.
+ *
+ * Updates for the same entity are expected to be serialized by the caller. Look-ups can be performed concurrently.
+ */
+final class NotifyInterestIndex
+{
+    static final String NOTIFY_SUFFIX = "+notify";
+
+    /**
+     * Provides the maximum lifetime of a registration, in milliseconds (a value of zero or less means no expiry).
+     */
+    private final LongSupplier maxLifetime;
+
+    /**
+     * Provides the current time, in milliseconds.
+     */
+    private final LongSupplier clock;
+
+    /**
+     * The entities that are interested in notifications, by node ID.
+     */
+    private final ConcurrentMap<String, Set<JID>> entitiesByNode = new ConcurrentHashMap<>();
+
+    /**
+     * The nodes for which an entity is interested in notifications, for each entity of which the capabilities are known.
+     */
+    private final ConcurrentMap<JID, Registration> nodesByEntity = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an index of which registrations do not expire.
+     */
+    NotifyInterestIndex()
+    {
+        this(() -> -1, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates an index of which registrations expire.
+     *
+     * @param maxLifetime Provides the maximum lifetime of a registration, in milliseconds (zero or less for no expiry).
+     * @param clock Provides the current time, in milliseconds.
+     */
+    NotifyInterestIndex(@Nonnull final LongSupplier maxLifetime, @Nonnull final LongSupplier clock)
+    {
+        this.maxLifetime = maxLifetime;
+        this.clock = clock;
+    }
+
+    /**
+     * Registers the capabilities of an entity, replacing any previously registered capabilities.
+     *
+     * @param entity The entity (typically a full JID).
+     * @param capabilities The capabilities of the entity, or null when these are no longer known.
+     */
+    void update(@Nonnull final JID entity, @Nullable final EntityCapabilities capabilities)
+    {
+        final Set<String> nodes = capabilities == null ? null : getNotifyNodes(capabilities);
+        final Registration previousRegistration = nodes == null ? nodesByEntity.remove(entity) : nodesByEntity.put(entity, new Registration(nodes, clock.getAsLong()));
+        final Set<String> previous = previousRegistration == null ? null : previousRegistration.nodes;
+
+        if (previous != null) {
+            for (final String node : previous) {
+                if (nodes == null || !nodes.contains(node)) {
+                    entitiesByNode.computeIfPresent(node, (k, entities) -> {
+                        entities.remove(entity);
+                        return entities.isEmpty() ? null : entities;
+                    });
+                }
+            }
+        }
+        if (nodes != null) {
+            for (final String node : nodes) {
+                if (previous == null || !previous.contains(node)) {
+                    entitiesByNode.compute(node, (k, entities) -> {
+                        if (entities == null) {
+                            entities = ConcurrentHashMap.newKeySet();
+                        }
+                        entities.add(entity);
+                        return entities;
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all registrations.
+     */
+    void clear()
+    {
+        nodesByEntity.clear();
+        entitiesByNode.clear();
+    }
+
+    /**
+     * Removes the registration of an entity, if it has expired.
+     *
+     * @param entity The entity.
+     * @return true if an expired registration was removed.
+     */
+    boolean removeIfExpired(@Nonnull final JID entity)
+    {
+        final Registration registration = nodesByEntity.get(entity);
+        if (registration == null || !isExpired(registration)) {
+            return false;
+        }
+        update(entity, null);
+        return true;
+    }
+
+    /**
+     * Returns the entities of which the registration has expired.
+     *
+     * @return The entities (a snapshot, possibly empty).
+     */
+    @Nonnull
+    List<JID> getExpiredEntities()
+    {
+        final List<JID> result = new ArrayList<>();
+        for (final Map.Entry<JID, Registration> entry : nodesByEntity.entrySet()) {
+            if (isExpired(entry.getValue())) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if the capabilities of an entity are known.
+     *
+     * @param entity The entity.
+     * @return true if capabilities are registered for the entity, and that registration has not expired.
+     */
+    boolean isKnown(@Nonnull final JID entity)
+    {
+        final Registration registration = nodesByEntity.get(entity);
+        return registration != null && !isExpired(registration);
+    }
+
+    private boolean isExpired(@Nonnull final Registration registration)
+    {
+        final long lifetime = maxLifetime.getAsLong();
+        return lifetime > 0 && clock.getAsLong() - registration.created > lifetime;
+    }
+
+    /**
+     * Returns the entities that expressed interest in notifications for a node.
+     *
+     * @param nodeID The node identifier.
+     * @return The interested entities (an unmodifiable snapshot, possibly empty).
+     */
+    @Nonnull
+    Set<JID> getInterestedEntities(@Nullable final String nodeID)
+    {
+        final Set<JID> entities = nodeID == null ? null : entitiesByNode.get(nodeID);
+        if (entities == null) {
+            return Collections.emptySet();
+        }
+        final Set<JID> result = new HashSet<>();
+        for (final JID entity : entities) {
+            if (isKnown(entity)) {
+                result.add(entity);
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Returns the addresses that are to receive notifications for a node: those of entities that expressed interest in
+     * notifications for the node, and those of entities of which the capabilities are not known.
+     *
+     * @param nodeID The node identifier.
+     * @param addresses The candidate addresses.
+     * @return The addresses that are to receive notifications, in iteration order of the candidates.
+     */
+    @Nonnull
+    List<JID> filter(@Nullable final String nodeID, @Nonnull final Collection<JID> addresses)
+    {
+        final List<JID> result = new ArrayList<>(addresses.size());
+        for (final JID address : addresses) {
+            final Registration registration = nodesByEntity.get(address);
+            if (registration == null || isExpired(registration) || (nodeID != null && registration.nodes.contains(nodeID))) {
+                result.add(address);
+            }
+        }
+        return result;
+    }
+
+    @Nonnull
+    static Set<String> getNotifyNodes(@Nonnull final EntityCapabilities capabilities)
+    {
+        final Set<String> result = new HashSet<>();
+        for (final String feature : capabilities.getFeatures()) {
+            if (feature.endsWith(NOTIFY_SUFFIX)) {
+                result.add(feature.substring(0, feature.length() - NOTIFY_SUFFIX.length()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The nodes for which an entity is interested in notifications, and the moment at which these were registered.
+     */
+    private static final class Registration
+    {
+        private final Set<String> nodes;
+        private final long created;
+
+        private Registration(@Nonnull final Set<String> nodes, final long created)
+        {
+            this.nodes = nodes;
+            this.created = created;
+        }
+    }
+}
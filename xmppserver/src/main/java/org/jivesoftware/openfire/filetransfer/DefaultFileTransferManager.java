@@ -208,6 +208,12 @@ public class DefaultFileTransferManager extends BasicModule implements FileTrans
      * Interceptor to grab and validate file transfer meta information.
      */
     private class MetaFileTransferInterceptor implements PacketInterceptor {
+        @Override
+        public boolean modifiesSentPackets() {
+            // Only packets received by the server are inspected.
+            return false;
+        }
+
         @Override
         public void interceptPacket(Packet packet, Session session, boolean incoming,
                                     boolean processed)
@@ -77,8 +77,10 @@ public class IQOfflineMessagesHandler extends IQHandler implements ServerFeature
             // Mark that offline messages shouldn't be sent when the user becomes available
             stopOfflineFlooding(from);
             // User requested to receive all offline messages
-            for (OfflineMessage offlineMessage : messageStore.getMessages(from.getNode(), false)) {
-                sendOfflineMessage(from, offlineMessage);
+            try (OfflineMessageCursor offlineMessages = messageStore.getMessageCursor(from.getNode(), false)) {
+                while (offlineMessages.hasNext()) {
+                    sendOfflineMessage(from, offlineMessages.next());
+                }
             }
         }
         else {
@@ -175,9 +177,12 @@ public class IQOfflineMessagesHandler extends IQHandler implements ServerFeature
         // Mark that offline messages shouldn't be sent when the user becomes available
         stopOfflineFlooding(senderJID);
         List<DiscoItem> answer = new ArrayList<>();
-        for (OfflineMessage offlineMessage : messageStore.getMessages(senderJID.getNode(), false)) {
-            answer.add(new DiscoItem(senderJID.asBareJID(), offlineMessage.getFrom().toString(),
-                    XMPPDateTimeFormat.format(offlineMessage.getCreationDate()), null));
+        try (OfflineMessageCursor offlineMessages = messageStore.getMessageCursor(senderJID.getNode(), false)) {
+            while (offlineMessages.hasNext()) {
+                final OfflineMessage offlineMessage = offlineMessages.next();
+                answer.add(new DiscoItem(senderJID.asBareJID(), offlineMessage.getFrom().toString(),
+                        XMPPDateTimeFormat.format(offlineMessage.getCreationDate()), null));
+            }
         }
 
         return answer.iterator();
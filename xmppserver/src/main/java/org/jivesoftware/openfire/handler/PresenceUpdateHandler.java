@@ -270,9 +270,10 @@ public class PresenceUpdateHandler extends BasicModule implements ChannelHandler
             }
             if (session.canFloodOfflineMessages()) {
                 // deliver offline messages if any
-                Collection<OfflineMessage> messages = messageStore.getMessages(username, true);
-                for (Message message : messages) {
-                    session.process(message);
+                try (OfflineMessageCursor messages = messageStore.getMessageCursor(username, true)) {
+                    while (messages.hasNext()) {
+                        session.process(messages.next());
+                    }
                 }
             }
         }
@@ -18,6 +18,7 @@ package org.jivesoftware.openfire.interceptor;
 
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.session.Session;
+import org.jivesoftware.openfire.stats.StanzaPipelineMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.Packet;
@@ -146,6 +147,37 @@ public class InterceptorManager {
         }
     }
 
+    /**
+     * Returns true if at least one interceptor that is invoked for packets that are sent by the
+     * specified session can modify those packets (as reported by
+     * {@link PacketInterceptor#modifiesSentPackets()}). This includes global interceptors.
+     *
+     * @param session the session that sends packets (can be null).
+     * @return true if sent packets can be modified by an interceptor, otherwise false.
+     */
+    public boolean hasModifyingInterceptors(Session session) {
+        for (PacketInterceptor interceptor : globalInterceptors) {
+            if (interceptor.modifiesSentPackets()) {
+                return true;
+            }
+        }
+        if (usersInterceptors.isEmpty()) {
+            return false;
+        }
+        String username = session != null && session.getAddress() != null ? session.getAddress().getNode() : null;
+        if (username != null && server.isLocal(session.getAddress())) {
+            final List<PacketInterceptor> userInterceptors = usersInterceptors.get(username);
+            if (userInterceptors != null) {
+                for (PacketInterceptor interceptor : userInterceptors) {
+                    if (interceptor.modifiesSentPackets()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Inserts a new interceptor at specified index in the list of currently configured
      * interceptors for a specific username. This interceptor will be used only when a packet
@@ -226,18 +258,23 @@ public class InterceptorManager {
     public void invokeInterceptors(Packet packet, Session session, boolean read, boolean processed)
             throws PacketRejectedException
     {
-        // Invoke the global interceptors for this packet
-        invokeInterceptors( globalInterceptors, packet, session, read, processed );
+        final long start = StanzaPipelineMetrics.start();
+        try {
+            // Invoke the global interceptors for this packet
+            invokeInterceptors( globalInterceptors, packet, session, read, processed );
 
-        // Invoke the interceptors that are related to the address of the session
-        if (usersInterceptors.isEmpty()) {
-            // Do nothing
-            return;
-        }
-        String username = session != null ? session.getAddress().getNode() : null;
-        if (username != null && server.isLocal(session.getAddress())) {
-            Collection<PacketInterceptor> userInterceptors = usersInterceptors.get(username);
-            invokeInterceptors( userInterceptors, packet, session, read, processed );
+            // Invoke the interceptors that are related to the address of the session
+            if (usersInterceptors.isEmpty()) {
+                // Do nothing
+                return;
+            }
+            String username = session != null ? session.getAddress().getNode() : null;
+            if (username != null && server.isLocal(session.getAddress())) {
+                Collection<PacketInterceptor> userInterceptors = usersInterceptors.get(username);
+                invokeInterceptors( userInterceptors, packet, session, read, processed );
+            }
+        } finally {
+            StanzaPipelineMetrics.getInstance().record(StanzaPipelineMetrics.Stage.INTERCEPTORS, packet, start);
         }
     }
 
@@ -263,6 +300,7 @@ public class InterceptorManager {
 
         for ( final PacketInterceptor interceptor : interceptors )
         {
+            final long start = StanzaPipelineMetrics.start();
             try
             {
                 interceptor.interceptPacket( packet, session, read, processed );
@@ -283,6 +321,10 @@ public class InterceptorManager {
             {
                 Log.error( "Error in interceptor: " + interceptor + " while intercepting: " + packet, e );
             }
+            finally
+            {
+                StanzaPipelineMetrics.getInstance().recordInterceptor( interceptor, start );
+            }
         }
     }
 }
@@ -141,6 +141,12 @@ public class PacketCopier implements PacketInterceptor, ComponentEventListener {
         }
     }
 
+    @Override
+    public boolean modifiesSentPackets() {
+        // Packets are only copied.
+        return false;
+    }
+
     @Override
     public void componentInfoReceived(IQ iq) {
         //Ignore
@@ -60,4 +60,18 @@ public interface PacketInterceptor {
      */
     void interceptPacket(Packet packet, Session session, boolean incoming, boolean processed)
             throws PacketRejectedException;
+
+    /**
+     * Returns true if this interceptor can modify packets that are sent by the server. Openfire
+     * serializes a stanza that is broadcast to many recipients only once, but only when none of
+     * the interceptors that apply to the recipient can modify the stanza before it is sent.<p>
+     *
+     * Interceptors that never modify sent packets (for example, those that only inspect them, or
+     * that only act on incoming packets) should override this method to return false.
+     *
+     * @return true if this interceptor can modify sent packets (the default), otherwise false.
+     */
+    default boolean modifiesSentPackets() {
+        return true;
+    }
 }
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.jivesoftware.util.JiveInitialLdapContext;
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Deque;
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of connections that Openfire opens to the LDAP directory.
+ *
+ * Lookups and searches are performed using contexts that are bound with the administrative credentials. These contexts
+ * are pooled: a context that is obtained from this pool is returned to it when it is closed, and is then reused (per
+ * base DN) rather than opening a new connection for every operation. The number of threads that use contexts at any
+ * time is limited by {@link #SEARCH_MAX_SIZE}. A thread that already uses a context can obtain additional contexts
+ * without waiting (some operations, such as loading a user and its groups, use a second context while the first is in
+ * use), which prevents threads that wait for each other from exhausting the pool. Contexts that have been idle for
+ * longer than {@link #MAX_IDLE} are closed, and contexts that have been idle for longer than
+ * {@link #VALIDATE_AFTER_IDLE} are verified before they are reused.
+ *
+ * The connection of a context is re-established whenever its credentials change, which means that a connection on
+ * which a user was authenticated cannot be reused. Authentication attempts are therefore not pooled, but the number of
+ * concurrent attempts is limited by {@link #BIND_MAX_SIZE}. A burst of logins (eg: after a restart) is queued in
+ * Openfire, rather than causing a connection per login to be opened to the directory.
+ *
+ * When a context or an authentication attempt does not become available within {@link #ACQUIRE_TIMEOUT}, a
+ * {@link ServiceUnavailableException} is thrown.
+ */
+class LdapContextPool
+{
+    private static final Logger Log = LoggerFactory.getLogger(LdapContextPool.class);
+
+    /**
+     * Enables or disables pooling of LDAP contexts and limiting of concurrent authentication attempts.
+     */
+    public static final SystemProperty<Boolean> ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("ldap.pool.enabled")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum number of threads that use contexts for lookups and searches at the same time.
+     */
+    public static final SystemProperty<Integer> SEARCH_MAX_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("ldap.pool.search.max-size")
+        .setDefaultValue(10)
+        .setMinValue(1)
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The maximum number of users that is authenticated at the same time.
+     */
+    public static final SystemProperty<Integer> BIND_MAX_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("ldap.pool.bind.max-size")
+        .setDefaultValue(10)
+        .setMinValue(1)
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The maximum amount of time to wait for a context, or for permission to authenticate a user, to become available.
+     */
+    public static final SystemProperty<Duration> ACQUIRE_TIMEOUT = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("ldap.pool.acquire-timeout")
+        .setDefaultValue(Duration.ofSeconds(10))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The amount of time after which an idle context is closed.
+     */
+    public static final SystemProperty<Duration> MAX_IDLE = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("ldap.pool.max-idle")
+        .setDefaultValue(Duration.ofMinutes(5))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The amount of time after which an idle context is verified (by reading the entry of its base DN) before it is
+     * reused.
+     */
+    public static final SystemProperty<Duration> VALIDATE_AFTER_IDLE = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("ldap.pool.validate-after-idle")
+        .setDefaultValue(Duration.ofSeconds(30))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * Creates a new context for a base DN.
+     */
+    @FunctionalInterface
+    interface ContextFactory
+    {
+        @Nonnull
+        PooledContext create(@Nonnull LdapName baseDN) throws NamingException;
+    }
+
+    private final Semaphore searchPermits;
+    private final Semaphore bindPermits;
+
+    /**
+     * The number of contexts that are in use by the current thread. A thread holds one permit while it uses any number
+     * of contexts.
+     */
+    private final ThreadLocal<AtomicInteger> contextsOfThread = ThreadLocal.withInitial(AtomicInteger::new);
+
+    /**
+     * The number of contexts that are in use.
+     */
+    private final AtomicInteger leasedCount = new AtomicInteger();
+
+    /**
+     * Contexts that are not in use, per base DN, most recently used first.
+     */
+    private final ConcurrentMap<LdapName, Deque<PooledContext>> idleContexts = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented whenever the pool is cleared, so that contexts that were in use at that time are closed (rather than
+     * returned to the pool) when they are no longer used.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    LdapContextPool()
+    {
+        this(SEARCH_MAX_SIZE.getValue(), BIND_MAX_SIZE.getValue());
+    }
+
+    LdapContextPool(final int searchMaxSize, final int bindMaxSize)
+    {
+        this.searchPermits = new Semaphore(searchMaxSize, true);
+        this.bindPermits = new Semaphore(bindMaxSize, true);
+    }
+
+    /**
+     * Returns a context for the provided base DN, which is reused from the pool if possible. The context is returned to
+     * the pool when it is closed. When the current thread does not use any other context of this pool, this waits for
+     * one of the threads that use contexts to close all of theirs.
+     *
+     * @param baseDN the base DN of the context.
+     * @param factory creates a new context if no idle context is available.
+     * @return a context.
+     * @throws NamingException if no context became available in time, or if a new context could not be created.
+     */
+    @Nonnull
+    LdapContext borrow(@Nonnull final LdapName baseDN, @Nonnull final ContextFactory factory) throws NamingException
+    {
+        final AtomicInteger contexts = contextsOfThread.get();
+        if (contexts.get() == 0) {
+            acquire(searchPermits, "context");
+        }
+        contexts.incrementAndGet();
+        try {
+            final Deque<PooledContext> idle = idleContexts.get(baseDN);
+            if (idle != null) {
+                PooledContext context;
+                while ((context = idle.pollFirst()) != null) {
+                    if (isReusable(context)) {
+                        context.lease(contexts);
+                        leasedCount.incrementAndGet();
+                        return context;
+                    }
+                    context.destroy();
+                }
+            }
+
+            final int currentGeneration = generation.get();
+            final PooledContext context = factory.create(baseDN);
+            context.generation = currentGeneration;
+            context.lease(contexts);
+            leasedCount.incrementAndGet();
+            return context;
+        } catch (NamingException | RuntimeException e) {
+            releasePermit(contexts);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a context that is no longer used to the pool.
+     *
+     * @param context the context.
+     */
+    void release(@Nonnull final PooledContext context)
+    {
+        try {
+            if (context.generation != generation.get()) {
+                context.destroy();
+                return;
+            }
+            try {
+                // Do not let controls (eg: for paged results) of the previous user apply to the next.
+                context.setRequestControls(null);
+            } catch (NamingException e) {
+                Log.debug("Unable to reset the request controls of a pooled context. Closing it instead.", e);
+                context.destroy();
+                return;
+            }
+            context.releasedAt = System.nanoTime();
+            final Deque<PooledContext> idle = idleContexts.computeIfAbsent(context.baseDN, k -> new ConcurrentLinkedDeque<>());
+            idle.offerFirst(context);
+            closeExpired(idle);
+        } finally {
+            leasedCount.decrementAndGet();
+            releasePermit(context.contextsOfThread);
+        }
+    }
+
+    /**
+     * Records that a thread no longer uses one of its contexts, returning its permit when it no longer uses any.
+     *
+     * @param contexts the number of contexts that are in use by the thread.
+     */
+    private void releasePermit(@Nonnull final AtomicInteger contexts)
+    {
+        if (contexts.decrementAndGet() == 0) {
+            searchPermits.release();
+        }
+    }
+
+    /**
+     * Waits for permission to authenticate a user. The permission must be returned by invoking
+     * {@link #releaseBindPermit()}.
+     *
+     * @throws NamingException if permission was not granted in time.
+     */
+    void acquireBindPermit() throws NamingException
+    {
+        acquire(bindPermits, "authentication");
+    }
+
+    /**
+     * Returns a permission that was obtained by {@link #acquireBindPermit()}.
+     */
+    void releaseBindPermit()
+    {
+        bindPermits.release();
+    }
+
+    /**
+     * Closes all idle contexts. Contexts that are in use are closed when they are no longer used. This is to be invoked
+     * whenever the configuration of the connection to the directory changes.
+     */
+    void clear()
+    {
+        generation.incrementAndGet();
+        for (final Deque<PooledContext> idle : idleContexts.values()) {
+            PooledContext context;
+            while ((context = idle.pollFirst()) != null) {
+                context.destroy();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of contexts that are not in use.
+     *
+     * @return a number of contexts.
+     */
+    int getIdleCount()
+    {
+        return idleContexts.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    /**
+     * Returns the number of contexts that are in use.
+     *
+     * @return a number of contexts.
+     */
+    int getLeasedCount()
+    {
+        return leasedCount.get();
+    }
+
+    private boolean isReusable(@Nonnull final PooledContext context)
+    {
+        if (context.generation != generation.get()) {
+            return false;
+        }
+        final long idleNanos = System.nanoTime() - context.releasedAt;
+        if (idleNanos > MAX_IDLE.getValue().toNanos()) {
+            return false;
+        }
+        if (idleNanos > VALIDATE_AFTER_IDLE.getValue().toNanos()) {
+            try {
+                // Reads the entry of the base DN, without any of its attributes.
+                context.getAttributes("", new String[] { "1.1" });
+            } catch (NamingException e) {
+                Log.debug("A pooled context for base DN '{}' is no longer usable. Closing it.", context.baseDN, e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void closeExpired(@Nonnull final Deque<PooledContext> idle)
+    {
+        final long maxIdleNanos = MAX_IDLE.getValue().toNanos();
+        PooledContext oldest;
+        while ((oldest = idle.peekLast()) != null && System.nanoTime() - oldest.releasedAt > maxIdleNanos) {
+            if (idle.removeLastOccurrence(oldest)) {
+                oldest.destroy();
+            }
+        }
+    }
+
+    private static void acquire(@Nonnull final Semaphore permits, @Nonnull final String kind) throws NamingException
+    {
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT.getValue().toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new ServiceUnavailableException("Timed out while waiting for an LDAP " + kind + " to become available.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedNamingException("Interrupted while waiting for an LDAP " + kind + " to become available.");
+        } finally {
+            LdapMetrics.getInstance().record(LdapMetrics.Operation.POOL_WAIT, start);
+        }
+    }
+
+    /**
+     * A context that is returned to its pool, rather than closed, when {@link #close()} is invoked.
+     */
+    static class PooledContext extends JiveInitialLdapContext
+    {
+        private final LdapContextPool pool;
+        private final LdapName baseDN;
+        private final AtomicBoolean leased = new AtomicBoolean();
+        private volatile int generation;
+        private volatile long releasedAt;
+
+        /**
+         * The number of contexts that are in use by the thread that is using this context.
+         */
+        private volatile AtomicInteger contextsOfThread;
+
+        PooledContext(@Nonnull final Hashtable<?, ?> environment, @Nonnull final LdapContextPool pool, @Nonnull final LdapName baseDN) throws NamingException
+        {
+            super(environment, null);
+            this.pool = pool;
+            this.baseDN = baseDN;
+        }
+
+        private void lease(@Nonnull final AtomicInteger contextsOfThread)
+        {
+            this.contextsOfThread = contextsOfThread;
+            leased.set(true);
+        }
+
+        @Override
+        public void close()
+        {
+            // Closing a context more than once must not return it to the pool more than once.
+            if (leased.compareAndSet(true, false)) {
+                pool.release(this);
+            }
+        }
+
+        /**
+         * Closes the connection of this context.
+         */
+        void destroy()
+        {
+            try {
+                super.close();
+            } catch (NamingException e) {
+                Log.debug("An exception occurred while closing a pooled context for base DN '{}'.", baseDN, e);
+            }
+        }
+    }
+}
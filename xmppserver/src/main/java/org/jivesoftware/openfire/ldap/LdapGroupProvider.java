@@ -337,6 +337,7 @@ public class LdapGroupProvider extends AbstractGroupProvider {
             return Collections.emptyList();
         }
 
+        final long start = System.nanoTime();
         Set<String> groupNames = new LinkedHashSet<>(search(manager.getGroupMemberField(), username));
 
         if (manager.isFlattenNestedGroups()) {
@@ -375,6 +376,7 @@ public class LdapGroupProvider extends AbstractGroupProvider {
                 }
             }
         }
+        LdapMetrics.getInstance().record(LdapMetrics.Operation.GROUP_MEMBERSHIP, start);
         return groupNames;
     }
 
@@ -70,6 +70,9 @@ import java.util.*;
  *          "com.sun.jndi.ldap.LdapCtxFactory" will be used.</li>
  *      <li>ldap.connectionPoolEnabled -- true if an LDAP connection pool should be used.
  *          False if not set.</li>
+ *      <li>ldap.pool.enabled -- true if Openfire should limit the number of connections to the LDAP
+ *          server, by reusing the connections used for lookups and searches, and by limiting the
+ *          number of concurrent authentication attempts. False if not set.</li>
  *      <li>ldap.findUsersFromGroupsEnabled</li> -- If true then Openfire users will be identified from the members
  *      of Openfire groups instead of from the list of all users in LDAP. This option is only useful if you wish to
  *      restrict the users of Openfire to those in certain groups. Normally this is done by applying an appropriate
@@ -211,6 +214,14 @@ public class LdapManager {
 
     private Cache<String, CacheableOptional<DNCacheEntry>> userDNCache = null;
 
+    /**
+     * Records the usernames for which no DN was found. These are kept separate from {@link #userDNCache}, so that they
+     * can expire sooner.
+     */
+    private Cache<String, CacheableOptional<DNCacheEntry>> userDNMissCache = null;
+
+    private volatile LdapContextPool contextPool = null;
+
     /**
      * Provides singleton access to an instance of the LdapManager class.
      *
@@ -268,6 +279,7 @@ public class LdapManager {
         if (JiveGlobals.getBooleanProperty("ldap.userDNCache.enabled", true)) {
             String cacheName = "LDAP UserDN";
             userDNCache = CacheFactory.createCache( cacheName );
+            userDNMissCache = CacheFactory.createCache( "LDAP UserDN Misses" );
         }
 
         String host = properties.get("ldap.host");
@@ -622,12 +634,78 @@ public class LdapManager {
      * lookups and searches using the specified base DN. The context uses the
      * admin login that is defined by {@code adminDN} and {@code adminPassword}.
      *
+     * When {@code ldap.pool.enabled} is set, the context is obtained from a pool
+     * of a limited size, and is returned to that pool when it is closed. Callers
+     * must therefore always close the context.
+     *
      * @param baseDN the base DN to use for the context.
      * @return a connection to the LDAP server.
      * @throws NamingException if there is an error making the LDAP connection.
      */
     public LdapContext getContext(LdapName baseDN) throws NamingException {
+        final LdapContextPool pool = getContextPool();
+        if (pool != null) {
+            return pool.borrow(baseDN, dn -> (LdapContextPool.PooledContext) createContext(dn, pool));
+        }
+        return createContext(baseDN, null);
+    }
+
+    /**
+     * Returns the pool that limits the number of connections to the LDAP server, or
+     * null if connections are not pooled. Only the singleton instance pools its
+     * connections: instances that are created to test a configuration (eg: during
+     * setup) do not, as nothing would close their idle connections.
+     *
+     * @return the pool, or null.
+     */
+    private LdapContextPool getContextPool() {
+        if (this != instance) {
+            return null;
+        }
+        if (!LdapContextPool.ENABLED.getValue()) {
+            if (contextPool != null) {
+                synchronized (this) {
+                    if (contextPool != null) {
+                        // Pooling was disabled: close the connections that are no longer going to be used.
+                        contextPool.clear();
+                        contextPool = null;
+                    }
+                }
+            }
+            return null;
+        }
+        if (contextPool == null) {
+            synchronized (this) {
+                if (contextPool == null) {
+                    contextPool = new LdapContextPool();
+                }
+            }
+        }
+        return contextPool;
+    }
+
+    /**
+     * Closes all pooled connections, as the configuration of the connection to
+     * the LDAP server changed.
+     */
+    private void clearContextPool() {
+        final LdapContextPool pool = contextPool;
+        if (pool != null) {
+            pool.clear();
+        }
+    }
+
+    /**
+     * Creates a new context for the LDAP server, which uses the admin login.
+     *
+     * @param baseDN the base DN to use for the context.
+     * @param pool the pool to which the context is returned when closed, or null if the context is not pooled.
+     * @return a connection to the LDAP server.
+     * @throws NamingException if there is an error making the LDAP connection.
+     */
+    private JiveInitialLdapContext createContext(LdapName baseDN, LdapContextPool pool) throws NamingException {
         Log.debug("Creating a DirContext in LdapManager.getContext() for baseDN '{}'...", baseDN);
+        final long start = System.nanoTime();
         if (!sslEnabled && !startTlsEnabled) {
             Log.warn("Using unencrypted connection to LDAP service!");
         }
@@ -694,7 +772,9 @@ public class LdapManager {
         Log.debug("Created hashtable with context values, attempting to create context...");
 
         // Create new initial context
-        JiveInitialLdapContext context = new JiveInitialLdapContext(env, null);
+        JiveInitialLdapContext context = pool != null
+            ? new LdapContextPool.PooledContext(env, pool, baseDN)
+            : new JiveInitialLdapContext(env, null);
 
         // TLS http://www.ietf.org/rfc/rfc2830.txt ("1.3.6.1.4.1.1466.20037")
         if (startTlsEnabled && !sslEnabled) {
@@ -741,6 +821,7 @@ public class LdapManager {
         }
 
         Log.debug("... context created successfully, returning.");
+        LdapMetrics.getInstance().record(LdapMetrics.Operation.CONNECT, start);
 
         return context;
     }
@@ -754,6 +835,28 @@ public class LdapManager {
      * @return true if the user successfully authenticates.
      */
     public boolean checkAuthentication(Rdn[] userRDN, String password) {
+        // Connections on which a user authenticated cannot be reused, but the number of concurrent attempts is limited.
+        final LdapContextPool pool = getContextPool();
+        if (pool != null) {
+            try {
+                pool.acquireBindPermit();
+            } catch (NamingException e) {
+                Log.warn("Unable to authenticate user with RDN {}: {}", Arrays.toString(userRDN), e.getMessage());
+                return false;
+            }
+        }
+        final long start = System.nanoTime();
+        try {
+            return authenticate(userRDN, password);
+        } finally {
+            LdapMetrics.getInstance().record(LdapMetrics.Operation.AUTHENTICATE, start);
+            if (pool != null) {
+                pool.releaseBindPermit();
+            }
+        }
+    }
+
+    private boolean authenticate(Rdn[] userRDN, String password) {
         Log.debug("In LdapManager.checkAuthentication(userDN, password), userRDN is: " + Arrays.toString(userRDN) + "...");
 
         if (!sslEnabled && !startTlsEnabled) {
@@ -1032,7 +1135,7 @@ public class LdapManager {
         if ( userDNCache != null )
         {
             // Return a cache entry if one exists.
-            final CacheableOptional<DNCacheEntry> dnCacheEntry = userDNCache.get( username );
+            final CacheableOptional<DNCacheEntry> dnCacheEntry = getCachedUserDN( username );
             if ( dnCacheEntry != null )
             {
                 if (dnCacheEntry.isAbsent()) {
@@ -1068,13 +1171,29 @@ public class LdapManager {
             } catch ( UserNotFoundException ex ) {
                 if (userDNCache != null) {
                     // Cache the 'not found' event to prevent incurring costs for future lookups (that will be equally unsuccessful). OF-2170
-                    userDNCache.put(username, CacheableOptional.of(null));
+                    userDNMissCache.put(username, CacheableOptional.of(null));
                 }
                 throw ex;
             }
         }
     }
 
+    /**
+     * Returns the cached result of an earlier search for the DN of a user, or null if no such result is cached.
+     *
+     * @param username the username to lookup the dn for.
+     * @return the cached result (which is absent if no DN was found), or null.
+     */
+    private CacheableOptional<DNCacheEntry> getCachedUserDN( String username )
+    {
+        final CacheableOptional<DNCacheEntry> miss = userDNMissCache.get( username );
+        if ( miss != null )
+        {
+            return miss;
+        }
+        return userDNCache.get( username );
+    }
+
     /**
      * Finds a user's RDN using their username in the specified baseDN. Normally, this search
      * will be performed using the field "uid", but this can be changed by setting
@@ -1101,6 +1220,7 @@ public class LdapManager {
      * @see #findUserRDN(String) to search using the default baseDN and alternateBaseDN.
      */
     public Rdn[] findUserRDN(String username, LdapName baseDN) throws Exception {
+        final long start = System.nanoTime();
         //Support for usernameSuffix
         username = username + usernameSuffix;
         Log.debug("Trying to find a user's RDN based on their username: '{}'. Field: '{}', Base DN: '{}' ...", username, usernameField, baseDN);
@@ -1160,6 +1280,7 @@ public class LdapManager {
             catch (Exception e) {
                 Log.debug("An unexpected exception occurred while closing the LDAP context after searching for user '{}'.", username, e);
             }
+            LdapMetrics.getInstance().record(LdapMetrics.Operation.USER_DN_LOOKUP, start);
         }
     }
 
@@ -1426,6 +1547,7 @@ public class LdapManager {
             hostProperty.setLength(hostProperty.length()-1);
         }
         properties.put("ldap.host", hostProperty.toString());
+        clearContextPool();
     }
 
     /**
@@ -1447,6 +1569,7 @@ public class LdapManager {
     public void setPort(int port) {
         this.port = port;
         properties.put("ldap.port", Integer.toString(port));
+        clearContextPool();
     }
 
     /**
@@ -1470,6 +1593,7 @@ public class LdapManager {
     public void setDebugEnabled(boolean debugEnabled) {
         this.ldapDebugEnabled = debugEnabled;
         properties.put("ldap.ldapDebugEnabled", Boolean.toString(debugEnabled));
+        clearContextPool();
     }
 
     /**
@@ -1489,6 +1613,7 @@ public class LdapManager {
     public void setSslEnabled(boolean sslEnabled) {
         this.sslEnabled = sslEnabled;
         properties.put("ldap.sslEnabled", Boolean.toString(sslEnabled));
+        clearContextPool();
     }
 
     /**
@@ -1508,6 +1633,7 @@ public class LdapManager {
     public void setStartTlsEnabled(boolean startTlsEnabled) {
         this.startTlsEnabled = startTlsEnabled;
         properties.put("ldap.startTlsEnabled", Boolean.toString(startTlsEnabled));
+        clearContextPool();
     }
 
 
@@ -1637,6 +1763,7 @@ public class LdapManager {
     public void setBaseDN(LdapName baseDN) {
         this.baseDN = baseDN;
         properties.put("ldap.baseDN", baseDN.toString());
+        clearContextPool();
     }
 
     /**
@@ -1666,6 +1793,7 @@ public class LdapManager {
         else {
             properties.put("ldap.alternateBaseDN", alternateBaseDN.toString());
         }
+        clearContextPool();
     }
 
     /**
@@ -1680,7 +1808,7 @@ public class LdapManager {
         if ( userDNCache != null )
         {
             // Return a cache entry if one exists.
-            final CacheableOptional<DNCacheEntry> dnCacheEntry = userDNCache.get( username );
+            final CacheableOptional<DNCacheEntry> dnCacheEntry = getCachedUserDN( username );
             if ( dnCacheEntry != null )
             {
                 if (dnCacheEntry.isAbsent()) {
@@ -1721,7 +1849,7 @@ public class LdapManager {
 
                 if (userDNCache != null) {
                     // Cache the 'not found' event to prevent incurring costs for future lookups (that will be equally unsuccessful). OF-2170
-                    userDNCache.put(username, CacheableOptional.of(null));
+                    userDNMissCache.put(username, CacheableOptional.of(null));
                 }
             }
             catch ( Exception ex )
@@ -1778,6 +1906,7 @@ public class LdapManager {
     public void setAdminDN(String adminDN) {
         this.adminDN = adminDN;
         properties.put("ldap.adminDN", adminDN);
+        clearContextPool();
     }
 
     /**
@@ -1799,6 +1928,7 @@ public class LdapManager {
     public void setAdminPassword(String adminPassword) {
         this.adminPassword = adminPassword;
         properties.put("ldap.adminPassword", adminPassword);
+        clearContextPool();
     }
 
     /**
@@ -1809,6 +1939,7 @@ public class LdapManager {
     public void setConnectionPoolEnabled(boolean connectionPoolEnabled) {
         this.connectionPoolEnabled = connectionPoolEnabled;
         properties.put("ldap.connectionPoolEnabled", Boolean.toString(connectionPoolEnabled));
+        clearContextPool();
     }
 
     /**
@@ -1893,6 +2024,7 @@ public class LdapManager {
     public void setFollowReferralsEnabled(boolean followReferrals) {
         this.followReferrals = followReferrals;
         properties.put("ldap.autoFollowReferrals", String.valueOf(followReferrals));
+        clearContextPool();
     }
 
     /**
@@ -1912,6 +2044,7 @@ public class LdapManager {
     public void setFollowAliasReferralsEnabled(boolean followAliasReferrals) {
         this.followAliasReferrals = followAliasReferrals;
         properties.put("ldap.autoFollowAliasReferrals", String.valueOf(followAliasReferrals));
+        clearContextPool();
     }
 
     /**
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.jivesoftware.openfire.JMXManager;
+import org.jivesoftware.openfire.stats.LatencyHistogram;
+
+import javax.annotation.Nonnull;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Records the duration of operations that Openfire performs against the LDAP directory, per kind of operation.
+ *
+ * The distributions are exposed as MBeans (when JMX is enabled), using object names that start with
+ * {@link #BASE_OBJECT_NAME}.
+ */
+public final class LdapMetrics
+{
+    /**
+     * A kind of operation that is performed against the LDAP directory.
+     */
+    public enum Operation
+    {
+        /**
+         * Establishing a new connection, including the bind with the administrative credentials and, if configured,
+         * the StartTLS negotiation.
+         */
+        CONNECT("connect"),
+
+        /**
+         * Waiting for a pooled connection, or for permission to authenticate a user, to become available.
+         */
+        POOL_WAIT("poolWait"),
+
+        /**
+         * Verifying the credentials of a user.
+         */
+        AUTHENTICATE("authenticate"),
+
+        /**
+         * Searching for the DN of a user (lookups that are answered from the cache are not recorded).
+         */
+        USER_DN_LOOKUP("userDNLookup"),
+
+        /**
+         * Searching for the groups that a user is a member of.
+         */
+        GROUP_MEMBERSHIP("groupMembership");
+
+        private final String name;
+
+        Operation(@Nonnull final String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name by which the operation is identified in JMX.
+         *
+         * @return the name of the operation.
+         */
+        @Nonnull
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    /**
+     * The base of the object names under which distributions are registered as MBeans.
+     */
+    public static final String BASE_OBJECT_NAME = "org.igniterealtime.openfire:type=Ldap,";
+
+    private static final LdapMetrics instance = new LdapMetrics();
+
+    /**
+     * Returns the singleton instance.
+     *
+     * @return the instance.
+     */
+    public static LdapMetrics getInstance()
+    {
+        return instance;
+    }
+
+    private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+
+    LdapMetrics()
+    {
+        for (final Operation operation : Operation.values()) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histograms.put(operation, histogram);
+            if (JMXManager.isEnabled()) {
+                JMXManager.tryRegister(histogram, BASE_OBJECT_NAME + "operation=" + operation.getName());
+            }
+        }
+    }
+
+    /**
+     * Records the completion of an operation.
+     *
+     * @param operation the operation that completed.
+     * @param start the value of {@link System#nanoTime()} when the operation started.
+     */
+    public void record(@Nonnull final Operation operation, final long start)
+    {
+        histograms.get(operation).record(System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the distribution of the duration of an operation.
+     *
+     * @param operation the operation.
+     * @return the distribution.
+     */
+    @Nonnull
+    public LatencyHistogram getHistogram(@Nonnull final Operation operation)
+    {
+        return histograms.get(operation);
+    }
+
+    /**
+     * Discards all recorded durations.
+     */
+    public void resetStatistics()
+    {
+        histograms.values().forEach(LatencyHistogram::resetStatistics);
+    }
+}
@@ -19,8 +19,7 @@ package org.jivesoftware.openfire.muc;
 import java.text.ParseException;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.List;
 
 import org.dom4j.Element;
 import org.jivesoftware.util.XMPPDateTimeFormat;
@@ -143,57 +142,15 @@ public class HistoryRequest {
                 // The user requested to receive no history
                 return;
             }
-            int accumulatedChars = 0;
-            int accumulatedStanzas = 0;
-            Element delayInformation;
-            LinkedList<Message> historyToSend = new LinkedList<>();
-            ListIterator<Message> iterator = roomHistory.getReverseMessageHistory();
-            while (iterator.hasPrevious()) {
-                Message message = iterator.previous();
-                // Update number of characters to send
-                String text = message.getBody() == null ? message.getSubject() : message.getBody();
-                if (text == null) {
-                    // Skip this message since it has no body and no subject  
-                    continue;
+            // Messages that were sent before the requested number of seconds ago are excluded.
+            Date notBefore = getSince();
+            if (getSeconds() > -1) {
+                final Date secondsAgo = new Date(System.currentTimeMillis() - getSeconds() * 1000L + 1);
+                if (notBefore == null || notBefore.before(secondsAgo)) {
+                    notBefore = secondsAgo;
                 }
-                accumulatedChars += text.length();
-                if (getMaxChars() > -1 && accumulatedChars > getMaxChars()) {
-                    // Stop collecting history since we have exceded a limit
-                    break;
-                }
-                // Update number of messages to send
-                accumulatedStanzas ++;
-                if (getMaxStanzas() > -1 && accumulatedStanzas > getMaxStanzas()) {
-                    // Stop collecting history since we have exceded a limit
-                    break;
-                }
-
-                if (getSeconds() > -1 || getSince() != null) {
-                    delayInformation = message.getChildElement("delay", "urn:xmpp:delay");
-                    try {
-                        // Get the date when the historic message was sent
-                        Date delayedDate = xmppDateTime.parseString(delayInformation.attributeValue("stamp"));
-                        if (getSince() != null && delayedDate != null && delayedDate.before(getSince())) {
-                            // Stop collecting history since we have exceded a limit
-                            break;
-                        }
-                        if (getSeconds() > -1) {
-                            Date current = new Date();
-                            long diff = (current.getTime() - delayedDate.getTime()) / 1000;
-                            if (getSeconds() <= diff) {
-                                // Stop collecting history since we have exceded a limit
-                                break;
-                            }
-                        }
-                    }
-                    catch (Exception e) {
-                        Log.error("Error parsing date from historic message", e);
-                    }
-
-                }
-
-                historyToSend.addFirst(message);
             }
+            final List<Message> historyToSend = roomHistory.getRecentMessageHistory(getMaxStanzas(), getMaxChars(), notBefore);
             // Send the smallest amount of traffic to the user
             for (final Message aHistoryToSend : historyToSend) {
                 // OF-2163: Create a defensive copy of the message, to prevent the address that it is sent to to leak back into the archive.
@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc;
+
+import org.dom4j.Element;
+import org.jivesoftware.openfire.cluster.StanzaCodec;
+import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.XMPPDateTimeFormat;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.CacheSizes;
+import org.jivesoftware.util.cache.Cacheable;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import javax.annotation.Nonnull;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Stores the message history of Multi-User Chat rooms.
+ *
+ * Every message is stored as a separate cache entry, keyed by the address of the room and a sequence number that is
+ * assigned when the message is added. For each room, an index records the sequence numbers of the oldest and newest
+ * message. Adding a message, or removing the oldest message of a room, therefore modifies only that message and the
+ * index. In a cluster, this causes only those entries to be replicated, rather than the entire history of the room.
+ *
+ * Messages are kept in the order of the time at which they were sent (as recorded in their delay stamp). A message
+ * that is added after a newer message (for example, history that is loaded from the database after a message was
+ * added to the room) is inserted before the newer messages, which are moved up by one sequence number.
+ *
+ * The number of messages that is kept per room is limited by {@link #MAX_MESSAGES_PER_ROOM}, also for rooms that are
+ * configured to keep their entire history (see {@link HistoryStrategy.Type#all}). The total amount of
+ * memory that is used by messages is limited by the size of the 'MUC History Entries' cache. When a message of a room
+ * is found to have been evicted from that cache, the history of the room is removed from the cache altogether, so that
+ * it is loaded from the database again when it is next needed. The history of a room that is not logged to the
+ * database is lost when this happens.
+ *
+ * The 'MUC History Entries' cache replaces the 'MUC History' cache of earlier versions. The 'cache.mucHistory.size'
+ * and 'cache.mucHistory.maxLifetime' properties apply to it, unless properties are defined for it by its own name.
+ *
+ * Messages can be read without acquiring the lock of a room. A message that is removed while the history is being
+ * read is skipped. A message that is moved while the history is being read can be returned twice.
+ */
+public final class HistoryStore
+{
+    private static final Logger Log = LoggerFactory.getLogger(HistoryStore.class);
+    private static final XMPPDateTimeFormat xmppDateTime = new XMPPDateTimeFormat();
+
+    /**
+     * The maximum number of messages that is kept in the history of a room, regardless of the history strategy that
+     * is configured for the room. This also limits the history of rooms that are configured to keep their entire
+     * history.
+     */
+    public static final SystemProperty<Integer> MAX_MESSAGES_PER_ROOM = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.muc.history.max-per-room")
+        .setDefaultValue(5000)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The index of the history of each room, keyed by the address of the room. A room for which no index exists does
+     * not have its history loaded in the cache.
+     */
+    private static final Cache<JID, Index> INDEX_CACHE = CacheFactory.createCache("MUC History Index");
+
+    /**
+     * The messages of the history of all rooms, keyed by the address of the room and the sequence number of the
+     * message (see {@link #key(JID, long)}).
+     */
+    private static final Cache<String, Entry> ENTRY_CACHE = CacheFactory.createCache("MUC History Entries");
+
+    private HistoryStore() {}
+
+    /**
+     * Returns true if the history of a room is available in the cache (although it can be empty).
+     *
+     * @param roomJID the address of the room.
+     * @return true if the history is available.
+     */
+    static boolean isLoaded(@Nonnull final JID roomJID)
+    {
+        return INDEX_CACHE.containsKey(roomJID);
+    }
+
+    /**
+     * Records that the history of a room is available in the cache, even if no messages have been added to it.
+     *
+     * @param roomJID the address of the room.
+     */
+    static void markLoaded(@Nonnull final JID roomJID)
+    {
+        final Lock lock = INDEX_CACHE.getLock(roomJID);
+        lock.lock();
+        try {
+            if (!INDEX_CACHE.containsKey(roomJID)) {
+                INDEX_CACHE.put(roomJID, new Index());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds messages to the history of a room. Before each message is added, the oldest messages are removed until
+     * the history contains less than the provided maximum number of messages. A message that is older than all
+     * messages in a history that has reached the maximum is not added.
+     *
+     * @param roomJID the address of the room.
+     * @param messages the messages to add, in chronological order.
+     * @param maxMessages the maximum number of messages in the history of the room.
+     */
+    static void append(@Nonnull final JID roomJID, @Nonnull final List<Message> messages, final int maxMessages)
+    {
+        final int limit = Math.min(maxMessages, MAX_MESSAGES_PER_ROOM.getValue());
+        final Lock lock = INDEX_CACHE.getLock(roomJID);
+        lock.lock();
+        try {
+            Index index = INDEX_CACHE.get(roomJID);
+            if (index == null) {
+                index = new Index();
+            }
+            for (final Message message : messages) {
+                final Entry entry = new Entry(message);
+                final boolean outOfOrder = index.size() > 0 && entry.timestamp != Long.MIN_VALUE && entry.timestamp < index.newest;
+                if (outOfOrder && index.size() >= limit) {
+                    final Entry oldest = ENTRY_CACHE.get(key(roomJID, index.first));
+                    if (oldest != null && oldest.timestamp > entry.timestamp) {
+                        continue;
+                    }
+                }
+                while (index.size() > 0 && index.size() >= limit) {
+                    ENTRY_CACHE.remove(key(roomJID, index.first));
+                    index.first++;
+                }
+
+                long sequence = index.next;
+                if (outOfOrder) {
+                    // Move the newer messages up, to insert this message before them.
+                    while (sequence > index.first) {
+                        final Entry previous = ENTRY_CACHE.get(key(roomJID, sequence - 1));
+                        if (previous == null || previous.timestamp <= entry.timestamp) {
+                            break;
+                        }
+                        ENTRY_CACHE.put(key(roomJID, sequence), previous);
+                        sequence--;
+                    }
+                }
+                ENTRY_CACHE.put(key(roomJID, sequence), entry);
+                index.next++;
+                index.newest = Math.max(index.newest, entry.timestamp);
+            }
+
+            // Explicitly add back to cache (Hazelcast won't update-by-reference).
+            INDEX_CACHE.put(roomJID, index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns all messages in the history of a room.
+     *
+     * @param roomJID the address of the room.
+     * @return the messages, in chronological order.
+     */
+    @Nonnull
+    static List<Message> getMessages(@Nonnull final JID roomJID)
+    {
+        final Index index = INDEX_CACHE.get(roomJID);
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        final List<Message> result = new ArrayList<>((int) index.size());
+        boolean incomplete = false;
+        for (long sequence = index.first; sequence < index.next; sequence++) {
+            final Entry entry = ENTRY_CACHE.get(key(roomJID, sequence));
+            if (entry != null) {
+                result.add(entry.message);
+            } else {
+                incomplete = true;
+            }
+        }
+        if (incomplete) {
+            removeIfIncomplete(roomJID);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the most recent messages in the history of a room, as limited by the provided criteria.
+     *
+     * Messages are evaluated from newest to oldest. Messages without a body and without a subject are skipped. The
+     * evaluation stops at the first message that does not meet all criteria, so that only the messages that are
+     * returned are read from the cache.
+     *
+     * @param roomJID the address of the room.
+     * @param maxStanzas the maximum number of messages to return, or -1 for no limit.
+     * @param maxChars the maximum number of characters of the bodies (or subjects) of all messages returned, or -1 for no limit.
+     * @param notBefore the earliest time (in milliseconds since the epoch) at which a returned message was sent, or Long.MIN_VALUE for no limit.
+     * @return the messages, in chronological order.
+     */
+    @Nonnull
+    static List<Message> getRecentMessages(@Nonnull final JID roomJID, final int maxStanzas, final int maxChars, final long notBefore)
+    {
+        final Index index = INDEX_CACHE.get(roomJID);
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        final List<Message> result = new ArrayList<>();
+        boolean incomplete = false;
+        long accumulatedChars = 0;
+        for (long sequence = index.next - 1; sequence >= index.first; sequence--) {
+            if (maxStanzas > -1 && result.size() >= maxStanzas) {
+                break;
+            }
+            final Entry entry = ENTRY_CACHE.get(key(roomJID, sequence));
+            if (entry == null) {
+                incomplete = true;
+            }
+            if (entry == null || entry.chars < 0) {
+                // Skip messages that were removed, and messages that have no body and no subject.
+                continue;
+            }
+            accumulatedChars += entry.chars;
+            if (maxChars > -1 && accumulatedChars > maxChars) {
+                break;
+            }
+            if (entry.timestamp != Long.MIN_VALUE && entry.timestamp < notBefore) {
+                break;
+            }
+            result.add(entry.message);
+        }
+        if (incomplete) {
+            removeIfIncomplete(roomJID);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Removes the history of a room from the cache if any of its messages has been evicted from the cache, so that the
+     * history is loaded from the database again when it is next needed.
+     *
+     * Messages that are found to be missing while the history is read without holding the lock of the room can have
+     * been removed or moved concurrently. This method verifies that messages are missing while holding that lock.
+     *
+     * @param roomJID the address of the room.
+     */
+    private static void removeIfIncomplete(@Nonnull final JID roomJID)
+    {
+        final Lock lock = INDEX_CACHE.getLock(roomJID);
+        lock.lock();
+        try {
+            final Index index = INDEX_CACHE.get(roomJID);
+            if (index == null) {
+                return;
+            }
+            boolean complete = true;
+            for (long sequence = index.first; sequence < index.next && complete; sequence++) {
+                complete = ENTRY_CACHE.containsKey(key(roomJID, sequence));
+            }
+            if (complete) {
+                return;
+            }
+            Log.debug("Messages of the history of room {} have been evicted from the cache. Removing its history from the cache, to have it reloaded.", roomJID);
+            for (long sequence = index.first; sequence < index.next; sequence++) {
+                ENTRY_CACHE.remove(key(roomJID, sequence));
+            }
+            INDEX_CACHE.remove(roomJID);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all messages from the history of a room. The (empty) history remains available in the cache.
+     *
+     * @param roomJID the address of the room.
+     */
+    static void purge(@Nonnull final JID roomJID)
+    {
+        final Lock lock = INDEX_CACHE.getLock(roomJID);
+        lock.lock();
+        try {
+            final Index index = INDEX_CACHE.get(roomJID);
+            if (index != null) {
+                for (long sequence = index.first; sequence < index.next; sequence++) {
+                    ENTRY_CACHE.remove(key(roomJID, sequence));
+                }
+                index.first = index.next;
+                INDEX_CACHE.put(roomJID, index);
+            } else {
+                INDEX_CACHE.put(roomJID, new Index());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nonnull
+    private static String key(@Nonnull final JID roomJID, final long sequence)
+    {
+        // A domain cannot contain a '#' character, which makes this key unique.
+        return roomJID.toBareJID() + '#' + sequence;
+    }
+
+    /**
+     * The range of sequence numbers of the messages in the history of one room.
+     */
+    public static class Index implements Cacheable, Externalizable
+    {
+        /**
+         * The sequence number of the oldest message.
+         */
+        private long first;
+
+        /**
+         * The sequence number that is assigned to the next message that is added.
+         */
+        private long next;
+
+        /**
+         * The latest time at which a message in the history was sent (in milliseconds since the epoch), or
+         * Long.MIN_VALUE if unknown.
+         */
+        private long newest = Long.MIN_VALUE;
+
+        public Index() {}
+
+        long size()
+        {
+            return next - first;
+        }
+
+        @Override
+        public int getCachedSize()
+        {
+            return CacheSizes.sizeOfObject() + CacheSizes.sizeOfLong() * 3;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException
+        {
+            ExternalizableUtil.getInstance().writeLong(out, first);
+            ExternalizableUtil.getInstance().writeLong(out, next);
+            ExternalizableUtil.getInstance().writeLong(out, newest);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException
+        {
+            first = ExternalizableUtil.getInstance().readLong(in);
+            next = ExternalizableUtil.getInstance().readLong(in);
+            newest = ExternalizableUtil.getInstance().readLong(in);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "History index of " + size() + " message stanza(s).";
+        }
+    }
+
+    /**
+     * One message in the history of a room, together with the properties of the message that are used to select the
+     * history that is sent to a new occupant.
+     */
+    public static class Entry implements Cacheable, Externalizable
+    {
+        private Message message;
+
+        /**
+         * The time at which the message was sent (in milliseconds since the epoch), or Long.MIN_VALUE if unknown.
+         */
+        private long timestamp;
+
+        /**
+         * The number of characters in the body (or if absent, the subject) of the message, or -1 if the message has
+         * neither.
+         */
+        private int chars;
+
+        /**
+         * The estimated number of bytes used by the message.
+         */
+        private int size;
+
+        /**
+         * This constructor is provided to comply with the Externalizable interface contract. It should not be used directly.
+         */
+        public Entry() {}
+
+        Entry(@Nonnull final Message message)
+        {
+            this.message = message;
+            final String text = message.getBody() == null ? message.getSubject() : message.getBody();
+            this.chars = text == null ? -1 : text.length();
+            this.timestamp = Long.MIN_VALUE;
+            final Element delay = message.getChildElement("delay", "urn:xmpp:delay");
+            if (delay != null && delay.attributeValue("stamp") != null) {
+                try {
+                    final Date stamp = xmppDateTime.parseString(delay.attributeValue("stamp"));
+                    if (stamp != null) {
+                        this.timestamp = stamp.getTime();
+                    }
+                } catch (ParseException e) {
+                    Log.debug("Unable to parse the delay timestamp of a historic message.", e);
+                }
+            }
+            this.size = CacheSizes.sizeOfObject() + CacheSizes.sizeOfString(message.toXML());
+        }
+
+        @Override
+        public int getCachedSize()
+        {
+            return size;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException
+        {
+            StanzaCodec.writePacket(out, message);
+            ExternalizableUtil.getInstance().writeLong(out, timestamp);
+            ExternalizableUtil.getInstance().writeInt(out, chars);
+            ExternalizableUtil.getInstance().writeInt(out, size);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException
+        {
+            message = (Message) StanzaCodec.readPacket(in);
+            timestamp = ExternalizableUtil.getInstance().readLong(in);
+            chars = ExternalizableUtil.getInstance().readInt(in);
+            size = ExternalizableUtil.getInstance().readInt(in);
+        }
+
+        @Override
+        public String toString()
+        {
+            // Note: this value is shown in the Openfire admin console (in the 'cache values' page). Do not expose
+            // privacy-sensitive data, such as message content.
+            return "A message stanza of " + size + " byte(s).";
+        }
+    }
+}
@@ -16,11 +16,9 @@
 
 package org.jivesoftware.openfire.muc;
 
-import org.dom4j.Element;
 import org.dom4j.tree.DefaultElement;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.muc.spi.MUCPersistenceManager;
-import org.jivesoftware.util.CacheableOptional;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.cache.*;
 import org.slf4j.Logger;
@@ -35,8 +33,6 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 /**
@@ -54,12 +50,6 @@ public class HistoryStrategy implements Externalizable {
 
     private static final Logger Log = LoggerFactory.getLogger(HistoryStrategy.class);
 
-    /**
-     * An unlimited cache that records MUC room messages. The key of the cache is the room JID for which a list of
-     * messages is recorded.
-     */
-    private static final Cache<JID, CacheableOptional<Messages>> MUC_HISTORY_CACHE = CacheFactory.createCache("MUC History");
-
     /**
      * The address of the room (expected to be a bare JID) for which this instance records message history.
      */
@@ -214,24 +204,10 @@ public class HistoryStrategy implements Externalizable {
             strategyMaxNumber = maxNumber;
         }
 
-        final Lock lock = MUC_HISTORY_CACHE.getLock(roomJID);
-        lock.lock();
-        try {
-            final CacheableOptional<Messages> optional = MUC_HISTORY_CACHE.get(roomJID);
-            final Messages history;
-            if (optional == null || optional.isAbsent()) {
-                history = new Messages();
-            } else {
-                history = optional.get();
-            }
-            for (final Message message : messages) {
-                history.add(message, strategyType, strategyMaxNumber);
-            }
-
-            // Explicitly add back to cache (Hazelcast won't update-by-reference).
-            MUC_HISTORY_CACHE.put(roomJID, CacheableOptional.of(history));
-        } finally {
-            lock.unlock();
+        if (strategyType == Type.all) {
+            HistoryStore.append(roomJID, messages, Integer.MAX_VALUE);
+        } else if (strategyType == Type.number) {
+            HistoryStore.append(roomJID, messages, strategyMaxNumber);
         }
     }
 
@@ -244,38 +220,18 @@ public class HistoryStrategy implements Externalizable {
     }
 
     /**
-     * Obtains the historic messages cached for this particular room from the cache.
-     *
-     * This method ensures that a room-based lock is acquired, before interacting with the cache.
-     *
-     * Note that modifications applied to the returned collection are not guaranteed to be applied to the cache.
-     * Explicitly put the collection back in the cache to ensure that changes are persisted there.
-     *
-     * @return The historic messages for this room.
+     * Ensures that the historic messages of this particular room are available in the cache, loading them from the
+     * database if needed.
      */
-    protected Queue<Message> getHistoryFromCache() {
-        // Ensure room history is in cache. Doing this outside of the lock below, to reduce the likelihood of deadlocks occurring.
-        if (!MUC_HISTORY_CACHE.containsKey(roomJID)) {
+    private void ensureHistoryLoaded() {
+        if (!HistoryStore.isLoaded(roomJID)) {
             try {
                 final MUCRoom room = XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatService(roomJID).getChatRoom(roomJID.getNode());
                 MUCPersistenceManager.loadHistory(room, getMaxNumber());
             } catch (Exception e) {
                 Log.error("Unable to load history for room {} from database.", roomJID, e);
             }
-        }
-
-        // Obtain history from cache.
-        final Lock lock = MUC_HISTORY_CACHE.getLock(roomJID);
-        lock.lock();
-        try {
-            final CacheableOptional<Messages> optional = MUC_HISTORY_CACHE.get(roomJID);
-            if (optional == null || optional.isAbsent()) {
-                return new Messages().asCollection();
-            } else {
-                return optional.get().asCollection();
-            }
-        } finally {
-            lock.unlock();
+            HistoryStore.markLoaded(roomJID);
         }
     }
 
@@ -285,10 +241,8 @@ public class HistoryStrategy implements Externalizable {
      * @return An iterator of Message objects to be sent to the new room member.
      */
     public Iterator<Message> getMessageHistory(){
-        final LinkedList<Message> list = new LinkedList<>(getHistoryFromCache());
-        // Sort messages. Messages may be out of order when running inside of a cluster
-        list.sort(new MessageComparator());
-        return list.iterator();
+        ensureHistoryLoaded();
+        return HistoryStore.getMessages(roomJID).iterator();
     }
 
     /**
@@ -299,24 +253,32 @@ public class HistoryStrategy implements Externalizable {
      * @return A list iterator of Message objects positioned at the end of the list.
      */
     public ListIterator<Message> getReverseMessageHistory(){
-        final LinkedList<Message> list = new LinkedList<>(getHistoryFromCache());
-        // Sort messages. Messages may be out of order when running inside of a cluster
-        list.sort(new MessageComparator());
+        ensureHistoryLoaded();
+        final List<Message> list = HistoryStore.getMessages(roomJID);
         return list.listIterator(list.size());
     }
 
+    /**
+     * Obtain the most recent messages of the current history, as limited by the provided criteria. The history is
+     * evaluated from the most recent message backwards, and evaluation stops at the first message that does not meet
+     * all criteria. Messages that have no body and no subject are ignored.
+     *
+     * @param maxStanzas the maximum number of messages, or -1 for no limit.
+     * @param maxChars the maximum total number of characters in the body (or subject) of the messages, or -1 for no limit.
+     * @param since the earliest date at which a message was sent, or null for no limit.
+     * @return The messages, in chronological order.
+     */
+    public List<Message> getRecentMessageHistory(final int maxStanzas, final int maxChars, @Nullable final Date since) {
+        ensureHistoryLoaded();
+        return HistoryStore.getRecentMessages(roomJID, maxStanzas, maxChars, since == null ? Long.MIN_VALUE : since.getTime());
+    }
+
     /**
      * Removes all history that is maintained for this instance.
      */
     public void purge()
     {
-        final Lock lock = MUC_HISTORY_CACHE.getLock(roomJID);
-        lock.lock();
-        try {
-            MUC_HISTORY_CACHE.put(roomJID, CacheableOptional.of(null));
-        } finally {
-            lock.unlock();
-        }
+        HistoryStore.purge(roomJID);
     }
 
     @Override
@@ -482,102 +444,6 @@ public class HistoryStrategy implements Externalizable {
         return JiveGlobals.getBooleanProperty("xmpp.muc.subject.change.strict", true);
     }
 
-    /**
-     * A wrapper for a collection of Message instances that is cached.
-     */
-    public static class Messages implements Cacheable, Externalizable
-    {
-        private ConcurrentLinkedQueue<Message> history = new ConcurrentLinkedQueue<>();
-
-        public Messages() {}
-
-        public void add(Message packet, Type strategyType, int strategyMaxNumber)
-        {
-            // store message according to active strategy
-            if (strategyType == Type.all) {
-                history.add(packet);
-            } else if (strategyType == Type.number) {
-                if (history.size() >= strategyMaxNumber) {
-                    // We have to remove messages so the new message won't exceed the max history size.
-                    while (!history.isEmpty() && history.size() >= strategyMaxNumber) {
-                        history.poll();
-                    }
-                }
-                history.add(packet);
-            }
-        }
-
-        public Queue<Message> asCollection()
-        {
-            return history;
-        }
-
-        @Override
-        public int getCachedSize() throws CannotCalculateSizeException
-        {
-            int size = 0;
-            size += CacheSizes.sizeOfObject();      // overhead of object
-            size += CacheSizes.sizeOfObject();      // overhead of collection.
-
-            // OF-2498: repeated calculation of the true size of each message stanza is very resource intensive.
-            //          To avoid performance issues, this implementation uses a size of 2k per message, which has
-            //          empirically been observed to be roughly correct. Mileage will probably vary considerably.
-            size += history.size() * 2048;
-
-            return size;
-        }
-
-        @Override
-        public String toString()
-        {
-            // Note: this value is shown in the Openfire admin console (in the 'cache values' page). Do not expose
-            // privacy-sensitive data, such as message content.
-            return "A collection of " + history.size() + " message stanza(s).";
-        }
-
-        @Override
-        public boolean equals(Object o)
-        {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Messages messages = (Messages) o;
-            return history.equals(messages.history);
-        }
-
-        @Override
-        public int hashCode()
-        {
-            return Objects.hash(history);
-        }
-
-        @Override
-        public void writeExternal(ObjectOutput out) throws IOException {
-            ExternalizableUtil.getInstance().writeLong(out, history.size());
-            for (final Message packet : history) {
-                ExternalizableUtil.getInstance().writeSerializable(out, (DefaultElement) packet.getElement());
-            }
-        }
-
-        @Override
-        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-            history = new ConcurrentLinkedQueue<>();
-            final long size = ExternalizableUtil.getInstance().readLong(in);
-            for (int i=0; i<size;i++) {
-                Element packetElement = (Element) ExternalizableUtil.getInstance().readSerializable(in);
-                history.add(new Message(packetElement, true));
-            }
-        }
-    }
-
-    private static class MessageComparator implements Comparator<Message> {
-        @Override
-        public int compare(Message o1, Message o2) {
-            String stamp1 = o1.getChildElement("delay", "urn:xmpp:delay").attributeValue("stamp");
-            String stamp2 = o2.getChildElement("delay", "urn:xmpp:delay").attributeValue("stamp");
-            return stamp1.compareTo(stamp2);
-        }
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -430,7 +430,7 @@ public class MUCRole implements Cacheable, Externalizable {
             return;
         }
 
-        Log.debug("Send packet {} to nickname {} and userJid {}", packet.toXML(), getNickname(), userJid);
+        Log.debug("Send packet {} to nickname {} and userJid {}", packet, getNickname(), userJid);
 
         if (getNickname() == null) { // If this is a 'room role'.
             Log.debug("Nickname is null, assuming room role");
@@ -26,6 +26,7 @@ import org.jivesoftware.openfire.auth.UnauthorizedException;
 import org.jivesoftware.openfire.event.GroupEventListener;
 import org.jivesoftware.openfire.group.*;
 import org.jivesoftware.openfire.muc.spi.*;
+import org.jivesoftware.openfire.nio.PreSerializedStanza;
 import org.jivesoftware.openfire.user.UserAlreadyExistsException;
 import org.jivesoftware.openfire.user.UserNotFoundException;
 import org.jivesoftware.util.*;
@@ -92,7 +93,7 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
     /**
      * All occupants that are associated with this room.
      */
-    public final ArrayList<MUCRole> occupants = new ArrayList<>();
+    public final OccupantRegistry occupants = new OccupantRegistry();
 
     /**
      * The name of the room.
@@ -530,9 +531,7 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
             throw new UserNotFoundException();
         }
 
-        final List<MUCRole> roles = occupants.stream()
-            .filter(mucRole -> mucRole.getNickname().equalsIgnoreCase(nickname))
-            .collect(Collectors.toList());
+        final List<MUCRole> roles = occupants.getByNickname(nickname);
 
         if (roles.isEmpty()) {
             throw new UserNotFoundException("Unable to find occupant with nickname '" + nickname + "' in room '" + name + "'");
@@ -550,15 +549,13 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
      */
     public List<MUCRole> getOccupantsByBareJID(JID jid) throws UserNotFoundException
     {
-        final List<MUCRole> roles = occupants.stream()
-            .filter(mucRole -> mucRole.getUserAddress().asBareJID().equals(jid))
-            .collect(Collectors.toList());
+        final List<MUCRole> roles = occupants.getByBareJID(jid);
 
         if (roles.isEmpty()) {
             throw new UserNotFoundException();
         }
 
-        return Collections.unmodifiableList(roles);
+        return roles;
     }
 
     /**
@@ -570,9 +567,7 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
      */
     public MUCRole getOccupantByFullJID(JID jid)
     {
-        final List<MUCRole> roles = occupants.stream()
-            .filter(mucRole -> mucRole.getUserAddress().equals(jid))
-            .collect(Collectors.toList());
+        final List<MUCRole> roles = occupants.getByFullJID(jid);
 
         switch (roles.size()) {
             case 0: return null;
@@ -589,7 +584,7 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
      * @return a collection with all users in the chatroom
      */
     public Collection<MUCRole> getOccupants() {
-        return Collections.unmodifiableCollection(occupants);
+        return occupants.snapshot();
     }
 
     /**
@@ -609,14 +604,12 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
      */
     public boolean hasOccupant(String nickname)
     {
-        return occupants.stream()
-            .anyMatch(mucRole -> mucRole.getNickname().equalsIgnoreCase(nickname));
+        return !occupants.getByNickname(nickname).isEmpty();
     }
 
     public boolean hasOccupant(JID jid)
     {
-        return occupants.stream()
-            .anyMatch(mucRole -> mucRole.getUserAddress().equals(jid) || mucRole.getUserAddress().asBareJID().equals(jid));
+        return !occupants.getByFullJID(jid).isEmpty() || !occupants.getByBareJID(jid).isEmpty();
     }
 
     /**
@@ -869,8 +862,8 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
 
     public boolean alreadyJoinedWithThisNick(@Nonnull final JID realJID, @Nonnull final String nickname)
     {
-        return occupants.stream()
-            .anyMatch(mucRole -> mucRole.getUserAddress().equals(realJID) && mucRole.getNickname().equalsIgnoreCase(nickname));
+        return occupants.getByFullJID(realJID).stream()
+            .anyMatch(mucRole -> mucRole.getNickname().equalsIgnoreCase(nickname));
     }
 
     /**
@@ -978,7 +971,7 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
     private void checkJoinRoomPreconditionNicknameInUse(@Nonnull final JID realAddress, @Nonnull String nickname ) throws UserAlreadyExistsException
     {
         final JID bareJID = realAddress.asBareJID();
-        final boolean canJoin = occupants.stream().noneMatch(mucRole -> !mucRole.getUserAddress().asBareJID().equals(bareJID) && mucRole.getNickname().equalsIgnoreCase(nickname));
+        final boolean canJoin = occupants.getByNickname(nickname).stream().noneMatch(mucRole -> !mucRole.getUserAddress().asBareJID().equals(bareJID));
         Log.trace( "{} Room join precondition 'nickname in use': User '{}' {} join room '{}'.", canJoin ? "PASS" : "FAIL", realAddress, canJoin ? "can" : "cannot", this.getJID() );
         if (!canJoin) {
             throw new UserAlreadyExistsException( "Someone else in the room uses the nickname that you want to use." );
@@ -1418,9 +1411,9 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
 
         String resource = packet.getTo().getResource();
 
-        List<MUCRole> occupants;
+        List<MUCRole> recipients;
         try {
-            occupants = getOccupantsByNickname(resource.toLowerCase());
+            recipients = getOccupantsByNickname(resource.toLowerCase());
         } catch (UserNotFoundException e) {
             throw new NotFoundException();
         }
@@ -1442,7 +1435,7 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
             final IQ request = (IQ)stanza;
             if (IQMUCvCardHandler.NAMESPACE.equals(request.getChildElement().getNamespaceURI())) {
                 // Build request from the requestor's room nickname (to have the response be delivered through the MUC room) to the home user of the intended recipient.
-                final JID bareJID = occupants.get(0).getUserAddress().asBareJID();
+                final JID bareJID = recipients.get(0).getUserAddress().asBareJID();
                 Log.debug("Sending VCard request to occupant {}'s real JID ('{}') to answer VCard request of {}", resource, bareJID, request.getFrom());
                 request.setTo(bareJID);
 
@@ -1452,7 +1445,7 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
         }
 
         // Forward it to each occupant.
-        for (final MUCRole occupant : occupants) {
+        for (final MUCRole occupant : recipients) {
             occupant.send(stanza); // Use the stanza copy to send data. The 'to' address of this object will be changed by sending it.
             if (stanza instanceof Message) {
                 // Use an unmodified copy of the stanza (with the original 'to' address) when invoking event listeners (OF-2163)
@@ -1562,38 +1555,41 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
         final Presence anonPresence = createAnonCopy(presence);
         final Presence selfPresence = createSelfPresenceCopy(presence, isJoinPresence);
 
-        for (final MUCRole occupant : getOccupants())
-        {
-            try
+        // Each flavor is serialized only once, irrespective of the number of occupants that it is delivered to.
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(nonAnonPresence, anonPresence, selfPresence)) {
+            for (final MUCRole occupant : getOccupants())
             {
-                Log.trace("Broadcasting presence update in room {} for occupant {} to occupant {}", this.getName(), presence.getFrom(), occupant );
+                try
+                {
+                    Log.trace("Broadcasting presence update in room {} for occupant {} to occupant {}", this.getName(), presence.getFrom(), occupant );
 
-                // Do not send broadcast presence to occupants hosted in other FMUC nodes.
-                if (occupant.isRemoteFmuc()) {
-                    Log.trace( "Not sending presence update of '{}' to {}: This occupant is on another FMUC node.", presence.getFrom(), occupant.getUserAddress() );
-                    continue;
-                }
+                    // Do not send broadcast presence to occupants hosted in other FMUC nodes.
+                    if (occupant.isRemoteFmuc()) {
+                        Log.trace( "Not sending presence update of '{}' to {}: This occupant is on another FMUC node.", presence.getFrom(), occupant.getUserAddress() );
+                        continue;
+                    }
 
-                // Determine what stanza flavor to send to this occupant.
-                final Presence toSend;
-                if (occupant.getPresence().getFrom().equals(presence.getTo())) {
-                    // This occupant is the subject of the stanza. Send the 'self-presence' stanza.
-                    Log.trace( "Sending self-presence of '{}' to {}", presence.getFrom(), occupant.getUserAddress() );
-                    toSend = selfPresence;
-                } else if ( !canAnyoneDiscoverJID && MUCRole.Role.moderator != occupant.getRole() ) {
-                    Log.trace( "Sending anonymized presence of '{}' to {}: The room is semi-anon, and this occupant is not a moderator.", presence.getFrom(), occupant.getUserAddress() );
-                    toSend = anonPresence;
-                } else {
-                    Log.trace( "Sending presence of '{}' to {}", presence.getFrom(), occupant.getUserAddress() );
-                    toSend = nonAnonPresence;
-                }
+                    // Determine what stanza flavor to send to this occupant.
+                    final Presence toSend;
+                    if (occupant.getPresence().getFrom().equals(presence.getTo())) {
+                        // This occupant is the subject of the stanza. Send the 'self-presence' stanza.
+                        Log.trace( "Sending self-presence of '{}' to {}", presence.getFrom(), occupant.getUserAddress() );
+                        toSend = selfPresence;
+                    } else if ( !canAnyoneDiscoverJID && MUCRole.Role.moderator != occupant.getRole() ) {
+                        Log.trace( "Sending anonymized presence of '{}' to {}: The room is semi-anon, and this occupant is not a moderator.", presence.getFrom(), occupant.getUserAddress() );
+                        toSend = anonPresence;
+                    } else {
+                        Log.trace( "Sending presence of '{}' to {}", presence.getFrom(), occupant.getUserAddress() );
+                        toSend = nonAnonPresence;
+                    }
 
-                // Send stanza to this occupant.
-                occupant.send(toSend);
-            }
-            catch ( Exception e )
-            {
-                Log.warn("An unexpected exception prevented a presence update from {} to be broadcast to {}.", presence.getFrom(), occupant.getUserAddress(), e);
+                    // Send stanza to this occupant.
+                    occupant.send(toSend);
+                }
+                catch ( Exception e )
+                {
+                    Log.warn("An unexpected exception prevented a presence update from {} to be broadcast to {}.", presence.getFrom(), occupant.getUserAddress(), e);
+                }
             }
         }
     }
@@ -1711,19 +1707,23 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
         // Create a defensive copy of the message that will be broadcast, as the broadcast will modify it ('to' addresses
         // will be changed), and it's undesirable to see these modifications in post-processing (OF-2163).
         final Message mutatingCopy = message.createCopy();
-        final Collection<MUCRole> occupants = getOccupants();
-        for (final MUCRole occupant : occupants) {
-            try
-            {
-                // Do not send broadcast messages to deaf occupants or occupants hosted in other FMUC nodes.
-                if ( !occupant.isVoiceOnly() && !occupant.isRemoteFmuc() )
+        final Collection<MUCRole> recipients = getOccupants();
+
+        // The message is serialized only once, irrespective of the number of occupants that it is delivered to.
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(mutatingCopy)) {
+            for (final MUCRole occupant : recipients) {
+                try
                 {
-                    occupant.send( mutatingCopy );
+                    // Do not send broadcast messages to deaf occupants or occupants hosted in other FMUC nodes.
+                    if ( !occupant.isVoiceOnly() && !occupant.isRemoteFmuc() )
+                    {
+                        occupant.send( mutatingCopy );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    Log.warn("An unexpected exception prevented a message from {} to be broadcast to {}.", message.getFrom(), occupant.getUserAddress(), e);
                 }
-            }
-            catch ( Exception e )
-            {
-                Log.warn("An unexpected exception prevented a message from {} to be broadcast to {}.", message.getFrom(), occupant.getUserAddress(), e);
             }
         }
         if (isLogEnabled()) {
@@ -1742,7 +1742,7 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
             // Log the conversation
             mucService.logConversation(this, message, senderAddress);
         }
-        mucService.messageBroadcastedTo(occupants.size());
+        mucService.messageBroadcastedTo(recipients.size());
     }
 
     /**
@@ -2312,8 +2312,8 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
         final String occupantNickName = occupantRole.getNickname();
 
         try {
-            List<MUCRole> occupants = getOccupantsByNickname(occupantNickName);
-            for (MUCRole occupant : occupants) {
+            List<MUCRole> roles = getOccupantsByNickname(occupantNickName);
+            for (MUCRole occupant : roles) {
                 occupant.setPresence(newPresence.createCopy());
             }
         } catch (UserNotFoundException e) {
@@ -2338,18 +2338,18 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
      */
     public void nicknameChanged(MUCRole occupantRole, Presence newPresence, String oldNick, String newNick)
     {
-        List<MUCRole> occupants;
+        List<MUCRole> roles;
         try {
-            occupants = getOccupantsByNickname(oldNick);
+            roles = getOccupantsByNickname(oldNick);
         } catch (UserNotFoundException e) {
             Log.debug("Unable to process nickname change from old '{}' to new '{}' for occupant '{}' as no occupant with the old nickname is found.", oldNick, newNick, occupantRole, e);
             return;
         }
 
-        for (MUCRole occupant : occupants) {
+        for (MUCRole occupant : roles) {
             // Update the role with the new info
             occupant.setPresence(newPresence);
-            occupant.changeNickname(newNick);
+            occupants.changeNickname(occupant, newNick);
 
             // Fire event that user changed his nickname
             MUCEventDispatcher.nicknameChanged(getRole().getRoleAddress(), occupant.getUserAddress(), oldNick, newNick);
@@ -3524,7 +3524,7 @@ public class MUCRoom implements GroupEventListener, Externalizable, Result, Cach
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
         ExternalizableUtil.getInstance().writeSafeUTF(out, name);
-        ExternalizableUtil.getInstance().writeExternalizableCollection(out, occupants);
+        ExternalizableUtil.getInstance().writeExternalizableCollection(out, new ArrayList<>(occupants.snapshot()));
         ExternalizableUtil.getInstance().writeLong(out, startTime);
         ExternalizableUtil.getInstance().writeLong(out, endTime);
         ExternalizableUtil.getInstance().writeLong(out, lockedTime);
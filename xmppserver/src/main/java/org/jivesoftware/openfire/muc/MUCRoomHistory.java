@@ -157,6 +157,20 @@ public final class MUCRoomHistory implements Externalizable {
         return historyStrategy.getReverseMessageHistory();
     }
 
+    /**
+     * Obtain the most recent messages of the current history, as limited by the provided criteria. The history is
+     * evaluated from the most recent message backwards, and evaluation stops at the first message that does not meet
+     * all criteria.
+     *
+     * @param maxStanzas the maximum number of messages, or -1 for no limit.
+     * @param maxChars the maximum total number of characters in the body (or subject) of the messages, or -1 for no limit.
+     * @param since the earliest date at which a message was sent, or null for no limit.
+     * @return A list of Message objects, in chronological order.
+     */
+    public List<Message> getRecentMessageHistory(int maxStanzas, int maxChars, @Nullable Date since) {
+        return historyStrategy.getRecentMessageHistory(maxStanzas, maxChars, since);
+    }
+
     /**
      * Add message(s) to the history of the chat room.
      *
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc;
+
+import org.xmpp.packet.JID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The occupants of a {@link MUCRoom}, indexed by nickname (case-insensitive), by bare JID and by full JID of the user.
+ *
+ * Look-ups and iteration do not require locking: modifications replace immutable snapshots of the affected data. As a
+ * result, iterating over this collection (or over any of the lists that are returned by the look-up methods) always
+ * operates on a consistent snapshot, which is not affected by occupants joining or leaving at the same time.
+ *
+ * Modifications are synchronized. As the nickname of an occupant is part of the identity of a {@link MUCRole}, the
+ * nickname of an occupant that is in this collection must be changed using {@link #changeNickname(MUCRole, String)}.
+ *
+ * This collection allows duplicates, for compatibility with the list that it replaces. {@link MUCRoom} guards against
+ * these.
+ */
+public class OccupantRegistry extends AbstractCollection<MUCRole>
+{
+    /**
+     * All occupants, in the order in which they were added.
+     */
+    private volatile List<MUCRole> snapshot = Collections.emptyList();
+
+    private final Map<String, List<MUCRole>> byNickname = new ConcurrentHashMap<>();
+    private final Map<JID, List<MUCRole>> byBareJID = new ConcurrentHashMap<>();
+    private final Map<JID, List<MUCRole>> byFullJID = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a case-insensitive representation of a nickname, which is equal for nicknames that are equal according
+     * to {@link String#equalsIgnoreCase(String)}.
+     *
+     * @param nickname The nickname to fold.
+     * @return The case-folded nickname.
+     */
+    @Nonnull
+    static String fold(@Nonnull final String nickname)
+    {
+        final char[] result = new char[nickname.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Character.toLowerCase(Character.toUpperCase(nickname.charAt(i)));
+        }
+        return new String(result);
+    }
+
+    /**
+     * Returns all occupants that use a particular nickname (compared case-insensitively).
+     *
+     * @param nickname The nickname of the occupants.
+     * @return An immutable list of occupants, possibly empty.
+     */
+    @Nonnull
+    public List<MUCRole> getByNickname(@Nullable final String nickname)
+    {
+        if (nickname == null) {
+            return Collections.emptyList();
+        }
+        return byNickname.getOrDefault(fold(nickname), Collections.emptyList());
+    }
+
+    /**
+     * Returns all occupants of a user, one for each client resource from which the user joined the room.
+     *
+     * @param bareJID The bare JID of the user.
+     * @return An immutable list of occupants, possibly empty.
+     */
+    @Nonnull
+    public List<MUCRole> getByBareJID(@Nullable final JID bareJID)
+    {
+        if (bareJID == null) {
+            return Collections.emptyList();
+        }
+        return byBareJID.getOrDefault(bareJID, Collections.emptyList());
+    }
+
+    /**
+     * Returns all occupants that joined from a particular client resource. Normally, there is at most one.
+     *
+     * @param fullJID The full JID of the user.
+     * @return An immutable list of occupants, possibly empty.
+     */
+    @Nonnull
+    public List<MUCRole> getByFullJID(@Nullable final JID fullJID)
+    {
+        if (fullJID == null) {
+            return Collections.emptyList();
+        }
+        return byFullJID.getOrDefault(fullJID, Collections.emptyList());
+    }
+
+    /**
+     * Returns an immutable snapshot of all occupants, in the order in which they were added.
+     *
+     * @return All occupants.
+     */
+    @Nonnull
+    public List<MUCRole> snapshot()
+    {
+        return snapshot;
+    }
+
+    @Override
+    @Nonnull
+    public Iterator<MUCRole> iterator()
+    {
+        return snapshot.iterator();
+    }
+
+    @Override
+    public int size()
+    {
+        return snapshot.size();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return snapshot.isEmpty();
+    }
+
+    @Override
+    public boolean contains(final Object o)
+    {
+        if (o instanceof MUCRole && ((MUCRole) o).getUserAddress() != null) {
+            return getByFullJID(((MUCRole) o).getUserAddress()).contains(o);
+        }
+        return snapshot.contains(o);
+    }
+
+    @Override
+    public synchronized boolean add(@Nonnull final MUCRole role)
+    {
+        final List<MUCRole> updated = new ArrayList<>(snapshot.size() + 1);
+        updated.addAll(snapshot);
+        updated.add(role);
+        snapshot = Collections.unmodifiableList(updated);
+        index(role);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(final Object o)
+    {
+        final List<MUCRole> current = snapshot;
+        final int position = current.indexOf(o);
+        if (position < 0) {
+            return false;
+        }
+        final MUCRole removed = current.get(position);
+        final List<MUCRole> updated = new ArrayList<>(current);
+        updated.remove(position);
+        snapshot = Collections.unmodifiableList(updated);
+        unindex(removed);
+        return true;
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        snapshot = Collections.emptyList();
+        byNickname.clear();
+        byBareJID.clear();
+        byFullJID.clear();
+    }
+
+    /**
+     * Changes the nickname of an occupant, updating the indexes of this collection accordingly. When the occupant is
+     * not in this collection, its nickname is changed all the same.
+     *
+     * @param role The occupant for which to change the nickname.
+     * @param nickname The new nickname.
+     */
+    public synchronized void changeNickname(@Nonnull final MUCRole role, @Nonnull final String nickname)
+    {
+        if (snapshot.stream().noneMatch(candidate -> candidate == role)) {
+            role.changeNickname(nickname);
+            return;
+        }
+
+        unindex(role);
+        role.changeNickname(nickname);
+        index(role);
+    }
+
+    private void index(@Nonnull final MUCRole role)
+    {
+        if (role.getNickname() != null) {
+            append(byNickname, fold(role.getNickname()), role);
+        }
+        final JID userAddress = role.getUserAddress();
+        if (userAddress != null) {
+            append(byBareJID, userAddress.asBareJID(), role);
+            append(byFullJID, userAddress, role);
+        }
+    }
+
+    private void unindex(@Nonnull final MUCRole role)
+    {
+        if (role.getNickname() != null) {
+            removeFrom(byNickname, fold(role.getNickname()), role);
+        }
+        final JID userAddress = role.getUserAddress();
+        if (userAddress != null) {
+            removeFrom(byBareJID, userAddress.asBareJID(), role);
+            removeFrom(byFullJID, userAddress, role);
+        }
+    }
+
+    private static <K> void append(@Nonnull final Map<K, List<MUCRole>> index, @Nonnull final K key, @Nonnull final MUCRole role)
+    {
+        index.compute(key, (k, existing) -> {
+            if (existing == null) {
+                return Collections.singletonList(role);
+            }
+            final List<MUCRole> updated = new ArrayList<>(existing.size() + 1);
+            updated.addAll(existing);
+            updated.add(role);
+            return Collections.unmodifiableList(updated);
+        });
+    }
+
+    private static <K> void removeFrom(@Nonnull final Map<K, List<MUCRole>> index, @Nonnull final K key, @Nonnull final MUCRole role)
+    {
+        index.computeIfPresent(key, (k, existing) -> {
+            final List<MUCRole> updated = new ArrayList<>(existing.size());
+            boolean removed = false;
+            for (final MUCRole candidate : existing) {
+                // Remove by identity: the role that is removed is the instance that was indexed.
+                if (!removed && candidate == role) {
+                    removed = true;
+                } else {
+                    updated.add(candidate);
+                }
+            }
+            return updated.isEmpty() ? null : Collections.unmodifiableList(updated);
+        });
+    }
+}
@@ -26,6 +26,7 @@ import org.jivesoftware.openfire.muc.MultiUserChatService;
 import org.jivesoftware.openfire.muc.NotAllowedException;
 import org.jivesoftware.openfire.spi.RoutingTableImpl;
 import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.jivesoftware.util.SystemProperty;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
@@ -36,15 +37,19 @@ import org.xmpp.packet.Presence;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -68,6 +73,29 @@ public class LocalMUCRoomManager
 {
     private static final Logger Log = LoggerFactory.getLogger(LocalMUCRoomManager.class);
 
+    /**
+     * Determines if persistent rooms are loaded in memory only when they are first accessed. When enabled, rooms are
+     * not preloaded when a MUC service starts. Instead, only the information that is needed to discover and search for
+     * rooms is loaded. This value is evaluated when a MUC service starts.
+     */
+    public static final SystemProperty<Boolean> LAZY_LOAD_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.muc.room.lazy-load.enabled")
+        .setDefaultValue(false)
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The maximum number of rooms of a MUC service that are kept in memory, when rooms are loaded on first access (see
+     * {@link #LAZY_LOAD_ENABLED}). When this number is exceeded, the least recently used rooms that have no occupants
+     * are unloaded from memory.
+     */
+    public static final SystemProperty<Integer> MAX_RESIDENT_ROOMS = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.muc.room.resident.max")
+        .setDefaultValue(10000)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
     /**
      * Name of the MUC service that this instance is operating for.
      */
@@ -96,6 +124,20 @@ public class LocalMUCRoomManager
      */
     private final Map<String, MUCRoom> localRooms = new HashMap<>();
 
+    /**
+     * Information that is used to discover and search for persistent rooms that are not in #ROOM_CACHE, mapped by room
+     * name. Entries of rooms that are in #ROOM_CACHE are outdated, and are replaced when the room is unloaded. This
+     * cache is only maintained after {@link #indexUnloadedRooms(Collection)} has been invoked.
+     */
+    private final Cache<String, MUCRoomSearchInfo> SEARCH_INFO_CACHE;
+
+    private volatile boolean indexUnloadedRooms = false;
+
+    /**
+     * The time at which a room was last retrieved from this instance on the local cluster node, mapped by room name.
+     */
+    private final Map<String, Long> lastAccess = new ConcurrentHashMap<>();
+
     /**
      * Creates a new instance, specific for the provided MUC service.
      *
@@ -111,6 +153,9 @@ public class LocalMUCRoomManager
         ROOM_CACHE_STATS = CacheFactory.createCache("MUC Service '" + serviceName + "' Room Statistics");
         ROOM_CACHE_STATS.setMaxLifetime(-1);
         ROOM_CACHE_STATS.setMaxCacheSize(-1L);
+        SEARCH_INFO_CACHE = CacheFactory.createCache("MUC Service '" + serviceName + "' Room Search Info");
+        SEARCH_INFO_CACHE.setMaxLifetime(-1);
+        SEARCH_INFO_CACHE.setMaxCacheSize(-1L);
     }
 
     /**
@@ -155,6 +200,7 @@ public class LocalMUCRoomManager
             final MUCRoom oldValue = ROOM_CACHE.put(room.getName(), room);
             localRooms.put(room.getName(), room);
             updateNonPersistentRoomStat(oldValue, room);
+            lastAccess.put(room.getName(), System.currentTimeMillis());
         } finally {
             lock.unlock();
         }
@@ -178,6 +224,10 @@ public class LocalMUCRoomManager
                 ROOM_CACHE.remove(room.getName());
                 localRooms.remove(room.getName());
                 updateNonPersistentRoomStat(null, room);
+                lastAccess.remove(room.getName());
+                if (indexUnloadedRooms) {
+                    SEARCH_INFO_CACHE.remove(room.getName());
+                }
             } else {
                 final MUCRoom oldValue = ROOM_CACHE.put(room.getName(), room);
                 localRooms.put(room.getName(), room);
@@ -211,7 +261,11 @@ public class LocalMUCRoomManager
     @Nullable
     MUCRoom get(@Nonnull final String roomName)
     {
-        return ROOM_CACHE.get(roomName);
+        final MUCRoom room = ROOM_CACHE.get(roomName);
+        if (room != null) {
+            lastAccess.put(roomName, System.currentTimeMillis());
+        }
+        return room;
     }
 
     /**
@@ -235,8 +289,17 @@ public class LocalMUCRoomManager
                 room.getRoomHistory().purge();
                 GroupEventDispatcher.removeListener(room);
                 updateNonPersistentRoomStat(room, null);
+                if (indexUnloadedRooms) {
+                    if (room.isPersistent() && !room.isDestroyed) {
+                        // The room is unloaded, but can be reloaded from the database. Keep it discoverable.
+                        SEARCH_INFO_CACHE.put(roomName, MUCRoomSearchInfo.ofUnloadedRoom(room));
+                    } else {
+                        SEARCH_INFO_CACHE.remove(roomName);
+                    }
+                }
             }
             localRooms.remove(roomName);
+            lastAccess.remove(roomName);
             return room;
         } finally {
             lock.unlock();
@@ -272,6 +335,103 @@ public class LocalMUCRoomManager
         return totalChatTime;
     }
 
+    /**
+     * Removes the least recently used rooms from memory, until no more than 90% of the provided maximum number of
+     * rooms remains. This is done only when the number of rooms in memory exceeds the maximum. Only persistent rooms
+     * without occupants are removed. This does not destroy the rooms: they can be reloaded from the database on-demand.
+     *
+     * Rooms that have not been retrieved through this instance on the local cluster node are considered to be the
+     * least recently used.
+     *
+     * @param maxRooms The maximum number of rooms in memory.
+     * @return The total amount of time that the removed rooms had 'chat-time'.
+     */
+    Duration unloadLeastRecentlyUsedRooms(final int maxRooms)
+    {
+        Duration totalChatTime = Duration.ZERO;
+        if (size() <= maxRooms) {
+            return totalChatTime;
+        }
+
+        final int target = maxRooms - maxRooms / 10;
+        final List<String> roomNames = new ArrayList<>(ROOM_CACHE.keySet());
+        final Map<String, Long> accessTimes = new HashMap<>();
+        for (final String roomName : roomNames) {
+            accessTimes.put(roomName, lastAccess.getOrDefault(roomName, 0L));
+        }
+        roomNames.sort(Comparator.comparing(accessTimes::get));
+
+        for (final String roomName : roomNames) {
+            if (size() <= target) {
+                break;
+            }
+            final Lock lock = ROOM_CACHE.getLock(roomName);
+            lock.lock();
+            try {
+                // Do not use #get(String), as that would register the room as being used.
+                final MUCRoom room = ROOM_CACHE.get(roomName);
+                if (room != null && room.isPersistent() && room.getOccupantsCount() == 0 && room.getEmptyDate() != null) {
+                    Log.debug("Unloading chat room (least recently used): {}", roomName);
+                    remove(roomName);
+                    totalChatTime = totalChatTime.plus(Duration.ofMillis(room.getChatLength()));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return totalChatTime;
+    }
+
+    /**
+     * Starts to maintain information that is used to discover and search for persistent rooms that are not loaded in
+     * memory, and adds the provided information to it. The information of a room is added (or updated) when it is
+     * removed from memory, and is removed when the room is destroyed.
+     *
+     * @param searchInfo Information of persistent rooms (typically loaded from the database).
+     */
+    void indexUnloadedRooms(@Nonnull final Collection<MUCRoomSearchInfo> searchInfo)
+    {
+        indexUnloadedRooms = true;
+        final Map<String, MUCRoomSearchInfo> entries = new HashMap<>();
+        for (final MUCRoomSearchInfo info : searchInfo) {
+            entries.put(info.getName(), info);
+        }
+        SEARCH_INFO_CACHE.putAll(entries);
+    }
+
+    /**
+     * Adds the information that is used to discover and search for persistent rooms that are not loaded in memory
+     * again, when that information is maintained. This is expected to be invoked right after joining or leaving a
+     * cluster, as the cache that holds the information is reset then.
+     *
+     * @param searchInfo Provides the information of persistent rooms (typically by loading it from the database).
+     */
+    void restoreUnloadedRoomIndex(@Nonnull final Supplier<Collection<MUCRoomSearchInfo>> searchInfo)
+    {
+        if (indexUnloadedRooms) {
+            Log.debug("Restoring content of cache '{}', by adding the information of all persistent rooms.", SEARCH_INFO_CACHE.getName());
+            indexUnloadedRooms(searchInfo.get());
+        }
+    }
+
+    /**
+     * Returns the information that is used to discover and search for persistent rooms that are not loaded in memory.
+     * This is empty when {@link #indexUnloadedRooms(Collection)} has not been invoked.
+     *
+     * @return Information of rooms that are not in memory.
+     */
+    @Nonnull
+    Collection<MUCRoomSearchInfo> getUnloadedRoomSearchInfo()
+    {
+        if (!indexUnloadedRooms) {
+            return Collections.emptyList();
+        }
+        final Set<String> loadedNames = new HashSet<>(ROOM_CACHE.keySet());
+        return SEARCH_INFO_CACHE.values().stream()
+            .filter(info -> !loadedNames.contains(info.getName()))
+            .collect(Collectors.toList());
+    }
+
     /**
      * When the local node is joining or leaving a cluster, {@link org.jivesoftware.util.cache.CacheFactory} will swap
      * the implementation used to instantiate caches. This causes the cache content to be 'reset': it will no longer
@@ -90,13 +90,16 @@ public class MUCPersistenceManager {
         "SELECT count(*) FROM ofMucRoom WHERE serviceID=?";
     private static final String LOAD_ALL_ROOM_NAMES =
         "SELECT name FROM ofMucRoom WHERE serviceID=?";
-    private static final String LOAD_ALL_AFFILIATIONS =
+    private static final String LOAD_ALL_ROOM_SEARCH_INFO =
+        "SELECT roomID, name, naturalName, description, lockedDate, maxUsers, publicRoom, membersOnly, roomPassword, " +
+        "canDiscoverJID, subject FROM ofMucRoom WHERE serviceID=?";
+    static final String LOAD_ALL_AFFILIATIONS =
         "SELECT ofMucAffiliation.roomID AS roomID, ofMucAffiliation.jid AS jid, ofMucAffiliation.affiliation AS affiliation " +
         "FROM ofMucAffiliation,ofMucRoom WHERE ofMucAffiliation.roomID = ofMucRoom.roomID AND ofMucRoom.serviceID=?";
-    private static final String LOAD_ALL_MEMBERS =
+    static final String LOAD_ALL_MEMBERS =
         "SELECT ofMucMember.roomID AS roomID, ofMucMember.jid AS jid, ofMucMember.nickname AS nickname FROM ofMucMember,ofMucRoom " +
         "WHERE ofMucMember.roomID = ofMucRoom.roomID AND ofMucRoom.serviceID=?";
-    private static final String LOAD_ALL_HISTORY =
+    static final String LOAD_ALL_HISTORY =
         "SELECT ofMucConversationLog.roomID AS roomID, ofMucConversationLog.sender AS sender, ofMucConversationLog.nickname AS nickname, " +
         "ofMucConversationLog.logTime AS logTime, ofMucConversationLog.subject AS subject, ofMucConversationLog.body AS body, ofMucConversationLog.stanza AS stanza FROM " +
         "ofMucConversationLog, ofMucRoom WHERE ofMucConversationLog.roomID = ofMucRoom.roomID AND " +
@@ -585,6 +588,106 @@ public class MUCPersistenceManager {
         return names;
     }
 
+    /**
+     * Loads the information that is used to discover and search for rooms, for all the rooms that are in the
+     * database. Unlike {@link #loadRoomsFromDB(MultiUserChatService, Date)}, this does not load the full state of the
+     * rooms (such as their history). Of the affiliations and members, only the users that can discover rooms that are
+     * not public are retained.
+     *
+     * @param chatserver the chat server for which to load the information.
+     * @return a collection with the information of all persistent rooms.
+     */
+    public static Collection<MUCRoomSearchInfo> loadRoomSearchInfoFromDB(MultiUserChatService chatserver) {
+        Log.debug("Loading room search info for chat service {}", chatserver.getServiceName());
+        Long serviceID = XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatServiceID(chatserver.getServiceName());
+
+        final List<MUCRoomSearchInfo> result = new ArrayList<>();
+        try {
+            Connection connection = null;
+            PreparedStatement statement = null;
+            ResultSet resultSet = null;
+            try {
+                connection = DbConnectionManager.getConnection();
+
+                // The affiliations of each room, keyed by room ID.
+                final Map<Long, Map<MUCRole.Affiliation, List<JID>>> affiliations = new HashMap<>();
+                statement = connection.prepareStatement(LOAD_ALL_AFFILIATIONS);
+                statement.setLong(1, serviceID);
+                resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    try {
+                        affiliations.computeIfAbsent(resultSet.getLong("roomID"), id -> new EnumMap<>(MUCRole.Affiliation.class))
+                            .computeIfAbsent(MUCRole.Affiliation.valueOf(resultSet.getInt("affiliation")), affiliation -> new ArrayList<>())
+                            .add(GroupJID.fromString(resultSet.getString("jid")));
+                    } catch (SQLException | RuntimeException e) {
+                        Log.error("A database exception prevented one particular MUC room affiliation to be loaded from the database.", e);
+                    }
+                }
+                DbConnectionManager.fastcloseStmt(resultSet, statement);
+
+                statement = connection.prepareStatement(LOAD_ALL_MEMBERS);
+                statement.setLong(1, serviceID);
+                resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    try {
+                        affiliations.computeIfAbsent(resultSet.getLong("roomID"), id -> new EnumMap<>(MUCRole.Affiliation.class))
+                            .computeIfAbsent(MUCRole.Affiliation.member, affiliation -> new ArrayList<>())
+                            .add(GroupJID.fromString(resultSet.getString("jid")));
+                    } catch (SQLException | RuntimeException e) {
+                        Log.error("A database exception prevented one particular MUC room member to be loaded from the database.", e);
+                    }
+                }
+                DbConnectionManager.fastcloseStmt(resultSet, statement);
+
+                statement = connection.prepareStatement(LOAD_ALL_ROOM_SEARCH_INFO);
+                statement.setLong(1, serviceID);
+                resultSet = statement.executeQuery();
+
+                while (resultSet.next()) {
+                    try {
+                        final String password = resultSet.getString("roomPassword");
+                        final boolean isPublicRoom = resultSet.getInt("publicRoom") == 1;
+                        final Set<JID> discoverers;
+                        if (isPublicRoom) {
+                            discoverers = null;
+                        } else {
+                            final Map<MUCRole.Affiliation, List<JID>> roomAffiliations = affiliations.getOrDefault(resultSet.getLong("roomID"), Collections.emptyMap());
+                            discoverers = MUCRoomSearchInfo.discoverers(
+                                roomAffiliations.getOrDefault(MUCRole.Affiliation.owner, Collections.emptyList()),
+                                roomAffiliations.getOrDefault(MUCRole.Affiliation.admin, Collections.emptyList()),
+                                roomAffiliations.getOrDefault(MUCRole.Affiliation.member, Collections.emptyList()),
+                                roomAffiliations.getOrDefault(MUCRole.Affiliation.outcast, Collections.emptyList()));
+                        }
+                        result.add(new MUCRoomSearchInfo(
+                            chatserver.getServiceName(),
+                            new JID(resultSet.getString("name"), chatserver.getServiceDomain(), null),
+                            resultSet.getString("subject"),
+                            resultSet.getString("naturalName"),
+                            resultSet.getString("description"),
+                            Long.parseLong(resultSet.getString("lockedDate").trim()) > 0,
+                            isPublicRoom,
+                            resultSet.getInt("maxUsers"),
+                            resultSet.getInt("membersOnly") == 1,
+                            password != null && password.trim().length() > 0,
+                            resultSet.getInt("canDiscoverJID") == 1,
+                            discoverers));
+                    } catch (SQLException | RuntimeException e) {
+                        Log.error("A database exception prevented the search info of one particular MUC room to be loaded from the database.", e);
+                    }
+                }
+            } finally {
+                DbConnectionManager.closeConnection(resultSet, statement, connection);
+            }
+        }
+        catch (SQLException sqle) {
+            Log.error("A database error prevented MUC room search info to be loaded from the database.", sqle);
+            return Collections.emptyList();
+        }
+
+        Log.debug( "Loaded search info of {} rooms for chat service {}", result.size(), chatserver.getServiceName() );
+        return result;
+    }
+
     /**
      * Loads all the rooms that had occupants after a given date from the database. This query
      * will be executed only when the service is starting up.
@@ -599,10 +702,14 @@ public class MUCPersistenceManager {
 
         final Map<Long, MUCRoom> rooms;
         try {
-            rooms = loadRooms(serviceID, cleanupDate, chatserver);
-            loadHistory(serviceID, rooms);
-            loadAffiliations(serviceID, rooms);
-            loadMembers(serviceID, rooms);
+            if (ParallelRoomLoader.ENABLED.getValue()) {
+                rooms = new ParallelRoomLoader(serviceID, cleanupDate, chatserver).load();
+            } else {
+                rooms = loadRooms(serviceID, cleanupDate, chatserver);
+                loadHistory(serviceID, rooms);
+                loadAffiliations(serviceID, rooms);
+                loadMembers(serviceID, rooms);
+            }
         }
         catch (SQLException sqle) {
             Log.error("A database error prevented MUC rooms to be loaded from the database.", sqle);
@@ -625,7 +732,7 @@ public class MUCPersistenceManager {
         return rooms.values();
     }
 
-    private static Map<Long, MUCRoom> loadRooms(Long serviceID, Date cleanupDate, MultiUserChatService chatserver) throws SQLException {
+    static Map<Long, MUCRoom> loadRooms(Long serviceID, Date cleanupDate, MultiUserChatService chatserver) throws SQLException {
         final Map<Long, MUCRoom> rooms = new HashMap<>();
 
         Connection connection = null;
@@ -644,6 +751,7 @@ public class MUCPersistenceManager {
                 statement = connection.prepareStatement(LOAD_ALL_ROOMS);
                 statement.setLong(1, serviceID);
             }
+            statement.setFetchSize(ParallelRoomLoader.FETCH_SIZE.getValue());
             resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
@@ -771,17 +879,7 @@ public class MUCPersistenceManager {
                 con = DbConnectionManager.getConnection();
                 pstmt = con.prepareStatement(LOAD_HISTORY, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
 
-                // Reload the history, using "muc.history.reload.limit" (days) if present
-                long from = 0;
-                String reloadLimit = JiveGlobals.getProperty(MUC_HISTORY_RELOAD_LIMIT);
-                if (reloadLimit != null) {
-                    // if the property is defined, but not numeric, default to 2 (days)
-                    int reloadLimitDays = JiveGlobals.getIntProperty(MUC_HISTORY_RELOAD_LIMIT, 2);
-                    Log.warn("MUC history reload limit set to " + reloadLimitDays + " days");
-                    from = System.currentTimeMillis() - (BigInteger.valueOf(86400000).multiply(BigInteger.valueOf(reloadLimitDays))).longValue();
-                }
-
-                pstmt.setString(1, StringUtils.dateToMillis(new Date(from)));
+                pstmt.setString(1, StringUtils.dateToMillis(getHistoryReloadFrom()));
                 pstmt.setLong(2, room.getID());
                 rs = pstmt.executeQuery();
 
@@ -834,17 +932,8 @@ public class MUCPersistenceManager {
             connection = DbConnectionManager.getConnection();
             statement = connection.prepareStatement(LOAD_ALL_HISTORY);
 
-            // Reload the history, using "muc.history.reload.limit" (days) if present
-            long from = 0;
-            String reloadLimit = JiveGlobals.getProperty(MUC_HISTORY_RELOAD_LIMIT);
-            if (reloadLimit != null) {
-                // if the property is defined, but not numeric, default to 2 (days)
-                int reloadLimitDays = JiveGlobals.getIntProperty(MUC_HISTORY_RELOAD_LIMIT, 2);
-                Log.warn("MUC history reload limit set to " + reloadLimitDays + " days");
-                from = System.currentTimeMillis() - (BigInteger.valueOf(86400000).multiply(BigInteger.valueOf(reloadLimitDays))).longValue();
-            }
             statement.setLong(1, serviceID);
-            statement.setString(2, StringUtils.dateToMillis(new Date(from)));
+            statement.setString(2, StringUtils.dateToMillis(getHistoryReloadFrom()));
             resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
@@ -870,9 +959,38 @@ public class MUCPersistenceManager {
             DbConnectionManager.closeConnection(resultSet, statement, connection);
         }
 
-        // Add the last known room subject to the room history only for those rooms that still
-        // don't have in their histories the last room subject
-        for (MUCRoom loadedRoom : rooms.values())
+        addLastSubjectToHistory(rooms.values());
+    }
+
+    /**
+     * Returns the date of the oldest message that is reloaded from the database into the history of a room. This is
+     * based on the value of {@link #MUC_HISTORY_RELOAD_LIMIT} (days), if present.
+     *
+     * @return The date of the oldest message to reload.
+     */
+    @Nonnull
+    static Date getHistoryReloadFrom()
+    {
+        long from = 0;
+        String reloadLimit = JiveGlobals.getProperty(MUC_HISTORY_RELOAD_LIMIT);
+        if (reloadLimit != null) {
+            // if the property is defined, but not numeric, default to 2 (days)
+            int reloadLimitDays = JiveGlobals.getIntProperty(MUC_HISTORY_RELOAD_LIMIT, 2);
+            Log.warn("MUC history reload limit set to " + reloadLimitDays + " days");
+            from = System.currentTimeMillis() - (BigInteger.valueOf(86400000).multiply(BigInteger.valueOf(reloadLimitDays))).longValue();
+        }
+        return new Date(from);
+    }
+
+    /**
+     * Adds the last known room subject to the room history, for those rooms that don't have the last room subject in
+     * their history.
+     *
+     * @param rooms The rooms for which to add the subject.
+     */
+    static void addLastSubjectToHistory(@Nonnull final Collection<MUCRoom> rooms)
+    {
+        for (MUCRoom loadedRoom : rooms)
         {
             if (!loadedRoom.getRoomHistory().hasChangedSubject()
                 && loadedRoom.getSubject() != null
@@ -924,23 +1042,7 @@ public class MUCPersistenceManager {
                         continue;
                     }
 
-                    try {
-                        switch (affiliation) {
-                            case owner:
-                                room.addOwner(affiliationJID, room.getRole());
-                                break;
-                            case admin:
-                                room.addAdmin(affiliationJID, room.getRole());
-                                break;
-                            case outcast:
-                                room.addOutcast(affiliationJID, null, room.getRole());
-                                break;
-                            default:
-                                Log.error("Unknown affiliation value " + affiliation + " for user " + affiliationJID + " in persistent room " + room.getID());
-                        }
-                    } catch (ForbiddenException | ConflictException | NotAllowedException e) {
-                        Log.warn("An exception prevented affiliations to be added to the room with id " + roomID, e);
-                    }
+                    addLoadedAffiliation(room, affiliation, affiliationJID);
                 } catch (SQLException e) {
                     Log.error("A database exception prevented affiliations for one particular MUC room to be loaded from the database.", e);
                 }
@@ -951,6 +1053,34 @@ public class MUCPersistenceManager {
         }
     }
 
+    /**
+     * Adds an affiliation that was loaded from the database to a room.
+     *
+     * @param room The room to which to add the affiliation.
+     * @param affiliation The affiliation (owner, admin or outcast).
+     * @param affiliationJID The address of the affiliated entity (which might be a group JID).
+     */
+    static void addLoadedAffiliation(@Nonnull final MUCRoom room, @Nonnull final MUCRole.Affiliation affiliation, @Nonnull final JID affiliationJID)
+    {
+        try {
+            switch (affiliation) {
+                case owner:
+                    room.addOwner(affiliationJID, room.getRole());
+                    break;
+                case admin:
+                    room.addAdmin(affiliationJID, room.getRole());
+                    break;
+                case outcast:
+                    room.addOutcast(affiliationJID, null, room.getRole());
+                    break;
+                default:
+                    Log.error("Unknown affiliation value " + affiliation + " for user " + affiliationJID + " in persistent room " + room.getID());
+            }
+        } catch (ForbiddenException | ConflictException | NotAllowedException e) {
+            Log.warn("An exception prevented affiliations to be added to the room with id " + room.getID(), e);
+        }
+    }
+
     private static void loadMembers(Long serviceID, Map<Long, MUCRoom> rooms) throws SQLException {
         Connection connection = null;
         PreparedStatement statement = null;
@@ -969,13 +1099,9 @@ public class MUCPersistenceManager {
                     if (room == null) {
                         continue;
                     }
-                    try {
-                        // might be a group JID
-                        affiliationJID = GroupJID.fromString(resultSet.getString("jid"));
-                        room.addMember(affiliationJID, resultSet.getString("nickname"), room.getRole());
-                    } catch (ForbiddenException | ConflictException e) {
-                        Log.warn("Unable to add member to room.", e);
-                    }
+                    // might be a group JID
+                    affiliationJID = GroupJID.fromString(resultSet.getString("jid"));
+                    addLoadedMember(room, affiliationJID, resultSet.getString("nickname"));
                 } catch (SQLException e) {
                     Log.error("A database exception prevented members for one particular MUC room to be loaded from the database.", e);
                 }
@@ -985,6 +1111,22 @@ public class MUCPersistenceManager {
         }
     }
 
+    /**
+     * Adds a member that was loaded from the database to a room.
+     *
+     * @param room The room to which to add the member.
+     * @param affiliationJID The address of the member (which might be a group JID).
+     * @param nickname The reserved nickname of the member (can be null).
+     */
+    static void addLoadedMember(@Nonnull final MUCRoom room, @Nonnull final JID affiliationJID, final String nickname)
+    {
+        try {
+            room.addMember(affiliationJID, nickname, room.getRole());
+        } catch (ForbiddenException | ConflictException e) {
+            Log.warn("Unable to add member to room.", e);
+        }
+    }
+
     /**
      * Updates the room's subject in the database. 
      * 
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2021 Ignite Realtime Foundation. All rights reserved.
+ * Copyright (C) 2021-2023 Ignite Realtime Foundation. All rights reserved.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,27 +16,121 @@
 package org.jivesoftware.openfire.muc.spi;
 
 
+import org.jivesoftware.openfire.group.GroupJID;
 import org.jivesoftware.openfire.muc.MUCRoom;
+import org.jivesoftware.util.cache.CacheSizes;
+import org.jivesoftware.util.cache.Cacheable;
+import org.jivesoftware.util.cache.ExternalizableUtil;
 import org.xmpp.packet.JID;
 import org.xmpp.resultsetmanagement.Result;
 
-public class MUCRoomSearchInfo implements Result {
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-    private final String serviceName;
-    private final JID jid;
-    private final String name;
-    private final String subject;
-    private final String naturalLanguageName;
-    private final String description;
-    private final boolean isLocked;
-    private final boolean isPublicRoom;
-    private final int occupantsCount;
-    private final int participantCount;
-    private final int maxUsers;
-    private final boolean isMembersOnly;
-    private final boolean isPasswordProtected;
-    private final boolean canAnyoneDiscoverJID;
+public class MUCRoomSearchInfo implements Result, Cacheable, Externalizable {
 
+    private String serviceName;
+    private JID jid;
+    private String name;
+    private String subject;
+    private String naturalLanguageName;
+    private String description;
+    private boolean isLocked;
+    private boolean isPublicRoom;
+    private int occupantsCount;
+    private int participantCount;
+    private int maxUsers;
+    private boolean isMembersOnly;
+    private boolean isPasswordProtected;
+    private boolean canAnyoneDiscoverJID;
+
+    /**
+     * The bare JIDs of the users that can discover the room when it is not public (its owners, admins and members that
+     * are not outcasts), or null when this is not known. This is only known for rooms that are not loaded in memory,
+     * and that have no affiliations that are granted to a group.
+     */
+    private Set<JID> discoverers;
+
+    /**
+     * This constructor is provided to comply with the Externalizable interface contract. It should not be used directly.
+     */
+    public MUCRoomSearchInfo() {
+    }
+
+    /**
+     * Creates search info that describes a room that is not loaded in memory. Such a room has no occupants.
+     */
+    MUCRoomSearchInfo(final String serviceName, final JID jid, final String subject, final String naturalLanguageName,
+                      final String description, final boolean isLocked, final boolean isPublicRoom, final int maxUsers,
+                      final boolean isMembersOnly, final boolean isPasswordProtected, final boolean canAnyoneDiscoverJID,
+                      @Nullable final Set<JID> discoverers) {
+        this.serviceName = serviceName;
+        this.jid = jid;
+        this.name = jid.getNode();
+        this.subject = subject;
+        this.naturalLanguageName = naturalLanguageName;
+        this.description = description;
+        this.isLocked = isLocked;
+        this.isPublicRoom = isPublicRoom;
+        this.occupantsCount = 0;
+        this.participantCount = 0;
+        this.maxUsers = maxUsers;
+        this.isMembersOnly = isMembersOnly;
+        this.isPasswordProtected = isPasswordProtected;
+        this.canAnyoneDiscoverJID = canAnyoneDiscoverJID;
+        this.discoverers = discoverers;
+    }
+
+    /**
+     * Creates search info that describes a room after it has been unloaded from memory.
+     */
+    static MUCRoomSearchInfo ofUnloadedRoom(final MUCRoom room) {
+        return new MUCRoomSearchInfo(room.getMUCService().getServiceName(), room.getJID(), room.getSubject(),
+            room.getNaturalLanguageName(), room.getDescription(), room.isLocked(), room.isPublicRoom(), room.getMaxUsers(),
+            room.isMembersOnly(), room.isPasswordProtected(), room.canAnyoneDiscoverJID(),
+            room.isPublicRoom() ? null : discoverers(room.getOwners(), room.getAdmins(), room.getMembers(), room.getOutcasts()));
+    }
+
+    /**
+     * Determines the bare JIDs of the users that can discover a room that is not public: its owners, its admins and
+     * its members that are not outcasts.
+     *
+     * @param owners the owners of the room.
+     * @param admins the admins of the room.
+     * @param members the members of the room.
+     * @param outcasts the outcasts of the room.
+     * @return the users that can discover the room, or null if any affiliation is granted to a group.
+     */
+    @Nullable
+    static Set<JID> discoverers(@Nonnull final Collection<JID> owners, @Nonnull final Collection<JID> admins,
+                                @Nonnull final Collection<JID> members, @Nonnull final Collection<JID> outcasts) {
+        final Set<JID> result = new HashSet<>();
+        for (final Collection<JID> jids : List.of(owners, admins, members, outcasts)) {
+            for (final JID jid : jids) {
+                if (jid instanceof GroupJID) {
+                    return null;
+                }
+            }
+        }
+        owners.forEach(jid -> result.add(jid.asBareJID()));
+        admins.forEach(jid -> result.add(jid.asBareJID()));
+        final Set<JID> excluded = new HashSet<>();
+        outcasts.forEach(jid -> excluded.add(jid.asBareJID()));
+        for (final JID member : members) {
+            if (!excluded.contains(member.asBareJID())) {
+                result.add(member.asBareJID());
+            }
+        }
+        return result;
+    }
 
     public MUCRoomSearchInfo(final MUCRoom room) {
         this.serviceName = room.getMUCService().getServiceName();
@@ -111,8 +205,103 @@ public class MUCRoomSearchInfo implements Result {
         return canAnyoneDiscoverJID;
     }
 
+    /**
+     * Returns the bare JIDs of the users that can discover the room when it is not public (its owners, admins and
+     * members that are not outcasts). This is known only for rooms that are not loaded in memory, and that have no
+     * affiliations that are granted to a group.
+     *
+     * @return the users that can discover the room, or null if this is not known.
+     */
+    @Nullable
+    public Set<JID> getDiscoverers() {
+        return discoverers;
+    }
+
     @Override
     public String getUID() {
         return getJID().toString();
     }
+
+    @Override
+    public int getCachedSize() {
+        int size = CacheSizes.sizeOfObject();
+        size += CacheSizes.sizeOfString(serviceName);
+        size += CacheSizes.sizeOfString(jid.toString());
+        size += CacheSizes.sizeOfString(name);
+        size += CacheSizes.sizeOfString(subject);
+        size += CacheSizes.sizeOfString(naturalLanguageName);
+        size += CacheSizes.sizeOfString(description);
+        size += CacheSizes.sizeOfBoolean() * 6;
+        size += CacheSizes.sizeOfInt() * 3;
+        if (discoverers != null) {
+            size += CacheSizes.sizeOfObject();
+            for (final JID discoverer : discoverers) {
+                size += CacheSizes.sizeOfObject() + CacheSizes.sizeOfString(discoverer.toString());
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        ExternalizableUtil.getInstance().writeSafeUTF(out, serviceName);
+        ExternalizableUtil.getInstance().writeSerializable(out, jid);
+        ExternalizableUtil.getInstance().writeSafeUTF(out, name);
+        writeNullableString(out, subject);
+        writeNullableString(out, naturalLanguageName);
+        writeNullableString(out, description);
+        ExternalizableUtil.getInstance().writeBoolean(out, isLocked);
+        ExternalizableUtil.getInstance().writeBoolean(out, isPublicRoom);
+        ExternalizableUtil.getInstance().writeInt(out, occupantsCount);
+        ExternalizableUtil.getInstance().writeInt(out, participantCount);
+        ExternalizableUtil.getInstance().writeInt(out, maxUsers);
+        ExternalizableUtil.getInstance().writeBoolean(out, isMembersOnly);
+        ExternalizableUtil.getInstance().writeBoolean(out, isPasswordProtected);
+        ExternalizableUtil.getInstance().writeBoolean(out, canAnyoneDiscoverJID);
+        ExternalizableUtil.getInstance().writeBoolean(out, discoverers != null);
+        if (discoverers != null) {
+            ExternalizableUtil.getInstance().writeInt(out, discoverers.size());
+            for (final JID discoverer : discoverers) {
+                ExternalizableUtil.getInstance().writeSafeUTF(out, discoverer.toString());
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        serviceName = ExternalizableUtil.getInstance().readSafeUTF(in);
+        jid = (JID) ExternalizableUtil.getInstance().readSerializable(in);
+        name = ExternalizableUtil.getInstance().readSafeUTF(in);
+        subject = readNullableString(in);
+        naturalLanguageName = readNullableString(in);
+        description = readNullableString(in);
+        isLocked = ExternalizableUtil.getInstance().readBoolean(in);
+        isPublicRoom = ExternalizableUtil.getInstance().readBoolean(in);
+        occupantsCount = ExternalizableUtil.getInstance().readInt(in);
+        participantCount = ExternalizableUtil.getInstance().readInt(in);
+        maxUsers = ExternalizableUtil.getInstance().readInt(in);
+        isMembersOnly = ExternalizableUtil.getInstance().readBoolean(in);
+        isPasswordProtected = ExternalizableUtil.getInstance().readBoolean(in);
+        canAnyoneDiscoverJID = ExternalizableUtil.getInstance().readBoolean(in);
+        if (ExternalizableUtil.getInstance().readBoolean(in)) {
+            final int size = ExternalizableUtil.getInstance().readInt(in);
+            discoverers = new HashSet<>(size);
+            for (int i = 0; i < size; i++) {
+                discoverers.add(new JID(ExternalizableUtil.getInstance().readSafeUTF(in)));
+            }
+        } else {
+            discoverers = null;
+        }
+    }
+
+    private static void writeNullableString(ObjectOutput out, String value) throws IOException {
+        ExternalizableUtil.getInstance().writeBoolean(out, value != null);
+        if (value != null) {
+            ExternalizableUtil.getInstance().writeSafeUTF(out, value);
+        }
+    }
+
+    private static String readNullableString(ObjectInput in) throws IOException {
+        return ExternalizableUtil.getInstance().readBoolean(in) ? ExternalizableUtil.getInstance().readSafeUTF(in) : null;
+    }
 }
@@ -59,6 +59,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
@@ -177,7 +178,7 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
     /**
      * The total time all agents took to chat *
      */
-    private long totalChatTime;
+    private final AtomicLong totalChatTime = new AtomicLong(0);
 
     /**
      * Flag that indicates if the service should provide information about locked rooms when
@@ -193,6 +194,19 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
      */
     private boolean allowToDiscoverMembersOnlyRooms = false;
 
+    /**
+     * Flag that indicates if persistent rooms are loaded in memory only when they are first accessed, rather than
+     * being preloaded when the service starts.
+     *
+     * @see LocalMUCRoomManager#LAZY_LOAD_ENABLED
+     */
+    private boolean lazyLoadRooms = false;
+
+    /**
+     * Flag that indicates if rooms are being unloaded because the maximum number of rooms in memory has been exceeded.
+     */
+    private final AtomicBoolean unloadingLeastRecentlyUsedRooms = new AtomicBoolean(false);
+
     /**
      * Returns the permission policy for creating rooms. A true value means that not anyone can
      * create a room. Users are allowed to create rooms only when
@@ -1840,7 +1854,10 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
                 Date cleanUpDate = getCleanupDate();
                 if (cleanUpDate!=null)
                 {
-                    totalChatTime += localMUCRoomManager.unloadInactiveRooms(cleanUpDate).toMillis();
+                    totalChatTime.addAndGet(localMUCRoomManager.unloadInactiveRooms(cleanUpDate).toMillis());
+                }
+                if (lazyLoadRooms) {
+                    totalChatTime.addAndGet(localMUCRoomManager.unloadLeastRecentlyUsedRooms(LocalMUCRoomManager.MAX_RESIDENT_ROOMS.getValue()).toMillis());
                 }
             }
             catch (final Throwable e) {
@@ -1945,6 +1962,7 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
         if (loaded || created) {
             // Initiate FMUC, when enabled.
             room.getFmucHandler().applyConfigurationChanges();
+            unloadLeastRecentlyUsedRooms();
         }
         return room;
     }
@@ -1983,10 +2001,33 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
         if (loaded) {
             // Initiate FMUC, when enabled.
             room.getFmucHandler().applyConfigurationChanges();
+            unloadLeastRecentlyUsedRooms();
         }
         return room;
     }
 
+    /**
+     * When rooms are loaded on first access, asynchronously removes the least recently used rooms from memory if the
+     * maximum number of rooms in memory has been exceeded.
+     */
+    private void unloadLeastRecentlyUsedRooms() {
+        final int maxRooms = LocalMUCRoomManager.MAX_RESIDENT_ROOMS.getValue();
+        if (!lazyLoadRooms || localMUCRoomManager.size() <= maxRooms) {
+            return;
+        }
+        if (unloadingLeastRecentlyUsedRooms.compareAndSet(false, true)) {
+            TaskEngine.getInstance().submit(() -> {
+                try {
+                    totalChatTime.addAndGet(localMUCRoomManager.unloadLeastRecentlyUsedRooms(maxRooms).toMillis());
+                } catch (final Throwable e) {
+                    Log.warn("An exception occurred while unloading least recently used rooms of service '{}'", chatServiceName, e);
+                } finally {
+                    unloadingLeastRecentlyUsedRooms.set(false);
+                }
+            });
+        }
+    }
+
     @Override
     public List<MUCRoom> getActiveChatRooms() {
         return new ArrayList<>(localMUCRoomManager.getAll());
@@ -2012,6 +2053,19 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
     // method would have to lock _every_ room, the cost of acquiring all locks seem to outweigh the benefit.
     @Override
     public Collection<MUCRoomSearchInfo> getAllRoomSearchInfo() {
+        if (lazyLoadRooms) {
+            // Base the result for all rooms that are in memory, then complement with the information of rooms that
+            // are not in memory, without loading these rooms.
+            final List<MUCRoomSearchInfo> result = getActiveChatRooms().stream().map(MUCRoomSearchInfo::new).collect(Collectors.toList());
+            final Set<String> loadedNames = result.stream().map(MUCRoomSearchInfo::getName).collect(Collectors.toSet());
+            for (final MUCRoomSearchInfo info : localMUCRoomManager.getUnloadedRoomSearchInfo()) {
+                if (!loadedNames.contains(info.getName())) {
+                    result.add(info);
+                }
+            }
+            return result;
+        }
+
         // Base the result for all rooms that are in memory, then complement with rooms in the database that haven't
         // been added yet (to catch all non-active rooms);
         return getActiveAndInactiveRooms().stream().map(MUCRoomSearchInfo::new).collect(Collectors.toList());
@@ -2058,7 +2112,7 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
             final MUCRoom room = localMUCRoomManager.remove(roomName);
             if (room != null) {
                 Log.info("removing chat room:" + roomName + "|" + room.getClass().getName());
-                totalChatTime += room.getChatLength();
+                totalChatTime.addAndGet(room.getChatLength());
             } else {
                 Log.info("No chatroom {} during removal.", roomName);
             }
@@ -2689,18 +2743,24 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
 
         Log.info(LocaleUtils.getLocalizedString("startup.starting.muc", Collections.singletonList(getServiceDomain())));
 
-        final int preloadDays = MUCPersistenceManager.getIntProperty(chatServiceName, "preload.days", 30);
-        if (preloadDays > 0) {
-            if (ClusterManager.isClusteringEnabled()) {
-                Log.warn("Preloading MUC rooms when clustering is enabled can lead to a lot of duplicated database overhead. Consider disabling MUC room preloading.");
-            }
-            // Load all the persistent rooms to memory
-            final Instant cutoff = Instant.now().minus(Duration.ofDays(preloadDays));
-            for (final MUCRoom room : MUCPersistenceManager.loadRoomsFromDB(this, Date.from(cutoff))) {
-                localMUCRoomManager.add(room);
+        lazyLoadRooms = LocalMUCRoomManager.LAZY_LOAD_ENABLED.getValue();
+        if (lazyLoadRooms) {
+            // Rooms are loaded on first access. Load only what is needed to discover and search for rooms.
+            localMUCRoomManager.indexUnloadedRooms(MUCPersistenceManager.loadRoomSearchInfoFromDB(this));
+        } else {
+            final int preloadDays = MUCPersistenceManager.getIntProperty(chatServiceName, "preload.days", 30);
+            if (preloadDays > 0) {
+                if (ClusterManager.isClusteringEnabled()) {
+                    Log.warn("Preloading MUC rooms when clustering is enabled can lead to a lot of duplicated database overhead. Consider disabling MUC room preloading.");
+                }
+                // Load all the persistent rooms to memory
+                final Instant cutoff = Instant.now().minus(Duration.ofDays(preloadDays));
+                for (final MUCRoom room : MUCPersistenceManager.loadRoomsFromDB(this, Date.from(cutoff))) {
+                    localMUCRoomManager.add(room);
 
-                // Start FMUC, if desired.
-                room.getFmucHandler().applyConfigurationChanges();
+                    // Start FMUC, if desired.
+                    room.getFmucHandler().applyConfigurationChanges();
+                }
             }
         }
     }
@@ -2744,7 +2804,7 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
 
     @Override
     public long getTotalChatTime() {
-        return totalChatTime;
+        return totalChatTime.get();
     }
 
     /**
@@ -3124,8 +3184,31 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
         final Set<DiscoItem> answer = new HashSet<>();
         if (name == null && node == null)
         {
-            // Before returning the items, ensure that all rooms are properly loaded in memory
-            getActiveAndInactiveRooms();
+            if (lazyLoadRooms) {
+                // Answer the rooms that are not in memory without loading them. Non-public rooms are loaded only when
+                // the users that can discover them are not known (which is the case when an affiliation is granted to
+                // a group).
+                final JID bareSenderJID = senderJID.asBareJID();
+                for (final MUCRoomSearchInfo info : localMUCRoomManager.getUnloadedRoomSearchInfo())
+                {
+                    if (!allowToDiscoverLockedRooms && info.isLocked()) {
+                        continue;
+                    }
+                    if (info.isPublicRoom()) {
+                        answer.add(new DiscoItem(info.getJID(), info.getNaturalLanguageName(), null, null));
+                    } else if (allowToDiscoverMembersOnlyRooms || !info.isMembersOnly()) {
+                        final Set<JID> discoverers = info.getDiscoverers();
+                        if (discoverers == null) {
+                            getChatRoom(info.getName());
+                        } else if (discoverers.contains(bareSenderJID)) {
+                            answer.add(new DiscoItem(info.getJID(), info.getNaturalLanguageName(), null, null));
+                        }
+                    }
+                }
+            } else {
+                // Before returning the items, ensure that all rooms are properly loaded in memory
+                getActiveAndInactiveRooms();
+            }
 
             // Answer all the public rooms as items
             for (final MUCRoom room : localMUCRoomManager.getAll())
@@ -3222,6 +3305,7 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
         // org.jivesoftware.util.cache.CacheFactory.joinedCluster). This means that they now hold data that's
         // available on all other cluster nodes. Data that's available on the local node needs to be added again.
         final Set<OccupantManager.Occupant> occupantsToSync = localMUCRoomManager.restoreCacheContentAfterJoin(occupantManager);
+        localMUCRoomManager.restoreUnloadedRoomIndex(() -> MUCPersistenceManager.loadRoomSearchInfoFromDB(this));
 
         Log.debug("Occupants to sync: {}", occupantsToSync);
 
@@ -3271,6 +3355,7 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
         // org.jivesoftware.util.cache.CacheFactory.leftCluster). This means that they now hold no data (as a new cache
         // has been created). Data that's available on the local node needs to be added again.
         localMUCRoomManager.restoreCacheContentAfterLeave(occupantsOnRemovedNodes);
+        localMUCRoomManager.restoreUnloadedRoomIndex(() -> MUCPersistenceManager.loadRoomSearchInfoFromDB(this));
 
         // Send presence 'leave' for all of these users to the users that remain in the chatroom (on this node)
         makeOccupantsOnDisconnectedClusterNodesLeave(occupantsOnRemovedNodes, null);
@@ -3333,8 +3418,13 @@ public class MultiUserChatServiceImpl implements Component, MultiUserChatService
         }
 
         // Now that occupants have been properly ousted from the lost rooms, we can make an effort to restore the rooms
-        // from the database. Calling getActiveAndInactiveRooms() will do just that.
-        getActiveAndInactiveRooms();
+        // from the database. Calling getActiveAndInactiveRooms() will do just that. When rooms are loaded on first
+        // access, only the information needed to discover and search for rooms is restored (as caches have been reset).
+        if (lazyLoadRooms) {
+            localMUCRoomManager.indexUnloadedRooms(MUCPersistenceManager.loadRoomSearchInfoFromDB(this));
+        } else {
+            getActiveAndInactiveRooms();
+        }
 
         // From this point onwards, the remainder of what's in the cache can be considered 'consistent' (as we've dealt with the inconsistencies).
         // We now need to inform these occupants that occupants of the same room, that exist on other cluster nodes (which are now unreachable)
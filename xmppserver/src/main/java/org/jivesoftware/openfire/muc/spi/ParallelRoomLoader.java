@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc.spi;
+
+import org.jivesoftware.database.DbConnectionManager;
+import org.jivesoftware.openfire.group.GroupJID;
+import org.jivesoftware.openfire.muc.HistoryStore;
+import org.jivesoftware.openfire.muc.MUCRole;
+import org.jivesoftware.openfire.muc.MUCRoom;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.util.NamedThreadFactory;
+import org.jivesoftware.util.SAXReaderUtil;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import javax.annotation.Nonnull;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Loads the persistent rooms of a MUC service from the database, when the service starts.
+ *
+ * The rooms, their history, their affiliations and their members are queried concurrently, each on a separate
+ * database connection. Rows are read using a fetch size (see {@link #FETCH_SIZE}), which allows JDBC drivers that
+ * support this to stream rows, rather than to read the entire result in memory. While the history is read, only the
+ * most recent messages of each room are retained: no more than the history strategy of the room keeps (once the rooms
+ * have been loaded), and never more than {@link HistoryStore#MAX_MESSAGES_PER_ROOM}. The retained messages are parsed
+ * in a fork-join pool. The duration of each phase is logged.
+ *
+ * An instance of this class is intended to load rooms once.
+ *
+ * @see MUCPersistenceManager#loadRoomsFromDB(MultiUserChatService, Date)
+ */
+class ParallelRoomLoader
+{
+    private static final Logger Log = LoggerFactory.getLogger(ParallelRoomLoader.class);
+
+    /**
+     * Determines if rooms, history, affiliations and members are loaded concurrently when a MUC service starts. When
+     * disabled, these are loaded one after the other.
+     */
+    public static final SystemProperty<Boolean> ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.muc.startup.parallel-load.enabled")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The number of rows that the JDBC driver is asked to fetch from the database at a time, when loading rooms.
+     */
+    public static final SystemProperty<Integer> FETCH_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.muc.startup.fetch-size")
+        .setDefaultValue(500)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The number of threads that parse historic messages when loading rooms. As the XML of messages is parsed by
+     * {@link SAXReaderUtil}, this should be well below the maximum pool size of that utility.
+     */
+    public static final SystemProperty<Integer> PARSE_PARALLELISM = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.muc.startup.parse-parallelism")
+        .setDefaultValue(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), SAXReaderUtil.PARSER_SERVICE_MAX_POOL_SIZE.getValue() / 2)))
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum number of historic messages of a room that are parsed in one task.
+     */
+    private static final int HISTORY_CHUNK_SIZE = 256;
+
+    private final Long serviceID;
+    private final Date cleanupDate;
+    private final MultiUserChatService chatserver;
+
+    private volatile Duration roomsDuration = Duration.ZERO;
+    private volatile Duration historyDuration = Duration.ZERO;
+    private volatile Duration affiliationsDuration = Duration.ZERO;
+    private volatile Duration membersDuration = Duration.ZERO;
+    private volatile int historyCount = 0;
+
+    /**
+     * Creates a loader for the rooms of one MUC service.
+     *
+     * @param serviceID the database identifier of the service.
+     * @param cleanupDate rooms that hadn't been used after this date won't be loaded (null to load all rooms).
+     * @param chatserver the chat server that will hold the loaded rooms.
+     */
+    ParallelRoomLoader(@Nonnull final Long serviceID, final Date cleanupDate, @Nonnull final MultiUserChatService chatserver)
+    {
+        this.serviceID = serviceID;
+        this.cleanupDate = cleanupDate;
+        this.chatserver = chatserver;
+    }
+
+    /**
+     * Loads the rooms, including their history, affiliations and members.
+     *
+     * @return the loaded rooms, mapped by their database identifier.
+     * @throws SQLException when the rooms could not be loaded from the database.
+     */
+    @Nonnull
+    Map<Long, MUCRoom> load() throws SQLException
+    {
+        final long start = System.nanoTime();
+        final ExecutorService queryService = Executors.newFixedThreadPool(4, new NamedThreadFactory("muc-room-loader-", Executors.defaultThreadFactory(), true, Thread.NORM_PRIORITY));
+        final ForkJoinPool parserPool = new ForkJoinPool(PARSE_PARALLELISM.getValue());
+        try {
+            final CompletableFuture<Map<Long, MUCRoom>> roomsFuture = CompletableFuture.supplyAsync(() -> {
+                final long phaseStart = System.nanoTime();
+                try {
+                    return MUCPersistenceManager.loadRooms(serviceID, cleanupDate, chatserver);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    roomsDuration = Duration.ofNanos(System.nanoTime() - phaseStart);
+                }
+            }, queryService);
+            final CompletableFuture<Map<Long, Deque<HistoricMessage>>> historyFuture = CompletableFuture.supplyAsync(() -> {
+                final long phaseStart = System.nanoTime();
+                try {
+                    return readHistory(roomsFuture);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    historyDuration = Duration.ofNanos(System.nanoTime() - phaseStart);
+                }
+            }, queryService);
+            final CompletableFuture<List<Affiliation>> affiliationsFuture = CompletableFuture.supplyAsync(() -> {
+                final long phaseStart = System.nanoTime();
+                try {
+                    return readAffiliations();
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    affiliationsDuration = Duration.ofNanos(System.nanoTime() - phaseStart);
+                }
+            }, queryService);
+            final CompletableFuture<List<Affiliation>> membersFuture = CompletableFuture.supplyAsync(() -> {
+                final long phaseStart = System.nanoTime();
+                try {
+                    return readMembers();
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    membersDuration = Duration.ofNanos(System.nanoTime() - phaseStart);
+                }
+            }, queryService);
+
+            final Map<Long, MUCRoom> rooms = get(roomsFuture);
+            final Map<Long, Deque<HistoricMessage>> history = get(historyFuture);
+            final List<Affiliation> affiliations = get(affiliationsFuture);
+            final List<Affiliation> members = get(membersFuture);
+            final long queriesDone = System.nanoTime();
+
+            // Affiliations and members are added one at a time, in the same order as they are loaded sequentially.
+            for (final Affiliation affiliation : affiliations) {
+                final MUCRoom room = rooms.get(affiliation.roomID);
+                if (room != null) {
+                    MUCPersistenceManager.addLoadedAffiliation(room, affiliation.affiliation, affiliation.jid);
+                }
+            }
+            for (final Affiliation member : members) {
+                final MUCRoom room = rooms.get(member.roomID);
+                if (room != null) {
+                    MUCPersistenceManager.addLoadedMember(room, member.jid, member.nickname);
+                }
+            }
+
+            // Parse the history of each room in chunks, now that the rooms (and their history strategy) are known.
+            final Map<MUCRoom, List<CompletableFuture<List<Message>>>> parsed = new HashMap<>();
+            for (final Map.Entry<Long, Deque<HistoricMessage>> entry : history.entrySet()) {
+                final MUCRoom room = rooms.get(entry.getKey());
+                if (room == null || !room.isLogEnabled()) {
+                    continue;
+                }
+                final Deque<HistoricMessage> rows = entry.getValue();
+                trim(rows, historyLimit(room));
+                final List<CompletableFuture<List<Message>>> chunks = new ArrayList<>();
+                while (!rows.isEmpty()) {
+                    final List<HistoricMessage> chunk = new ArrayList<>(Math.min(rows.size(), HISTORY_CHUNK_SIZE));
+                    while (!rows.isEmpty() && chunk.size() < HISTORY_CHUNK_SIZE) {
+                        chunk.add(rows.poll());
+                    }
+                    chunks.add(CompletableFuture.supplyAsync(() -> parse(room, chunk), parserPool));
+                }
+                parsed.put(room, chunks);
+            }
+
+            // Add the parsed history of each room, preserving the order of the messages.
+            for (final Map.Entry<MUCRoom, List<CompletableFuture<List<Message>>>> entry : parsed.entrySet()) {
+                final List<Message> messages = new ArrayList<>();
+                for (final CompletableFuture<List<Message>> chunk : entry.getValue()) {
+                    messages.addAll(get(chunk));
+                }
+                if (!messages.isEmpty()) {
+                    entry.getKey().getRoomHistory().addOldMessages(messages);
+                }
+            }
+            MUCPersistenceManager.addLastSubjectToHistory(rooms.values());
+            final long end = System.nanoTime();
+
+            Log.info("Loaded {} rooms and {} historic messages for chat service {} in {} ms (rooms: {} ms, history: {} ms, affiliations: {} ms, members: {} ms, parsing and applying: {} ms).",
+                rooms.size(), historyCount, chatserver.getServiceName(),
+                Duration.ofNanos(end - start).toMillis(), roomsDuration.toMillis(), historyDuration.toMillis(),
+                affiliationsDuration.toMillis(), membersDuration.toMillis(), Duration.ofNanos(end - queriesDone).toMillis());
+            return rooms;
+        } finally {
+            queryService.shutdownNow();
+            parserPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the history of all rooms. Of each room, only the most recent messages are retained, as limited by
+     * {@link #historyLimit(MUCRoom)} when the rooms have already been loaded, or by
+     * {@link HistoryStore#MAX_MESSAGES_PER_ROOM} otherwise.
+     *
+     * @return for each room, the most recent rows of its history, in chronological order.
+     */
+    @Nonnull
+    private Map<Long, Deque<HistoricMessage>> readHistory(@Nonnull final CompletableFuture<Map<Long, MUCRoom>> roomsFuture) throws SQLException
+    {
+        final Map<Long, Deque<HistoricMessage>> result = new HashMap<>();
+        final int maxPerRoom = HistoryStore.MAX_MESSAGES_PER_ROOM.getValue();
+        int count = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            // Some drivers (eg: PostgreSQL) only stream rows when auto-commit is disabled.
+            connection = DbConnectionManager.getTransactionConnection();
+            statement = connection.prepareStatement(MUCPersistenceManager.LOAD_ALL_HISTORY);
+            statement.setFetchSize(FETCH_SIZE.getValue());
+            statement.setLong(1, serviceID);
+            statement.setString(2, StringUtils.dateToMillis(MUCPersistenceManager.getHistoryReloadFrom()));
+            resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                try {
+                    final long roomID = resultSet.getLong("roomID");
+                    final int limit;
+                    if (roomsFuture.isDone() && !roomsFuture.isCompletedExceptionally()) {
+                        final MUCRoom room = roomsFuture.join().get(roomID);
+                        limit = room == null || !room.isLogEnabled() ? 0 : historyLimit(room);
+                    } else {
+                        limit = maxPerRoom;
+                    }
+                    addRecent(result, roomID, new HistoricMessage(
+                        resultSet.getString("sender"),
+                        resultSet.getString("nickname"),
+                        new Date(Long.parseLong(resultSet.getString("logTime").trim())),
+                        resultSet.getString("subject"),
+                        resultSet.getString("body"),
+                        resultSet.getString("stanza")), limit);
+                    count++;
+                } catch (SQLException e) {
+                    Log.warn("A database exception prevented the history for one particular MUC room to be loaded from the database.", e);
+                }
+            }
+        } finally {
+            DbConnectionManager.closeResultSet(resultSet);
+            DbConnectionManager.closeTransactionConnection(statement, connection, false);
+        }
+        historyCount = count;
+        return result;
+    }
+
+    /**
+     * Returns the maximum number of historic messages that are kept for a room.
+     *
+     * @param room the room.
+     * @return the maximum number of messages.
+     */
+    static int historyLimit(@Nonnull final MUCRoom room)
+    {
+        final int maxMessages = room.getRoomHistory().getMaxMessages();
+        final int maxPerRoom = HistoryStore.MAX_MESSAGES_PER_ROOM.getValue();
+        return maxMessages < 0 ? maxPerRoom : Math.min(maxMessages, maxPerRoom);
+    }
+
+    /**
+     * Adds a row to the rows of a room, removing the oldest rows of that room when it has more than the provided
+     * number of rows.
+     *
+     * @param rows the rows, per room, in chronological order.
+     * @param roomID the room to which the row belongs.
+     * @param row the row, which is more recent than all rows of the room.
+     * @param limit the maximum number of rows of the room.
+     */
+    static <T> void addRecent(@Nonnull final Map<Long, Deque<T>> rows, final long roomID, @Nonnull final T row, final int limit)
+    {
+        if (limit <= 0) {
+            rows.remove(roomID);
+            return;
+        }
+        final Deque<T> roomRows = rows.computeIfAbsent(roomID, id -> new ArrayDeque<>());
+        roomRows.add(row);
+        trim(roomRows, limit);
+    }
+
+    /**
+     * Removes the oldest rows until no more than the provided number of rows remain.
+     *
+     * @param rows the rows, in chronological order.
+     * @param limit the maximum number of rows.
+     */
+    static void trim(@Nonnull final Deque<?> rows, final int limit)
+    {
+        while (rows.size() > Math.max(0, limit)) {
+            rows.poll();
+        }
+    }
+
+    /**
+     * Parses historic messages of a room.
+     */
+    @Nonnull
+    private static List<Message> parse(@Nonnull final MUCRoom room, @Nonnull final List<HistoricMessage> chunk)
+    {
+        final List<Message> messages = new ArrayList<>(chunk.size());
+        for (final HistoricMessage message : chunk) {
+            messages.add(room.getRoomHistory().parseHistoricMessage(message.senderJID, message.nickname, message.sentDate, message.subject, message.body, message.stanza));
+        }
+        return messages;
+    }
+
+    @Nonnull
+    private List<Affiliation> readAffiliations() throws SQLException
+    {
+        final List<Affiliation> result = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = DbConnectionManager.getTransactionConnection();
+            statement = connection.prepareStatement(MUCPersistenceManager.LOAD_ALL_AFFILIATIONS);
+            statement.setFetchSize(FETCH_SIZE.getValue());
+            statement.setLong(1, serviceID);
+            resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                try {
+                    final long roomID = resultSet.getLong("roomID");
+                    final MUCRole.Affiliation affiliation = MUCRole.Affiliation.valueOf(resultSet.getInt("affiliation"));
+                    final String jidValue = resultSet.getString("jid");
+                    try {
+                        // might be a group JID
+                        result.add(new Affiliation(roomID, affiliation, GroupJID.fromString(jidValue), null));
+                    } catch (IllegalArgumentException ex) {
+                        Log.warn("An illegal JID ({}) was found in the database, while trying to load all affiliations for room {}. The JID is ignored.", jidValue, roomID);
+                    }
+                } catch (SQLException e) {
+                    Log.error("A database exception prevented affiliations for one particular MUC room to be loaded from the database.", e);
+                }
+            }
+        } finally {
+            DbConnectionManager.closeResultSet(resultSet);
+            DbConnectionManager.closeTransactionConnection(statement, connection, false);
+        }
+        return result;
+    }
+
+    @Nonnull
+    private List<Affiliation> readMembers() throws SQLException
+    {
+        final List<Affiliation> result = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = DbConnectionManager.getTransactionConnection();
+            statement = connection.prepareStatement(MUCPersistenceManager.LOAD_ALL_MEMBERS);
+            statement.setFetchSize(FETCH_SIZE.getValue());
+            statement.setLong(1, serviceID);
+            resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                try {
+                    final long roomID = resultSet.getLong("roomID");
+                    final String jidValue = resultSet.getString("jid");
+                    try {
+                        // might be a group JID
+                        result.add(new Affiliation(roomID, MUCRole.Affiliation.member, GroupJID.fromString(jidValue), resultSet.getString("nickname")));
+                    } catch (IllegalArgumentException ex) {
+                        Log.warn("An illegal JID ({}) was found in the database, while trying to load all members for room {}. The JID is ignored.", jidValue, roomID);
+                    }
+                } catch (SQLException e) {
+                    Log.error("A database exception prevented members for one particular MUC room to be loaded from the database.", e);
+                }
+            }
+        } finally {
+            DbConnectionManager.closeResultSet(resultSet);
+            DbConnectionManager.closeTransactionConnection(statement, connection, false);
+        }
+        return result;
+    }
+
+    /**
+     * Waits for the result of a future, rethrowing a database exception that caused it to fail.
+     */
+    private static <T> T get(@Nonnull final CompletableFuture<T> future) throws SQLException
+    {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * A row of the history of a room, as read from the database.
+     */
+    private static class HistoricMessage
+    {
+        final String senderJID;
+        final String nickname;
+        final Date sentDate;
+        final String subject;
+        final String body;
+        final String stanza;
+
+        HistoricMessage(final String senderJID, final String nickname, final Date sentDate, final String subject, final String body, final String stanza)
+        {
+            this.senderJID = senderJID;
+            this.nickname = nickname;
+            this.sentDate = sentDate;
+            this.subject = subject;
+            this.body = body;
+            this.stanza = stanza;
+        }
+    }
+
+    /**
+     * An affiliation (or membership) of a room, as read from the database.
+     */
+    private static class Affiliation
+    {
+        final long roomID;
+        final MUCRole.Affiliation affiliation;
+        final JID jid;
+        final String nickname;
+
+        Affiliation(final long roomID, @Nonnull final MUCRole.Affiliation affiliation, @Nonnull final JID jid, final String nickname)
+        {
+            this.roomID = roomID;
+            this.affiliation = affiliation;
+            this.jid = jid;
+            this.nickname = nickname;
+        }
+    }
+}
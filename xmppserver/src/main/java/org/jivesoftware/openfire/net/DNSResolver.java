@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.net;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DefaultDnsRecordDecoder;
+import io.netty.handler.codec.dns.DnsRawRecord;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsServerAddressStreamProvider;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.util.concurrent.FutureListener;
+import org.jivesoftware.util.NamedThreadFactory;
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Performs DNS SRV look-ups without blocking the thread that requests them.
+ *
+ * Results are cached for as long as the DNS records that make up the result are valid (their time-to-live). Results
+ * that indicate that no records exist are cached for the duration defined by the 'minimum' value of the SOA record
+ * that accompanies such answers (as defined in RFC 2308). Concurrent requests for the same look-up share one DNS
+ * query. The number of cached results is bounded: when the bound is exceeded, results are evicted before they expire.
+ *
+ * The cache of this class is local to the cluster node, as the lifetime of its entries differs per entry.
+ */
+public class DNSResolver
+{
+    private static final Logger Log = LoggerFactory.getLogger(DNSResolver.class);
+
+    /**
+     * The duration after which an unanswered DNS query is considered to have failed.
+     */
+    public static final SystemProperty<Duration> QUERY_TIMEOUT = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("dnsutil.query.timeout")
+        .setDefaultValue(Duration.ofSeconds(5))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setMinValue(Duration.ofMillis(1))
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The maximum duration for which a DNS look-up result is cached, regardless of the time-to-live of its records.
+     */
+    public static final SystemProperty<Duration> MAX_TTL = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("dnsutil.cache.ttl.max")
+        .setDefaultValue(Duration.ofHours(1))
+        .setChronoUnit(ChronoUnit.SECONDS)
+        .setMinValue(Duration.ZERO)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The duration for which the absence of records is cached when the DNS answer does not include an SOA record.
+     */
+    public static final SystemProperty<Duration> NEGATIVE_TTL = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("dnsutil.cache.ttl.negative")
+        .setDefaultValue(Duration.ofMinutes(5))
+        .setChronoUnit(ChronoUnit.SECONDS)
+        .setMinValue(Duration.ZERO)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The duration for which a failed DNS look-up (such as a time-out or a server failure) is cached.
+     */
+    public static final SystemProperty<Duration> FAILURE_TTL = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("dnsutil.cache.ttl.failure")
+        .setDefaultValue(Duration.ofMinutes(1))
+        .setChronoUnit(ChronoUnit.SECONDS)
+        .setMinValue(Duration.ZERO)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum number of DNS look-up results that are cached.
+     */
+    public static final SystemProperty<Integer> CACHE_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("dnsutil.cache.size")
+        .setDefaultValue(10_000)
+        .setMinValue(0)
+        .setDynamic(false)
+        .build();
+
+    private static DNSResolver instance;
+
+    private final EventLoopGroup eventLoopGroup;
+    private final DnsNameResolver resolver;
+
+    /**
+     * Cached results, by DNS query.
+     */
+    private final Cache<String, CachedResult> cache;
+
+    /**
+     * Results of queries that have been sent, but have not been answered, by DNS query.
+     */
+    private final ConcurrentMap<String, CompletableFuture<List<DNSUtil.WeightedHostAddress>>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the resolver that uses the name servers that are configured for the platform. The instance is created
+     * when it is first requested.
+     *
+     * @return the resolver.
+     */
+    @Nonnull
+    public static synchronized DNSResolver getInstance() {
+        if (instance == null) {
+            instance = new DNSResolver(DnsServerAddressStreamProviders.platformDefault(), QUERY_TIMEOUT.getValue());
+        }
+        return instance;
+    }
+
+    /**
+     * Closes the resolver that is returned by {@link #getInstance()}. A new instance is created when one is requested
+     * afterwards.
+     */
+    public static synchronized void shutdownInstance() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Creates a resolver that sends queries to the provided name servers.
+     *
+     * @param nameServers the name servers to query.
+     * @param queryTimeout the duration after which an unanswered query is considered to have failed.
+     */
+    DNSResolver(@Nonnull final DnsServerAddressStreamProvider nameServers, @Nonnull final Duration queryTimeout) {
+        this(nameServers, queryTimeout, CACHE_SIZE.getValue());
+    }
+
+    /**
+     * Creates a resolver that sends queries to the provided name servers.
+     *
+     * @param nameServers the name servers to query.
+     * @param queryTimeout the duration after which an unanswered query is considered to have failed.
+     * @param cacheSize the maximum number of results that are cached.
+     */
+    DNSResolver(@Nonnull final DnsServerAddressStreamProvider nameServers, @Nonnull final Duration queryTimeout, final int cacheSize) {
+        cache = Caffeine.newBuilder()
+            .maximumSize(cacheSize)
+            .expireAfter(new ResultExpiry())
+            // Perform maintenance (including eviction) on the calling thread, like ConcurrentCache does.
+            .executor(Runnable::run)
+            .build();
+        eventLoopGroup = new NioEventLoopGroup(1, new NamedThreadFactory("dns-resolver-", null, true, null));
+        resolver = new DnsNameResolverBuilder(eventLoopGroup.next())
+            .channelType(NioDatagramChannel.class)
+            .nameServerProvider(nameServers)
+            .queryTimeoutMillis(queryTimeout.toMillis())
+            .recursionDesired(true)
+            .build();
+    }
+
+    /**
+     * Resolves the hosts at which an XMPP domain can be reached for server-to-server communication, as described in
+     * {@link DNSUtil#resolveXMPPDomain(String, int)}. This method does not take into account any DNS overrides.
+     *
+     * The SRV look-ups for all service names are performed concurrently.
+     *
+     * @param domain the domain.
+     * @param defaultPort the port to use when no SRV records are found.
+     * @param includeDirectTLS true if hosts that accept direct TLS connections (XEP-0368) are to be included.
+     * @return a future that provides the hosts, in order of preference (never empty).
+     */
+    @Nonnull
+    public CompletableFuture<List<DNSUtil.HostAddress>> resolveXMPPDomain(@Nonnull final String domain, final int defaultPort, final boolean includeDirectTLS) {
+        final CompletableFuture<List<DNSUtil.WeightedHostAddress>> xmpp = srvLookup("xmpp-server", "tcp", domain);
+        final CompletableFuture<List<DNSUtil.WeightedHostAddress>> xmpps = includeDirectTLS ? srvLookup("xmpps-server", "tcp", domain) : CompletableFuture.completedFuture(Collections.emptyList());
+        final CompletableFuture<List<DNSUtil.WeightedHostAddress>> jabber = srvLookup("jabber", "tcp", domain);
+
+        return CompletableFuture.allOf(xmpp, xmpps, jabber).thenApply(ignored -> {
+            final List<DNSUtil.HostAddress> results = new LinkedList<>();
+            final List<DNSUtil.WeightedHostAddress> srvLookups = new ArrayList<>(xmpp.join());
+            srvLookups.addAll(xmpps.join());
+            if (!srvLookups.isEmpty()) {
+                // we have to re-prioritize the combination of both lookups.
+                results.addAll(DNSUtil.prioritize(srvLookups.toArray(new DNSUtil.WeightedHostAddress[0])));
+            }
+
+            if (results.isEmpty()) {
+                results.addAll(DNSUtil.prioritize(jabber.join().toArray(new DNSUtil.WeightedHostAddress[0])));
+            }
+
+            // Use domain and default port as fallback.
+            if (results.isEmpty()) {
+                results.add(new DNSUtil.HostAddress(domain, defaultPort, false));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Performs a DNS SRV look-up. The records in the result are not prioritized.
+     *
+     * The returned future does not complete exceptionally: when the look-up fails, an empty result is provided.
+     *
+     * @param service the symbolic name of the desired service.
+     * @param proto the transport protocol of the desired service; this is usually either TCP or UDP.
+     * @param name the domain name for which this record is valid.
+     * @return a future that provides the records (an unmodifiable, possibly empty list).
+     */
+    @Nonnull
+    public CompletableFuture<List<DNSUtil.WeightedHostAddress>> srvLookup(@Nonnull final String service, @Nonnull final String proto, @Nonnull final String name) {
+        final String lookup = DNSUtil.constructLookup(service, proto, name);
+
+        final CachedResult cached = cache.getIfPresent(lookup);
+        if (cached != null) {
+            Log.trace("{} SRV record(s) found for '{}' (cached result)", cached.records.size(), lookup);
+            return CompletableFuture.completedFuture(cached.records);
+        }
+
+        final CompletableFuture<List<DNSUtil.WeightedHostAddress>> pending = new CompletableFuture<>();
+        final CompletableFuture<List<DNSUtil.WeightedHostAddress>> existing = inFlight.putIfAbsent(lookup, pending);
+        if (existing != null) {
+            Log.trace("Joining DNS SRV lookup for '{}' that is in progress.", lookup);
+            return existing.copy();
+        }
+
+        Log.trace("DNS SRV Lookup for '{}'", lookup);
+        pending.whenComplete((records, throwable) -> inFlight.remove(lookup, pending));
+        try {
+            resolver.query(new DefaultDnsQuestion(lookup, DnsRecordType.SRV)).addListener((FutureListener<AddressedEnvelope<DnsResponse, InetSocketAddress>>) future -> {
+                if (!future.isSuccess()) {
+                    Log.info("DNS SRV lookup was unsuccessful for '{}': {}", lookup, future.cause() == null ? null : future.cause().getMessage());
+                    complete(lookup, pending, Collections.emptyList(), FAILURE_TTL.getValue());
+                    return;
+                }
+                final AddressedEnvelope<DnsResponse, InetSocketAddress> envelope = future.getNow();
+                try {
+                    handleResponse(lookup, pending, envelope.content());
+                } catch (final Exception e) {
+                    Log.info("Unable to parse the answer to DNS SRV lookup for '{}'", lookup, e);
+                    complete(lookup, pending, Collections.emptyList(), FAILURE_TTL.getValue());
+                } finally {
+                    envelope.release();
+                }
+            });
+        } catch (final Exception e) {
+            Log.info("DNS SRV lookup could not be sent for '{}': {}", lookup, e.getMessage());
+            pending.complete(Collections.emptyList());
+        }
+        return pending.copy();
+    }
+
+    private void handleResponse(@Nonnull final String lookup, @Nonnull final CompletableFuture<List<DNSUtil.WeightedHostAddress>> pending, @Nonnull final DnsResponse response) {
+        final DnsResponseCode code = response.code();
+        if (!DnsResponseCode.NOERROR.equals(code) && !DnsResponseCode.NXDOMAIN.equals(code)) {
+            Log.info("DNS SRV lookup was unsuccessful for '{}': {}", lookup, code);
+            complete(lookup, pending, Collections.emptyList(), FAILURE_TTL.getValue());
+            return;
+        }
+
+        final boolean directTLS = lookup.startsWith("_xmpps-"); // XEP-0368
+        final List<DNSUtil.WeightedHostAddress> records = new ArrayList<>();
+        long ttl = Long.MAX_VALUE;
+        for (int i = 0; i < response.count(DnsSection.ANSWER); i++) {
+            final DnsRecord record = response.recordAt(DnsSection.ANSWER, i);
+            if (!DnsRecordType.SRV.equals(record.type()) || !(record instanceof DnsRawRecord)) {
+                continue;
+            }
+            ttl = Math.min(ttl, record.timeToLive());
+
+            // Priority, weight, port and target, as defined in RFC 2782.
+            final ByteBuf content = ((DnsRawRecord) record).content().duplicate();
+            final int priority = content.readUnsignedShort();
+            final int weight = content.readUnsignedShort();
+            final int port = content.readUnsignedShort();
+            final String target = DefaultDnsRecordDecoder.decodeName(content);
+            if (".".equals(target)) {
+                // A target of "." means that the service is decidedly not available at this domain.
+                continue;
+            }
+            records.add(new DNSUtil.WeightedHostAddress(target, port, directTLS, priority, weight));
+        }
+
+        if (ttl == Long.MAX_VALUE) {
+            Log.debug("No SRV record found for '{}'", lookup);
+            complete(lookup, pending, Collections.emptyList(), getNegativeTtl(response));
+        } else {
+            Log.trace("{} SRV record(s) found for '{}'", records.size(), lookup);
+            complete(lookup, pending, Collections.unmodifiableList(records), Duration.ofSeconds(ttl));
+        }
+    }
+
+    /**
+     * Returns the duration for which a DNS answer without records is to be cached. As defined in section 5 of RFC 2308,
+     * this is the lesser of the TTL of the SOA record that is included in the answer, and its 'minimum' field.
+     */
+    @Nonnull
+    static Duration getNegativeTtl(@Nonnull final DnsResponse response) {
+        for (int i = 0; i < response.count(DnsSection.AUTHORITY); i++) {
+            final DnsRecord record = response.recordAt(DnsSection.AUTHORITY, i);
+            if (!DnsRecordType.SOA.equals(record.type()) || !(record instanceof DnsRawRecord)) {
+                continue;
+            }
+
+            // MNAME, RNAME, SERIAL, REFRESH, RETRY, EXPIRE and MINIMUM, as defined in RFC 1035.
+            final ByteBuf content = ((DnsRawRecord) record).content().duplicate();
+            DefaultDnsRecordDecoder.decodeName(content);
+            DefaultDnsRecordDecoder.decodeName(content);
+            content.skipBytes(16);
+            final long minimum = content.readUnsignedInt();
+            return Duration.ofSeconds(Math.min(record.timeToLive(), minimum));
+        }
+        return NEGATIVE_TTL.getValue();
+    }
+
+    private void complete(@Nonnull final String lookup, @Nonnull final CompletableFuture<List<DNSUtil.WeightedHostAddress>> pending, @Nonnull final List<DNSUtil.WeightedHostAddress> records, @Nonnull final Duration ttl) {
+        final Duration maxTtl = MAX_TTL.getValue();
+        final Duration lifetime = ttl.compareTo(maxTtl) > 0 ? maxTtl : ttl;
+        if (!lifetime.isZero() && !lifetime.isNegative()) {
+            cache.put(lookup, new CachedResult(records, lifetime.toNanos()));
+        } else {
+            cache.invalidate(lookup);
+        }
+        pending.complete(records);
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clearCache() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return the number of cached results.
+     */
+    // @VisibleForTesting
+    long getCacheSize() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Stops this resolver. Look-ups that are requested afterwards fail, yielding an empty result.
+     */
+    public void close() {
+        resolver.close();
+        eventLoopGroup.shutdownGracefully(0, QUERY_TIMEOUT.getValue().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static final class CachedResult
+    {
+        private final List<DNSUtil.WeightedHostAddress> records;
+        private final long lifetimeNanos;
+
+        private CachedResult(@Nonnull final List<DNSUtil.WeightedHostAddress> records, final long lifetimeNanos) {
+            this.records = records;
+            this.lifetimeNanos = lifetimeNanos;
+        }
+    }
+
+    /**
+     * Expires each result after its own lifetime, counted from the moment that it was cached.
+     */
+    private static final class ResultExpiry implements Expiry<String, CachedResult>
+    {
+        @Override
+        public long expireAfterCreate(final String key, final CachedResult value, final long currentTime) {
+            return value.lifetimeNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(final String key, final CachedResult value, final long currentTime, final long currentDuration) {
+            return value.lifetimeNanos;
+        }
+
+        @Override
+        public long expireAfterRead(final String key, final CachedResult value, final long currentTime, final long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
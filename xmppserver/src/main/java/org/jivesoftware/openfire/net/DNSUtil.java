@@ -18,36 +18,26 @@ package org.jivesoftware.openfire.net;
 
 import org.jivesoftware.openfire.Connection;
 import org.jivesoftware.openfire.session.ConnectionSettings;
-import org.jivesoftware.util.CacheableOptional;
 import org.jivesoftware.util.JiveGlobals;
-import org.jivesoftware.util.cache.Cache;
-import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
-import javax.naming.NameNotFoundException;
-import javax.naming.NamingException;
-import javax.naming.directory.Attribute;
-import javax.naming.directory.Attributes;
-import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Utility class to perform DNS lookups for XMPP services.
  *
+ * Look-ups are performed by {@link DNSResolver}, which caches results for the duration of the TTL of the DNS records.
+ *
  * @author Matt Tucker
  */
 public class DNSUtil {
 
-    private static DirContext context;
-
     private static final Logger logger = LoggerFactory.getLogger(DNSUtil.class);
 
-    private static Cache<String, CacheableOptional<WeightedHostAddress[]>> LOOKUP_CACHE;
-
     /**
      * Internal DNS that allows to specify target IP addresses and ports to use for domains.
      * The internal DNS will be checked up before performing an actual DNS SRV lookup.
@@ -56,10 +46,6 @@ public class DNSUtil {
 
     static {
         try {
-            Hashtable<String,String> env = new Hashtable<>();
-            env.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
-            context = new InitialDirContext(env);
-
             String property = JiveGlobals.getProperty("dnsutil.dnsOverride");
             if (property != null) {
                 dnsOverride = decode(property);
@@ -67,12 +53,7 @@ public class DNSUtil {
             }
         }
         catch (Exception e) {
-            logger.error("Can't initialize DNS context!", e);
-        }
-        try {
-            LOOKUP_CACHE = CacheFactory.createCache("DNS Records");
-        } catch (Exception e) {
-            logger.error("Can't initialize DNS cache!", e);
+            logger.error("Can't initialize DNS overrides!", e);
         }
     }
 
@@ -102,8 +83,22 @@ public class DNSUtil {
      * @see <a href="https://xmpp.org/extensions/xep-0368.html">XEP-0368</a>
      */
     public static List<HostAddress> resolveXMPPDomain(String domain, int defaultPort) {
+        return resolveXMPPDomainAsync(domain, defaultPort).join();
+    }
+
+    /**
+     * Returns a sorted list of host names and ports that the specified XMPP domain can be reached at for
+     * server-to-server communication, as described in {@link #resolveXMPPDomain(String, int)}.
+     *
+     * This method does not block: the DNS lookups for all service names are performed concurrently, and the returned
+     * future completes when all of them have been answered (or have failed).
+     *
+     * @param domain the domain.
+     * @param defaultPort default port to return if the DNS look up fails.
+     * @return a future that provides a list of HostAddresses (never empty).
+     */
+    public static CompletableFuture<List<HostAddress>> resolveXMPPDomainAsync(String domain, int defaultPort) {
         // Check if there is an entry in the internal DNS for the specified domain
-        List<HostAddress> results = new LinkedList<>();
         if (dnsOverride != null) {
             HostAddress hostAddress = dnsOverride.get(domain);
             if (hostAddress == null) {
@@ -111,14 +106,12 @@ public class DNSUtil {
             }
             if (hostAddress != null) {
                 logger.debug("Answering lookup for domain '{}' from DNS override property. Returning: {}", domain, hostAddress);
+                final List<HostAddress> results = new LinkedList<>();
                 results.add(hostAddress);
-                return results;
+                return CompletableFuture.completedFuture(results);
             }
         }
 
-        // Attempt the SRV lookup.
-        final List<WeightedHostAddress> srvLookups = new LinkedList<>(srvLookup("xmpp-server", "tcp", domain));
-
         final String propertyValue = JiveGlobals.getProperty(ConnectionSettings.Server.TLS_POLICY, Connection.TLSPolicy.optional.toString());
         Connection.TLSPolicy configuredPolicy;
         try {
@@ -129,23 +122,8 @@ public class DNSUtil {
             configuredPolicy = Connection.TLSPolicy.required;
         }
         final boolean allowTLS = configuredPolicy == Connection.TLSPolicy.required || configuredPolicy == Connection.TLSPolicy.optional;
-        if (allowTLS) {
-            srvLookups.addAll(srvLookup("xmpps-server", "tcp", domain));
-        }
-        if (!srvLookups.isEmpty()) {
-            // we have to re-prioritize the combination of both lookups.
-            results.addAll( prioritize( srvLookups.toArray( new WeightedHostAddress[0] ) ) );
-        }
-
-        if (results.isEmpty()) {
-            results.addAll(srvLookup( "jabber", "tcp", domain ) );
-        }
 
-        // Use domain and default port as fallback.
-        if (results.isEmpty()) {
-            results.add(new HostAddress(domain, defaultPort, false));
-        }
-        return results;
+        return DNSResolver.getInstance().resolveXMPPDomain(domain, defaultPort, allowTLS);
     }
 
     /**
@@ -213,53 +191,10 @@ public class DNSUtil {
     public static List<WeightedHostAddress> srvLookup(@Nonnull final String service, @Nonnull final String proto, @Nonnull final String name) {
         logger.trace("DNS SRV Lookup for service '{}', protocol '{}' and name '{}'", service, proto, name);
 
-        final String lookup = constructLookup(service, proto, name);
+        final List<WeightedHostAddress> result = DNSResolver.getInstance().srvLookup(service, proto, name).join();
 
-        final CacheableOptional<WeightedHostAddress[]> optional = LOOKUP_CACHE.get(lookup);
-        WeightedHostAddress[] result;
-        if (optional != null) {
-            // Return a cached result.
-            if (optional.isAbsent()) {
-                logger.warn("DNS SRV lookup previously failed for '{}' (negative cache result)", lookup);
-                result = new WeightedHostAddress[0];
-            } else {
-                result = optional.get();
-                if ( result.length == 0 ) {
-                    logger.debug("No SRV record found for '{}' (cached result)", lookup);
-                } else {
-                    logger.trace("{} SRV record(s) found for '{}' (cached result)", result.length, lookup);
-                }
-            }
-        } else {
-            // No result in cache. Query DNS and cache result.
-            try {
-                final Attributes dnsLookup = context.getAttributes(lookup, new String[]{"SRV"});
-                final Attribute srvRecords = dnsLookup.get("SRV");
-                if (srvRecords == null) {
-                    logger.debug("No SRV record found for '{}'", lookup);
-                    result = new WeightedHostAddress[0];
-                } else {
-                    result = new WeightedHostAddress[srvRecords.size()];
-                    final boolean directTLS = lookup.startsWith("_xmpps-"); // XEP-0368
-                    for (int i = 0; i < srvRecords.size(); i++) {
-                        result[i] = new WeightedHostAddress(((String) srvRecords.get(i)).split(" "), directTLS);
-                    }
-                    logger.trace("{} SRV record(s) found for '{}'", result.length, lookup);
-                }
-                LOOKUP_CACHE.put(lookup, CacheableOptional.of(result));
-            } catch (NameNotFoundException e) {
-                logger.debug("No SRV record found for '{}'", lookup, e);
-                LOOKUP_CACHE.put(lookup, CacheableOptional.of(new WeightedHostAddress[0])); // Empty result (different from negative result!)
-                result = new WeightedHostAddress[0];
-            } catch (NamingException e) {
-                logger.info("DNS SRV lookup was unsuccessful for '{}': {}", lookup, e.getMessage());
-                LOOKUP_CACHE.put(lookup, CacheableOptional.of(null)); // Negative result cache (different from empty result!)
-                result = new WeightedHostAddress[0];
-            }
-        }
-
-        // Do not store _prioritized_ results in the cache, as there is a random element to the prioritization that needs to happen every time.
-        return prioritize(result);
+        // Do not cache _prioritized_ results, as there is a random element to the prioritization that needs to happen every time.
+        return prioritize(result.toArray(new WeightedHostAddress[0]));
     }
 
     /**
@@ -453,15 +388,6 @@ public class DNSUtil {
         private final int priority;
         private final int weight;
 
-        private WeightedHostAddress(String[] srvRecordEntries, boolean directTLS) {
-            super(srvRecordEntries[srvRecordEntries.length-1],
-                  Integer.parseInt(srvRecordEntries[srvRecordEntries.length-2]),
-                  directTLS
-            );
-            weight = Integer.parseInt(srvRecordEntries[srvRecordEntries.length-3]);
-            priority = Integer.parseInt(srvRecordEntries[srvRecordEntries.length-4]);
-        }
-
         WeightedHostAddress(String host, int port, boolean directTLS, int priority, int weight) {
             super(host, port, directTLS);
             this.priority = priority;
@@ -25,8 +25,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Utility class to generate Socket instances.
@@ -58,29 +60,14 @@ public class SocketUtil
     {
         Log.debug( "Creating a socket connection to XMPP domain '{}' ...", xmppDomain );
 
-        Log.debug( "Use DNS to resolve remote hosts for the provided XMPP domain '{}' (default port: {}) ...", xmppDomain, port );
-        final List<DNSUtil.HostAddress> remoteHosts = DNSUtil.resolveXMPPDomain( xmppDomain, port );
-        Log.debug( "Found {} host(s) for XMPP domain '{}'.", remoteHosts.size(), xmppDomain );
-        remoteHosts.forEach( remoteHost -> Log.debug( "- {} ({})", remoteHost.toString(), (remoteHost.isDirectTLS() ? "direct TLS" : "no direct TLS" ) ) );
-
         Socket socket = null;
         final int socketTimeout = RemoteServerManager.getSocketTimeout();
-        for ( DNSUtil.HostAddress remoteHost : remoteHosts )
+        for ( DNSUtil.HostAddress remoteHost : getRemoteHostsForXmppDomain( xmppDomain, port ) )
         {
             final String realHostname = remoteHost.getHost();
             final int realPort = remoteHost.getPort();
             final boolean directTLS = remoteHost.isDirectTLS();
 
-            if (!JiveGlobals.getBooleanProperty(ConnectionSettings.Server.ENABLE_OLD_SSLPORT, true) && directTLS) {
-                Log.debug("Skipping directTLS host, as we're ourselves not accepting directTLS S2S");
-                continue;
-            }
-
-            if (!JiveGlobals.getBooleanProperty(ConnectionSettings.Server.SOCKET_ACTIVE, true) && !directTLS) {
-                Log.debug("Skipping non direct TLS host, as we're ourselves not accepting non direct S2S");
-                continue;
-            }
-
             try
             {
                 // (re)initialize the socket.
@@ -113,4 +100,62 @@ public class SocketUtil
         Log.warn( "Unable to create a socket connection to XMPP domain '{}': Unable to connect to any of its remote hosts.", xmppDomain );
         return null;
     }
+
+    /**
+     * Returns the remote hosts to which a connection to an XMPP domain can be attempted, in order of preference.
+     *
+     * This implementation uses DNS SRV records to find a list of remote hosts for the XMPP domain (as implemented by
+     * {@link DNSUtil#resolveXMPPDomain(String, int)}. Hosts that use a type of connection (direct TLS or not) that is
+     * disabled by configuration are excluded.
+     *
+     * Note that this method blocks while performing DNS look-ups. It does not connect to any of the hosts.
+     *
+     * @param xmppDomain The XMPP domain to connect to.
+     * @param port The port to connect to when DNS resolution fails.
+     * @return the remote hosts (possibly empty).
+     * @see #getRemoteHostsForXmppDomainAsync(String, int)
+     */
+    public static List<DNSUtil.HostAddress> getRemoteHostsForXmppDomain( String xmppDomain, int port )
+    {
+        return getRemoteHostsForXmppDomainAsync( xmppDomain, port ).join();
+    }
+
+    /**
+     * Returns the remote hosts to which a connection to an XMPP domain can be attempted, in order of preference, as
+     * described in {@link #getRemoteHostsForXmppDomain(String, int)}. This method does not block while performing DNS
+     * look-ups.
+     *
+     * @param xmppDomain The XMPP domain to connect to.
+     * @param port The port to connect to when DNS resolution fails.
+     * @return a future that provides the remote hosts (possibly empty).
+     */
+    public static CompletableFuture<List<DNSUtil.HostAddress>> getRemoteHostsForXmppDomainAsync( String xmppDomain, int port )
+    {
+        Log.debug( "Use DNS to resolve remote hosts for the provided XMPP domain '{}' (default port: {}) ...", xmppDomain, port );
+        return DNSUtil.resolveXMPPDomainAsync( xmppDomain, port ).thenApply( remoteHosts -> filterRemoteHosts( xmppDomain, remoteHosts ) );
+    }
+
+    private static List<DNSUtil.HostAddress> filterRemoteHosts( String xmppDomain, List<DNSUtil.HostAddress> remoteHosts )
+    {
+        Log.debug( "Found {} host(s) for XMPP domain '{}'.", remoteHosts.size(), xmppDomain );
+        remoteHosts.forEach( remoteHost -> Log.debug( "- {} ({})", remoteHost.toString(), (remoteHost.isDirectTLS() ? "direct TLS" : "no direct TLS" ) ) );
+
+        final List<DNSUtil.HostAddress> result = new ArrayList<>();
+        for ( DNSUtil.HostAddress remoteHost : remoteHosts )
+        {
+            final boolean directTLS = remoteHost.isDirectTLS();
+
+            if (!JiveGlobals.getBooleanProperty(ConnectionSettings.Server.ENABLE_OLD_SSLPORT, true) && directTLS) {
+                Log.debug("Skipping directTLS host, as we're ourselves not accepting directTLS S2S");
+                continue;
+            }
+
+            if (!JiveGlobals.getBooleanProperty(ConnectionSettings.Server.SOCKET_ACTIVE, true) && !directTLS) {
+                Log.debug("Skipping non direct TLS host, as we're ourselves not accepting non direct S2S");
+                continue;
+            }
+            result.add( remoteHost );
+        }
+        return result;
+    }
 }
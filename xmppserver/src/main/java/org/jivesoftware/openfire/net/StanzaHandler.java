@@ -27,6 +27,7 @@ import org.jivesoftware.openfire.disco.IQDiscoInfoHandler;
 import org.jivesoftware.openfire.session.LocalSession;
 import org.jivesoftware.openfire.session.Session;
 import org.jivesoftware.openfire.spi.BasicStreamIDFactory;
+import org.jivesoftware.openfire.stats.StanzaPipelineMetrics;
 import org.jivesoftware.openfire.streammanagement.StreamManager;
 import org.jivesoftware.util.*;
 import org.slf4j.Logger;
@@ -160,6 +161,7 @@ public abstract class StanzaHandler {
             return;
         }
 
+        final long start = StanzaPipelineMetrics.start();
         Element doc;
         final Set<Namespace> namespaces = connection.getAdditionalNamespaces();
         if (namespaces.isEmpty()) {
@@ -219,7 +221,11 @@ public abstract class StanzaHandler {
             session.getStreamManager().process( doc );
         }
         else {
-            process(doc);
+            try {
+                process(doc);
+            } finally {
+                StanzaPipelineMetrics.getInstance().record(StanzaPipelineMetrics.Stage.STANZA_HANDLER, doc, start);
+            }
         }
     }
 
@@ -16,6 +16,7 @@
 
 package org.jivesoftware.openfire.nio;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -34,6 +35,7 @@ import org.jivesoftware.openfire.session.LocalSession;
 import org.jivesoftware.openfire.session.Session;
 import org.jivesoftware.openfire.spi.ConnectionConfiguration;
 import org.jivesoftware.openfire.spi.EncryptionArtifactFactory;
+import org.jivesoftware.openfire.stats.StanzaPipelineMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.Packet;
@@ -279,11 +281,15 @@ public class NettyConnection extends AbstractConnection
         }
         else {
             boolean errorDelivering = false;
+            final long start = StanzaPipelineMetrics.start();
             try {
-                channelHandlerContext.writeAndFlush(packet.getElement().asXML())
-                    .addListener(l ->
-                        updateWrittenBytesCounter(channelHandlerContext)
-                    );
+                // When the packet is being broadcast, re-use the data that was serialized for other recipients.
+                final ByteBuf preSerialized = PreSerializedStanza.encode(packet, session);
+                channelHandlerContext.writeAndFlush(preSerialized != null ? preSerialized : packet.getElement().asXML())
+                    .addListener(l -> {
+                        updateWrittenBytesCounter(channelHandlerContext);
+                        StanzaPipelineMetrics.getInstance().record(StanzaPipelineMetrics.Stage.DELIVERY, packet, start);
+                    });
                 // TODO - handle errors more specifically
                 // Currently errors are handled by the default exceptionCaught method (log error, close channel)
                 // We can add a new listener to the ChannelFuture f for more specific error handling.
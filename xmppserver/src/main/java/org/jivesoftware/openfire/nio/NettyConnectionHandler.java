@@ -16,6 +16,7 @@
 
 package org.jivesoftware.openfire.nio;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.ssl.SslHandshakeCompletionEvent;
@@ -26,6 +27,8 @@ import org.jivesoftware.openfire.Connection;
 import org.jivesoftware.openfire.net.MXParser;
 import org.jivesoftware.openfire.net.ServerTrafficCounter;
 import org.jivesoftware.openfire.net.StanzaHandler;
+import org.jivesoftware.openfire.session.LocalSession;
+import org.jivesoftware.openfire.session.Session;
 import org.jivesoftware.openfire.spi.ConnectionConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,7 +36,10 @@ import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmpp.packet.StreamError;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.jivesoftware.openfire.spi.NettyServerInitializer.TRAFFIC_HANDLER_NAME;
 
@@ -47,15 +53,16 @@ import static org.jivesoftware.openfire.spi.NettyServerInitializer.TRAFFIC_HANDL
  * @author Matthew Vivian
  * @author Alex Gidman
  */
-public abstract class NettyConnectionHandler extends SimpleChannelInboundHandler<String> {
+public abstract class NettyConnectionHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     private static final Logger Log = LoggerFactory.getLogger(NettyConnectionHandler.class);
-    static final AttributeKey<XMLLightweightParser> XML_PARSER = AttributeKey.valueOf("XML-PARSER");
+    static final AttributeKey<XMLStanzaFramer> XML_FRAMER = AttributeKey.valueOf("XML-FRAMER");
     public static final AttributeKey<NettyConnection> CONNECTION = AttributeKey.valueOf("CONNECTION");
     public static final AttributeKey<Long> READ_BYTES = AttributeKey.valueOf("READ_BYTES");
     public static final AttributeKey<Long> WRITTEN_BYTES = AttributeKey.valueOf("WRITTEN_BYTES");
     static final AttributeKey<StanzaHandler> HANDLER = AttributeKey.valueOf("HANDLER");
     public static final AttributeKey<Boolean> IDLE_FLAG = AttributeKey.valueOf("IDLE_FLAG");
+    static final AttributeKey<SessionStanzaQueue> PROCESSING_QUEUE = AttributeKey.valueOf("PROCESSING_QUEUE");
 
 
     protected static final ThreadLocal<XMPPPacketReader> PARSER_CACHE = new ThreadLocal<XMPPPacketReader>()
@@ -63,11 +70,16 @@ public abstract class NettyConnectionHandler extends SimpleChannelInboundHandler
                @Override
                protected XMPPPacketReader initialValue()
                {
-                  final XMPPPacketReader parser = new XMPPPacketReader();
-                  parser.setXPPFactory( factory );
-                  return parser;
+                  return createParser();
                }
             };
+
+    /**
+     * Parsers used to process stanzas when processing has been offloaded from the event loop threads. Unlike
+     * {@link #PARSER_CACHE}, these are not bound to a thread, which allows them to be reused by virtual threads.
+     */
+    private static final Queue<XMPPPacketReader> PARSER_POOL = new ConcurrentLinkedQueue<>();
+
     /**
      * Reuse the same factory for all the connections.
      */
@@ -94,6 +106,12 @@ public abstract class NettyConnectionHandler extends SimpleChannelInboundHandler
         this.configuration = configuration;
     }
 
+    private static XMPPPacketReader createParser() {
+        final XMPPPacketReader parser = new XMPPPacketReader();
+        parser.setXPPFactory( factory );
+        return parser;
+    }
+
     abstract NettyConnection createNettyConnection(ChannelHandlerContext ctx);
 
     abstract StanzaHandler createStanzaHandler(NettyConnection connection);
@@ -109,8 +127,8 @@ public abstract class NettyConnectionHandler extends SimpleChannelInboundHandler
     public void handlerAdded(ChannelHandlerContext ctx) {
         Log.trace("Netty XMPP handler added: {}", ctx.channel().remoteAddress() == null ? ctx.channel().localAddress() : ctx.channel().localAddress() + "--" + ctx.channel().remoteAddress());
 
-        // Create a new XML parser for the new connection. The parser will be used by the XMPPDecoder filter.
-        ctx.channel().attr(XML_PARSER).set(new XMLLightweightParser());
+        // Create a new XML framer for the new connection. The framer will be used by the XMPPDecoder filter.
+        ctx.channel().attr(XML_FRAMER).set(new XMLStanzaFramer());
 
         // Create a new Connection for the new session
         final NettyConnection nettyConnection = createNettyConnection(ctx);
@@ -118,6 +136,12 @@ public abstract class NettyConnectionHandler extends SimpleChannelInboundHandler
         ctx.channel().attr(READ_BYTES).set(0L);
 
         ctx.channel().attr(HANDLER).set(createStanzaHandler(nettyConnection));
+
+        // When configured to do so, stanzas are processed by a worker pool, instead of by the event loop.
+        final StanzaProcessingExecutor executor = StanzaProcessingExecutor.getInstance();
+        if (executor != null) {
+            ctx.channel().attr(PROCESSING_QUEUE).set(new SessionStanzaQueue(ctx.channel(), executor));
+        }
     }
 
     @Override
@@ -126,17 +150,42 @@ public abstract class NettyConnectionHandler extends SimpleChannelInboundHandler
     }
 
     @Override
-    public void channelRead0(ChannelHandlerContext ctx, String message) {
-        // Get the parser to use to process stanza. For optimization there is going
-        // to be a parser for each running thread. Each Filter will be executed
-        // by the Executor placed as the first Filter. So we can have a parser associated
-        // to each Thread
-        final XMPPPacketReader parser = PARSER_CACHE.get();
+    public void channelRead0(ChannelHandlerContext ctx, ByteBuf data) {
+        // The decoder provides the (UTF-8 encoded) bytes of exactly one stanza. This is the only place where these are
+        // decoded into characters. The buffer is released by our superclass after this method returns.
+        final String message = data.toString(StandardCharsets.UTF_8);
 
         // Update counter of read bytes
         updateReadBytesCounter(ctx);
 
         Log.trace("Handler on {} received: {}", ctx.channel().remoteAddress() == null ? ctx.channel().localAddress() : ctx.channel().localAddress() + "--" + ctx.channel().remoteAddress(), message);
+
+        final SessionStanzaQueue queue = ctx.channel().attr(PROCESSING_QUEUE).get();
+        if (queue == null) {
+            // Get the parser to use to process stanza. For optimization there is going
+            // to be a parser for each running thread. Each Filter will be executed
+            // by the Executor placed as the first Filter. So we can have a parser associated
+            // to each Thread
+            process(ctx, message, PARSER_CACHE.get());
+        } else {
+            queue.submit(() -> {
+                XMPPPacketReader parser = PARSER_POOL.poll();
+                if (parser == null) {
+                    parser = createParser();
+                }
+                try {
+                    process(ctx, message, parser);
+                } finally {
+                    PARSER_POOL.offer(parser);
+                }
+            }, requiresReadSuspension(ctx, message));
+        }
+    }
+
+    /**
+     * Lets the stanza handler of the channel process a stanza, closing the connection if that fails.
+     */
+    private void process(ChannelHandlerContext ctx, String message, XMPPPacketReader parser) {
         // Let the stanza handler process the received stanza
         try {
             ctx.channel().attr(HANDLER).get().process(message, parser);
@@ -149,6 +198,22 @@ public abstract class NettyConnectionHandler extends SimpleChannelInboundHandler
         }
     }
 
+    /**
+     * Determines if no more data should be read from the network until the provided stanza has been processed. This
+     * is the case for all data received before a session has been authenticated, and for data that can cause the
+     * network pipeline to be modified (eg: STARTTLS, stream compression or a stream restart). As processing of such
+     * data can take place on a thread other than the event loop thread, reading the data that follows it must wait for
+     * any modification to be in place.
+     */
+    private static boolean requiresReadSuspension(ChannelHandlerContext ctx, String message) {
+        final NettyConnection connection = ctx.channel().attr(CONNECTION).get();
+        final LocalSession session = connection == null ? null : connection.getSession();
+        if (session == null || session.getStatus() != Session.Status.AUTHENTICATED) {
+            return true;
+        }
+        return message.startsWith("<compress") || message.startsWith("<starttls") || message.startsWith("<?xml") || message.startsWith("<stream:stream") || message.startsWith("</stream:stream");
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         // Close the connection when an exception is raised.
@@ -160,7 +225,13 @@ public abstract class NettyConnectionHandler extends SimpleChannelInboundHandler
     public void channelUnregistered(ChannelHandlerContext ctx) throws Exception {
         Connection connection = ctx.channel().attr(CONNECTION).get();
         if (connection != null) {
-            connection.close(); // clean up resources (connection and session) when channel is unregistered.
+            final SessionStanzaQueue queue = ctx.channel().attr(PROCESSING_QUEUE).get();
+            if (queue == null) {
+                connection.close(); // clean up resources (connection and session) when channel is unregistered.
+            } else {
+                // Close only after all stanzas that were received before have been processed.
+                queue.submit(connection::close, false);
+            }
         }
         super.channelUnregistered(ctx);
     }
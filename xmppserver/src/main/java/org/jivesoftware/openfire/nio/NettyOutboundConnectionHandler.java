@@ -32,6 +32,7 @@ import org.jivesoftware.openfire.session.LocalOutgoingServerSession;
 import org.jivesoftware.openfire.spi.ConnectionConfiguration;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.TaskEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -165,20 +166,24 @@ public class NettyOutboundConnectionHandler extends NettyConnectionHandler {
 
                     // The original connection is probably unusable, as the TLS handshake failed (which the peer will know about).
                     // Instead of attempting Server Dialback on this connection, create a new connection and try it on that.
-                    final LocalOutgoingServerSession outgoingSession = new ServerDialback(domainPair).createOutgoingSession(port);
-                    if (outgoingSession != null) {
-                        Log.info("TLS negotiation with '{}' was unsuccessful, but Server Dialback authentication over a plain connection (as a fallback) succeeded. Session successfully established on an unencrypted connection.", domainPair.getRemote());
-                        stanzaHandler.setSession(outgoingSession);
-                        stanzaHandler.setSessionAuthenticated();
-                        ctx.fireChannelActive();
-                        return;
-                    } else {
-                        Log.warn("TLS negotiation with '{}' was unsuccessful, and Server Dialback over a plain connection (as a fallback) failed. Aborting session.", domainPair.getRemote());
-                        stanzaHandler.setSession(null);
-                        stanzaHandler.setAttemptedAllAuthenticationMethods();
-                        ctx.channel().close();
-                        return;
-                    }
+                    // Creating that connection blocks, which is why it is not done on the event loop of this channel.
+                    TaskEngine.getInstance().submit(() -> {
+                        final LocalOutgoingServerSession outgoingSession = new ServerDialback(domainPair).createOutgoingSession(port);
+                        ctx.executor().execute(() -> {
+                            if (outgoingSession != null) {
+                                Log.info("TLS negotiation with '{}' was unsuccessful, but Server Dialback authentication over a plain connection (as a fallback) succeeded. Session successfully established on an unencrypted connection.", domainPair.getRemote());
+                                stanzaHandler.setSession(outgoingSession);
+                                stanzaHandler.setSessionAuthenticated();
+                                ctx.fireChannelActive();
+                            } else {
+                                Log.warn("TLS negotiation with '{}' was unsuccessful, and Server Dialback over a plain connection (as a fallback) failed. Aborting session.", domainPair.getRemote());
+                                stanzaHandler.setSession(null);
+                                stanzaHandler.setAttemptedAllAuthenticationMethods();
+                                ctx.channel().close();
+                            }
+                        });
+                    });
+                    return;
                 }
 
                 Log.warn("TLS negotiation with '{}' was unsuccessful. Unable to create a new session: exhausted all options", domainPair.getRemote());
@@ -24,8 +24,10 @@ import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.string.StringEncoder;
 import io.netty.handler.timeout.IdleStateHandler;
 import org.dom4j.*;
+import org.jivesoftware.openfire.net.DNSUtil;
 import org.jivesoftware.openfire.net.RespondingServerStanzaHandler;
 import org.jivesoftware.openfire.net.SocketUtil;
+import org.jivesoftware.openfire.server.RemoteServerManager;
 import org.jivesoftware.openfire.server.ServerDialback;
 import org.jivesoftware.openfire.session.ConnectionSettings;
 import org.jivesoftware.openfire.session.DomainPair;
@@ -36,18 +38,20 @@ import org.jivesoftware.openfire.spi.NettyConnectionAcceptor;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.StringUtils;
 import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.TaskEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLException;
 import java.io.IOException;
-import java.net.Socket;
-import java.net.SocketAddress;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -56,7 +60,11 @@ import static org.jivesoftware.openfire.nio.NettyConnectionHandler.CONNECTION;
 
 
 /**
- * Initialises an outgoing netty channel for outbound S2S
+ * Initialises an outgoing netty channel for outbound S2S.
+ *
+ * Establishing the connection does not block the thread that initiates it: remote hosts are resolved (using DNS SRV
+ * records) without blocking, after which connections are attempted (in order of preference) without blocking. All
+ * outbound S2S channels share the same event loop group.
  */
 public class NettySessionInitializer {
 
@@ -81,112 +89,238 @@ public class NettySessionInitializer {
         .build();
 
     private static final Logger Log = LoggerFactory.getLogger(NettySessionInitializer.class);
+
+    /**
+     * The event loop group that is shared by all outbound S2S channels. Created when it is first needed.
+     */
+    private static EventLoopGroup workerGroup;
+
     private final DomainPair domainPair;
     private final int port;
-    private boolean directTLS = false;
+    private volatile boolean directTLS = false;
     private final AtomicBoolean isStopped = new AtomicBoolean(false);
-    private final EventLoopGroup workerGroup;
-    private Channel channel;
+    private final CompletableFuture<LocalSession> result = new CompletableFuture<>();
+    private volatile Channel channel;
 
     public NettySessionInitializer(DomainPair domainPair, int port) {
         this.domainPair = domainPair;
         this.port = port;
-        this.workerGroup = new NioEventLoopGroup();
     }
 
+    private static synchronized EventLoopGroup getWorkerGroup() {
+        if (workerGroup == null) {
+            workerGroup = new NioEventLoopGroup();
+        }
+        return workerGroup;
+    }
+
+    /**
+     * Shuts down the event loop group that is shared by all outbound S2S channels. A new group is created when another
+     * channel is initialised afterwards.
+     */
+    public static synchronized void shutdownWorkerGroup() {
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully(GRACEFUL_SHUTDOWN_QUIET_PERIOD.getValue().toMillis(), GRACEFUL_SHUTDOWN_TIMEOUT.getValue().toMillis(), TimeUnit.MILLISECONDS);
+            workerGroup = null;
+        }
+    }
+
+    /**
+     * Starts to establish a session, resolving the addresses of remote hosts using the {@link TaskEngine}.
+     *
+     * @param listener the connection listener that provides the configuration of the connection.
+     * @return A future that provides the session (or null when no session could be authenticated).
+     * @see #initAsync(ConnectionListener, Executor)
+     */
     public Future<LocalSession> init(ConnectionListener listener) {
+        return initAsync(listener, TaskEngine.getInstance()::submit);
+    }
+
+    /**
+     * Starts to establish a session. This method returns immediately.
+     *
+     * Remote hosts for the XMPP domain are resolved without blocking. The addresses of these hosts are resolved using
+     * the provided executor, as address look-ups can block. Connections to these hosts are then attempted in order of
+     * preference, without blocking, until one connection succeeds.
+     *
+     * The returned future completes exceptionally when no connection could be established. It completes with null when
+     * a connection was established, but a session could not be authenticated on it.
+     *
+     * @param listener the connection listener that provides the configuration of the connection.
+     * @param blockingExecutor the executor on which operations that can block (address look-ups) are performed.
+     * @return A future that provides the session (or null when no session could be authenticated).
+     */
+    public CompletableFuture<LocalSession> initAsync(ConnectionListener listener, Executor blockingExecutor) {
         // Connect to remote server using XMPP 1.0 (TLS + SASL EXTERNAL or TLS + server dialback or server dialback)
-        Log.debug( "Creating plain socket connection to a host that belongs to the remote XMPP domain." );
-        final Map.Entry<Socket, Boolean> socketToXmppDomain = SocketUtil.createSocketToXmppDomain(domainPair.getRemote(), port );
+        SocketUtil.getRemoteHostsForXmppDomainAsync(domainPair.getRemote(), port)
+            .whenComplete((remoteHosts, throwable) -> {
+                if (throwable != null) {
+                    fail(throwable);
+                } else {
+                    connect(listener, remoteHosts.iterator(), blockingExecutor);
+                }
+            });
+        return result;
+    }
 
-        if ( socketToXmppDomain == null ) {
-            throw new RuntimeException("Unable to create new session: Cannot create a plain socket connection with any applicable remote host.");
+    /**
+     * Starts to establish a session with one of the provided remote hosts, rather than with the hosts that are resolved
+     * for the XMPP domain. Connections to these hosts are attempted in the order in which they are provided, until one
+     * connection succeeds. This method returns immediately.
+     *
+     * @param listener the connection listener that provides the configuration of the connection.
+     * @param remoteHosts the hosts to connect to, in order of preference.
+     * @param blockingExecutor the executor on which operations that can block (address look-ups) are performed.
+     * @return A future that provides the session (or null when no session could be authenticated).
+     */
+    public CompletableFuture<LocalSession> initAsync(ConnectionListener listener, List<DNSUtil.HostAddress> remoteHosts, Executor blockingExecutor) {
+        connect(listener, remoteHosts.iterator(), blockingExecutor);
+        return result;
+    }
+
+    /**
+     * Attempts to connect to the next of the remote hosts, trying the one after that when the connection fails.
+     */
+    private void connect(ConnectionListener listener, Iterator<DNSUtil.HostAddress> remoteHosts, Executor blockingExecutor) {
+        if (isStopped.get()) {
+            fail(new IllegalStateException("Session initialisation was stopped."));
+            return;
         }
-        Socket socket = socketToXmppDomain.getKey();
-        this.directTLS = socketToXmppDomain.getValue();
-
-        final SocketAddress socketAddress = socket.getRemoteSocketAddress();
-        try {
-            //TODO: Finish https://igniterealtime.atlassian.net/browse/OF-2721 by removing the need for an extraneous extra socket at all.
-            socket.close();
-        } catch (IOException e) {
-            Log.warn("Unable to close socket to remote address: {}", socketAddress, e);
+        if (!remoteHosts.hasNext()) {
+            fail(new IOException("Unable to create new session: Cannot create a connection with any applicable remote host."));
+            return;
         }
+        final DNSUtil.HostAddress remoteHost = remoteHosts.next();
 
-        Log.debug( "Opening a new connection to {} {}.", socketAddress, directTLS ? "using directTLS" : "that is initially not encrypted" );
-
-        try {
-            Bootstrap b = new Bootstrap();
-            b.group(workerGroup);
-            b.channel(NioSocketChannel.class);
-            b.option(ChannelOption.SO_KEEPALIVE, true);
-            b.handler(new ChannelInitializer<SocketChannel>() {
-                @Override
-                public void initChannel(SocketChannel ch) throws Exception {
-                    NettyConnectionHandler businessLogicHandler = new NettyOutboundConnectionHandler(listener.generateConnectionConfiguration(), domainPair, port);
-                    Duration maxIdleTimeBeforeClosing = businessLogicHandler.getMaxIdleTime().isNegative() ? Duration.ZERO : businessLogicHandler.getMaxIdleTime();
-
-                    ch.pipeline().addLast("idleStateHandler", new IdleStateHandler(maxIdleTimeBeforeClosing.dividedBy(2).toMillis(), 0, 0, TimeUnit.MILLISECONDS));
-                    ch.pipeline().addLast("keepAliveHandler", new NettyIdleStateKeepAliveHandler(false));
-                    ch.pipeline().addLast(new NettyXMPPDecoder());
-                    ch.pipeline().addLast(new StringEncoder(StandardCharsets.UTF_8));
-                    ch.pipeline().addLast(businessLogicHandler);
-
-                    final ConnectionAcceptor connectionAcceptor = listener.getConnectionAcceptor();
-                    if (connectionAcceptor instanceof NettyConnectionAcceptor) {
-                        ((NettyConnectionAcceptor) connectionAcceptor).getChannelHandlerFactories().forEach(factory -> {
-                            try {
-                                factory.addNewHandlerTo(ch.pipeline());
-                            } catch (Throwable t) {
-                                Log.warn("Unable to add ChannelHandler from '{}' to pipeline of new channel: {}", factory, ch, t);
-                            }
-                        });
+        // Resolving the address of the host can block.
+        CompletableFuture.supplyAsync(() -> new InetSocketAddress(remoteHost.getHost(), remoteHost.getPort()), blockingExecutor)
+            .whenComplete((socketAddress, throwable) -> {
+                if (throwable != null || socketAddress.isUnresolved()) {
+                    Log.warn("Unable to resolve remote host {}:{} for XMPP domain '{}'.", remoteHost.getHost(), remoteHost.getPort(), domainPair.getRemote(), throwable);
+                    connect(listener, remoteHosts, blockingExecutor);
+                    return;
+                }
+                connect(listener, socketAddress, remoteHost.isDirectTLS()).addListener((ChannelFutureListener) future -> {
+                    if (!future.isSuccess()) {
+                        Log.debug("An exception occurred while trying to connect to XMPP domain '{}' using remote host {}:{}", domainPair.getRemote(), remoteHost.getHost(), remoteHost.getPort(), future.cause());
+                        Log.warn("Unable to connect to XMPP domain '{}' using remote host: {}:{}. Cause: {} (a full stacktrace is logged on debug level)", domainPair.getRemote(), remoteHost.getHost(), remoteHost.getPort(), future.cause() == null ? null : future.cause().getMessage());
+                        connect(listener, remoteHosts, blockingExecutor);
                     }
+                });
+            });
+    }
 
-                    // Should have a connection
-                    if (directTLS) {
-                        ch.attr(CONNECTION).get().startTLS(true, true);
-                    }
-                }
+    /**
+     * Connects to a particular remote address. When the connection succeeds, the session negotiation is started, and
+     * its outcome will complete the result of this instance.
+     */
+    private ChannelFuture connect(ConnectionListener listener, InetSocketAddress socketAddress, boolean useDirectTLS) {
+        this.directTLS = useDirectTLS;
+        Log.debug( "Opening a new connection to {} {}.", socketAddress, useDirectTLS ? "using directTLS" : "that is initially not encrypted" );
+
+        Bootstrap b = new Bootstrap();
+        b.group(getWorkerGroup());
+        b.channel(NioSocketChannel.class);
+        b.option(ChannelOption.SO_KEEPALIVE, true);
+        b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, RemoteServerManager.getSocketTimeout());
+        b.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel ch) throws Exception {
+                NettyConnectionHandler businessLogicHandler = new NettyOutboundConnectionHandler(listener.generateConnectionConfiguration(), domainPair, port);
+                Duration maxIdleTimeBeforeClosing = businessLogicHandler.getMaxIdleTime().isNegative() ? Duration.ZERO : businessLogicHandler.getMaxIdleTime();
 
-                @Override
-                public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-                    super.exceptionCaught(ctx, cause);
-                    if (exceptionOccurredForDirectTLS(cause)) {
-                        if (directTLS &&
-                            JiveGlobals.getBooleanProperty(ConnectionSettings.Server.TLS_ON_PLAIN_DETECTION_ALLOW_NONDIRECTTLS_FALLBACK, true) &&
-                            cause.getMessage().contains("plaintext connection?")
-                        ) {
-                            Log.warn("Plaintext detected on a new connection that is was started in DirectTLS mode (socket address: {}). Attempting to restart the connection in non-DirectTLS mode.", domainPair.getRemote());
-                            directTLS = false;
-                            Log.info("Re-establishing connection to {}. Proceeding without directTLS.", domainPair.getRemote());
-                            init(listener);
+                ch.pipeline().addLast("idleStateHandler", new IdleStateHandler(maxIdleTimeBeforeClosing.dividedBy(2).toMillis(), 0, 0, TimeUnit.MILLISECONDS));
+                ch.pipeline().addLast("keepAliveHandler", new NettyIdleStateKeepAliveHandler(false));
+                ch.pipeline().addLast(new NettyXMPPDecoder());
+                ch.pipeline().addLast(new StringEncoder(StandardCharsets.UTF_8));
+                ch.pipeline().addLast(businessLogicHandler);
+
+                final ConnectionAcceptor connectionAcceptor = listener.getConnectionAcceptor();
+                if (connectionAcceptor instanceof NettyConnectionAcceptor) {
+                    ((NettyConnectionAcceptor) connectionAcceptor).getChannelHandlerFactories().forEach(factory -> {
+                        try {
+                            factory.addNewHandlerTo(ch.pipeline());
+                        } catch (Throwable t) {
+                            Log.warn("Unable to add ChannelHandler from '{}' to pipeline of new channel: {}", factory, ch, t);
                         }
-                    }
+                    });
                 }
 
-                public boolean exceptionOccurredForDirectTLS(Throwable cause) {
-                    return cause instanceof SSLException;
+                // Should have a connection
+                if (useDirectTLS) {
+                    ch.attr(CONNECTION).get().startTLS(true, true);
                 }
-            });
+            }
 
-            this.channel = b.connect(socketAddress).sync().channel();
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+                super.exceptionCaught(ctx, cause);
+                if (exceptionOccurredForDirectTLS(cause)) {
+                    if (useDirectTLS &&
+                        JiveGlobals.getBooleanProperty(ConnectionSettings.Server.TLS_ON_PLAIN_DETECTION_ALLOW_NONDIRECTTLS_FALLBACK, true) &&
+                        cause.getMessage().contains("plaintext connection?")
+                    ) {
+                        Log.warn("Plaintext detected on a new connection that is was started in DirectTLS mode (socket address: {}). Attempting to restart the connection in non-DirectTLS mode.", domainPair.getRemote());
+                        Log.info("Re-establishing connection to {}. Proceeding without directTLS.", domainPair.getRemote());
+                        // Detach the current channel, so that its closure does not affect the outcome.
+                        NettySessionInitializer.this.channel = null;
+                        connect(listener, socketAddress, false).addListener((ChannelFutureListener) future -> {
+                            if (!future.isSuccess()) {
+                                fail(future.cause());
+                            }
+                        });
+                    }
+                }
+            }
+
+            public boolean exceptionOccurredForDirectTLS(Throwable cause) {
+                return cause instanceof SSLException;
+            }
+        });
+
+        final ChannelFuture connectFuture = b.connect(socketAddress);
+        connectFuture.addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                return;
+            }
+            final Channel ch = future.channel();
+            this.channel = ch;
+            if (isStopped.get()) {
+                ch.close();
+                return;
+            }
 
-            // Make sure we free up resources (worker group NioEventLoopGroup) when the channel is closed
-            this.channel.closeFuture().addListener(future -> stop());
+            // Make sure that the outcome is known when the channel is closed.
+            ch.closeFuture().addListener(closed -> {
+                if (ch == this.channel) {
+                    stop();
+                }
+            });
 
             // When using directTLS a Netty SSLHandler is added to the pipeline from instantiation. This initiates the TLS handshake, and as such we do not need to send an opening stream element.
             // The opening stream element will be sent by the StanzaHandler once TLS has been negotiated.
-            if (!directTLS) {
+            if (!useDirectTLS) {
                 // Start the session negotiation for startTLS
-                sendOpeningStreamHeader(channel);
+                sendOpeningStreamHeader(ch);
             }
 
-            return waitForSession(channel);
-        } catch (InterruptedException e) {
-            Log.error("Error establishing Netty client session", e);
+            waitForSession(ch).whenComplete((session, throwable) -> {
+                if (ch != this.channel) {
+                    return; // Superseded by another connection attempt.
+                }
+                if (throwable != null) {
+                    fail(throwable);
+                } else {
+                    result.complete(session);
+                }
+            });
+        });
+        return connectFuture;
+    }
+
+    private void fail(Throwable cause) {
+        if (result.completeExceptionally(cause)) {
             stop();
-            throw new RuntimeException(e);
         }
     }
 
@@ -194,18 +328,19 @@ public class NettySessionInitializer {
         if (!isStopped.compareAndSet(false, true)) {
             return; // Guard against closing more than once (OF-2673).
         }
-        if (channel != null) {
+        result.completeExceptionally(new IllegalStateException("Session initialisation was stopped."));
+        final Channel ch = this.channel;
+        if (ch != null) {
             // Close connection to allow its event handlers to clean up routing table (OF-2674).
-            final NettyConnection connection = channel.attr(CONNECTION).get();
+            final NettyConnection connection = ch.attr(CONNECTION).get();
             if (connection != null) {
                 connection.close();
             }
-            channel.close();
+            ch.close();
         }
-        workerGroup.shutdownGracefully(GRACEFUL_SHUTDOWN_QUIET_PERIOD.getValue().toMillis(), GRACEFUL_SHUTDOWN_TIMEOUT.getValue().toMillis(), TimeUnit.MILLISECONDS);
     }
 
-    private Future<LocalSession> waitForSession(Channel channel) {
+    private CompletableFuture<LocalSession> waitForSession(Channel channel) {
         RespondingServerStanzaHandler stanzaHandler = (RespondingServerStanzaHandler) channel.attr(NettyConnectionHandler.HANDLER).get();
         return CompletableFuture.anyOf(stanzaHandler.isSessionAuthenticated(), stanzaHandler.haveAttemptedAllAuthenticationMethods())
             .thenApply(o -> stanzaHandler.getSession());
@@ -237,7 +372,6 @@ public class NettySessionInitializer {
             "domainPair=" + domainPair +
             ", port=" + port +
             ", directTLS=" + directTLS +
-            ", workerGroup=" + workerGroup +
             ", channel=" + channel +
             '}';
     }
@@ -19,32 +19,32 @@ package org.jivesoftware.openfire.nio;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
-import io.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.StreamError;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.List;
 
 import static org.jivesoftware.openfire.nio.NettyConnectionHandler.CONNECTION;
 
 /**
  * Decoder that parses ByteBuffers and generates XML stanzas. Generated
- * stanzas are then passed to the next filters.
+ * stanzas are then passed to the next filters, as UTF-8 encoded ByteBufs.
+ *
+ * @see XMLStanzaFramer
  */
 public class NettyXMPPDecoder extends ByteToMessageDecoder {
     private static final Logger Log = LoggerFactory.getLogger(NettyXMPPDecoder.class);
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        // Get the XML parser from the channel
-        XMLLightweightParser parser = ctx.channel().attr(NettyConnectionHandler.XML_PARSER).get();
+        // Get the XML framer from the channel
+        XMLStanzaFramer framer = ctx.channel().attr(NettyConnectionHandler.XML_FRAMER).get();
 
         // Check that the stanza constructed by the parser is not bigger than 1 Megabyte. For security reasons
         // we will abort parsing when 1 Mega of queued chars was found.
-        if (parser.isMaxBufferSizeExceeded()) {
+        if (framer.isMaxBufferSizeExceeded()) {
             // Clear out the buffer to prevent endless exceptions being thrown while the connection is closed.
             // De-allocation of the buffer from this channel will occur following the channel closure, so there is
             // no need to call in.release() as this will cause an IllegalReferenceCountException.
@@ -55,14 +55,9 @@ public class NettyXMPPDecoder extends ByteToMessageDecoder {
             return;
         }
 
-        // Parse as many stanzas as possible from the received data
-        char[] readChars = in.readCharSequence(in.readableBytes(), CharsetUtil.UTF_8).toString().toCharArray();
-        parser.read(readChars);
-
-        // Add any decoded messages to our outbound list to be processed by subsequent channelRead() events
-        if (parser.areThereMsgs()) {
-            out.addAll(Arrays.asList(parser.getMsgs()));
-        }
+        // Frame as many stanzas as possible from the received data. Decoded stanzas are added to our outbound list as
+        // retained slices of the inbound buffer, to be processed by subsequent channelRead() events.
+        framer.decode(in, out);
     }
 
     @Override
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.jivesoftware.openfire.interceptor.InterceptorManager;
+import org.jivesoftware.openfire.session.Session;
+import org.jivesoftware.util.SystemProperty;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allows a stanza that is sent to many recipients to be serialized only once.
+ *
+ * When a stanza is broadcast (for example, by a multi-user chat room), the same stanza is typically delivered to each
+ * recipient after only its 'to' address (and sometimes its 'id') has been changed. Without this class, every network
+ * connection serializes the entire stanza anew. Code that broadcasts a stanza can {@link #open(Packet...) open a scope}
+ * for the duration of the broadcast. While that scope is open, connections on the same thread obtain the serialized
+ * form from this class, that consists of a small, recipient-specific prefix (that contains the 'to' and 'id'
+ * attributes) followed by a buffer that is shared by all recipients.
+ *
+ * The shared serialization is created when it is first needed. It is only used for the exact stanza instances that
+ * were registered with the scope, and only when no packet interceptors can have modified these stanzas after they were
+ * serialized (interceptors that declare that they do not modify sent packets are disregarded). In all other cases, the
+ * stanza is serialized as usual.
+ */
+public final class PreSerializedStanza
+{
+    /**
+     * Enables or disables the re-use of serialized data when stanzas are broadcast.
+     */
+    public static final SystemProperty<Boolean> ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.broadcast.serialize-once.enabled")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .build();
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private final Packet packet;
+
+    /**
+     * The opening of the start tag of the element: a less-than sign followed by the qualified name of the element.
+     */
+    private String head;
+
+    /**
+     * All data that follows the head, excluding the 'to' and 'id' attributes.
+     */
+    private ByteBuf tail;
+
+    private PreSerializedStanza(@Nonnull final Packet packet)
+    {
+        this.packet = packet;
+    }
+
+    /**
+     * Opens a scope, on the current thread, in which the serialized form of the provided stanzas is reused when these
+     * are delivered to more than one recipient. The scope must be closed (typically in a try-with-resources block)
+     * on the same thread.
+     *
+     * The caller must not modify the stanzas (other than changing their 'to' address or 'id') while the scope is open.
+     *
+     * Stanzas that are already registered with an enclosing scope are not registered again: their existing serialized
+     * form continues to be used.
+     *
+     * @param packets The stanzas that are to be broadcast.
+     * @return The scope, which is to be closed when the broadcast has finished.
+     */
+    @Nonnull
+    public static Scope open(@Nonnull final Packet... packets)
+    {
+        final Scope scope = new Scope(CURRENT.get());
+        if (ENABLED.getValue()) {
+            for (final Packet packet : packets) {
+                if (find(packet) == null) {
+                    scope.stanzas.add(new PreSerializedStanza(packet));
+                }
+            }
+            CURRENT.set(scope);
+            scope.registered = true;
+        }
+        return scope;
+    }
+
+    /**
+     * Returns the serialized form of the provided stanza, with its current 'to' address and 'id', if that stanza is
+     * part of a broadcast on the current thread. The caller takes ownership of the returned buffer.
+     *
+     * @param packet The stanza to be delivered.
+     * @param session The session to which the stanza is delivered.
+     * @return The serialized stanza, or null if the stanza is to be serialized as usual.
+     */
+    @Nullable
+    static ByteBuf encode(@Nonnull final Packet packet, @Nullable final Session session)
+    {
+        final PreSerializedStanza stanza = find(packet);
+        if (stanza == null || InterceptorManager.getInstance().hasModifyingInterceptors(session)) {
+            // When there are interceptors, one of them may have modified the stanza.
+            return null;
+        }
+        return stanza.encode();
+    }
+
+    /**
+     * Returns the serialized form of the provided stanza, with its current 'to' address and 'id', as UTF-8 encoded XML.
+     * When the stanza is part of a broadcast on the current thread, the serialized form that is shared by all
+     * recipients is reused. Otherwise, the stanza is serialized.
+     *
+     * @param packet The stanza that is delivered.
+     * @param session The session to which the stanza is delivered.
+     * @return The serialized stanza.
+     */
+    @Nonnull
+    public static byte[] toBytes(@Nonnull final Packet packet, @Nullable final Session session)
+    {
+        final ByteBuf buffer = encode(packet, session);
+        if (buffer == null) {
+            return packet.getElement().asXML().getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            final byte[] result = new byte[buffer.readableBytes()];
+            buffer.readBytes(result);
+            return result;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Nullable
+    private static PreSerializedStanza find(@Nonnull final Packet packet)
+    {
+        for (Scope scope = CURRENT.get(); scope != null; scope = scope.parent) {
+            for (final PreSerializedStanza stanza : scope.stanzas) {
+                if (stanza.packet == packet) {
+                    return stanza;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Nonnull
+    private ByteBuf encode()
+    {
+        final JID to = packet.getTo();
+        final String id = packet.getID();
+        if (tail == null) {
+            // Serialize without the 'to' and 'id' attributes, which are the only parts that differ between recipients.
+            packet.setTo((JID) null);
+            packet.setID(null);
+            final String xml;
+            try {
+                xml = packet.getElement().asXML();
+            } finally {
+                packet.setTo(to);
+                packet.setID(id);
+            }
+            head = "<" + packet.getElement().getQualifiedName();
+            tail = Unpooled.wrappedBuffer(xml.substring(head.length()).getBytes(StandardCharsets.UTF_8));
+        }
+
+        final StringBuilder prefix = new StringBuilder(head.length() + 96).append(head);
+        if (to != null) {
+            prefix.append(" to=\"");
+            escapeAttributeValue(to.toString(), prefix);
+            prefix.append('"');
+        }
+        if (id != null) {
+            prefix.append(" id=\"");
+            escapeAttributeValue(id, prefix);
+            prefix.append('"');
+        }
+        return Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(prefix.toString().getBytes(StandardCharsets.UTF_8)), tail.retainedDuplicate());
+    }
+
+    private void release()
+    {
+        if (tail != null) {
+            tail.release();
+            tail = null;
+        }
+    }
+
+    static void escapeAttributeValue(@Nonnull final String value, @Nonnull final StringBuilder out)
+    {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&':  out.append("&amp;");  break;
+                case '<':  out.append("&lt;");   break;
+                case '>':  out.append("&gt;");   break;
+                case '"':  out.append("&quot;"); break;
+                default:   out.append(c);
+            }
+        }
+    }
+
+    /**
+     * A scope in which stanzas are broadcast. Closing the scope releases the shared serialization data.
+     */
+    public static final class Scope implements AutoCloseable
+    {
+        private final Scope parent;
+        private final List<PreSerializedStanza> stanzas = new ArrayList<>(3);
+        private boolean registered;
+
+        private Scope(@Nullable final Scope parent)
+        {
+            this.parent = parent;
+        }
+
+        /**
+         * Adds a stanza to this scope, after the scope has been opened. This has no effect when the re-use of
+         * serialized data is disabled, or when this scope has been closed.
+         *
+         * The caller must not modify the stanza (other than changing its 'to' address or 'id') while the scope is open.
+         *
+         * @param packet The stanza that is to be broadcast.
+         */
+        public void add(@Nonnull final Packet packet)
+        {
+            if (registered) {
+                stanzas.add(new PreSerializedStanza(packet));
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            if (!registered) {
+                return;
+            }
+            registered = false;
+            stanzas.forEach(PreSerializedStanza::release);
+            stanzas.clear();
+            if (parent == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(parent);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An ordered queue of work (typically: the processing of inbound stanzas) for one connection, that is executed by the
+ * shared {@link StanzaProcessingExecutor}.
+ *
+ * At most one thread executes the tasks of a queue at any given time, and tasks are executed in the order in which they
+ * were submitted. This gives the same ordering guarantees as processing stanzas on the event loop thread of the
+ * connection, without occupying that thread.
+ *
+ * Reading from the connection is suspended (by disabling 'auto read' on the channel) when the queue grows beyond a high
+ * watermark, and resumed when it has been drained to half of that. Reading is also suspended while a 'barrier' task is
+ * pending. Such tasks can change the network pipeline (as is the case for STARTTLS or stream compression negotiation)
+ * and must therefore be completed before any more data is read from the network.
+ *
+ * Instances are created (and tasks are submitted) on the event loop thread of the connection.
+ */
+class SessionStanzaQueue implements Runnable
+{
+    private static final Logger Log = LoggerFactory.getLogger(SessionStanzaQueue.class);
+
+    private final Channel channel;
+    private final StanzaProcessingExecutor executor;
+
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger pendingBarriers = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean readSuspended = new AtomicBoolean();
+
+    SessionStanzaQueue(@Nonnull final Channel channel, @Nonnull final StanzaProcessingExecutor executor)
+    {
+        this.channel = channel;
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a task to the end of the queue.
+     *
+     * @param task the work to be performed.
+     * @param barrier true when no data is to be read from the network until this task has been executed.
+     */
+    void submit(@Nonnull final Runnable task, final boolean barrier)
+    {
+        final int newDepth = depth.incrementAndGet();
+        if (barrier) {
+            pendingBarriers.incrementAndGet();
+        }
+
+        // Suspend reading _before_ the task is queued, to ensure that the thread that executes it observes the suspension.
+        if ((barrier || newDepth >= StanzaProcessingExecutor.SESSION_QUEUE_HIGH_WATERMARK.getValue()) && readSuspended.compareAndSet(false, true)) {
+            channel.config().setAutoRead(false);
+            if (!barrier) {
+                executor.onReadSuspended();
+            }
+        }
+
+        tasks.add(new Task(task, barrier));
+        executor.onEnqueued(newDepth);
+        schedule();
+    }
+
+    /**
+     * Returns the number of tasks that are queued, or that are being executed.
+     *
+     * @return a queue depth.
+     */
+    int size()
+    {
+        return depth.get();
+    }
+
+    private void schedule()
+    {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.getService().execute(this);
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down. Process on the calling thread, to ensure that queued work is not lost.
+                Log.debug("Stanza processing executor rejected work for {}. Processing on the calling thread instead.", channel);
+                run();
+            }
+        }
+    }
+
+    /**
+     * Executes a batch of queued tasks. When more tasks remain after that, execution of these is rescheduled, which gives
+     * other sessions a fair chance to use the threads of the executor.
+     */
+    @Override
+    public void run()
+    {
+        final int batchSize = StanzaProcessingExecutor.SESSION_BATCH_SIZE.getValue();
+        int executed = 0;
+        Task task;
+        while (executed < batchSize && (task = tasks.poll()) != null) {
+            final long start = System.nanoTime();
+            try {
+                task.runnable.run();
+            } catch (Throwable t) {
+                Log.warn("An unexpected exception occurred while processing queued work for {}", channel, t);
+            } finally {
+                final long end = System.nanoTime();
+                executor.onProcessed(start - task.created, end - start);
+                executed++;
+                final int remaining = depth.decrementAndGet();
+                final int barriers = task.barrier ? pendingBarriers.decrementAndGet() : pendingBarriers.get();
+                if (barriers == 0 && remaining <= StanzaProcessingExecutor.SESSION_QUEUE_HIGH_WATERMARK.getValue() / 2 && readSuspended.compareAndSet(true, false)) {
+                    channel.config().setAutoRead(true);
+                }
+            }
+        }
+
+        scheduled.set(false);
+
+        // A task may have been added after the last poll, but before the flag was cleared.
+        if (!tasks.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private static final class Task
+    {
+        final Runnable runnable;
+        final boolean barrier;
+        final long created = System.nanoTime();
+
+        Task(final Runnable runnable, final boolean barrier)
+        {
+            this.runnable = runnable;
+            this.barrier = barrier;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import org.jivesoftware.openfire.JMXManager;
+import org.jivesoftware.openfire.mbean.ThreadPoolExecutorDelegate;
+import org.jivesoftware.openfire.mbean.ThreadPoolExecutorDelegateMBean;
+import org.jivesoftware.util.NamedThreadFactory;
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes the processing of inbound stanzas on threads other than the Netty event loop threads that read them from the
+ * network.
+ *
+ * By default, stanzas are processed on the event loop thread of their connection. As one event loop thread serves many
+ * connections, any slow operation (a database query, an LDAP lookup) that is part of the processing of a stanza delays
+ * all other connections that are served by the same thread. When configured to do so, this executor moves processing
+ * to a dedicated pool of (platform or virtual) threads. Stanzas of one session are queued in a {@link SessionStanzaQueue},
+ * which guarantees that they are processed one at a time, in the order in which they were received.
+ */
+public final class StanzaProcessingExecutor implements StanzaProcessingExecutorMBean
+{
+    private static final Logger Log = LoggerFactory.getLogger(StanzaProcessingExecutor.class);
+
+    /**
+     * The threads on which inbound stanzas are processed.
+     */
+    public enum Mode
+    {
+        /**
+         * Stanzas are processed on the Netty event loop thread that read them.
+         */
+        EVENT_LOOP,
+
+        /**
+         * Stanzas are processed by a bounded pool of platform threads.
+         */
+        PLATFORM_THREADS,
+
+        /**
+         * Stanzas are processed by virtual threads. Requires a Java runtime that supports these (Java 21 or later).
+         * Platform threads are used when that is not the case.
+         */
+        VIRTUAL_THREADS
+    }
+
+    /**
+     * The threads on which inbound stanzas are processed.
+     */
+    public static final SystemProperty<Mode> MODE = SystemProperty.Builder.ofType(Mode.class)
+        .setKey("xmpp.processing.mode")
+        .setDefaultValue(Mode.EVENT_LOOP)
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The number of platform threads that process stanzas, when these are processed by platform threads.
+     */
+    public static final SystemProperty<Integer> THREAD_COUNT = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.processing.threads")
+        .setMinValue(1)
+        .setDefaultValue(Math.max(16, Runtime.getRuntime().availableProcessors() * 4))
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The number of stanzas that can be queued for one session before reading data from its connection is suspended.
+     * Reading resumes when the queue has been drained to half of this value.
+     */
+    public static final SystemProperty<Integer> SESSION_QUEUE_HIGH_WATERMARK = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.processing.session-queue.high-watermark")
+        .setMinValue(1)
+        .setDefaultValue(64)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum number of queued stanzas that a session processes before it yields its thread to other sessions.
+     */
+    public static final SystemProperty<Integer> SESSION_BATCH_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.processing.session-queue.batch-size")
+        .setMinValue(1)
+        .setDefaultValue(32)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum amount of time to wait for queued stanzas to be processed when Openfire shuts down.
+     */
+    public static final SystemProperty<Duration> SHUTDOWN_TIMEOUT = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.processing.shutdown-timeout")
+        .setDefaultValue(Duration.ofSeconds(10))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
+    private static StanzaProcessingExecutor instance;
+
+    /**
+     * Returns the executor that processes inbound stanzas, or null when stanzas are to be processed on the event loop.
+     *
+     * @return the executor, possibly null.
+     */
+    public static synchronized StanzaProcessingExecutor getInstance()
+    {
+        if (instance == null && MODE.getValue() != Mode.EVENT_LOOP) {
+            instance = new StanzaProcessingExecutor(MODE.getValue(), THREAD_COUNT.getValue());
+            if (JMXManager.isEnabled()) {
+                JMXManager.tryRegister(instance, OBJECT_NAME);
+                if (instance.service instanceof ThreadPoolExecutor) {
+                    final ThreadPoolExecutorDelegateMBean mBean = new ThreadPoolExecutorDelegate((ThreadPoolExecutor) instance.service);
+                    JMXManager.tryRegister(mBean, ThreadPoolExecutorDelegateMBean.BASE_OBJECT_NAME + "stanzaProcessing");
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the executor (if one was started), allowing stanzas that are queued to be processed first.
+     */
+    public static synchronized void shutdown()
+    {
+        if (instance == null) {
+            return;
+        }
+        JMXManager.tryUnregister(OBJECT_NAME);
+        JMXManager.tryUnregister(ThreadPoolExecutorDelegateMBean.BASE_OBJECT_NAME + "stanzaProcessing");
+        instance.service.shutdown();
+        try {
+            if (!instance.service.awaitTermination(SHUTDOWN_TIMEOUT.getValue().toMillis(), TimeUnit.MILLISECONDS)) {
+                Log.warn("Not all inbound stanzas were processed within {} after shutdown was initiated.", SHUTDOWN_TIMEOUT.getValue());
+                instance.service.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            instance.service.shutdownNow();
+        }
+        instance = null;
+    }
+
+    private final Mode mode;
+    private final int threadCount;
+    private final ExecutorService service;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicInteger largestQueueDepth = new AtomicInteger();
+    private final LongAdder readSuspensions = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder totalQueueLatency = new LongAdder();
+    private final AtomicLong maximumQueueLatency = new AtomicLong();
+    private final LongAdder totalProcessingTime = new LongAdder();
+
+    StanzaProcessingExecutor(@Nonnull final Mode mode, final int threadCount)
+    {
+        ExecutorService virtual = null;
+        if (mode == Mode.VIRTUAL_THREADS) {
+            try {
+                // Invoked reflectively, as Openfire is compiled against a Java version that does not have virtual threads.
+                virtual = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                Log.warn("Virtual threads are not supported by this Java runtime ({}). Inbound stanzas will be processed by platform threads instead.", System.getProperty("java.version"));
+            }
+        }
+
+        if (virtual != null) {
+            this.mode = Mode.VIRTUAL_THREADS;
+            this.threadCount = -1;
+            this.service = virtual;
+        } else {
+            this.mode = Mode.PLATFORM_THREADS;
+            this.threadCount = threadCount;
+            this.service = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("stanza-processing-", Executors.defaultThreadFactory(), false, Thread.NORM_PRIORITY));
+        }
+        Log.info("Inbound stanzas will be processed using {}", this.mode);
+    }
+
+    /**
+     * Returns the executor service that processes the (batches of) tasks of all session queues.
+     *
+     * @return an executor service.
+     */
+    @Nonnull
+    ExecutorService getService()
+    {
+        return service;
+    }
+
+    void onEnqueued(final int sessionQueueDepth)
+    {
+        queued.incrementAndGet();
+        largestQueueDepth.accumulateAndGet(sessionQueueDepth, Math::max);
+    }
+
+    void onReadSuspended()
+    {
+        readSuspensions.increment();
+    }
+
+    void onProcessed(final long queueLatencyNanos, final long processingNanos)
+    {
+        queued.decrementAndGet();
+        processed.increment();
+        totalQueueLatency.add(queueLatencyNanos);
+        maximumQueueLatency.accumulateAndGet(queueLatencyNanos, Math::max);
+        totalProcessingTime.add(processingNanos);
+    }
+
+    @Override
+    public String getMode()
+    {
+        return mode.name();
+    }
+
+    @Override
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+
+    @Override
+    public long getQueuedStanzas()
+    {
+        return queued.get();
+    }
+
+    @Override
+    public int getLargestSessionQueueDepth()
+    {
+        return largestQueueDepth.get();
+    }
+
+    @Override
+    public long getReadSuspensions()
+    {
+        return readSuspensions.sum();
+    }
+
+    @Override
+    public long getProcessedStanzas()
+    {
+        return processed.sum();
+    }
+
+    @Override
+    public long getAverageQueueLatencyMicros()
+    {
+        final long count = processed.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalQueueLatency.sum() / count);
+    }
+
+    @Override
+    public long getMaximumQueueLatencyMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(maximumQueueLatency.get());
+    }
+
+    @Override
+    public long getAverageProcessingTimeMicros()
+    {
+        final long count = processed.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalProcessingTime.sum() / count);
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        largestQueueDepth.set(0);
+        readSuspensions.reset();
+        processed.reset();
+        totalQueueLatency.reset();
+        maximumQueueLatency.set(0);
+        totalProcessingTime.reset();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+/**
+ * MBean definition for the executor that processes inbound stanzas outside of the network event loop (as implemented by
+ * {@link StanzaProcessingExecutor}).
+ */
+public interface StanzaProcessingExecutorMBean
+{
+    String OBJECT_NAME = "org.igniterealtime.openfire:type=StanzaProcessing";
+
+    /**
+     * Returns the name of the processing mode that is in effect.
+     *
+     * @return a processing mode name.
+     */
+    String getMode();
+
+    /**
+     * Returns the maximum number of platform threads that process stanzas, or -1 when virtual threads are used.
+     *
+     * @return the number of threads.
+     */
+    int getThreadCount();
+
+    /**
+     * Returns the number of stanzas that have been received, but that have not yet been processed, summed over all
+     * sessions.
+     *
+     * @return the number of queued stanzas.
+     */
+    long getQueuedStanzas();
+
+    /**
+     * Returns the largest number of stanzas that was ever queued for one session.
+     *
+     * @return a queue depth.
+     */
+    int getLargestSessionQueueDepth();
+
+    /**
+     * Returns the number of times that reading from a connection was suspended, because its queue was full.
+     *
+     * @return the number of suspensions.
+     */
+    long getReadSuspensions();
+
+    /**
+     * Returns the total number of stanzas that have been processed.
+     *
+     * @return the number of processed stanzas.
+     */
+    long getProcessedStanzas();
+
+    /**
+     * Returns the average time (in microseconds) that a stanza spent in its session queue before processing started.
+     *
+     * @return an average duration in microseconds.
+     */
+    long getAverageQueueLatencyMicros();
+
+    /**
+     * Returns the longest time (in microseconds) that a stanza spent in its session queue before processing started.
+     *
+     * @return a duration in microseconds.
+     */
+    long getMaximumQueueLatencyMicros();
+
+    /**
+     * Returns the average time (in microseconds) that it took to process a stanza, after it was taken from its queue.
+     *
+     * @return an average duration in microseconds.
+     */
+    long getAverageProcessingTimeMicros();
+
+    /**
+     * Resets the statistics that are collected for latency and queue depth.
+     */
+    void resetStatistics();
+}
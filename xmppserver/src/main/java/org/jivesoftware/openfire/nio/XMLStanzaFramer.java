@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.openfire.nio;
+
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a stream of UTF-8 encoded bytes into XMPP stanzas, without first decoding those bytes into characters.
+ *
+ * This implementation uses the same state machine as {@link XMLLightweightParser}, but operates on the bytes in a
+ * (cumulative) Netty {@link ByteBuf} directly. State is retained between invocations of {@link #decode(ByteBuf, List)},
+ * which allows bytes that were scanned in an earlier invocation to be skipped in the next one. Every stanza that is
+ * found is emitted as a retained slice of the original buffer, which avoids copying data before it is handed over to
+ * the next handler in the pipeline.
+ *
+ * All structural characters that are of interest to this implementation are in the US-ASCII range. As UTF-8 never
+ * uses byte values in that range as part of a multibyte sequence, these can be detected without decoding. Multibyte
+ * sequences are validated as they are scanned: malformed sequences, encoded surrogate code points and characters that
+ * are not allowed in XML cause a {@link XMLNotWellFormedException} to be thrown. The size of data that is collected
+ * for one stanza is limited by {@link XMLLightweightParser#XMPP_PARSER_BUFFER_SIZE}.
+ *
+ * Instances of this class are stateful, and are not thread-safe. One instance is to be used for each connection.
+ */
+public class XMLStanzaFramer {
+
+    private static final Logger Log = LoggerFactory.getLogger(XMLStanzaFramer.class);
+
+    // Bytes that represent CDATA section start
+    private static final byte[] CDATA_START = {'<', '!', '[', 'C', 'D', 'A', 'T', 'A', '['};
+    // Bytes that represent CDATA section end
+    private static final byte[] CDATA_END = {']', ']', '>'};
+
+    private static final byte[] STREAM_HEAD = "stream:stream>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STREAM_TAIL = "/stream:stream>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] XML_DECLARATION_HEAD = "?xml>".getBytes(StandardCharsets.US_ASCII);
+
+    // ---- INTERNAL STATUS (equivalent to those used by XMLLightweightParser) -------
+    private static final int INIT = 0;
+    private static final int HEAD = 2;
+    private static final int INSIDE = 3;
+    private static final int PRETAIL = 4;
+    private static final int TAIL = 5;
+    private static final int VERIFY_CLOSE_TAG = 6;
+    private static final int INSIDE_PARAM_VALUE = 7;
+    private static final int INSIDE_CDATA = 8;
+    private static final int OUTSIDE = 9;
+
+    // Current robot status
+    private int status = INIT;
+
+    // Index to looking for a CDATA section start or end.
+    private int cdataOffset = 0;
+
+    // Number of bytes that match with the head tag. If the tailCount is equal to the head length a close tag is found.
+    private int tailCount = 0;
+
+    // Flag used to discover tag in the form <tag />.
+    private boolean insideRootTag = false;
+
+    // The quote character (single or double) that opened the attribute value that is currently being read.
+    private byte quote = 0;
+
+    // The name of the head tag, followed by a '>' character once complete.
+    private byte[] head = new byte[32];
+    private int headLength = 0;
+
+    private int depth = 0;
+
+    // Number of bytes, counted from the reader index of the cumulative buffer, that have already been scanned.
+    private int scanned = 0;
+
+    // Number of UTF-8 continuation bytes that are still expected for the multibyte sequence being scanned.
+    private int utf8Remaining = 0;
+    // Inclusive range of values that is allowed for the next UTF-8 continuation byte.
+    private int utf8Lower = 0x80;
+    private int utf8Upper = 0xBF;
+
+    private boolean maxBufferSizeExceeded = false;
+
+    public boolean isMaxBufferSizeExceeded() {
+        return maxBufferSizeExceeded;
+    }
+
+    /**
+     * Scans all bytes in the provided buffer that have not been scanned before, adding a retained slice of the buffer
+     * to the provided list for every complete stanza that is found. The reader index of the buffer is moved beyond the
+     * last byte of the last stanza that was found (or beyond any insignificant data that precedes the next stanza).
+     *
+     * The caller is responsible for releasing the slices that are added to the list.
+     *
+     * @param in The bytes to parse (cannot be null).
+     * @param out The list to which stanzas are to be added (cannot be null).
+     * @throws XMLNotWellFormedException when the data is not a valid UTF-8 encoded XML stream.
+     * @throws InboundBufferSizeException when the data for one stanza exceeds the maximum allowed size.
+     */
+    public void decode(final ByteBuf in, final List<Object> out) throws XMLNotWellFormedException, InboundBufferSizeException
+    {
+        final int writerIndex = in.writerIndex();
+        for (int i = in.readerIndex() + scanned; i < writerIndex; i++) {
+            final int b = in.getByte(i) & 0xFF;
+
+            if (!validate(b)) {
+                // Part of a multibyte character, which is never of structural interest.
+                if (status == INIT) {
+                    in.readerIndex(i + 1);
+                }
+                continue;
+            }
+
+            if (status == TAIL) {
+                // Looking for the close tag
+                if (depth < 1 && b == head[tailCount]) {
+                    tailCount++;
+                    if (tailCount == headLength) {
+                        // Close stanza found!
+                        emit(in, i + 1, out);
+                    }
+                } else {
+                    tailCount = 0;
+                    status = INSIDE;
+                }
+            } else if (status == PRETAIL) {
+                if (b == CDATA_START[cdataOffset]) {
+                    cdataOffset++;
+                    if (cdataOffset == CDATA_START.length) {
+                        status = INSIDE_CDATA;
+                        cdataOffset = 0;
+                        continue;
+                    }
+                } else {
+                    cdataOffset = 0;
+                    status = INSIDE;
+                }
+                if (b == '/') {
+                    status = TAIL;
+                    depth--;
+                } else if (b == '!') {
+                    // This is a <! (comment) so ignore it
+                    status = INSIDE;
+                } else {
+                    depth++;
+                }
+            } else if (status == VERIFY_CLOSE_TAG) {
+                if (b == '>') {
+                    depth--;
+                    status = OUTSIDE;
+                    if (depth < 1) {
+                        // Found a tag in the form <tag />
+                        emit(in, i + 1, out);
+                    }
+                } else if (b == '<') {
+                    status = PRETAIL;
+                } else {
+                    status = INSIDE;
+                }
+            } else if (status == INSIDE_PARAM_VALUE) {
+                if (b == quote) {
+                    status = INSIDE;
+                }
+            } else if (status == INSIDE_CDATA) {
+                if (b == CDATA_END[cdataOffset]) {
+                    cdataOffset++;
+                    if (cdataOffset == CDATA_END.length) {
+                        status = OUTSIDE;
+                        cdataOffset = 0;
+                    }
+                } else if (cdataOffset == CDATA_END.length - 1 && b == CDATA_END[cdataOffset - 1]) {
+                    // An extra ']' was found where the last CDATA_END character was expected. This could be a case
+                    // where the XML character data ends with multiple square braces. For Example ]]]>
+                } else {
+                    cdataOffset = 0;
+                }
+            } else if (status == INSIDE) {
+                if (b == CDATA_START[cdataOffset]) {
+                    cdataOffset++;
+                    if (cdataOffset == CDATA_START.length) {
+                        status = INSIDE_CDATA;
+                        cdataOffset = 0;
+                        continue;
+                    }
+                } else {
+                    cdataOffset = 0;
+                }
+                if (b == '"' || b == '\'') {
+                    quote = (byte) b;
+                    status = INSIDE_PARAM_VALUE;
+                } else if (b == '>') {
+                    status = OUTSIDE;
+                    if (insideRootTag && (headEquals(STREAM_HEAD) || headEquals(XML_DECLARATION_HEAD))) {
+                        // Found opening stream:stream or XML declaration
+                        emit(in, i + 1, out);
+                    }
+                    insideRootTag = false;
+                } else if (b == '/') {
+                    status = VERIFY_CLOSE_TAG;
+                }
+            } else if (status == HEAD) {
+                if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '>') {
+                    // Append > to head to allow searching </tag>
+                    appendToHead('>');
+                    insideRootTag = true;
+                    if (b == '>') {
+                        status = OUTSIDE;
+                        if (headEquals(STREAM_TAIL) || headEquals(STREAM_HEAD)) {
+                            // Found closing stream:stream (or an opening one without any attributes)
+                            emit(in, i + 1, out);
+                        }
+                    } else {
+                        status = INSIDE;
+                    }
+                    continue;
+                } else if (b == '/' && headLength > 0) {
+                    status = VERIFY_CLOSE_TAG;
+                    depth--;
+                }
+                appendToHead(b);
+            } else if (status == INIT) {
+                if (b == '<') {
+                    status = HEAD;
+                    depth = 1;
+                } else {
+                    // Skip LF, CR and other "weird" characters that could appear between stanzas.
+                    in.readerIndex(i + 1);
+                }
+            } else if (status == OUTSIDE) {
+                if (b == '<') {
+                    status = PRETAIL;
+                    cdataOffset = 1;
+                }
+            }
+        }
+
+        scanned = writerIndex - in.readerIndex();
+
+        // Check that the data of an incomplete stanza is not bigger than the configured maximum. For security reasons
+        // we will abort parsing when that limit is exceeded.
+        if (scanned > XMLLightweightParser.XMPP_PARSER_BUFFER_SIZE.getValue()) {
+            if (Log.isDebugEnabled()) {
+                final int length = (int) Math.min(XMLLightweightParser.XMPP_PARSER_BUFFER_SIZE.getValue(), 1024);
+                Log.debug("Stanza that has filled the XML parser buffer:\n" + in.toString(in.readerIndex(), length, StandardCharsets.UTF_8) + "...(truncated)");
+            }
+            // set flag to inform higher level network decoders to stop reading more data
+            maxBufferSizeExceeded = true;
+            throw new InboundBufferSizeException("Stopped parsing never ending stanza");
+        }
+    }
+
+    /**
+     * Validates one byte of UTF-8 encoded XML data.
+     *
+     * @param b the unsigned value of the byte.
+     * @return true if the byte is a complete (single-byte) character, false if it is part of a multibyte sequence.
+     * @throws XMLNotWellFormedException when the byte is not valid at this position.
+     */
+    private boolean validate(final int b) throws XMLNotWellFormedException
+    {
+        if (utf8Remaining > 0) {
+            if (b < utf8Lower || b > utf8Upper) {
+                if (utf8Lower == 0x80 && utf8Upper == 0x9F && b >= 0xA0 && b <= 0xBF) {
+                    throw new XMLNotWellFormedException("Found an encoded surrogate character, which is invalid in UTF-8.");
+                }
+                throw new XMLNotWellFormedException("Malformed UTF-8 sequence: unexpected byte " + b + ".");
+            }
+            utf8Remaining--;
+            utf8Lower = 0x80;
+            utf8Upper = 0xBF;
+            return false;
+        }
+
+        if (b < 0x80) {
+            if (b < 0x20 && b != 0x9 && b != 0xA && b != 0xD) {
+                // Unicode characters in the range 0x0000-0x001F other than 9, A, and D are not allowed in XML
+                throw new XMLNotWellFormedException("Character is invalid in: " + b);
+            }
+            return true;
+        }
+
+        if (b >= 0xC2 && b <= 0xDF) {
+            utf8Remaining = 1;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            utf8Remaining = 2;
+            if (b == 0xE0) {
+                utf8Lower = 0xA0; // rejects overlong encodings
+            } else if (b == 0xED) {
+                utf8Upper = 0x9F; // rejects surrogates (U+D800 - U+DFFF)
+            }
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            utf8Remaining = 3;
+            if (b == 0xF0) {
+                utf8Lower = 0x90; // rejects overlong encodings
+            } else if (b == 0xF4) {
+                utf8Upper = 0x8F; // rejects code points beyond U+10FFFF
+            }
+        } else {
+            throw new XMLNotWellFormedException("Malformed UTF-8 sequence: invalid lead byte " + b + ".");
+        }
+        return false;
+    }
+
+    /**
+     * Adds the stanza that starts at the reader index of the buffer, and ends (exclusive) at the provided index, to
+     * the list of stanzas, and resets the state machine.
+     */
+    private void emit(final ByteBuf in, final int end, final List<Object> out) throws XMLNotWellFormedException
+    {
+        final int start = in.readerIndex();
+        if (hasIllegalCharacterReferences(in, start, end)) {
+            throw new XMLNotWellFormedException("Illegal character reference found in: " + in.toString(start, end - start, StandardCharsets.UTF_8));
+        }
+        out.add(in.retainedSlice(start, end - start));
+        in.readerIndex(end);
+
+        status = INIT;
+        tailCount = 0;
+        cdataOffset = 0;
+        headLength = 0;
+        insideRootTag = false;
+        depth = 0;
+    }
+
+    private void appendToHead(final int b)
+    {
+        if (headLength == head.length) {
+            head = Arrays.copyOf(head, head.length * 2);
+        }
+        head[headLength++] = (byte) b;
+    }
+
+    private boolean headEquals(final byte[] value)
+    {
+        return headLength == value.length && Arrays.equals(head, 0, headLength, value, 0, value.length);
+    }
+
+    /**
+     * Verifies if the provided range of bytes contains at least one numeric character reference that refers to an
+     * invalid XML 1.0 character. This is the byte-based equivalent of
+     * {@link XMLLightweightParser#hasIllegalCharacterReferences(String)}.
+     *
+     * @param buffer The buffer that holds the UTF-8 encoded data.
+     * @param start Index of the first byte to inspect (inclusive)
+     * @param end Index of the last byte to inspect (exclusive)
+     * @return {@code true} if the range contains an invalid numeric character reference, {@code false} otherwise.
+     */
+    public static boolean hasIllegalCharacterReferences(final ByteBuf buffer, final int start, final int end)
+    {
+        int needle = start;
+        while (needle < end - 1) {
+            final int ampersand = buffer.indexOf(needle, end, (byte) '&');
+            if (ampersand == -1 || ampersand + 1 >= end) {
+                return false;
+            }
+            if (buffer.getByte(ampersand + 1) != '#') {
+                needle = ampersand + 1;
+                continue;
+            }
+            final int semicolon = buffer.indexOf(ampersand + 2, end, (byte) ';');
+            if (semicolon == -1) {
+                return false;
+            }
+            needle = semicolon;
+
+            int index = ampersand + 2;
+            final int radix;
+            if (index < semicolon && (buffer.getByte(index) == 'x' || buffer.getByte(index) == 'X')) {
+                radix = 16;
+                index++;
+            } else {
+                radix = 10;
+            }
+            if (index == semicolon) {
+                continue; // Not a numeric character reference.
+            }
+
+            long value = 0;
+            boolean numeric = true;
+            for (; index < semicolon; index++) {
+                final int digit = Character.digit((char) (buffer.getByte(index) & 0xFF), radix);
+                if (digit < 0) {
+                    numeric = false;
+                    break;
+                }
+                value = value * radix + digit;
+                if (value > Integer.MAX_VALUE) {
+                    numeric = false;
+                    break;
+                }
+            }
+            if (numeric && !XMLLightweightParser.isLegalXmlCharacter((int) value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
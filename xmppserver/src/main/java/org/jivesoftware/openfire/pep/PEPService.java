@@ -23,8 +23,8 @@ import org.jivesoftware.openfire.PacketRouter;
 import org.jivesoftware.openfire.SessionManager;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.commands.AdHocCommandManager;
-import org.jivesoftware.openfire.entitycaps.EntityCapabilities;
 import org.jivesoftware.openfire.entitycaps.EntityCapabilitiesManager;
+import org.jivesoftware.openfire.nio.PreSerializedStanza;
 import org.jivesoftware.openfire.pubsub.*;
 import org.jivesoftware.openfire.pubsub.models.AccessModel;
 import org.jivesoftware.openfire.pubsub.models.PublisherModel;
@@ -43,6 +43,7 @@ import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
 import org.xmpp.packet.PacketExtension;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
@@ -316,10 +317,13 @@ public class PEPService implements PubSubService, Cacheable {
             Log.trace( "Service '{}' is broadcasting a notification on node '{}' to a collection of JIDs: {}", this.getServiceID(), node.getUniqueIdentifier().getNodeId(), jids.stream().map(JID::toString).collect(Collectors.joining(", ")) );
         }
         message.setFrom(getAddress());
-        for (JID jid : jids) {
-            message.setTo(jid);
-            message.setID(StringUtils.randomString(8));
-            router.route(message);
+        // Only the 'to' address and ID differ between recipients: serialize the stanza once.
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(message)) {
+            for (JID jid : jids) {
+                message.setTo(jid);
+                message.setID(StringUtils.randomString(8));
+                router.route(message);
+            }
         }
     }
 
@@ -368,12 +372,33 @@ public class PEPService implements PubSubService, Cacheable {
             Log.trace("Recipient '{}' has these delivery address(es): {}", recipientJID, deliveryAddresses.stream().map(JID::toString).collect(Collectors.joining(", ")));
         }
 
-        final Message message = orig.createCopy(); // Defensive copy: Do not let data from one iteration leak into the next.
+        final Message message;
+        if (EventNotificationBatch.isShared(orig)) {
+            // The original is not modified while it is shared, which allows this copy to be shared by all recipients too.
+            message = EventNotificationBatch.share(Arrays.asList(orig, getAddress()), () -> createNotification(orig));
+        } else {
+            message = createNotification(orig);
+        }
         message.setTo(recipientJID);
-        message.setFrom(getAddress());
+        // Each recipient receives a notification with a distinct ID, also when the notification itself is shared.
         message.setID(StringUtils.randomString(8));
 
-        for (final JID deliveryAddress : deliveryAddresses) {
+        // Only deliver to addresses that expressed interest in notifications for this node (or that did not express
+        // any preference by means of entity capabilities).
+        final Element eventElement = message.getElement().element("event");
+        final Element notifiedItemsElement = eventElement == null ? null : eventElement.element("items");
+        final Collection<JID> interestedAddresses;
+        if (notifiedItemsElement == null) {
+            interestedAddresses = deliveryAddresses;
+        } else {
+            final String notifiedNodeID = notifiedItemsElement.attributeValue("node");
+            interestedAddresses = entityCapsManager.getNotificationRecipients(notifiedNodeID, deliveryAddresses);
+            if (interestedAddresses.size() < deliveryAddresses.size()) {
+                Log.trace( "Recipient '{}': Not sending notification to {} address(es) that do not have CAPS {}+notify", recipientJID, deliveryAddresses.size() - interestedAddresses.size(), notifiedNodeID );
+            }
+        }
+
+        for (final JID deliveryAddress : interestedAddresses) {
             // Include an Extended Stanza Addressing "replyto" extension specifying the publishing
             // resource. However, only include the extension if the receiver has a presence subscription
             // to the service owner.
@@ -397,17 +422,6 @@ public class PEPService implements PubSubService, Cacheable {
                     itemID = itemElement.attributeValue("id");
                 }
 
-                // Check if the recipientFullJID is interested in notifications for this node.
-                // If the recipient has not yet requested any notification filtering, continue and send
-                // the notification.
-                EntityCapabilities entityCaps = entityCapsManager.getEntityCapabilities(deliveryAddress);
-                if (entityCaps != null) {
-                    if (!entityCaps.containsFeature(nodeID + "+notify")) {
-                        Log.trace( "Recipient '{}': Not sending notification to address '{}' that does not have CAPS {}+notify", recipientJID, deliveryAddress, nodeID );
-                        continue;
-                    }
-                }
-
                 // Get the full JID of the item publisher from the node that was published to.
                 // This full JID will be used as the "replyto" address in the addressing extension.
                 if (node.isCollectionNode()) {
@@ -434,15 +448,17 @@ public class PEPService implements PubSubService, Cacheable {
                 if (publisher == null) {
                     Log.warn( "Item {} on node {} has no known publisher.", itemID, node.getUniqueIdentifier());
                 } else if (recipientIsOwner || canProbePresence(publisher, deliveryAddress)) {
-                    Element addresses = DocumentHelper.createElement(QName.get("addresses", "http://jabber.org/protocol/address"));
-                    Element address = addresses.addElement("address");
-                    address.addAttribute("type", "replyto");
-                    address.addAttribute("jid", publisher.toString());
-
-                    Message extendedMessage = message.createCopy();
-                    extendedMessage.addExtension(new PacketExtension(addresses));
+                    final JID replyTo = publisher;
+                    final Message extendedMessage;
+                    if (EventNotificationBatch.isShared(message)) {
+                        // Recipients of the same notification that are allowed to see the publisher share the same stanza.
+                        extendedMessage = EventNotificationBatch.share(Arrays.asList(message, replyTo), () -> createReplyToNotification(message, replyTo));
+                    } else {
+                        extendedMessage = createReplyToNotification(message, replyTo);
+                    }
 
                     extendedMessage.setTo(deliveryAddress);
+                    extendedMessage.setID(message.getID());
                     Log.trace( "Recipient '{}': Sending notification to recipient address: '{}'", recipientJID, extendedMessage.getTo() );
                     router.route(extendedMessage);
                 } else {
@@ -474,6 +490,38 @@ public class PEPService implements PubSubService, Cacheable {
         Log.trace( "Recipient '{}': Done processing notification for service '{}' on node '{}'", recipientJID, this.getServiceID(), node.getUniqueIdentifier().getNodeId() );
     }
 
+    /**
+     * Creates a copy of an event notification that is sent by this service.
+     *
+     * @param orig the event notification (which is not modified).
+     * @return the copy, with a 'from' address and an ID.
+     */
+    private Message createNotification(Message orig) {
+        final Message message = orig.createCopy(); // Defensive copy: Do not let data from one iteration leak into the next.
+        message.setFrom(getAddress());
+        message.setID(StringUtils.randomString(8));
+        return message;
+    }
+
+    /**
+     * Creates a copy of an event notification that includes an Extended Stanza Addressing "replyto"
+     * extension specifying the publishing resource.
+     *
+     * @param message the event notification (which is not modified).
+     * @param publisher the full JID of the item publisher.
+     * @return the copy of the event notification, including the extension.
+     */
+    private static Message createReplyToNotification(Message message, JID publisher) {
+        Element addresses = DocumentHelper.createElement(QName.get("addresses", "http://jabber.org/protocol/address"));
+        Element address = addresses.addElement("address");
+        address.addAttribute("type", "replyto");
+        address.addAttribute("jid", publisher.toString());
+
+        Message extendedMessage = message.createCopy();
+        extendedMessage.addExtension(new PacketExtension(addresses));
+        return extendedMessage;
+    }
+
     /**
      * Sends an event notification for the last published item of each leaf node under the
      * root collection node to the recipient JID. If the recipient is not the owner of this service,
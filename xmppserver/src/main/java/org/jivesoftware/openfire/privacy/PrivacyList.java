@@ -87,6 +87,7 @@ public class PrivacyList implements Cacheable, Externalizable {
     private String name;
     private boolean isDefault;
     private List<PrivacyItem> items = new ArrayList<>();
+    private volatile PrivacyListEvaluator evaluator;
 
     /**
      * Constructor added for Externalizable. Do not use this constructor.
@@ -146,7 +147,11 @@ public class PrivacyList implements Cacheable, Externalizable {
      * Returns true if the specified packet must be blocked based on this privacy list rules.
      * Rules are going to be analyzed based on their order (in ascending order). When a rule
      * is matched then communication will be blocked or allowed based on that rule. No more
-     * further analysis is going to be made.
+     * further analysis is going to be made.<p>
+     *
+     * The rules are not analyzed one by one: they are indexed by the values that they match
+     * (see {@link PrivacyListEvaluator}), which makes the cost of this method independent
+     * of the number of rules.
      *
      * @param packet the packet to analyze if it must be blocked.
      * @return true if the specified packet must be blocked based on this privacy list rules.
@@ -156,21 +161,21 @@ public class PrivacyList implements Cacheable, Externalizable {
             // Sender is the server so it's not denied
             return false;
         }
-        // Iterate over the rules and check each rule condition
-        Roster roster = getRoster();
-        for (PrivacyItem item : items) {
-            if (item.matchesCondition(packet, roster, userJID)) {
-                if (item.isAllow()) {
-                    return false;
-                }
-                if (Log.isDebugEnabled()) {
-                    Log.debug("PrivacyList: Packet was blocked: " + packet);
-                }
-                return true;
-            }
+        final PrivacyListEvaluator evaluator = this.evaluator;
+        if (evaluator == null) {
+            // List has no rules
+            return false;
+        }
+        // Find the first rule whose condition is matched
+        final PrivacyItem item = evaluator.findMatch(packet, this::getRoster);
+        if (item == null || item.isAllow()) {
+            // If no rule blocked the communication then allow the packet to flow
+            return false;
         }
-        // If no rule blocked the communication then allow the packet to flow
-        return false;
+        if (Log.isDebugEnabled()) {
+            Log.debug("PrivacyList: Packet was blocked: " + packet);
+        }
+        return true;
     }
 
     /**
@@ -260,6 +265,7 @@ public class PrivacyList implements Cacheable, Externalizable {
         }
         // Sort items collections
         Collections.sort(items);
+        evaluator = new PrivacyListEvaluator(items, userJID);
         if (notify) {
             // Trigger event that this list has been modified
             PrivacyListManager.getInstance().dispatchModifiedEvent(this);
@@ -285,6 +291,10 @@ public class PrivacyList implements Cacheable, Externalizable {
         size += CacheSizes.sizeOfString(name);                  // name
         size += CacheSizes.sizeOfBoolean();                     // isDefault
         size += CacheSizes.sizeOfCollection(items);             // items of the list
+        final PrivacyListEvaluator evaluator = this.evaluator;
+        if (evaluator != null) {
+            size += evaluator.getCachedSize();                  // indexes of the items
+        }
         return size;
     }
 
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.privacy;
+
+import org.jivesoftware.openfire.roster.Roster;
+import org.jivesoftware.openfire.roster.RosterItem;
+import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.jivesoftware.util.cache.CacheSizes;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Finds the first item of a privacy list that matches a stanza, without evaluating each item of the list.
+ *
+ * The items of a privacy list that can possibly match a stanza depend only on a few characteristics of that stanza:
+ * its type, and whether it is sent or received by the owner of the list. For each combination of these characteristics
+ * (each 'context'), the items that can match are indexed by the value that they match: by full JID, bare JID or domain,
+ * by roster group or by subscription state. Evaluating a stanza then takes a few map look-ups (and, when the list has
+ * group or subscription items, one look-up of the roster item of the contact), regardless of the length of the list.
+ *
+ * Results are identical to those of evaluating {@link PrivacyItem#matchesCondition(Packet, Roster, JID)} for each
+ * item, in order. The indexes for all contexts are created with the evaluator, so that its size is known when the
+ * privacy list is cached. Contexts that have identical indexes (typically: every context in which the items of a
+ * blocklist apply) share them. Instances are immutable and thread-safe.
+ */
+final class PrivacyListEvaluator {
+
+    private enum Kind { MESSAGE, PRESENCE_STATE, PRESENCE_OTHER, IQ, OTHER }
+
+    private enum Subject { FROM, TO, NONE }
+
+    private final List<PrivacyItem> items;
+    private final String userBareJID;
+
+    /**
+     * The rules for each context, by context index.
+     */
+    private final Rules[] rules = new Rules[Kind.values().length * 4];
+
+    /**
+     * The distinct instances in {@link #rules}.
+     */
+    private final List<Rules> distinctRules = new ArrayList<>();
+
+    /**
+     * @param items the items of the privacy list, in the order in which they are to be evaluated.
+     * @param userJID the JID of the owner of the privacy list.
+     */
+    PrivacyListEvaluator(@Nonnull final List<PrivacyItem> items, @Nonnull final JID userJID) {
+        this.items = List.copyOf(items);
+        this.userBareJID = userJID.toBareJID();
+        for (final Kind kind : Kind.values()) {
+            for (final boolean sentByOwner : new boolean[] { false, true }) {
+                for (final boolean addressedToOwner : new boolean[] { false, true }) {
+                    final Rules candidate = new Rules(this.items, kind, sentByOwner, addressedToOwner);
+                    Rules shared = null;
+                    for (final Rules existing : distinctRules) {
+                        if (existing.equals(candidate)) {
+                            shared = existing;
+                            break;
+                        }
+                    }
+                    if (shared == null) {
+                        distinctRules.add(candidate);
+                        shared = candidate;
+                    }
+                    rules[indexOf(kind, sentByOwner, addressedToOwner)] = shared;
+                }
+            }
+        }
+    }
+
+    private static int indexOf(@Nonnull final Kind kind, final boolean sentByOwner, final boolean addressedToOwner) {
+        return (kind.ordinal() * 4) + (sentByOwner ? 2 : 0) + (addressedToOwner ? 1 : 0);
+    }
+
+    /**
+     * Returns the approximate size (in bytes) of the indexes of this evaluator. The items themselves are not included.
+     *
+     * @return the size of the indexes, in bytes.
+     */
+    int getCachedSize() {
+        int size = 0;
+        size += CacheSizes.sizeOfObject();                      // overhead of object
+        size += CacheSizes.sizeOfObject() * rules.length;       // rules (references to shared instances)
+        for (final Rules distinct : distinctRules) {
+            size += distinct.getCachedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the first item of the privacy list that matches the stanza.
+     *
+     * @param packet the stanza to evaluate.
+     * @param roster provides the roster of the owner of the privacy list. Only invoked when the roster is needed.
+     * @return the first matching item, or null if no item matches.
+     */
+    @Nullable
+    PrivacyItem findMatch(@Nonnull final Packet packet, @Nonnull final Supplier<Roster> roster) {
+        final Class<? extends Packet> packetClass = packet.getClass();
+        final Kind kind;
+        if (Message.class.equals(packetClass)) {
+            kind = Kind.MESSAGE;
+        } else if (Presence.class.equals(packetClass)) {
+            final Presence.Type presenceType = ((Presence) packet).getType();
+            kind = presenceType == null || presenceType == Presence.Type.unavailable ? Kind.PRESENCE_STATE : Kind.PRESENCE_OTHER;
+        } else if (IQ.class.equals(packetClass)) {
+            kind = Kind.IQ;
+        } else {
+            kind = Kind.OTHER;
+        }
+        final JID from = packet.getFrom();
+        final JID to = packet.getTo();
+        final boolean sentByOwner = from != null && userBareJID.equals(from.toBareJID());
+        final boolean addressedToOwner = to != null && userBareJID.equals(to.toBareJID());
+
+        final Rules result = rules[indexOf(kind, sentByOwner, addressedToOwner)];
+        final JID subject;
+        switch (result.subject) {
+            case FROM: subject = from; break;
+            case TO:   subject = to; break;
+            default:   subject = null;
+        }
+        final int rank = result.findRank(subject, roster);
+        return rank == Integer.MAX_VALUE ? null : items.get(rank);
+    }
+
+    /**
+     * The items that can match stanzas in a particular context, indexed by the value that they match. Items are
+     * identified by their rank: their position in the list.
+     */
+    private static final class Rules {
+        private final Subject subject;
+
+        /**
+         * The rank of the first item that matches every stanza in this context, or Integer.MAX_VALUE if there is none.
+         */
+        private final int fallThroughRank;
+
+        private final Map<JID, Integer> byFullJID = new HashMap<>();
+        private final Map<String, Integer> byBareJID = new HashMap<>();
+        private final Map<String, Integer> byDomain = new HashMap<>();
+        private final Map<String, Integer> byGroup = new HashMap<>();
+        private final Map<RosterItem.SubType, Integer> bySubscription = new HashMap<>();
+
+        Rules(@Nonnull final List<PrivacyItem> items, @Nonnull final Kind kind, final boolean sentByOwner, final boolean addressedToOwner) {
+            final boolean isPresence = kind == Kind.PRESENCE_STATE || kind == Kind.PRESENCE_OTHER;
+            if (!sentByOwner) {
+                subject = Subject.FROM;
+            } else if (isPresence) {
+                subject = Subject.TO;
+            } else {
+                subject = Subject.NONE;
+            }
+
+            int fallThrough = Integer.MAX_VALUE;
+            for (int rank = 0; rank < items.size(); rank++) {
+                final PrivacyItem item = items.get(rank);
+                if (!matchesKind(item, kind, addressedToOwner)) {
+                    continue;
+                }
+                if (item.getType() == null) {
+                    // Matches every stanza in this context: items that follow can never be the first match.
+                    fallThrough = rank;
+                    break;
+                }
+                final boolean applies;
+                switch (subject) {
+                    case FROM: applies = item.isFilterEverything() || item.isFilterPresenceIn() || item.isFilterIQ() || item.isFilterMessage(); break;
+                    case TO:   applies = item.isFilterEverything() || item.isFilterPresenceOut(); break;
+                    default:   applies = false;
+                }
+                if (!applies) {
+                    continue;
+                }
+                switch (item.getType()) {
+                    case jid:
+                        final JID jid = item.getJID();
+                        if (jid.getResource() != null) {
+                            byFullJID.putIfAbsent(jid, rank);
+                        } else if (jid.getNode() != null) {
+                            byBareJID.putIfAbsent(jid.toBareJID(), rank);
+                        } else {
+                            byDomain.putIfAbsent(jid.getDomain(), rank);
+                        }
+                        break;
+                    case group:
+                        byGroup.putIfAbsent(item.getGroup(), rank);
+                        break;
+                    case subscription:
+                        bySubscription.putIfAbsent(item.getSubscription(), rank);
+                        break;
+                }
+            }
+            fallThroughRank = fallThrough;
+        }
+
+        private static boolean matchesKind(@Nonnull final PrivacyItem item, @Nonnull final Kind kind, final boolean addressedToOwner) {
+            if (item.isFilterEverything()) {
+                return true;
+            }
+            switch (kind) {
+                case MESSAGE:        return item.isFilterMessage();
+                case PRESENCE_STATE: return addressedToOwner ? item.isFilterPresenceIn() : item.isFilterPresenceOut();
+                case IQ:             return item.isFilterIQ();
+                default:             return false;
+            }
+        }
+
+        int findRank(@Nullable final JID subject, @Nonnull final Supplier<Roster> roster) {
+            int result = fallThroughRank;
+            if (subject == null) {
+                return result;
+            }
+            result = min(result, byFullJID.get(subject));
+            result = min(result, byBareJID.get(subject.toBareJID()));
+            result = min(result, byDomain.get(subject.getDomain()));
+
+            if (!byGroup.isEmpty() || !bySubscription.isEmpty()) {
+                RosterItem rosterItem = null;
+                final Roster owner = roster.get();
+                if (owner != null) {
+                    try {
+                        rosterItem = owner.getRosterItem(subject);
+                    } catch (UserNotFoundException e) {
+                        // Contact is not in the user's roster
+                    }
+                }
+                if (rosterItem != null) {
+                    for (final String group : rosterItem.getGroups()) {
+                        result = min(result, byGroup.get(group));
+                    }
+                }
+                result = min(result, bySubscription.get(rosterItem != null ? rosterItem.getSubStatus() : RosterItem.SUB_NONE));
+            }
+            return result;
+        }
+
+        private static int min(final int rank, @Nullable final Integer candidate) {
+            return candidate != null && candidate < rank ? candidate : rank;
+        }
+
+        int getCachedSize() {
+            int size = 0;
+            size += CacheSizes.sizeOfObject();                                              // overhead of object
+            size += CacheSizes.sizeOfObject();                                              // subject
+            size += CacheSizes.sizeOfInt();                                                 // fallThroughRank
+            size += sizeOfIndex(byFullJID, jid -> CacheSizes.sizeOfString(jid.toString())); // byFullJID
+            size += sizeOfIndex(byBareJID, CacheSizes::sizeOfString);                       // byBareJID
+            size += sizeOfIndex(byDomain, CacheSizes::sizeOfString);                        // byDomain
+            size += sizeOfIndex(byGroup, CacheSizes::sizeOfString);                         // byGroup
+            size += sizeOfIndex(bySubscription, subType -> 0);                              // bySubscription (keys are shared constants)
+            return size;
+        }
+
+        private static <K> int sizeOfIndex(@Nonnull final Map<K, Integer> index, @Nonnull final ToIntFunction<K> sizeOfKey) {
+            int size = 36; // Base map object, as in CacheSizes#sizeOfMap
+            for (final K key : index.keySet()) {
+                size += CacheSizes.sizeOfObject();                          // entry
+                size += sizeOfKey.applyAsInt(key);                          // key
+                size += CacheSizes.sizeOfObject() + CacheSizes.sizeOfInt(); // rank
+            }
+            return size;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Rules that = (Rules) o;
+            return fallThroughRank == that.fallThroughRank && subject == that.subject && byFullJID.equals(that.byFullJID) && byBareJID.equals(that.byBareJID) && byDomain.equals(that.byDomain) && byGroup.equals(that.byGroup) && bySubscription.equals(that.bySubscription);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subject, fallThroughRank, byFullJID.size(), byBareJID.size(), byDomain.size(), byGroup.size(), bySubscription.size());
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.jivesoftware.openfire.pubsub;
 
+import org.jivesoftware.openfire.JMXManager;
 import org.jivesoftware.openfire.cluster.ClusterManager;
 import org.jivesoftware.openfire.pep.PEPService;
 import org.jivesoftware.openfire.pubsub.cluster.FlushTask;
@@ -31,10 +32,9 @@ import javax.annotation.Nonnull;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
-import java.util.stream.Collectors;
 
 public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvider
 {
@@ -47,6 +47,18 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
         .setDynamic(false)
         .build();
 
+    /**
+     * The maximum (estimated) amount of memory that changes to published items that have not yet been written to the
+     * database are allowed to use. A thread that saves an item when this limit is exceeded writes all pending changes
+     * before it continues.
+     */
+    public static final SystemProperty<Long> MAX_PENDING_BYTES = SystemProperty.Builder.ofType(Long.class)
+        .setKey("xmpp.pubsub.flush.max-bytes")
+        .setDefaultValue(32L * 1024 * 1024)
+        .setMinValue(0L)
+        .setDynamic(true)
+        .build();
+
     private PubSubPersistenceProvider delegate;
 
     /**
@@ -67,20 +79,15 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
     private static final int MAX_ITEMS_FLUSH = JiveGlobals.getIntProperty("xmpp.pubsub.flush.max", 1000);
 
     /**
-     * Queue that holds the (wrapped) items that need to be added to the database.
+     * Changes to published items that have not yet been written to the database, by node.
      */
-    private Deque<PublishedItem> itemsToAdd = new ConcurrentLinkedDeque<>();
+    private final PublishedItemWriteBehind writeBehind = new PublishedItemWriteBehind( ( addList, delList ) -> delegate.bulkPublishedItems( addList, delList ) );
 
     /**
-     * Queue that holds the items that need to be deleted from the database.
+     * Set when a flush has been submitted (because the number of pending items exceeds its limit) that has not yet
+     * started.
      */
-    private Deque<PublishedItem> itemsToDelete = new ConcurrentLinkedDeque<>();
-
-    /**
-     * Keeps reference to published items that haven't been persisted yet so they
-     * can be removed before being deleted.
-     */
-    private final HashMap<PublishedItem.UniqueIdentifier, PublishedItem> itemsPending = new HashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean( false );
 
     private ConcurrentMap<Node.UniqueIdentifier, List<NodeOperation>> nodesToProcess = new ConcurrentHashMap<>();
 
@@ -115,6 +122,10 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
         } catch (Exception ex) {
             log.error("Failed to initialize pubsub maintenance tasks", ex);
         }
+
+        if (JMXManager.isEnabled()) {
+            JMXManager.tryRegister(writeBehind, PublishedItemWriteBehindMBean.OBJECT_NAME);
+        }
     }
 
     private void initDelegate()
@@ -145,6 +156,7 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
         // OF-2086: Persist cached pubsub data prior to shutdown
         flushPendingChanges( false );
         TaskEngine.getInstance().cancelScheduledTask( flushTask );
+        JMXManager.tryUnregister( PublishedItemWriteBehindMBean.OBJECT_NAME );
         delegate.shutdown();
     }
 
@@ -429,11 +441,7 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
     public void purgeNode( final LeafNode leafNode )
     {
         // If there are any pending items for this node, don't bother processing them.
-        synchronized (itemsPending) {
-            itemsPending.values().removeIf( publishedItem -> leafNode.getUniqueIdentifier().equals( publishedItem.getNode().getUniqueIdentifier() ) );
-            itemsToAdd.removeIf( publishedItem -> leafNode.getUniqueIdentifier().equals( publishedItem.getNode().getUniqueIdentifier() ) );
-            itemsToDelete.removeIf( publishedItem -> leafNode.getUniqueIdentifier().equals( publishedItem.getNode().getUniqueIdentifier() ) );
-        }
+        writeBehind.discard( leafNode.getUniqueIdentifier() );
 
         // drop cached items for purged node
         synchronized (itemCache)
@@ -456,19 +464,20 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
         PublishedItem.UniqueIdentifier itemKey = item.getUniqueIdentifier();
         itemCache.put(itemKey, item);
         log.debug("Added new (inbound) item to cache");
-        synchronized (itemsPending) {
-            PublishedItem itemToReplace = itemsPending.remove(itemKey);
-            if (itemToReplace != null) {
-                itemsToAdd.remove(itemToReplace); // remove duplicate from itemsToAdd linked list
-            }
-            itemsToAdd.addLast(item);
-            itemsPending.put(itemKey, item);
-        }
-
-        if (itemsPending.size() > MAX_ITEMS_FLUSH) {
-            TaskEngine.getInstance().submit(new Runnable() {
-                @Override
-                public void run() { flushPendingChanges(false); }
+        // Replaces any pending change to the same item.
+        writeBehind.save(item);
+
+        if (writeBehind.getPendingBytes() > MAX_PENDING_BYTES.getValue()) {
+            // Apply backpressure: rather than allowing pending changes to use ever more memory, have the publisher wait
+            // for them to be written.
+            log.debug("Pending changes to published items exceed {} bytes. Writing them before continuing.", MAX_PENDING_BYTES.getValue());
+            flushPendingNodes();
+            writeBehind.flushForBackpressure();
+        }
+        else if (writeBehind.getPendingItems() > MAX_ITEMS_FLUSH && flushScheduled.compareAndSet(false, true)) {
+            TaskEngine.getInstance().submit(() -> {
+                flushScheduled.set(false);
+                flushPendingChanges(false);
             });
         }
     }
@@ -488,52 +497,9 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
         // TODO: figure out if it's required to first flush pending nodes, cluster-wide, synchronously, before flushing items.
         flushPendingNode(nodeUniqueId);
 
-        if (itemsToAdd.isEmpty() && itemsToDelete.isEmpty()) {
-            return;	 // nothing left to do for this cluster member.
-        }
-
-        List<PublishedItem> addList;
-        List<PublishedItem> delList;
-
-        // Swap pending items so we can parse and save the contents from this point in time
-        // while not blocking new entries from being cached.
-        synchronized(itemsPending)
-        {
-            // find items for node.
-
-            // Split the to-do list in two parts: one that contains items for the node of interest, and the rest.
-            final Map<Boolean, List<PublishedItem>> partsToAdd = itemsToAdd.stream().collect(
-                    Collectors.partitioningBy( publishedItem -> nodeUniqueId.equals( publishedItem.getNode().getUniqueIdentifier() ) )
-            );
-            addList = new ArrayList<>( partsToAdd.get( true ) ); // All elements that match must be processed.
-            itemsToAdd.retainAll( partsToAdd.get(false) ); // Non-matching elements remain on the to-do list.
-
-            // Split the to-do list in two parts: one that contains items for the node of interest, and the rest.
-            final Map<Boolean, List<PublishedItem>> partsToDelete = itemsToDelete.stream().collect(
-                    Collectors.partitioningBy( publishedItem -> nodeUniqueId.equals( publishedItem.getNode().getUniqueIdentifier() ) )
-            );
-            delList = new ArrayList<>( partsToDelete.get( true ) ); // All elements that match must be processed.
-            itemsToDelete.retainAll( partsToDelete.get(false) ); // Non-matching elements remain on the to-do list.
-
-            // Ensure pending items are available via the item read cache;
-            // this allows the item(s) to be fetched by other request threads
-            // while being written to the DB from this thread
-            // TODO Determine if this works as intended when items are being queued for adding as well as removal.
-            int copied = 0;
-            for (final PublishedItem itemToAdd : itemsToAdd) {
-                final PublishedItem.UniqueIdentifier key = itemToAdd.getUniqueIdentifier();
-                if (!itemCache.containsKey(key)) {
-                    itemsPending.remove( key );
-                    itemCache.put(key, itemToAdd);
-                    copied++;
-                }
-            }
-            if (log.isDebugEnabled() && copied > 0) {
-                log.debug("Added " + copied + " pending items to published item cache");
-            }
-        }
-
-        delegate.bulkPublishedItems( addList, delList );
+        // Writes the pending changes to items of this node in one transaction. Waits for a flush of the same node that
+        // is in progress on another thread, so that the database reflects all changes that preceded this invocation.
+        writeBehind.flush(nodeUniqueId);
     }
 
     /**
@@ -555,53 +521,16 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
         // TODO: figure out if it's required to first flush pending nodes, cluster-wide, synchronously, before flushing items.
         flushPendingNodes();
 
-        if (itemsToAdd.isEmpty() && itemsToDelete.isEmpty()) {
-            return;	 // Nothing left to do for this cluster member.
-        }
-
-        List<PublishedItem> addList;
-        List<PublishedItem> delList;
-
-        // Swap pending items so we can parse and save the contents from this point in time
-        // while not blocking new entries from being cached.
-        synchronized(itemsPending)
-        {
-            addList = new ArrayList<>( itemsToAdd );
-            delList = new ArrayList<>( itemsToDelete );
-
-            itemsToAdd = new ConcurrentLinkedDeque<>();
-            itemsToDelete = new ConcurrentLinkedDeque<>();
-
-            // Ensure pending items are available via the item read cache;
-            // this allows the item(s) to be fetched by other request threads
-            // while being written to the DB from this thread
-            // TODO Determine if this works as intended when items are being queued for adding as well as removal.
-            int copied = 0;
-            for ( PublishedItem.UniqueIdentifier key : itemsPending.keySet()) {
-                if (!itemCache.containsKey(key)) {
-                    itemCache.put(key, itemsPending.get(key));
-                    copied++;
-                }
-            }
-            if (log.isDebugEnabled() && copied > 0) {
-                log.debug("Added " + copied + " pending items to published item cache");
-            }
-            itemsPending.clear();
-        }
-
-        delegate.bulkPublishedItems( addList, delList );
-        flushPendingChanges( sendToCluster );
+        // Writes the pending changes to items, using one transaction per node.
+        writeBehind.flushAll();
     }
 
     @Override
     public void removePublishedItem(PublishedItem item) {
         PublishedItem.UniqueIdentifier itemKey = item.getUniqueIdentifier();
         itemCache.remove(itemKey);
-        synchronized (itemsPending)
-        {
-            itemsToDelete.addLast(item);
-            itemsPending.remove(itemKey);
-        }
+        // Replaces any pending change to the same item.
+        writeBehind.remove(item);
     }
 
     @Override
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.pubsub;
+
+import org.jivesoftware.openfire.nio.PreSerializedStanza;
+import org.xmpp.packet.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * The event notifications that are sent to the subscribers of a node as the result of one event (such as the
+ * publication of items).
+ *
+ * Without this class, an event notification is built (and serialized) again for each subscriber, even though the
+ * notifications that subscribers receive are typically identical, apart from their 'to' address and ID. While a batch
+ * is open on the current thread, {@link #share(Object, Supplier)} builds each distinct notification only once. The
+ * notifications that are shared are registered with a {@link PreSerializedStanza} scope, which causes each of them to
+ * be serialized only once too.
+ *
+ * Notifications that are shared must not be modified by their recipients, other than by changing their 'to' address
+ * and ID. A batch must be closed (typically in a try-with-resources block) on the thread that opened it.
+ */
+public final class EventNotificationBatch implements AutoCloseable
+{
+    private static final ThreadLocal<EventNotificationBatch> CURRENT = new ThreadLocal<>();
+
+    private final EventNotificationBatch parent;
+    private final PreSerializedStanza.Scope scope;
+    private final Map<Object, Message> notifications = new HashMap<>();
+    private final Set<Message> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean closed = false;
+
+    private EventNotificationBatch(@Nullable final EventNotificationBatch parent)
+    {
+        this.parent = parent;
+        this.scope = PreSerializedStanza.open();
+    }
+
+    /**
+     * Opens a batch on the current thread.
+     *
+     * @return The batch, which is to be closed when all notifications have been sent.
+     */
+    @Nonnull
+    public static EventNotificationBatch open()
+    {
+        final EventNotificationBatch batch = new EventNotificationBatch(CURRENT.get());
+        CURRENT.set(batch);
+        return batch;
+    }
+
+    /**
+     * Returns the notification that is identified by the provided key, which is built when it is requested for the
+     * first time in the batch that is open on the current thread. When no batch is open, a new notification is built.
+     *
+     * Keys are compared by equality. Keys typically include the objects (nodes, items, stanzas) from which a
+     * notification is built.
+     *
+     * @param key Identifies the notification.
+     * @param factory Builds the notification.
+     * @return The notification.
+     */
+    @Nonnull
+    public static Message share(@Nonnull final Object key, @Nonnull final Supplier<Message> factory)
+    {
+        final EventNotificationBatch batch = CURRENT.get();
+        if (batch == null) {
+            return factory.get();
+        }
+        return batch.notifications.computeIfAbsent(key, k -> {
+            final Message notification = factory.get();
+            batch.scope.add(notification);
+            batch.shared.add(notification);
+            return notification;
+        });
+    }
+
+    /**
+     * Checks if a notification was obtained through {@link #share(Object, Supplier)} in the batch that is open on the
+     * current thread. Such a notification does not change for as long as the batch is open, which allows notifications
+     * that are derived from it to be shared too.
+     *
+     * @param notification The notification to check.
+     * @return true if the notification is shared in the current batch.
+     */
+    public static boolean isShared(@Nonnull final Message notification)
+    {
+        final EventNotificationBatch batch = CURRENT.get();
+        return batch != null && batch.shared.contains(notification);
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        scope.close();
+        notifications.clear();
+        shared.clear();
+        if (parent == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(parent);
+        }
+    }
+}
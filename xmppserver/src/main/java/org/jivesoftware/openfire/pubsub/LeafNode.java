@@ -279,14 +279,17 @@ public class LeafNode extends Node {
 
         // Build event notification packet to broadcast to subscribers
         Message message = new Message();
-        Element event = message.addChildElement("event", "http://jabber.org/protocol/pubsub#event");
+        message.addChildElement("event", "http://jabber.org/protocol/pubsub#event");
         // Broadcast event notification to subscribers and parent node subscribers
         Set<NodeAffiliate> affiliatesToNotify = getAffiliatesToNotify();
         Log.trace("Built event notification stanza to broadcast notification to {} affiliate(s)", affiliatesToNotify.size());
 
         // TODO Use another thread for this (if # of subscribers is > X)????
-        for (NodeAffiliate affiliate : affiliatesToNotify) {
-            affiliate.sendPublishedNotifications(message, event, this, newPublishedItems);
+        // Affiliates that receive the same items share (and serialize) the same notification.
+        try (final EventNotificationBatch ignored = EventNotificationBatch.open()) {
+            for (NodeAffiliate affiliate : affiliatesToNotify) {
+                affiliate.sendPublishedNotifications(message, this, newPublishedItems);
+            }
         }
     }
 
@@ -357,8 +360,11 @@ public class LeafNode extends Node {
             Log.trace("Built event notification stanza to broadcast notification to {} affiliate(s)", affiliatesToNotify.size());
 
             // TODO Use another thread for this (if # of subscribers is > X)????
-            for (NodeAffiliate affiliate : affiliatesToNotify) {
-                affiliate.sendDeletionNotifications(message, event, this, toDelete);
+            // Affiliates that receive the same retractions share (and serialize) the same notification.
+            try (final EventNotificationBatch ignored = EventNotificationBatch.open()) {
+                for (NodeAffiliate affiliate : affiliatesToNotify) {
+                    affiliate.sendDeletionNotifications(message, this, toDelete);
+                }
             }
 
             // XEP-0136 specifies that all connected resources of the owner of the PEP service should also get a notification.
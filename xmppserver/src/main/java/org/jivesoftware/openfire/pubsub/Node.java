@@ -2120,10 +2120,11 @@ public abstract class Node implements Cacheable, Externalizable {
      *        allow multiple subscriptions.
      */
     protected void sendEventNotification(JID subscriberJID, Message notification, Collection<String> subIDs) {
-        Element headers = null;
         if (subIDs != null) {
-            // Notate the event notification with the ID of the affected subscriptions
-            headers = notification.addChildElement("headers", "http://jabber.org/protocol/shim");
+            // Notate the event notification with the ID of the affected subscriptions. The notification
+            // can be shared with other subscribers, which is why the headers are added to a copy.
+            notification = notification.createCopy();
+            final Element headers = notification.addChildElement("headers", "http://jabber.org/protocol/shim");
             for (String subID : subIDs) {
                 Element header = headers.addElement("header");
                 header.addAttribute("name", "SubID");
@@ -2152,11 +2153,6 @@ public abstract class Node implements Cacheable, Externalizable {
         } else {
             getLogger().trace("Suppressing pub/sub notification to subscriber {} as intended recipient is known to be offline.", subscriberJID);
         }
-
-        if (headers != null) {
-            // Remove the added child element that includes subscription IDs information
-            notification.getElement().remove(headers);
-        }
     }
 
     /**
@@ -89,14 +89,16 @@ public class NodeAffiliate implements Cacheable
      * If the affiliate is an owner of the node, and the node is in a PEP service, then
      * all connected resources of the affiliated user will be sent an event notification.
      *
-     * @param notification the message to sent to the subscribers. The message will be completed
-     *        with the items to include in each notification.
-     * @param event the event Element included in the notification message. Passed as an
-     *        optimization to avoid future look ups.
+     * Each notification is a copy of the provided message, completed with the items to include.
+     * When an {@link EventNotificationBatch} is open, identical notifications are shared with
+     * other affiliates.
+     *
+     * @param notification the message on which the notifications are based. The message must
+     *        contain an empty 'event' element, and is not modified.
      * @param leafNode the leaf node where the items where published.
      * @param publishedItems the list of items that were published. Could be an empty list.
      */
-    void sendPublishedNotifications(Message notification, Element event, LeafNode leafNode, List<PublishedItem> publishedItems)
+    void sendPublishedNotifications(Message notification, LeafNode leafNode, List<PublishedItem> publishedItems)
     {
         if (!publishedItems.isEmpty()) {
             Map<List<NodeSubscription>, List<PublishedItem>> itemsBySubs = getItemsBySubscriptions(leafNode, publishedItems);
@@ -108,36 +110,10 @@ public class NodeAffiliate implements Cacheable
                 final List<PublishedItem> groupedItems = entry.getValue();
                 Log.trace("Preparing publication notification batch for {} item(s) to {} subscription(s).", groupedItems.size(), nodeSubscriptions.size());
 
-                // Add items information
-                Element items = event.addElement("items");
-                items.addAttribute("node", getNode().getUniqueIdentifier().getNodeId());
-                for (PublishedItem publishedItem : groupedItems) {
-                    // FIXME: This was added for compatibility with PEP supporting clients.
-                    //        Alternate solution needed when XEP-0163 version > 1.0 is released.
-                    //
-                    // If the node ID looks like a JID, replace it with the published item's node ID.
-                    if (getNode().getUniqueIdentifier().getNodeId().contains("@")) {
-                        items.addAttribute("node", publishedItem.getNodeID());                        
-                    }
-
-                    // Add item information to the event notification
-                    Element item = items.addElement("item");
-                    if (leafNode.isItemRequired()) {
-                        item.addAttribute("id", publishedItem.getID());
-                    }
-                    if (leafNode.isPayloadDelivered()) {
-                        item.add(publishedItem.getPayload().createCopy());
-                    }
-                    // Add leaf leafNode information if affiliated leafNode and node
-                    // where the item was published are different
-                    if (leafNode != getNode()) {
-                        item.addAttribute("node", leafNode.getUniqueIdentifier().getNodeId());
-                    }
-                }
+                final Message itemsNotification = EventNotificationBatch.share(Arrays.asList(notification, "items", getNode(), leafNode, groupedItems),
+                    () -> createPublishedNotification(notification, leafNode, groupedItems));
                 // Send the event notification
-                sendEventNotification(notification, nodeSubscriptions);
-                // Remove the added items information
-                event.remove(items);
+                sendEventNotification(itemsNotification, nodeSubscriptions);
             }
         }
         else {
@@ -150,56 +126,76 @@ public class NodeAffiliate implements Cacheable
             }
             Log.trace("Sending publication notification to {} subscription(s)", affectedSubscriptions.size());
 
-            // Add item information to the event notification
-            Element items = event.addElement("items");
-            items.addAttribute("node", leafNode.getUniqueIdentifier().getNodeId());
+            final Message itemsNotification = EventNotificationBatch.share(Arrays.asList(notification, "items", leafNode),
+                () -> {
+                    // Add item information to the event notification
+                    final Message result = notification.createCopy();
+                    final Element items = getEvent(result).addElement("items");
+                    items.addAttribute("node", leafNode.getUniqueIdentifier().getNodeId());
+                    return result;
+                });
             // Send the event notification
-            sendEventNotification(notification, affectedSubscriptions);
-            // Remove the added items information
-            event.remove(items);
+            sendEventNotification(itemsNotification, affectedSubscriptions);
         }
 
-        // TODO this horribly duplicates part of the functionality above. Code-clutter should be reduced.
         // XEP-0136 specifies that all connected resources of the owner of the PEP service should also get a notification.
         if (leafNode.getService() instanceof PEPService) {
             final PEPService service = (PEPService) leafNode.getService();
             final Collection<ClientSession> sessions = SessionManager.getInstance().getSessions(service.getAddress().getNode());
             Log.trace("Sending publication notification to {} session(s) of PEP node owner.", sessions.size());
-            for( final ClientSession session : sessions ) {
-                // Add item information to the event notification
-                Element items = event.addElement("items");
-                items.addAttribute("node", leafNode.getUniqueIdentifier().getNodeId());
-
-                for (PublishedItem publishedItem : publishedItems) {
-                    // FIXME: This was added for compatibility with PEP supporting clients.
-                    //        Alternate solution needed when XEP-0163 version > 1.0 is released.
-                    //
-                    // If the node ID looks like a JID, replace it with the published item's node ID.
-                    if (getNode().getUniqueIdentifier().getNodeId().contains("@")) {
-                        items.addAttribute("node", publishedItem.getNodeID());
-                    }
-
-                    // Add item information to the event notification
-                    Element item = items.addElement("item");
-                    if (leafNode.isItemRequired()) {
-                        item.addAttribute("id", publishedItem.getID());
-                    }
-                    if (leafNode.isPayloadDelivered()) {
-                        item.add(publishedItem.getPayload().createCopy());
-                    }
-                    // Add leaf leafNode information if affiliated leafNode and node
-                    // where the item was published are different
-                    if (leafNode != getNode()) {
-                        item.addAttribute("node", leafNode.getUniqueIdentifier().getNodeId());
-                    }
+            if (!sessions.isEmpty()) {
+                final Message ownerNotification = EventNotificationBatch.share(Arrays.asList(notification, "items", getNode(), leafNode, publishedItems),
+                    () -> createPublishedNotification(notification, leafNode, publishedItems));
+                for( final ClientSession session : sessions ) {
+                    // Send the event notification
+                    service.sendNotification(leafNode, ownerNotification, session.getAddress());
                 }
+            }
+        }
+    }
 
-                // Send the event notification
-                service.sendNotification(leafNode, notification, session.getAddress());
-                // Remove the added items information
-                event.remove(items);
+    /**
+     * Creates an event notification for published items.
+     *
+     * @param notification the message on which the notification is based (which is not modified).
+     * @param leafNode the leaf node where the items where published.
+     * @param publishedItems the items to include in the notification.
+     * @return the event notification.
+     */
+    private Message createPublishedNotification(Message notification, LeafNode leafNode, List<PublishedItem> publishedItems) {
+        final Message result = notification.createCopy();
+
+        // Add items information
+        Element items = getEvent(result).addElement("items");
+        items.addAttribute("node", getNode().getUniqueIdentifier().getNodeId());
+        for (PublishedItem publishedItem : publishedItems) {
+            // FIXME: This was added for compatibility with PEP supporting clients.
+            //        Alternate solution needed when XEP-0163 version > 1.0 is released.
+            //
+            // If the node ID looks like a JID, replace it with the published item's node ID.
+            if (getNode().getUniqueIdentifier().getNodeId().contains("@")) {
+                items.addAttribute("node", publishedItem.getNodeID());
+            }
+
+            // Add item information to the event notification
+            Element item = items.addElement("item");
+            if (leafNode.isItemRequired()) {
+                item.addAttribute("id", publishedItem.getID());
+            }
+            if (leafNode.isPayloadDelivered()) {
+                item.add(publishedItem.getPayload().createCopy());
+            }
+            // Add leaf leafNode information if affiliated leafNode and node
+            // where the item was published are different
+            if (leafNode != getNode()) {
+                item.addAttribute("node", leafNode.getUniqueIdentifier().getNodeId());
             }
         }
+        return result;
+    }
+
+    private static Element getEvent(Message notification) {
+        return notification.getChildElement("event", "http://jabber.org/protocol/pubsub#event");
     }
 
     /**
@@ -209,14 +205,16 @@ public class NodeAffiliate implements Cacheable
      * items were deleted then the affiliate will get a notification for each set
      * of items that affected the same subscriptions.
      *
-     * @param notification the message to sent to the subscribers. The message will be completed
-     *        with the items to include in each notification.
-     * @param event the event Element included in the notification message. Passed as an
-     *        optimization to avoid future look ups.
+     * Each notification is a copy of the provided message, completed with the items to include.
+     * When an {@link EventNotificationBatch} is open, identical notifications are shared with
+     * other affiliates.
+     *
+     * @param notification the message on which the notifications are based. The message must
+     *        contain an empty 'event' element, and is not modified.
      * @param leafNode the leaf node where the items where deleted from.
      * @param publishedItems the list of items that were deleted.
      */
-    void sendDeletionNotifications(Message notification, Element event, LeafNode leafNode,
+    void sendDeletionNotifications(Message notification, LeafNode leafNode,
             List<PublishedItem> publishedItems) {
 
         if (publishedItems.isEmpty()) {
@@ -233,20 +231,23 @@ public class NodeAffiliate implements Cacheable
             final List<PublishedItem> groupedItems = entry.getValue();
             Log.trace("Preparing delete notification batch for {} item(s) to {} subscription(s).", groupedItems.size(), nodeSubscriptions.size());
 
-            // Add items information
-            Element items = event.addElement("items");
-            items.addAttribute("node", leafNode.getUniqueIdentifier().getNodeId());
-            for (PublishedItem publishedItem : itemsBySubs.get(nodeSubscriptions)) {
-                // Add retract information to the event notification
-                Element item = items.addElement("retract");
-                if (leafNode.isItemRequired()) {
-                    item.addAttribute("id", publishedItem.getID());
-                }
-            }
+            final Message retractNotification = EventNotificationBatch.share(Arrays.asList(notification, "retract", leafNode, groupedItems),
+                () -> {
+                    final Message result = notification.createCopy();
+                    // Add items information
+                    Element items = getEvent(result).addElement("items");
+                    items.addAttribute("node", leafNode.getUniqueIdentifier().getNodeId());
+                    for (PublishedItem publishedItem : groupedItems) {
+                        // Add retract information to the event notification
+                        Element item = items.addElement("retract");
+                        if (leafNode.isItemRequired()) {
+                            item.addAttribute("id", publishedItem.getID());
+                        }
+                    }
+                    return result;
+                });
             // Send the event notification
-            sendEventNotification(notification, nodeSubscriptions);
-            // Remove the added items information
-            event.remove(items);
+            sendEventNotification(retractNotification, nodeSubscriptions);
         }
     }
 
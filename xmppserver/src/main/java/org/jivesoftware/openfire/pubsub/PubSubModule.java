@@ -25,6 +25,7 @@ import org.jivesoftware.openfire.container.BasicModule;
 import org.jivesoftware.openfire.disco.*;
 import org.jivesoftware.openfire.entitycaps.EntityCapabilities;
 import org.jivesoftware.openfire.entitycaps.EntityCapabilitiesListener;
+import org.jivesoftware.openfire.nio.PreSerializedStanza;
 import org.jivesoftware.openfire.pubsub.models.AccessModel;
 import org.jivesoftware.openfire.pubsub.models.PublisherModel;
 import org.jivesoftware.util.*;
@@ -762,10 +763,13 @@ public class PubSubModule extends BasicModule implements ServerItemsProvider, Di
     public void broadcast(Node node, Message message, Collection<JID> jids) {
         // TODO Possibly use a thread pool for sending packets (based on the jids size)
         message.setFrom(getAddress());
-        for (JID jid : jids) {
-            message.setTo(jid);
-            message.setID(StringUtils.randomString(8));
-            router.route(message);
+        // Only the 'to' address and ID differ between recipients: serialize the stanza once.
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(message)) {
+            for (JID jid : jids) {
+                message.setTo(jid);
+                message.setID(StringUtils.randomString(8));
+                router.route(message);
+            }
         }
     }
 
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.pubsub;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Buffers changes to published items, until these are written to the database.
+ *
+ * Changes are kept per node, keyed by the unique identifier of the item. A change to an item replaces any pending
+ * change to the same item, so that only the last change is written. The changes of a node are written in one
+ * invocation of the writer, which (for the default persistence provider) is one database transaction that uses
+ * batched statements.
+ *
+ * While the changes of a node are being written, other attempts to write changes of the same node block. This ensures
+ * that a thread that flushes a node before it reads the items of that node from the database observes all changes that
+ * preceded the flush.
+ */
+public class PublishedItemWriteBehind implements PublishedItemWriteBehindMBean
+{
+    private static final Logger Log = LoggerFactory.getLogger(PublishedItemWriteBehind.class);
+
+    /**
+     * Estimated number of bytes used by a pending change, excluding the payload of the item.
+     */
+    static final int CHANGE_OVERHEAD_BYTES = 256;
+
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Writes changes to the database. The first argument are the items to be saved, the second argument are the items
+     * to be removed.
+     */
+    private final BiConsumer<List<PublishedItem>, List<PublishedItem>> writer;
+
+    /**
+     * Pending changes, by node. Guarded by 'this'.
+     */
+    private final Map<Node.UniqueIdentifier, NodeChanges> pending = new HashMap<>();
+    private int pendingItems = 0;
+    private long pendingBytes = 0;
+
+    /**
+     * Serializes the writing of changes of the same node.
+     */
+    private final ReentrantLock[] flushLocks = new ReentrantLock[LOCK_STRIPES];
+
+    private final LongAdder flushedItems = new LongAdder();
+    private final LongAdder nodeFlushes = new LongAdder();
+    private final LongAdder backpressureFlushes = new LongAdder();
+    private final AtomicLong lastFlushDurationNanos = new AtomicLong();
+
+    PublishedItemWriteBehind(@Nonnull final BiConsumer<List<PublishedItem>, List<PublishedItem>> writer)
+    {
+        this.writer = writer;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            flushLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Queues an item to be saved, replacing any pending change to the same item.
+     *
+     * @param item the item to save.
+     */
+    void save(@Nonnull final PublishedItem item)
+    {
+        final String payload = item.getPayloadXML();
+        enqueue(item, false, CHANGE_OVERHEAD_BYTES + (payload == null ? 0 : 2L * payload.length()));
+    }
+
+    /**
+     * Queues an item to be removed, replacing any pending change to the same item.
+     *
+     * @param item the item to remove.
+     */
+    void remove(@Nonnull final PublishedItem item)
+    {
+        enqueue(item, true, CHANGE_OVERHEAD_BYTES);
+    }
+
+    private synchronized void enqueue(@Nonnull final PublishedItem item, final boolean remove, final long bytes)
+    {
+        final NodeChanges changes = pending.computeIfAbsent(item.getNode().getUniqueIdentifier(), id -> new NodeChanges());
+        final Change previous = changes.items.put(item.getUniqueIdentifier(), new Change(item, remove, bytes));
+        if (previous == null) {
+            pendingItems++;
+        } else {
+            pendingBytes -= previous.bytes;
+        }
+        pendingBytes += bytes;
+    }
+
+    /**
+     * Discards all pending changes of a node, without writing them.
+     *
+     * @param nodeIdentifier the node of which to discard the changes.
+     */
+    void discard(@Nonnull final Node.UniqueIdentifier nodeIdentifier)
+    {
+        final ReentrantLock lock = lockFor(nodeIdentifier);
+        lock.lock();
+        try {
+            take(nodeIdentifier);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending changes of a node. When the changes of the node are being written by another thread, this
+     * method waits for that to complete.
+     *
+     * @param nodeIdentifier the node of which to write the changes.
+     */
+    void flush(@Nonnull final Node.UniqueIdentifier nodeIdentifier)
+    {
+        final ReentrantLock lock = lockFor(nodeIdentifier);
+        lock.lock();
+        try {
+            final NodeChanges changes = take(nodeIdentifier);
+            if (changes == null || changes.items.isEmpty()) {
+                return;
+            }
+
+            final List<PublishedItem> addList = new ArrayList<>();
+            final List<PublishedItem> delList = new ArrayList<>();
+            for (final Change change : changes.items.values()) {
+                (change.remove ? delList : addList).add(change.item);
+            }
+            Log.trace("Writing {} saved and {} removed items of node {}", addList.size(), delList.size(), nodeIdentifier);
+            writer.accept(addList, delList);
+            flushedItems.add(changes.items.size());
+            nodeFlushes.increment();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending changes of all nodes, one node at a time.
+     */
+    void flushAll()
+    {
+        final List<Node.UniqueIdentifier> nodes;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            nodes = new ArrayList<>(pending.keySet());
+        }
+
+        final long start = System.nanoTime();
+        for (final Node.UniqueIdentifier node : nodes) {
+            try {
+                flush(node);
+            } catch (final RuntimeException e) {
+                Log.error("Unable to write the pending changes to published items of node {}", node, e);
+            }
+        }
+        lastFlushDurationNanos.set(System.nanoTime() - start);
+    }
+
+    /**
+     * Writes the pending changes of all nodes on behalf of a thread that is to wait because the pending changes exceed
+     * their memory limit.
+     */
+    void flushForBackpressure()
+    {
+        backpressureFlushes.increment();
+        flushAll();
+    }
+
+    private synchronized NodeChanges take(@Nonnull final Node.UniqueIdentifier nodeIdentifier)
+    {
+        final NodeChanges changes = pending.remove(nodeIdentifier);
+        if (changes != null) {
+            pendingItems -= changes.items.size();
+            for (final Change change : changes.items.values()) {
+                pendingBytes -= change.bytes;
+            }
+        }
+        return changes;
+    }
+
+    @Nonnull
+    private ReentrantLock lockFor(@Nonnull final Node.UniqueIdentifier nodeIdentifier)
+    {
+        return flushLocks[(nodeIdentifier.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    @Override
+    public synchronized int getPendingItems()
+    {
+        return pendingItems;
+    }
+
+    @Override
+    public synchronized int getPendingNodes()
+    {
+        return pending.size();
+    }
+
+    @Override
+    public synchronized long getPendingBytes()
+    {
+        return pendingBytes;
+    }
+
+    @Override
+    public long getFlushLagMillis()
+    {
+        long oldest = 0;
+        boolean found = false;
+        synchronized (this) {
+            for (final NodeChanges changes : pending.values()) {
+                if (!found || changes.created - oldest < 0) {
+                    oldest = changes.created;
+                    found = true;
+                }
+            }
+        }
+        return found ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest) : 0;
+    }
+
+    @Override
+    public long getLastFlushDurationMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(lastFlushDurationNanos.get());
+    }
+
+    @Override
+    public long getFlushedItems()
+    {
+        return flushedItems.sum();
+    }
+
+    @Override
+    public long getNodeFlushes()
+    {
+        return nodeFlushes.sum();
+    }
+
+    @Override
+    public long getBackpressureFlushes()
+    {
+        return backpressureFlushes.sum();
+    }
+
+    /**
+     * The pending changes of one node.
+     */
+    private static class NodeChanges
+    {
+        /**
+         * The time (as in {@link System#nanoTime()}) at which the oldest pending change of the node was queued.
+         */
+        final long created = System.nanoTime();
+        final LinkedHashMap<PublishedItem.UniqueIdentifier, Change> items = new LinkedHashMap<>();
+    }
+
+    /**
+     * A pending change to a published item.
+     */
+    private static class Change
+    {
+        final PublishedItem item;
+        final boolean remove;
+        final long bytes;
+
+        Change(@Nonnull final PublishedItem item, final boolean remove, final long bytes)
+        {
+            this.item = item;
+            this.remove = remove;
+            this.bytes = bytes;
+        }
+    }
+}
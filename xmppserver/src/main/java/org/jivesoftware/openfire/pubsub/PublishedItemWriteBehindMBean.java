@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.pubsub;
+
+/**
+ * MBean definition for the buffer of changes to published items that have not yet been written to the database (as
+ * implemented by {@link PublishedItemWriteBehind}).
+ */
+public interface PublishedItemWriteBehindMBean
+{
+    String OBJECT_NAME = "org.igniterealtime.openfire:type=PubSubWriteBehind";
+
+    /**
+     * Returns the number of published items that have been saved or removed, but of which the change has not yet been
+     * written to the database.
+     *
+     * @return the number of pending changes.
+     */
+    int getPendingItems();
+
+    /**
+     * Returns the number of nodes that have pending changes.
+     *
+     * @return the number of nodes.
+     */
+    int getPendingNodes();
+
+    /**
+     * Returns the (estimated) number of bytes of memory that is used by pending changes.
+     *
+     * @return a size in bytes.
+     */
+    long getPendingBytes();
+
+    /**
+     * Returns the age (in milliseconds) of the oldest change that has not yet been written to the database.
+     *
+     * @return a duration in milliseconds, or 0 when there are no pending changes.
+     */
+    long getFlushLagMillis();
+
+    /**
+     * Returns the duration (in milliseconds) of the most recent flush of all nodes.
+     *
+     * @return a duration in milliseconds.
+     */
+    long getLastFlushDurationMillis();
+
+    /**
+     * Returns the total number of changes that have been written to the database.
+     *
+     * @return the number of written changes.
+     */
+    long getFlushedItems();
+
+    /**
+     * Returns the total number of times that the changes of a node were written to the database.
+     *
+     * @return the number of node flushes.
+     */
+    long getNodeFlushes();
+
+    /**
+     * Returns the number of times that a thread that saved an item had to wait for pending changes to be written,
+     * because the pending changes exceeded the maximum amount of memory that they are allowed to use.
+     *
+     * @return the number of flushes caused by backpressure.
+     */
+    long getBackpressureFlushes();
+}
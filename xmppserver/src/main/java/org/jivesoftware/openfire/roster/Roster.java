@@ -579,7 +579,8 @@ public class Roster implements Cacheable, Externalizable {
             // No privacy list was found (based on the session) so check if there is a default list
             list = PrivacyListManager.getInstance().getDefaultPrivacyList(username);
         }
-        // Broadcast presence to subscribed entities
+        // Collect the subscribed entities, and route the presence to all of them at once.
+        final Set<JID> recipients = new LinkedHashSet<>();
         for (RosterItem item : rosterItems.values()) {
             if (item.getSubStatus() == RosterItem.SUB_BOTH || item.getSubStatus() == RosterItem.SUB_FROM) {
                 packet.setTo(item.getJid());
@@ -587,16 +588,7 @@ public class Roster implements Cacheable, Externalizable {
                     // Outgoing presence notifications are blocked for this contact
                     continue;
                 }
-                JID searchNode = new JID(item.getJid().getNode(), item.getJid().getDomain(), null, true);
-                final List<JID> routingTableRoutes = routingTable.getRoutes(searchNode, null);
-                for (JID jid : routingTableRoutes) {
-                    try {
-                        routingTable.routePacket(jid, packet);
-                    } catch (Exception e) {
-                        // Theoretically only happens if session has been closed.
-                        Log.debug(e.getMessage(), e);
-                    }
-                }
+                recipients.add(new JID(item.getJid().getNode(), item.getJid().getDomain(), null, true));
             }
         }
         // Broadcast presence to shared contacts whose subscription status is FROM
@@ -614,17 +606,10 @@ public class Roster implements Cacheable, Externalizable {
                 // Outgoing presence notifications are blocked for this contact
                 continue;
             }
-
-            final List<JID> routingTableRoutes = routingTable.getRoutes(new JID(contact), null);
-            for (JID jid : routingTableRoutes) {
-                try {
-                    routingTable.routePacket(jid, packet);
-                } catch (Exception e) {
-                    // Theoretically only happens if session has been closed.
-                    Log.debug(e.getMessage(), e);
-                }
-            }
+            recipients.add(new JID(contact));
         }
+        // Failures to deliver to a recipient are handled per recipient.
+        routingTable.broadcastPresence(packet, recipients);
         if (from != null) {
             // Broadcast presence to all resources of the user.
             SessionManager.getInstance().broadcastPresenceToResources( from, packet);
@@ -22,6 +22,8 @@ import org.jivesoftware.openfire.RoutableChannelHandler;
 import org.jivesoftware.openfire.RoutingTable;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.cluster.NodeID;
+import org.jivesoftware.openfire.net.DNSResolver;
+import org.jivesoftware.openfire.nio.NettySessionInitializer;
 import org.jivesoftware.openfire.session.ConnectionSettings;
 import org.jivesoftware.openfire.session.DomainPair;
 import org.jivesoftware.openfire.session.LocalOutgoingServerSession;
@@ -37,10 +39,12 @@ import org.slf4j.LoggerFactory;
 import org.xmpp.packet.*;
 
 import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 
 /**
@@ -48,10 +52,13 @@ import java.util.concurrent.locks.Lock;
  * When looking for a route to a remote server that does not have an existing connection, a session
  * promise is returned.<p>
  *
- * This class will queue packets and process them in another thread. The processing thread will
- * use a pool of thread that will actually do the hard work. The threads in the pool will try
- * to connect to remote servers and deliver the packets. If an error occurred while establishing
- * the connection or sending the packet an error will be returned to the sender of the packet.
+ * This class will queue packets while the connection is being established. Establishing a connection does not block
+ * the thread that routes the packets: the connection is established asynchronously, using a pool of threads only for
+ * the steps that can block (such as DNS look-ups, or authenticating an additional domain over an existing connection).
+ * When the connection has been established, the queued packets are delivered. If an error occurred while establishing
+ * the connection or sending the packet an error will be returned to the sender of the packet.<p>
+ *
+ * The amount of data that can be queued for each pair of domains is limited by {@link #QUEUE_MAX_BYTES}.
  *
  * @author Gaston Dombiak, Dave Cridland, Guus der Kinderen
  */
@@ -63,9 +70,13 @@ public class OutgoingSessionPromise {
         .setKey(ConnectionSettings.Server.QUEUE_MAX_THREADS)
         .setDynamic(false)
         .setDefaultValue(20)
-        .setMinValue(0) // RejectedExecutionHandler is CallerRunsPolicy, meaning that the calling thread would execute the task.
+        .setMinValue(1)
         .build();
 
+    /**
+     * @deprecated Threads are only kept while they are needed (see {@link #QUEUE_THREAD_TIMEOUT}). This property is no longer used.
+     */
+    @Deprecated
     public static final SystemProperty<Integer> QUEUE_MIN_THREADS = SystemProperty.Builder.ofType(Integer.class)
         .setKey(ConnectionSettings.Server.QUEUE_MIN_THREADS)
         .setDynamic(false)
@@ -73,6 +84,10 @@ public class OutgoingSessionPromise {
         .setMinValue(0)
         .build();
 
+    /**
+     * @deprecated The amount of queued data is limited by {@link #QUEUE_MAX_BYTES}. This property is no longer used.
+     */
+    @Deprecated
     public static final SystemProperty<Integer> QUEUE_SIZE = SystemProperty.Builder.ofType(Integer.class)
         .setKey(ConnectionSettings.Server.QUEUE_SIZE)
         .setDynamic(false)
@@ -80,6 +95,17 @@ public class OutgoingSessionPromise {
         .setMinValue(0)
         .build();
 
+    /**
+     * The maximum amount of data (in bytes, as the length of the UTF-8 encoded serialization of the stanzas) that is
+     * queued for a pair of domains while an outbound server-to-server connection between them is being established.
+     */
+    public static final SystemProperty<Long> QUEUE_MAX_BYTES = SystemProperty.Builder.ofType(Long.class)
+        .setKey(ConnectionSettings.Server.QUEUE_MAX_BYTES)
+        .setDynamic(true)
+        .setDefaultValue(1024L * 1024L)
+        .setMinValue(0L)
+        .build();
+
     public static final SystemProperty<Duration> QUEUE_THREAD_TIMEOUT = SystemProperty.Builder.ofType(Duration.class)
         .setKey("xmpp.server.outgoing.threads-timeout")
         .setDynamic(false)
@@ -93,8 +119,8 @@ public class OutgoingSessionPromise {
     private final Interner<DomainPair> interner = Interners.newWeakInterner();
 
     /**
-     * Pool of threads that will create outgoing sessions to remote servers and send
-     * the queued packets.
+     * Pool of threads that performs the steps of creating outgoing sessions to remote servers that can block, and
+     * that sends the queued packets.
      */
     private ThreadPoolExecutor threadPool;
 
@@ -117,12 +143,13 @@ public class OutgoingSessionPromise {
         serversCache = CacheFactory.createCache(RoutingTableImpl.S2S_CACHE_NAME);
         routingTable = XMPPServer.getInstance().getRoutingTable();
 
-        // Create a pool of threads that will process queued packets.
-        threadPool = new ThreadPoolExecutor(QUEUE_MIN_THREADS.getValue(), QUEUE_MAX_THREADS.getValue(),
+        // Create a pool of threads that will process queued packets. Tasks that are submitted while all threads are busy
+        // are queued, rather than being executed by the (routing) thread that submits them.
+        threadPool = new ThreadPoolExecutor(QUEUE_MAX_THREADS.getValue(), QUEUE_MAX_THREADS.getValue(),
                         QUEUE_THREAD_TIMEOUT.getValue().toMillis(), TimeUnit.MILLISECONDS,
-                        new SynchronousQueue<>(),
-                        new NamedThreadFactory("S2SOutgoingPromise-", Executors.defaultThreadFactory(), false, Thread.NORM_PRIORITY),
-                        new ThreadPoolExecutor.CallerRunsPolicy());
+                        new LinkedBlockingQueue<>(),
+                        new NamedThreadFactory("S2SOutgoingPromise-", Executors.defaultThreadFactory(), false, Thread.NORM_PRIORITY));
+        threadPool.allowCoreThreadTimeOut(true);
     }
 
     public static OutgoingSessionPromise getInstance() {
@@ -135,6 +162,8 @@ public class OutgoingSessionPromise {
      */
     public void shutdown() {
         threadPool.shutdown();
+        NettySessionInitializer.shutdownWorkerGroup();
+        DNSResolver.shutdownInstance();
     }
 
     /**
@@ -167,7 +196,7 @@ public class OutgoingSessionPromise {
         } else {
             Log.debug("Created new PacketProcessor for {}", domainPair);
             packetsProcessor.addPacket(packet);
-            threadPool.execute(packetsProcessor);
+            packetsProcessor.start();
         }
     }
 
@@ -222,7 +251,11 @@ public class OutgoingSessionPromise {
         return processor != null && !processor.isDone();
     }
 
-    private class PacketsProcessor implements Runnable
+    /**
+     * Establishes a connection for a pair of domains, queuing stanzas until that is done. Establishing the connection
+     * consists of asynchronous steps: the processor does not occupy a thread while waiting for the remote domain.
+     */
+    private class PacketsProcessor
     {
         private final Logger Log = LoggerFactory.getLogger( PacketsProcessor.class );
 
@@ -230,23 +263,79 @@ public class OutgoingSessionPromise {
         private final DomainPair domainPair;
 
         @Nonnull
-        private final Queue<Packet> packetQueue = new ArrayBlockingQueue<>( QUEUE_SIZE.getValue() );
+        private final Queue<Packet> packetQueue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The size (in bytes) of the stanzas in {@link #packetQueue}, as calculated by {@link #sizeOf(Packet)}.
+         */
+        private final AtomicLong queuedBytes = new AtomicLong();
 
         public PacketsProcessor(@Nonnull final DomainPair domainPair) {
             this.domainPair = domainPair;
         }
 
-        @Override
-        public void run() {
+        /**
+         * Starts establishing the connection. This method returns immediately.
+         */
+        void start() {
             Log.debug("Start for {}", domainPair);
-            RoutableChannelHandler channel;
             try {
-                channel = establishConnection();
+                threadPool.execute(this::establishConnection);
+            } catch (RejectedExecutionException e) {
+                Log.warn("Unable to establish a connection for {}: the server is shutting down.", domainPair);
+                deliverQueuedPackets(null);
+            }
+        }
+
+        /**
+         * Starts the domain authentication, which will establish a new connection if required. The stanzas that are
+         * queued are delivered when that has finished.
+         */
+        private void establishConnection() {
+            Log.debug("Start establishing a connection for {}", domainPair);
+            CompletableFuture<Boolean> created;
+            // Make sure that only one cluster node is creating the outgoing connection. The lock is held while it is
+            // determined if an existing connection can be used, but not while a new connection is being established (as
+            // that is not done by this thread). Within this cluster node, this processor prevents concurrent attempts.
+            // When a new connection has been established, the lock is obtained again, to check that no other connection
+            // was registered in the meantime, before the new connection is registered.
+            final Lock lock = serversCache.getLock(domainPair);
+            lock.lock();
+            try {
+                created = LocalOutgoingServerSession.authenticateDomainAsync(domainPair, threadPool);
             } catch (Exception e) {
-                Log.warn("An exception occurred while trying to establish a connection for {}", domainPair, e);
-                channel = null;
+                created = CompletableFuture.failedFuture(e);
+            } finally {
+                lock.unlock();
             }
 
+            created.whenCompleteAsync((result, throwable) -> {
+                RoutableChannelHandler channel = null;
+                if (throwable != null) {
+                    Log.warn("An exception occurred while trying to establish a connection for {}", domainPair, throwable);
+                } else if (!Boolean.TRUE.equals(result)) {
+                    Log.warn("Failed to create connection to remote server for {}", domainPair);
+                } else {
+                    // The route can be hosted by another cluster node, when that node registered a connection while this
+                    // node was establishing one.
+                    final OutgoingServerSession serverRoute = routingTable.getServerRoute(domainPair);
+                    if (serverRoute == null) {
+                        Log.warn("Route created for {} but not found!!!", domainPair);
+                    } else {
+                        channel = serverRoute;
+                    }
+                }
+                deliverQueuedPackets(channel);
+            }, threadPool);
+        }
+
+        /**
+         * Delivers (or, when no connection was established, bounces) all queued stanzas, after which this processor is
+         * removed.
+         *
+         * @param channel The established connection, or null if no connection could be established.
+         */
+        private void deliverQueuedPackets(final RoutableChannelHandler channel) {
             // After the connection has been established (or failed), process all queued stanzas. Ensure that no more
             // stanzas are queued while we process the queue, by first synchronizing on the same mutex that should be
             // used to guards #queue(). That will cause to-be-queued stanzas to be sent directly over the now
@@ -270,6 +359,7 @@ public class OutgoingSessionPromise {
                         returnErrorToSender(packet);
                     }
                 }
+                queuedBytes.set(0);
 
                 // Remove the processor to ensure that it cannot accept new stanzas to be queued.
                 packetsProcessors.remove(domainPair);
@@ -277,31 +367,6 @@ public class OutgoingSessionPromise {
             Log.trace("Finished processing {}", domainPair);
         }
 
-        private RoutableChannelHandler establishConnection() throws Exception {
-            Log.debug("Start establishing a connection for {}", domainPair);
-            // Create a connection to the remote server from the domain where the packet has been sent
-            boolean created;
-            // Make sure that only one cluster node is creating the outgoing connection
-            final Lock lock = serversCache.getLock(domainPair);
-            lock.lock();
-            try {
-                created = LocalOutgoingServerSession.authenticateDomain(domainPair);
-            } finally {
-                lock.unlock();
-            }
-            if (created) {
-                final OutgoingServerSession serverRoute = routingTable.getServerRoute(domainPair);
-                if (serverRoute == null || !(serverRoute instanceof LocalOutgoingServerSession)) {
-                    throw new Exception("Route created but not found!!!");
-                } else {
-                    return serverRoute;
-                }
-            }
-            else {
-                throw new Exception("Failed to create connection to remote server");
-            }
-        }
-
         /**
          * Processes stanzas that could not be delivered to a remote domain, by generating error responses where
          * appropriate.
@@ -396,16 +461,23 @@ public class OutgoingSessionPromise {
             if (!packet.getTo().getDomain().equals(domainPair.getRemote())) {
                 throw new IllegalArgumentException("Cannot queue packet to intended recipient '" + packet.getTo() + "' in the outgoing session promise to domain " + domainPair + ". Remote domain does not match!");
             }
-            Log.trace("Queuing stanza to intended recipient '{}' in the outgoing session promise to domain '{}': {}", packet.getTo(), domainPair, packet.toXML());
+            if (Log.isTraceEnabled()) {
+                Log.trace("Queuing stanza to intended recipient '{}' in the outgoing session promise to domain '{}': {}", packet.getTo(), domainPair, packet.toXML());
+            }
 
             // When queuing for async processing, ensure that the queued stanza is not modified by reference, by queuing
             // a defensive copy rather than the original. Modifications of the original can be expected in broadcast-like
             // scenarios (eg: MUC) where the same stanza is re-addressed for each intended recipient. See OF-2344.
-            if (!packetQueue.offer(packet.createCopy()))
-            {
-                Log.debug("Error sending packet in the outgoing session promise for {}. (outbound queue full): {}", domainPair, packet);
+            final Packet copy = packet.createCopy();
+
+            // Limit the amount of queued data, rather than the amount of stanzas (that can vary greatly in size).
+            final long maxBytes = QUEUE_MAX_BYTES.getValue();
+            if (!reserve(queuedBytes, sizeOf(copy), maxBytes)) {
+                Log.debug("Error sending packet in the outgoing session promise for {}. (outbound queue full: {} bytes): {}", domainPair, maxBytes, packet);
                 returnErrorToSender(packet);
+                return;
             }
+            packetQueue.offer(copy);
         }
 
         @Nonnull
@@ -417,4 +489,35 @@ public class OutgoingSessionPromise {
             return packetQueue.isEmpty();
         }
     }
+
+    /**
+     * Returns the size (in bytes) of a stanza, as counted against {@link #QUEUE_MAX_BYTES}: the length of its UTF-8
+     * encoded serialization.
+     *
+     * @param packet The stanza for which to return the size.
+     * @return the size of the stanza, in bytes.
+     */
+    // @VisibleForTesting
+    static long sizeOf(@Nonnull final Packet packet) {
+        return packet.toXML().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Adds the size of a stanza to the amount of data that is queued, unless that would cause the queue to exceed its
+     * maximum size. A single stanza is always accepted when nothing is queued, even if it is larger than that maximum.
+     *
+     * @param queuedBytes The amount of data (in bytes) that is queued.
+     * @param size The size (in bytes) of the stanza that is to be queued.
+     * @param maxBytes The maximum amount of data (in bytes) that can be queued.
+     * @return true if the stanza can be queued, false if the queue is full.
+     */
+    // @VisibleForTesting
+    static boolean reserve(@Nonnull final AtomicLong queuedBytes, final long size, final long maxBytes) {
+        final long total = queuedBytes.addAndGet(size);
+        if (total > maxBytes && total != size) {
+            queuedBytes.addAndGet(-size);
+            return false;
+        }
+        return true;
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.session;
+
+import org.jivesoftware.openfire.cluster.NodeID;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.xmpp.packet.JID;
+
+import javax.annotation.Nonnull;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Date;
+
+/**
+ * The characteristics of a client session by which sessions can be filtered and sorted (see
+ * {@link org.jivesoftware.openfire.SessionResultFilter}), together with the cluster node that hosts the session.
+ *
+ * Cluster nodes exchange these summaries when they collectively evaluate a session query, so that a session needs to be
+ * looked up only when it is part of the result.
+ */
+public class ClientSessionSummary implements Externalizable {
+    private JID address;
+    private NodeID nodeID;
+    private boolean anonymous;
+    private long creationDate;
+    private long lastActiveDate;
+    private long numClientPackets;
+    private long numServerPackets;
+
+    public ClientSessionSummary() {
+    }
+
+    public ClientSessionSummary(@Nonnull final ClientSession session, @Nonnull final NodeID nodeID) {
+        this.address = session.getAddress();
+        this.nodeID = nodeID;
+        this.anonymous = session.isAnonymousUser();
+        this.creationDate = session.getCreationDate().getTime();
+        this.lastActiveDate = session.getLastActiveDate().getTime();
+        this.numClientPackets = session.getNumClientPackets();
+        this.numServerPackets = session.getNumServerPackets();
+    }
+
+    public JID getAddress() {
+        return address;
+    }
+
+    public NodeID getNodeID() {
+        return nodeID;
+    }
+
+    public boolean isAnonymous() {
+        return anonymous;
+    }
+
+    public Date getCreationDate() {
+        return new Date(creationDate);
+    }
+
+    public Date getLastActiveDate() {
+        return new Date(lastActiveDate);
+    }
+
+    public long getNumClientPackets() {
+        return numClientPackets;
+    }
+
+    public long getNumServerPackets() {
+        return numServerPackets;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientSessionSummary{address=" + address + ", nodeID=" + nodeID + '}';
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        ExternalizableUtil.getInstance().writeSerializable(out, address);
+        ExternalizableUtil.getInstance().writeByteArray(out, nodeID.toByteArray());
+        ExternalizableUtil.getInstance().writeBoolean(out, anonymous);
+        ExternalizableUtil.getInstance().writeLong(out, creationDate);
+        ExternalizableUtil.getInstance().writeLong(out, lastActiveDate);
+        ExternalizableUtil.getInstance().writeLong(out, numClientPackets);
+        ExternalizableUtil.getInstance().writeLong(out, numServerPackets);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        address = (JID) ExternalizableUtil.getInstance().readSerializable(in);
+        nodeID = NodeID.getInstance(ExternalizableUtil.getInstance().readByteArray(in));
+        anonymous = ExternalizableUtil.getInstance().readBoolean(in);
+        creationDate = ExternalizableUtil.getInstance().readLong(in);
+        lastActiveDate = ExternalizableUtil.getInstance().readLong(in);
+        numClientPackets = ExternalizableUtil.getInstance().readLong(in);
+        numServerPackets = ExternalizableUtil.getInstance().readLong(in);
+    }
+}
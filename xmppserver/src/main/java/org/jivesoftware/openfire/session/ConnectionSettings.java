@@ -95,6 +95,7 @@ public final class ConnectionSettings {
         public static final String QUEUE_MAX_THREADS = "xmpp.server.outgoing.max.threads";
         public static final String QUEUE_MIN_THREADS = "xmpp.server.outgoing.min.threads";
         public static final String QUEUE_SIZE = "xmpp.server.outgoing.queue";
+        public static final String QUEUE_MAX_BYTES = "xmpp.server.outgoing.queue.max-bytes";
 
         public static final String DIALBACK_ENABLED = "xmpp.server.dialback.enabled";
         public static final String TLS_POLICY = "xmpp.server.tls.policy";
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.session;
+
+import org.jivesoftware.openfire.SessionManager;
+import org.jivesoftware.openfire.SessionResultFilter;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Task that will be executed in cluster nodes to get the summaries of the client sessions hosted by the cluster node
+ * that match a filter. Of these, only those sessions are returned that (based on the sort order and pagination of the
+ * filter) can be part of the result of the query in the cluster as a whole.
+ */
+public class GetClientSessionSummariesTask implements ClusterTask<ArrayList<ClientSessionSummary>> {
+    private SessionResultFilter filter;
+    private ArrayList<ClientSessionSummary> result;
+
+    public GetClientSessionSummariesTask() {
+    }
+
+    public GetClientSessionSummariesTask(SessionResultFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public ArrayList<ClientSessionSummary> getResult() {
+        return result;
+    }
+
+    @Override
+    public void run() {
+        result = new ArrayList<>(SessionManager.getInstance().getLocalSessionSummaries(filter));
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        ExternalizableUtil.getInstance().writeInt(out, filter.getSortField());
+        ExternalizableUtil.getInstance().writeInt(out, filter.getSortOrder());
+        ExternalizableUtil.getInstance().writeInt(out, filter.getStartIndex());
+        ExternalizableUtil.getInstance().writeInt(out, filter.getNumResults());
+        ExternalizableUtil.getInstance().writeBoolean(out, filter.getUsername() != null);
+        if (filter.getUsername() != null) {
+            ExternalizableUtil.getInstance().writeSafeUTF(out, filter.getUsername());
+        }
+        writeDate(out, filter.getCreationDateRangeMin());
+        writeDate(out, filter.getCreationDateRangeMax());
+        writeDate(out, filter.getLastActivityDateRangeMin());
+        writeDate(out, filter.getLastActivityDateRangeMax());
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        filter = new SessionResultFilter();
+        filter.setSortField(ExternalizableUtil.getInstance().readInt(in));
+        filter.setSortOrder(ExternalizableUtil.getInstance().readInt(in));
+        filter.setStartIndex(ExternalizableUtil.getInstance().readInt(in));
+        filter.setNumResults(ExternalizableUtil.getInstance().readInt(in));
+        if (ExternalizableUtil.getInstance().readBoolean(in)) {
+            filter.setUsername(ExternalizableUtil.getInstance().readSafeUTF(in));
+        }
+        filter.setCreationDateRangeMin(readDate(in));
+        filter.setCreationDateRangeMax(readDate(in));
+        filter.setLastActivityDateRangeMin(readDate(in));
+        filter.setLastActivityDateRangeMax(readDate(in));
+    }
+
+    private static void writeDate(ObjectOutput out, Date date) throws IOException {
+        ExternalizableUtil.getInstance().writeBoolean(out, date != null);
+        if (date != null) {
+            ExternalizableUtil.getInstance().writeLong(out, date.getTime());
+        }
+    }
+
+    private static Date readDate(ObjectInput in) throws IOException {
+        if (ExternalizableUtil.getInstance().readBoolean(in)) {
+            return new Date(ExternalizableUtil.getInstance().readLong(in));
+        }
+        return null;
+    }
+}
@@ -28,6 +28,7 @@ import org.jivesoftware.openfire.cluster.ClusterManager;
 import org.jivesoftware.openfire.csi.CsiManager;
 import org.jivesoftware.openfire.entitycaps.EntityCapabilitiesManager;
 import org.jivesoftware.openfire.net.SASLAuthentication;
+import org.jivesoftware.openfire.nio.PreSerializedStanza;
 import org.jivesoftware.openfire.nio.XMLLightweightParser;
 import org.jivesoftware.openfire.privacy.PrivacyList;
 import org.jivesoftware.openfire.privacy.PrivacyListManager;
@@ -941,10 +942,13 @@ public class LocalClientSession extends LocalSession implements ClientSession {
         {
             // Push stanzas to the client.
             for (final Packet stanzaToPush : stanzasToPush) {
-                if (conn != null) {
-                    conn.deliver(stanzaToPush);
+                // When stanzas are kept until they are acknowledged, serialize them only once for both purposes.
+                try (final PreSerializedStanza.Scope ignored = streamManager.isEnabled() ? PreSerializedStanza.open(stanzaToPush) : null) {
+                    if (conn != null) {
+                        conn.deliver(stanzaToPush);
+                    }
+                    streamManager.sentStanza(stanzaToPush);
                 }
-                streamManager.sentStanza(stanzaToPush);
             }
         }
     }
@@ -21,6 +21,7 @@ import com.google.common.collect.Interners;
 import org.dom4j.Element;
 import org.jivesoftware.openfire.*;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
+import org.jivesoftware.openfire.net.DNSUtil;
 import org.jivesoftware.openfire.event.ServerSessionEventDispatcher;
 import org.jivesoftware.openfire.nio.NettySessionInitializer;
 import org.jivesoftware.openfire.server.OutgoingServerSocketReader;
@@ -29,8 +30,10 @@ import org.jivesoftware.openfire.server.ServerDialback;
 import org.jivesoftware.openfire.spi.ConnectionConfiguration;
 import org.jivesoftware.openfire.spi.ConnectionListener;
 import org.jivesoftware.openfire.spi.ConnectionType;
+import org.jivesoftware.openfire.spi.RoutingTableImpl;
 import org.jivesoftware.util.SystemProperty;
 import org.jivesoftware.util.TaskEngine;
+import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.*;
@@ -42,7 +45,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -102,8 +109,26 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
      *
      * @param domainPair the local and remote domain for which authentication is to be established.
      * @return True if the domain was authenticated by the remote server.
+     * @see #authenticateDomainAsync(DomainPair, Executor)
      */
     public static boolean authenticateDomain(final DomainPair domainPair) {
+        return authenticateDomainAsync(domainPair, TaskEngine.getInstance()::submit).join();
+    }
+
+    /**
+     * Authenticates the local domain to the remote domain, like {@link #authenticateDomain(DomainPair)}, without waiting
+     * for a new connection to be established.
+     *
+     * Re-using an existing connection is done by the calling thread (and can block, as Server Dialback is used to
+     * authenticate the domain over that connection). When a new connection is needed, this method returns as soon as
+     * establishing the connection has started. Operations that can block while doing so (DNS look-ups) are performed
+     * on the provided executor.
+     *
+     * @param domainPair the local and remote domain for which authentication is to be established.
+     * @param blockingExecutor the executor on which operations that can block are performed.
+     * @return A future that provides true if the domain was authenticated by the remote server.
+     */
+    public static CompletableFuture<Boolean> authenticateDomainAsync(final DomainPair domainPair, final Executor blockingExecutor) {
         final String localDomain = domainPair.getLocal();
         final String remoteDomain = domainPair.getRemote();
         final Logger log = LoggerFactory.getLogger( Log.getName() + "[Authenticate local domain: '" + localDomain + "' to remote domain: '" + remoteDomain + "']" );
@@ -112,13 +137,13 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
         if (remoteDomain == null || remoteDomain.length() == 0 || remoteDomain.trim().indexOf(' ') > -1) {
             // Do nothing if the target domain is empty, null or contains whitespaces
             log.warn( "Unable to authenticate: remote domain is invalid." );
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
         try {
             // Check if the remote domain is in the blacklist
             if (!RemoteServerManager.canAccess(remoteDomain)) {
                 log.info( "Unable to authenticate: Remote domain is not accessible according to our configuration (typical causes: server federation is disabled, or domain is blacklisted)." );
-                return false;
+                return CompletableFuture.completedFuture(false);
             }
 
             log.debug( "Searching for pre-existing outgoing sessions to the remote domain (if one exists, it will be re-used) ..." );
@@ -127,7 +152,7 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
             if (sessionManager == null) {
                 // Server is shutting down while we are trying to create a new s2s connection
                 log.warn( "Unable to authenticate: a SessionManager instance is not available. This should not occur unless Openfire is starting up or shutting down." );
-                return false;
+                return CompletableFuture.completedFuture(false);
             }
             session = sessionManager.getOutgoingServerSession(domainPair);
             if (session != null && session.checkOutgoingDomainPair(domainPair))
@@ -136,7 +161,7 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
                 log.debug( "Authentication successful (domain was already authenticated in the pre-existing session)." );
                 //inform all listeners as well.
                 ServerSessionEventDispatcher.dispatchEvent(session, ServerSessionEventDispatcher.EventType.session_created);
-                return true;
+                return CompletableFuture.completedFuture(true);
             }
             if (session != null && !session.isUsingServerDialback() )
             {
@@ -186,52 +211,66 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
                 {
                     // Do nothing since the domain has already been authenticated.
                     log.debug( "Authentication successful (domain was already authenticated in the pre-existing session)." );
-                    return true;
+                    return CompletableFuture.completedFuture(true);
                 }
 
                 // A session already exists so authenticate the domain using that session.
                 if ( session.authenticateSubdomain(domainPair) )
                 {
                     log.debug( "Authentication successful (domain authentication was added using a pre-existing session)." );
-                    return true;
+                    return CompletableFuture.completedFuture(true);
                 }
                 else
                 {
                     log.warn( "Unable to authenticate: Unable to add authentication to pre-exising session." );
-                    return false;
+                    return CompletableFuture.completedFuture(false);
                 }
             }
             else
             {
-                try {
-                    log.debug("Unable to re-use an existing session. Creating a new session ...");
-                    int port = RemoteServerManager.getPortForServer(remoteDomain);
-                    session = createOutgoingSession(domainPair, port);
-                    if (session != null) {
+                log.debug("Unable to re-use an existing session. Creating a new session ...");
+                int port = RemoteServerManager.getPortForServer(remoteDomain);
+                // Registering the session invokes event listeners: that is not done on the thread that establishes the connection.
+                return createOutgoingSessionAsync(domainPair, port, blockingExecutor).thenApplyAsync(newSession -> {
+                    if (newSession == null) {
+                        log.warn("Unable to authenticate: Fail to create new session.");
+                        return false;
+                    }
+                    try {
                         log.debug("Created a new session.");
 
-                        session.addOutgoingDomainPair(domainPair);
-                        sessionManager.outgoingServerSessionCreated((LocalOutgoingServerSession) session);
+                        // The lock that guards the decision to create a new session is not held while the session is
+                        // being established. Check if another session was registered in the meantime (possibly by
+                        // another cluster node) before registering this one.
+                        final Lock lock = CacheFactory.createCache(RoutingTableImpl.S2S_CACHE_NAME).getLock(domainPair);
+                        lock.lock();
+                        try {
+                            if (XMPPServer.getInstance().getRoutingTable().hasServerRoute(domainPair)) {
+                                log.debug("Another session was registered while this one was being established. Closing this session, and using the other one.");
+                                newSession.close();
+                                return true;
+                            }
+                            newSession.addOutgoingDomainPair(domainPair);
+                        } finally {
+                            lock.unlock();
+                        }
+                        sessionManager.outgoingServerSessionCreated(newSession);
                         log.debug("Authentication successful.");
                         //inform all listeners as well.
-                        ServerSessionEventDispatcher.dispatchEvent(session, ServerSessionEventDispatcher.EventType.session_created);
+                        ServerSessionEventDispatcher.dispatchEvent(newSession, ServerSessionEventDispatcher.EventType.session_created);
                         return true;
-                    } else {
-                        log.warn("Unable to authenticate: Fail to create new session.");
+                    } catch (Exception e) {
+                        newSession.close();
+                        log.error( "An exception occurred while authenticating to remote domain '{}'!", remoteDomain, e );
                         return false;
                     }
-                } catch (Exception e) {
-                    if (session != null) {
-                        session.close();
-                    }
-                    throw e;
-                }
+                }, blockingExecutor);
             }
         }
         catch (Exception e)
         {
             log.error( "An exception occurred while authenticating to remote domain '{}'!", remoteDomain, e );
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
     }
 
@@ -247,6 +286,39 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
      */
     // package-protected to facilitate unit testing..
     static LocalOutgoingServerSession createOutgoingSession(@Nonnull final DomainPair domainPair, int port) {
+        return createOutgoingSessionAsync(domainPair, port, TaskEngine.getInstance()::submit).join();
+    }
+
+    /**
+     * Starts to establish a new outgoing session to a remote domain, as described in
+     * {@link #createOutgoingSession(DomainPair, int)}, without waiting for it to be established.
+     *
+     * @param domainPair the local and remote domain for which a session is to be established.
+     * @param port default port to use to establish the connection.
+     * @param blockingExecutor the executor on which operations that can block (DNS look-ups) are performed.
+     * @return A future that provides the new outgoing session to a remote domain, or null.
+     */
+    static CompletableFuture<LocalOutgoingServerSession> createOutgoingSessionAsync(@Nonnull final DomainPair domainPair, int port, @Nonnull final Executor blockingExecutor) {
+        return createOutgoingSessionAsync(domainPair, port, (sessionInitialiser, listener) -> sessionInitialiser.initAsync(listener, blockingExecutor));
+    }
+
+    /**
+     * Starts to establish a new outgoing session to a remote domain, like
+     * {@link #createOutgoingSessionAsync(DomainPair, int, Executor)}, using the provided remote hosts rather than the
+     * hosts that are resolved for the remote domain.
+     *
+     * @param domainPair the local and remote domain for which a session is to be established.
+     * @param port default port to use to establish the connection.
+     * @param remoteHosts the hosts to connect to, in order of preference.
+     * @param blockingExecutor the executor on which operations that can block (address look-ups) are performed.
+     * @return A future that provides the new outgoing session to a remote domain, or null.
+     */
+    // package-protected to facilitate unit testing..
+    static CompletableFuture<LocalOutgoingServerSession> createOutgoingSessionAsync(@Nonnull final DomainPair domainPair, int port, @Nonnull final List<DNSUtil.HostAddress> remoteHosts, @Nonnull final Executor blockingExecutor) {
+        return createOutgoingSessionAsync(domainPair, port, (sessionInitialiser, listener) -> sessionInitialiser.initAsync(listener, remoteHosts, blockingExecutor));
+    }
+
+    private static CompletableFuture<LocalOutgoingServerSession> createOutgoingSessionAsync(@Nonnull final DomainPair domainPair, int port, @Nonnull final BiFunction<NettySessionInitializer, ConnectionListener, CompletableFuture<LocalSession>> init) {
         final Logger log = LoggerFactory.getLogger(Log.getName() + "[Create outgoing session for: " + domainPair + "]");
 
         log.debug("Creating new session...");
@@ -256,17 +328,19 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
             .getConnectionManager()
             .getListener(ConnectionType.SOCKET_S2S, false);
         NettySessionInitializer sessionInitialiser = new NettySessionInitializer(domainPair, port);
-        try {
-            // Wait for the future to give us a session...
-            // Set a read timeout so that we don't keep waiting forever
-            return (LocalOutgoingServerSession) sessionInitialiser.init(listener).get(INITIALISE_TIMEOUT_SECONDS.getValue().getSeconds(), TimeUnit.SECONDS);
-        } catch (Exception e) {
-            // This might be RFC6120, section 5.4.2.2 "Failure Case" or even an unrelated problem. Handle 'normally'.
-            log.warn("An exception occurred while creating a session. Closing connection.", e);
-            sessionInitialiser.stop();
-        }
 
-        return null;
+        // Set a timeout so that we don't keep waiting forever
+        return init.apply(sessionInitialiser, listener)
+            .orTimeout(INITIALISE_TIMEOUT_SECONDS.getValue().toMillis(), TimeUnit.MILLISECONDS)
+            .handle((session, throwable) -> {
+                if (throwable != null) {
+                    // This might be RFC6120, section 5.4.2.2 "Failure Case" or even an unrelated problem. Handle 'normally'.
+                    log.warn("An exception occurred while creating a session. Closing connection.", throwable);
+                    sessionInitialiser.stop();
+                    return null;
+                }
+                return (LocalOutgoingServerSession) session;
+            });
     }
 
     private static boolean configDoesNotRequireTls(ConnectionConfiguration listenerConfiguration) {
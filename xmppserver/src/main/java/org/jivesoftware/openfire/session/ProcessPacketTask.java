@@ -16,17 +16,17 @@
 
 package org.jivesoftware.openfire.session;
 
-import org.dom4j.Element;
-import org.dom4j.tree.DefaultElement;
 import org.jivesoftware.openfire.SessionManager;
 import org.jivesoftware.openfire.StreamID;
 import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.cluster.StanzaCodec;
 import org.jivesoftware.openfire.spi.BasicStreamIDFactory;
 import org.jivesoftware.util.cache.ClusterTask;
 import org.jivesoftware.util.cache.ExternalizableUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xmpp.packet.*;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
 
 import java.io.IOException;
 import java.io.ObjectInput;
@@ -86,44 +86,25 @@ public class ProcessPacketTask implements ClusterTask<Void> {
     public void writeExternal(ObjectOutput out) throws IOException {
         ExternalizableUtil.getInstance().writeBoolean(out, address != null);
         if (address != null) {
-            ExternalizableUtil.getInstance().writeSerializable(out, address);
+            StanzaCodec.writeJID(out, address);
         }
         ExternalizableUtil.getInstance().writeBoolean(out, streamID != null);
         if (streamID != null) {
             ExternalizableUtil.getInstance().writeSafeUTF( out, streamID.getID() );
         }
         ExternalizableUtil.getInstance().writeInt(out, sessionType.ordinal());
-        if (packet instanceof IQ) {
-            ExternalizableUtil.getInstance().writeInt(out, 1);
-        } else if (packet instanceof Message) {
-            ExternalizableUtil.getInstance().writeInt(out, 2);
-        } else if (packet instanceof Presence) {
-            ExternalizableUtil.getInstance().writeInt(out, 3);
-        }
-        ExternalizableUtil.getInstance().writeSerializable(out, (DefaultElement) packet.getElement());
+        StanzaCodec.writePacket(out, packet);
     }
 
     public void readExternal(ObjectInput in) throws IOException {
         if (ExternalizableUtil.getInstance().readBoolean(in)) {
-            address = (JID) ExternalizableUtil.getInstance().readSerializable(in);
+            address = StanzaCodec.readJID(in);
         }
         if (ExternalizableUtil.getInstance().readBoolean(in)) {
             streamID = BasicStreamIDFactory.createStreamID( ExternalizableUtil.getInstance().readSafeUTF(in) );
         }
         sessionType = SessionType.values()[ExternalizableUtil.getInstance().readInt(in)];
-        int packetType = ExternalizableUtil.getInstance().readInt(in);
-        Element packetElement = (Element) ExternalizableUtil.getInstance().readSerializable(in);
-        switch (packetType) {
-            case 1:
-                packet = new IQ(packetElement, true);
-                break;
-            case 2:
-                packet = new Message(packetElement, true);
-                break;
-            case 3:
-                packet = new Presence(packetElement, true);
-                break;
-        }
+        packet = StanzaCodec.readPacket(in);
     }
 
     Session getSession() {
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.spi;
+
+import org.jivesoftware.openfire.RoutingTable;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.cluster.StanzaCodec;
+import org.jivesoftware.openfire.nio.PreSerializedStanza;
+import org.jivesoftware.openfire.session.ClientSession;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Presence;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Cluster task that will ask a remote cluster node to deliver a presence stanza to a number of client sessions that
+ * are hosted by that node. This allows a presence broadcast to be sent to each cluster node as one batch.
+ *
+ * @see RoutingTable#broadcastPresence(Presence, Collection)
+ */
+public class BroadcastPresenceTask implements ClusterTask<Void> {
+    private static final Logger Log = LoggerFactory.getLogger(BroadcastPresenceTask.class);
+
+    private Presence presence;
+    private List<JID> routes;
+
+    public BroadcastPresenceTask() {
+    }
+
+    BroadcastPresenceTask(@Nonnull final Presence presence, @Nonnull final Collection<JID> routes) {
+        // Copied, as the original stanza can be modified while this task is pending.
+        this.presence = presence.createCopy();
+        this.routes = new ArrayList<>(routes);
+    }
+
+    @Override
+    public Void getResult() {
+        return null;
+    }
+
+    @Override
+    public void run() {
+        deliver(XMPPServer.getInstance().getRoutingTable(), presence, routes);
+    }
+
+    /**
+     * Delivers a presence stanza to client sessions that are hosted by this cluster node. Each session receives the
+     * stanza addressed to the bare JID of its user. The stanza is serialized only once.
+     *
+     * @param routingTable the routing table of this cluster node.
+     * @param presence the stanza to deliver (its 'to' address is modified).
+     * @param routes the full JIDs of the sessions to deliver the stanza to.
+     */
+    static void deliver(@Nonnull final RoutingTable routingTable, @Nonnull final Presence presence, @Nonnull final Collection<JID> routes) {
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(presence)) {
+            for (final JID route : routes) {
+                final ClientSession session = routingTable.getClientRoute(route);
+                if (session == null) {
+                    // The session was closed in the meantime.
+                    Log.debug("Unable to deliver presence to {}: no session found.", route);
+                    continue;
+                }
+                try {
+                    presence.setTo(route.asBareJID());
+                    session.process(presence);
+                } catch (Exception e) {
+                    // Theoretically only happens if session has been closed.
+                    Log.debug("Unable to deliver presence to {}.", route, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        StanzaCodec.writePacket(out, presence);
+        ExternalizableUtil.getInstance().writeInt(out, routes.size());
+        for (final JID route : routes) {
+            StanzaCodec.writeJID(out, route);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        presence = (Presence) StanzaCodec.readPacket(in);
+        final int size = ExternalizableUtil.getInstance().readInt(in);
+        routes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            routes.add(StanzaCodec.readJID(in));
+        }
+    }
+}
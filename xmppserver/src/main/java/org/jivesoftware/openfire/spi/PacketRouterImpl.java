@@ -18,6 +18,7 @@ package org.jivesoftware.openfire.spi;
 
 import org.jivesoftware.openfire.*;
 import org.jivesoftware.openfire.container.BasicModule;
+import org.jivesoftware.openfire.stats.StanzaPipelineMetrics;
 import org.xmpp.packet.IQ;
 import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
@@ -71,17 +72,32 @@ public class PacketRouterImpl extends BasicModule implements PacketRouter {
 
     @Override
     public void route(IQ packet) {
-        iqRouter.route(packet);
+        final long start = StanzaPipelineMetrics.start();
+        try {
+            iqRouter.route(packet);
+        } finally {
+            StanzaPipelineMetrics.getInstance().record(StanzaPipelineMetrics.Stage.PACKET_ROUTER, packet, start);
+        }
     }
 
     @Override
     public void route(Message packet) {
-        messageRouter.route(packet);
+        final long start = StanzaPipelineMetrics.start();
+        try {
+            messageRouter.route(packet);
+        } finally {
+            StanzaPipelineMetrics.getInstance().record(StanzaPipelineMetrics.Stage.PACKET_ROUTER, packet, start);
+        }
     }
 
     @Override
     public void route(Presence packet) {
-        presenceRouter.route(packet);
+        final long start = StanzaPipelineMetrics.start();
+        try {
+            presenceRouter.route(packet);
+        } finally {
+            StanzaPipelineMetrics.getInstance().record(StanzaPipelineMetrics.Stage.PACKET_ROUTER, packet, start);
+        }
     }
 
     @Override
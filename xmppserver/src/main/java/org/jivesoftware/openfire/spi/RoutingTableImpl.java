@@ -46,6 +46,7 @@ import org.jivesoftware.openfire.session.LocalClientSession;
 import org.jivesoftware.openfire.session.LocalOutgoingServerSession;
 import org.jivesoftware.openfire.session.OutgoingServerSession;
 import org.jivesoftware.openfire.session.RemoteSessionLocator;
+import org.jivesoftware.openfire.stats.StanzaPipelineMetrics;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
@@ -329,6 +330,50 @@ public class RoutingTableImpl extends BasicModule implements RoutingTable, Clust
         }
     }
 
+    @Override
+    public void broadcastPresence(Presence presence, Collection<JID> recipients) {
+        final List<JID> localRoutes = new ArrayList<>();
+        final Map<NodeID, List<JID>> remoteRoutes = new HashMap<>();
+        for (final JID recipient : recipients) {
+            try {
+                for (final JID route : getRoutes(recipient, null)) {
+                    if (!serverName.equals(route.getDomain()) || route.getResource() == null) {
+                        // Components and remote servers
+                        presence.setTo(recipient);
+                        routePacket(route, presence);
+                    }
+                    else if (localRoutingTable.isLocalRoute(route)) {
+                        localRoutes.add(route);
+                    }
+                    else {
+                        final ClientRoute clientRoute = getClientRouteForLocalUser(route);
+                        if (clientRoute != null) {
+                            remoteRoutes.computeIfAbsent(clientRoute.getNodeID(), nodeID -> new ArrayList<>()).add(route);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                // Do not let a failure for one recipient prevent the presence from being delivered to the others.
+                Log.debug("Unable to broadcast presence to {}.", recipient, e);
+            }
+        }
+
+        BroadcastPresenceTask.deliver(this, presence, localRoutes);
+
+        for (final Map.Entry<NodeID, List<JID>> entry : remoteRoutes.entrySet()) {
+            try {
+                CacheFactory.doClusterTask(new BroadcastPresenceTask(presence, entry.getValue()), entry.getKey().toByteArray());
+            } catch (Exception e) {
+                // The cluster node is no longer available. Route individually, to have invalid routes cleaned up.
+                Log.debug("Unable to broadcast presence to cluster node {}. Routing to each recipient individually.", entry.getKey(), e);
+                for (final JID route : entry.getValue()) {
+                    presence.setTo(route.asBareJID());
+                    routePacket(route, presence);
+                }
+            }
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see org.jivesoftware.openfire.RoutingTable#routePacket(org.xmpp.packet.JID, org.xmpp.packet.Packet, boolean)
@@ -340,43 +385,48 @@ public class RoutingTableImpl extends BasicModule implements RoutingTable, Clust
      */
     @Override
     public void routePacket(JID jid, Packet packet) throws PacketException {
-        boolean routed = false;
+        final long start = StanzaPipelineMetrics.start();
         try {
-            if (serverName.equals(jid.getDomain())) {
-                // Packet sent to our domain.
-                routed = routeToLocalDomain(jid, packet);
-            }
-            else if (jid.getDomain().endsWith(serverName) && hasComponentRoute(jid)) {
-                // Packet sent to component hosted in this server
-                routed = routeToComponent(jid, packet);
-            }
-            else {
-                // Packet sent to remote server
-                routed = routeToRemoteDomain(jid, packet);
-            }
-        } catch (Exception ex) {
-            // Catch here to ensure that all packets get handled, despite various processing
-            // exceptions, rather than letting any fall through the cracks. For example,
-            // an IAE could be thrown when running in a cluster if a remote member becomes 
-            // unavailable before the routing caches are updated to remove the defunct node.
-            // We have also occasionally seen various flavors of NPE and other oddities, 
-            // typically due to unexpected environment or logic breakdowns. 
-            Log.error("Primary packet routing failed", ex); 
-        }
-
-        if (!routed) {
-            if (Log.isDebugEnabled()) {
-                Log.debug("Failed to route packet to JID: {} packet: {}", jid, packet.toXML());
-            }
-            if (packet instanceof IQ) {
-                iqRouter.routingFailed(jid, packet);
-            }
-            else if (packet instanceof Message) {
-                messageRouter.routingFailed(jid, packet);
+            boolean routed = false;
+            try {
+                if (serverName.equals(jid.getDomain())) {
+                    // Packet sent to our domain.
+                    routed = routeToLocalDomain(jid, packet);
+                }
+                else if (jid.getDomain().endsWith(serverName) && hasComponentRoute(jid)) {
+                    // Packet sent to component hosted in this server
+                    routed = routeToComponent(jid, packet);
+                }
+                else {
+                    // Packet sent to remote server
+                    routed = routeToRemoteDomain(jid, packet);
+                }
+            } catch (Exception ex) {
+                // Catch here to ensure that all packets get handled, despite various processing
+                // exceptions, rather than letting any fall through the cracks. For example,
+                // an IAE could be thrown when running in a cluster if a remote member becomes 
+                // unavailable before the routing caches are updated to remove the defunct node.
+                // We have also occasionally seen various flavors of NPE and other oddities, 
+                // typically due to unexpected environment or logic breakdowns. 
+                Log.error("Primary packet routing failed", ex); 
             }
-            else if (packet instanceof Presence) {
-                presenceRouter.routingFailed(jid, packet);
+
+            if (!routed) {
+                if (Log.isDebugEnabled()) {
+                    Log.debug("Failed to route packet to JID: {} packet: {}", jid, packet.toXML());
+                }
+                if (packet instanceof IQ) {
+                    iqRouter.routingFailed(jid, packet);
+                }
+                else if (packet instanceof Message) {
+                    messageRouter.routingFailed(jid, packet);
+                }
+                else if (packet instanceof Presence) {
+                    presenceRouter.routingFailed(jid, packet);
+                }
             }
+        } finally {
+            StanzaPipelineMetrics.getInstance().record(StanzaPipelineMetrics.Stage.ROUTING_TABLE, packet, start);
         }
     }
 
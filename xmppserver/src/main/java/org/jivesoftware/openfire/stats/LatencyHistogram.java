@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A distribution of durations, that can be recorded concurrently by many threads at low cost.
+ *
+ * Durations are counted in buckets of which the width grows with the magnitude of the duration: each power of two is
+ * divided into {@value #SUB_BUCKETS} buckets of equal width. Percentiles are therefore reported with a relative error
+ * of at most 1/{@value #SUB_BUCKETS}, regardless of the magnitude of the durations. Durations exceeding approximately
+ * 68 seconds are counted in the last bucket.
+ *
+ * Each bucket is a {@link LongAdder}, which is created when the first duration is counted in it. Threads that record
+ * durations concurrently therefore do not contend on a shared counter.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest duration (in nanoseconds) for which a distinct bucket exists.
+     */
+    static final long HIGHEST_TRACKABLE_NANOS = (1L << 36) - 1;
+
+    private static final int BUCKET_COUNT = bucketIndex(HIGHEST_TRACKABLE_NANOS) + 1;
+
+    private final AtomicReferenceArray<LongAdder> buckets = new AtomicReferenceArray<>(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maximumNanos = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration, in nanoseconds. Negative values are recorded as zero.
+     */
+    public void record(final long nanos)
+    {
+        final long value = Math.max(0, nanos);
+        final int index = bucketIndex(Math.min(value, HIGHEST_TRACKABLE_NANOS));
+        LongAdder bucket = buckets.get(index);
+        if (bucket == null) {
+            buckets.compareAndSet(index, null, new LongAdder());
+            bucket = buckets.get(index);
+        }
+        bucket.increment();
+        count.increment();
+        totalNanos.add(value);
+        if (value > maximumNanos.get()) {
+            maximumNanos.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Returns the duration (in nanoseconds) that the provided percentage of all recorded durations did not exceed. As
+     * durations are counted in buckets, the highest duration that is counted in the same bucket is returned.
+     *
+     * @param percentile the percentage (between 0 and 100).
+     * @return a duration in nanoseconds, or 0 if no durations have been recorded.
+     */
+    public long getValueAtPercentile(final double percentile)
+    {
+        final long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final LongAdder bucket = buckets.get(i);
+            if (bucket != null) {
+                counts[i] = bucket.sum();
+                total += counts[i];
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long threshold = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= threshold) {
+                return Math.min(highestEquivalentValue(i), maximumNanos.get());
+            }
+        }
+        return maximumNanos.get();
+    }
+
+    /**
+     * Returns the sum of all recorded durations.
+     *
+     * @return a duration in nanoseconds.
+     */
+    public long getTotalNanos()
+    {
+        return totalNanos.sum();
+    }
+
+    @Override
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    @Override
+    public long getMeanMicros()
+    {
+        final long count = getCount();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / count);
+    }
+
+    @Override
+    public long getMaximumMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(maximumNanos.get());
+    }
+
+    @Override
+    public long get50thPercentileMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(50));
+    }
+
+    @Override
+    public long get90thPercentileMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(90));
+    }
+
+    @Override
+    public long get99thPercentileMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99));
+    }
+
+    @Override
+    public long get999thPercentileMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final LongAdder bucket = buckets.get(i);
+            if (bucket != null) {
+                bucket.reset();
+            }
+        }
+        count.reset();
+        totalNanos.reset();
+        maximumNanos.set(0);
+    }
+
+    /**
+     * Returns the index of the bucket in which a value is counted.
+     */
+    static int bucketIndex(final long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value that is counted in a bucket.
+     */
+    static long highestEquivalentValue(final int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
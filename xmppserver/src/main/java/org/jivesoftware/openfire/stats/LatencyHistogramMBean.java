@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.stats;
+
+/**
+ * MBean definition for a distribution of durations (as implemented by {@link LatencyHistogram}).
+ */
+public interface LatencyHistogramMBean
+{
+    /**
+     * Returns the number of durations that have been recorded.
+     *
+     * @return the number of recorded durations.
+     */
+    long getCount();
+
+    /**
+     * Returns the average of all recorded durations, in microseconds.
+     *
+     * @return an average duration in microseconds.
+     */
+    long getMeanMicros();
+
+    /**
+     * Returns the longest recorded duration, in microseconds.
+     *
+     * @return a duration in microseconds.
+     */
+    long getMaximumMicros();
+
+    /**
+     * Returns the median of the recorded durations, in microseconds.
+     *
+     * @return a duration in microseconds.
+     */
+    long get50thPercentileMicros();
+
+    /**
+     * Returns the duration (in microseconds) that 90% of all recorded durations did not exceed.
+     *
+     * @return a duration in microseconds.
+     */
+    long get90thPercentileMicros();
+
+    /**
+     * Returns the duration (in microseconds) that 99% of all recorded durations did not exceed.
+     *
+     * @return a duration in microseconds.
+     */
+    long get99thPercentileMicros();
+
+    /**
+     * Returns the duration (in microseconds) that 99.9% of all recorded durations did not exceed.
+     *
+     * @return a duration in microseconds.
+     */
+    long get999thPercentileMicros();
+
+    /**
+     * Discards all recorded durations.
+     */
+    void resetStatistics();
+}
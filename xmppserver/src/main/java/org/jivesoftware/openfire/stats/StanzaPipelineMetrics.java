@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.stats;
+
+import org.dom4j.Element;
+import org.jivesoftware.openfire.JMXManager;
+import org.jivesoftware.util.SystemProperty;
+import org.xmpp.packet.Packet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.ObjectName;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the time that stanzas spend in each stage of the routing pipeline, per kind of stanza, and the time that is
+ * spent in each packet interceptor.
+ *
+ * The kind of a stanza is 'message', 'presence' or (for IQ stanzas) 'iq:' followed by the namespace of the child
+ * element of the stanza, or by its type when it has no child element (eg: 'iq:result'). To protect against unbounded
+ * growth, the number of distinct kinds per stage is limited. Stanzas of any additional kind are recorded as 'other'.
+ *
+ * The distributions are exposed as MBeans (when JMX is enabled) and the average latency per stage, as well as the rate
+ * of inbound stanzas, as statistics in the {@link StatisticsManager}.
+ *
+ * Code that is instrumented obtains a start time by invoking {@link #start()}, and passes that to one of the record
+ * methods when the stage has completed. When instrumentation is disabled, the start time is zero, and recording is a
+ * no-op.
+ */
+public final class StanzaPipelineMetrics
+{
+    /**
+     * A stage in the routing pipeline.
+     */
+    public enum Stage
+    {
+        /**
+         * Parsing and processing of an inbound stanza by the handler of the connection on which it was received.
+         */
+        STANZA_HANDLER("stanzaHandler"),
+
+        /**
+         * Invocation of all packet interceptors that apply to a stanza.
+         */
+        INTERCEPTORS("interceptors"),
+
+        /**
+         * Routing of a stanza by the packet router, which includes the invocation of the handlers of the stanza.
+         */
+        PACKET_ROUTER("packetRouter"),
+
+        /**
+         * Routing of a stanza to the session, component or remote domain that it is addressed to.
+         */
+        ROUTING_TABLE("routingTable"),
+
+        /**
+         * Delivery of a stanza to a connection, from the moment it was handed to the connection until it was written
+         * to the network.
+         */
+        DELIVERY("delivery");
+
+        private final String name;
+
+        Stage(@Nonnull final String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name by which the stage is identified in JMX and statistics.
+         *
+         * @return the name of the stage.
+         */
+        @Nonnull
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    /**
+     * Enables or disables recording of the time that stanzas spend in the routing pipeline.
+     */
+    public static final SystemProperty<Boolean> ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.metrics.pipeline.enabled")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .addListener(value -> enabled = value)
+        .build();
+
+    /**
+     * The base of the object names under which distributions are registered as MBeans.
+     */
+    public static final String BASE_OBJECT_NAME = "org.igniterealtime.openfire:type=StanzaPipeline,";
+
+    /**
+     * The kind under which stanzas are recorded when the maximum number of distinct kinds has been reached.
+     */
+    public static final String OTHER = "other";
+
+    /**
+     * The maximum number of distinct kinds of stanzas (or interceptors) that are recorded per stage.
+     */
+    static final int MAX_KINDS = 100;
+
+    private static volatile boolean enabled = ENABLED.getValue();
+
+    private static final StanzaPipelineMetrics instance = new StanzaPipelineMetrics();
+
+    /**
+     * Returns the singleton instance.
+     *
+     * @return the instance.
+     */
+    public static StanzaPipelineMetrics getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Returns the time at which a stage starts, to be passed to one of the record methods when the stage completes.
+     *
+     * @return the current value of {@link System#nanoTime()}, or zero when instrumentation is disabled.
+     */
+    public static long start()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    private final Map<Stage, ConcurrentMap<String, LatencyHistogram>> stages = new EnumMap<>(Stage.class);
+    private final ConcurrentMap<String, LatencyHistogram> interceptors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ObjectName, LatencyHistogram> registered = new ConcurrentHashMap<>();
+
+    // Totals since the last sample, as reported to the StatisticsManager.
+    private final Map<Stage, LongAdder> sampledCount = new EnumMap<>(Stage.class);
+    private final Map<Stage, LongAdder> sampledNanos = new EnumMap<>(Stage.class);
+    private final LongAdder inboundMessages = new LongAdder();
+    private final LongAdder inboundPresences = new LongAdder();
+    private final LongAdder inboundIQs = new LongAdder();
+
+    StanzaPipelineMetrics()
+    {
+        for (final Stage stage : Stage.values()) {
+            stages.put(stage, new ConcurrentHashMap<>());
+            sampledCount.put(stage, new LongAdder());
+            sampledNanos.put(stage, new LongAdder());
+        }
+    }
+
+    /**
+     * Records the completion of a stage for a stanza.
+     *
+     * @param stage the stage that completed.
+     * @param packet the stanza.
+     * @param start the value returned by {@link #start()} when the stage started.
+     */
+    public void record(@Nonnull final Stage stage, @Nonnull final Packet packet, final long start)
+    {
+        if (start != 0) {
+            record(stage, kindOf(packet.getElement()), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the completion of a stage for a stanza, which is provided as an XML element.
+     *
+     * @param stage the stage that completed.
+     * @param stanza the stanza.
+     * @param start the value returned by {@link #start()} when the stage started.
+     */
+    public void record(@Nonnull final Stage stage, @Nonnull final Element stanza, final long start)
+    {
+        if (start != 0) {
+            record(stage, kindOf(stanza), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the completion of an invocation of a packet interceptor.
+     *
+     * @param interceptor the interceptor that was invoked.
+     * @param start the value returned by {@link #start()} before the interceptor was invoked.
+     */
+    public void recordInterceptor(@Nonnull final Object interceptor, final long start)
+    {
+        if (start != 0) {
+            final long nanos = System.nanoTime() - start;
+            histogram(interceptors, "interceptor", interceptor.getClass().getName()).record(nanos);
+        }
+    }
+
+    void record(@Nonnull final Stage stage, @Nonnull final String kind, final long nanos)
+    {
+        histogram(stages.get(stage), stage.getName(), kind).record(nanos);
+        sampledCount.get(stage).increment();
+        sampledNanos.get(stage).add(nanos);
+        if (stage == Stage.STANZA_HANDLER) {
+            if (kind.startsWith("iq")) {
+                inboundIQs.increment();
+            } else if (kind.equals("message")) {
+                inboundMessages.increment();
+            } else if (kind.equals("presence")) {
+                inboundPresences.increment();
+            }
+        }
+    }
+
+    /**
+     * Returns the distributions of the time spent in a stage, by kind of stanza.
+     *
+     * @param stage the stage.
+     * @return the distributions, by kind of stanza (an unmodifiable view).
+     */
+    @Nonnull
+    public Map<String, LatencyHistogram> getHistograms(@Nonnull final Stage stage)
+    {
+        return Collections.unmodifiableMap(stages.get(stage));
+    }
+
+    /**
+     * Returns the distributions of the time spent in packet interceptors, by class name of the interceptor.
+     *
+     * @return the distributions, by interceptor class name (an unmodifiable view).
+     */
+    @Nonnull
+    public Map<String, LatencyHistogram> getInterceptorHistograms()
+    {
+        return Collections.unmodifiableMap(interceptors);
+    }
+
+    /**
+     * Discards all recorded durations.
+     */
+    public void resetStatistics()
+    {
+        for (final ConcurrentMap<String, LatencyHistogram> histograms : stages.values()) {
+            histograms.values().forEach(LatencyHistogram::resetStatistics);
+        }
+        interceptors.values().forEach(LatencyHistogram::resetStatistics);
+    }
+
+    @Nonnull
+    private LatencyHistogram histogram(@Nonnull final ConcurrentMap<String, LatencyHistogram> histograms, @Nonnull final String stageName, @Nonnull final String kind)
+    {
+        LatencyHistogram histogram = histograms.get(kind);
+        if (histogram == null) {
+            // Once the limit is reached, the histogram for other kinds already exists: nothing is allocated.
+            final String key = histograms.size() >= MAX_KINDS ? OTHER : kind;
+            histogram = histograms.computeIfAbsent(key, k -> {
+                final LatencyHistogram created = new LatencyHistogram();
+                register(stageName, k, created);
+                return created;
+            });
+        }
+        return histogram;
+    }
+
+    private void register(@Nonnull final String stageName, @Nonnull final String kind, @Nonnull final LatencyHistogram histogram)
+    {
+        if (!JMXManager.isEnabled()) {
+            return;
+        }
+        final ObjectName objectName = JMXManager.tryRegister(histogram, BASE_OBJECT_NAME + "stage=" + stageName + ",kind=" + ObjectName.quote(kind));
+        if (objectName != null) {
+            registered.put(objectName, histogram);
+        }
+    }
+
+    /**
+     * Returns the kind of a stanza, by which its durations are recorded.
+     *
+     * @param stanza the stanza.
+     * @return the kind of the stanza.
+     */
+    @Nonnull
+    static String kindOf(@Nonnull final Element stanza)
+    {
+        final String name = stanza.getName();
+        if (!"iq".equals(name)) {
+            return name;
+        }
+        final Element child = firstChild(stanza);
+        if (child != null) {
+            return "iq:" + child.getNamespaceURI();
+        }
+        final String type = stanza.attributeValue("type");
+        return type == null ? "iq" : "iq:" + type;
+    }
+
+    @Nullable
+    private static Element firstChild(@Nonnull final Element element)
+    {
+        for (int i = 0, size = element.nodeCount(); i < size; i++) {
+            if (element.node(i) instanceof Element) {
+                final Element child = (Element) element.node(i);
+                // Ignore an error condition in favor of the element that caused it.
+                if (!"error".equals(child.getName())) {
+                    return child;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the statistics that report the average time spent in each stage, and the rate of inbound stanzas, to the
+     * {@link StatisticsManager}.
+     */
+    public static void initStatistics()
+    {
+        final StatisticsManager statisticsManager = StatisticsManager.getInstance();
+        for (final Stage stage : Stage.values()) {
+            statisticsManager.addMultiStatistic("pipeline_latency_" + stage.getName(), "pipeline_latency", new StageLatencyStatistic(stage));
+        }
+        statisticsManager.addMultiStatistic("pipeline_inbound_message", "pipeline_inbound", new InboundStanzaStatistic("pipeline.inbound.message", instance.inboundMessages));
+        statisticsManager.addMultiStatistic("pipeline_inbound_presence", "pipeline_inbound", new InboundStanzaStatistic("pipeline.inbound.presence", instance.inboundPresences));
+        statisticsManager.addMultiStatistic("pipeline_inbound_iq", "pipeline_inbound", new InboundStanzaStatistic("pipeline.inbound.iq", instance.inboundIQs));
+    }
+
+    /**
+     * Removes the statistics from the {@link StatisticsManager}, and unregisters all MBeans.
+     */
+    public static void shutdown()
+    {
+        final StatisticsManager statisticsManager = StatisticsManager.getInstance();
+        for (final Stage stage : Stage.values()) {
+            statisticsManager.removeStatistic("pipeline_latency_" + stage.getName());
+        }
+        statisticsManager.removeStatistic("pipeline_inbound_message");
+        statisticsManager.removeStatistic("pipeline_inbound_presence");
+        statisticsManager.removeStatistic("pipeline_inbound_iq");
+
+        instance.registered.keySet().forEach(JMXManager::tryUnregister);
+        instance.registered.clear();
+    }
+
+    /**
+     * Reports the average time (in microseconds) that stanzas spent in a stage since the previous sample.
+     */
+    private static class StageLatencyStatistic extends i18nStatistic
+    {
+        private final Stage stage;
+
+        StageLatencyStatistic(@Nonnull final Stage stage)
+        {
+            super("pipeline.latency." + stage.getName(), Type.count);
+            this.stage = stage;
+        }
+
+        @Override
+        public double sample()
+        {
+            final long count = instance.sampledCount.get(stage).sumThenReset();
+            final long nanos = instance.sampledNanos.get(stage).sumThenReset();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(nanos / count);
+        }
+
+        @Override
+        public boolean isPartialSample()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Reports the number of stanzas of one type that were received since the previous sample.
+     */
+    private static class InboundStanzaStatistic extends i18nStatistic
+    {
+        private final LongAdder counter;
+
+        InboundStanzaStatistic(@Nonnull final String resourceKey, @Nonnull final LongAdder counter)
+        {
+            super(resourceKey, Type.rate);
+            this.counter = counter;
+        }
+
+        @Override
+        public double sample()
+        {
+            return counter.sumThenReset();
+        }
+
+        @Override
+        public boolean isPartialSample()
+        {
+            return true;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.auth.AuthToken;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
 import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.openfire.nio.PreSerializedStanza;
 import org.jivesoftware.openfire.session.*;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.StringUtils;
@@ -39,9 +40,8 @@ import java.math.BigInteger;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -76,8 +76,27 @@ public class StreamManager {
         .setDynamic(true)
         .build();
 
+    /**
+     * The maximum combined size (in bytes) of the unacknowledged stanzas that are kept for one session. When exceeded,
+     * stream management is disabled for the session, as happens when too many stanzas go unacknowledged.
+     */
+    public static SystemProperty<Long> MAX_UNACKED_BYTES = SystemProperty.Builder.ofType( Long.class )
+        .setKey("stream.management.max-unacked-bytes")
+        .setDefaultValue(5L * 1024 * 1024)
+        .setMinValue(1L)
+        .setDynamic(true)
+        .build();
+
     private final Logger Log;
     private boolean resume = false;
+
+    /**
+     * A stanza that was sent, but not yet acknowledged.
+     *
+     * @deprecated Unacknowledged stanzas are no longer kept as instances of this class, but in serialized form. This
+     * class is no longer used by Openfire.
+     */
+    @Deprecated
     public static class UnackedPacket {
         public final long x;
         public final Date timestamp = new Date();
@@ -129,7 +148,7 @@ public class StreamManager {
     /**
      * Collection of stanzas/packets sent to client that haven't been acknowledged.
      */
-    private Deque<UnackedPacket> unacknowledgedServerStanzas = new LinkedList<>();
+    private final UnackedStanzaBuffer unacknowledgedServerStanzas = new UnackedStanzaBuffer();
 
     public StreamManager(LocalSession session) {
         String address;
@@ -183,7 +202,7 @@ public class StreamManager {
                 long h = new Long(element.attributeValue("h"));
                 if (h < 0) {
                     Log.warn( "Closing client session. Client sends negative value for SM 'h': {}, affected session: {}", h, session );
-                    final StreamError error = new StreamError( StreamError.Condition.undefined_condition, "You acknowledged stanzas using a negative value (which is illegal). Your Ack h: " + h + ", our last unacknowledged stanza: " + (unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLast().x) );
+                    final StreamError error = new StreamError( StreamError.Condition.undefined_condition, "You acknowledged stanzas using a negative value (which is illegal). Your Ack h: " + h + ", our last unacknowledged stanza: " + (unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLastSequence()) );
                     session.deliverRawText( error.toXML() );
                     session.close();
                     return;
@@ -455,7 +474,7 @@ public class StreamManager {
             throw new IllegalArgumentException("Argument 'h' cannot be larger than 2^32 -1, but was: " + h);
         }
         final long oldH = clientProcessedStanzas.get();
-        final Long lastUnackedX = unacknowledgedServerStanzas.isEmpty() ? null : unacknowledgedServerStanzas.getLast().x;
+        final Long lastUnackedX = unacknowledgedServerStanzas.isEmpty() ? null : unacknowledgedServerStanzas.getLastSequence();
         return validateClientAcknowledgement(h, oldH, lastUnackedX);
     }
 
@@ -479,7 +498,7 @@ public class StreamManager {
 
             if ( !validateClientAcknowledgement(h) ) {
                 // All paths leading up to here should have checked for this. Race condition?
-                throw new IllegalStateException( "Client acknowledges stanzas that we didn't send! Client Ack h: "+h+", our last unacknowledged stanza: " + (unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLast().x) );
+                throw new IllegalStateException( "Client acknowledges stanzas that we didn't send! Client Ack h: "+h+", our last unacknowledged stanza: " + (unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLastSequence()) );
             }
 
             clientProcessedStanzas.set( h );
@@ -488,18 +507,15 @@ public class StreamManager {
             Log.trace( "Before processing client Ack (h={}): {} unacknowledged stanzas.", h, unacknowledgedServerStanzas.size() );
 
             // Pop all acknowledged stanzas.
-            while( !unacknowledgedServerStanzas.isEmpty() && unacknowledgedServerStanzas.getFirst().x <= h )
-            {
-                unacknowledgedServerStanzas.removeFirst();
-            }
+            unacknowledgedServerStanzas.removeUpTo( h );
 
             // Ensure that unacknowledged stanzas are purged after the client rolled over 'h' which occurs at h= (2^32)-1
             final int maxUnacked = getMaximumUnacknowledgedStanzas();
-            final boolean clientHadRollOver = h < maxUnacked && !unacknowledgedServerStanzas.isEmpty() && unacknowledgedServerStanzas.getLast().x > MASK - maxUnacked;
+            final boolean clientHadRollOver = h < maxUnacked && !unacknowledgedServerStanzas.isEmpty() && unacknowledgedServerStanzas.getLastSequence() > MASK - maxUnacked;
             if ( clientHadRollOver )
             {
                 Log.info( "Client rolled over 'h'. Purging high-numbered unacknowledged stanzas." );
-                while ( !unacknowledgedServerStanzas.isEmpty() && unacknowledgedServerStanzas.getLast().x > MASK - maxUnacked)
+                while ( !unacknowledgedServerStanzas.isEmpty() && unacknowledgedServerStanzas.getLastSequence() > MASK - maxUnacked)
                 {
                     unacknowledgedServerStanzas.removeLast();
                 }
@@ -519,7 +535,7 @@ public class StreamManager {
                 final long h = Long.valueOf(ack.attributeValue("h"));
                 if (h < 0) {
                     Log.warn( "Closing client session. Client sends negative value for SM 'h': {}, affected session: {}", h, session );
-                    final StreamError error = new StreamError( StreamError.Condition.undefined_condition, "You acknowledged stanzas using a negative value (which is illegal). Your Ack h: " + h + ", our last unacknowledged stanza: " + (unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLast().x) );
+                    final StreamError error = new StreamError( StreamError.Condition.undefined_condition, "You acknowledged stanzas using a negative value (which is illegal). Your Ack h: " + h + ", our last unacknowledged stanza: " + (unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLastSequence()) );
                     session.deliverRawText( error.toXML() );
                     session.close();
                     return;
@@ -529,8 +545,8 @@ public class StreamManager {
 
                 synchronized ( this ) {
                     if (!validateClientAcknowledgement(h)) {
-                        Log.warn( "Closing client session. Client acknowledges stanzas that we didn't send! Client Ack h: {}, our last unacknowledged stanza: {}, affected session: {}", h, unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLast().x, session );
-                        final StreamError error = new StreamError( StreamError.Condition.undefined_condition, "You acknowledged stanzas that we didn't send. Your Ack h: " + h + ", our last unacknowledged stanza: " + (unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLast().x) );
+                        Log.warn( "Closing client session. Client acknowledges stanzas that we didn't send! Client Ack h: {}, our last unacknowledged stanza: {}, affected session: {}", h, unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLastSequence(), session );
+                        final StreamError error = new StreamError( StreamError.Condition.undefined_condition, "You acknowledged stanzas that we didn't send. Your Ack h: " + h + ", our last unacknowledged stanza: " + (unacknowledgedServerStanzas.isEmpty() ? "(none)" : unacknowledgedServerStanzas.getLastSequence()) );
                         session.deliverRawText( error.toXML() );
                         session.close();
                         return;
@@ -555,8 +571,9 @@ public class StreamManager {
             synchronized (this)
             {
                 // The next ID is one higher than the last stanza that was sent (which might be unacknowledged!)
-                final long x = 1 + ( unacknowledgedServerStanzas.isEmpty() ? clientProcessedStanzas.get() : unacknowledgedServerStanzas.getLast().x );
-                unacknowledgedServerStanzas.addLast( new StreamManager.UnackedPacket( x, packet.createCopy() ) );
+                final long x = 1 + ( unacknowledgedServerStanzas.isEmpty() ? clientProcessedStanzas.get() : unacknowledgedServerStanzas.getLastSequence() );
+                // Re-use the data that was serialized when the stanza was delivered (if it still is available).
+                unacknowledgedServerStanzas.add( x, packet, PreSerializedStanza.toBytes( packet, session ) );
 
                 size = unacknowledgedServerStanzas.size();
 
@@ -570,6 +587,13 @@ public class StreamManager {
                     unacknowledgedServerStanzas.clear();
                     return;
                 }
+                if ( unacknowledgedServerStanzas.byteSize() > MAX_UNACKED_BYTES.getValue() )
+                {
+                    Log.warn( "Unacknowledged stanzas for this connection exceed {} bytes. Clearing queue and disabling functionality.", MAX_UNACKED_BYTES.getValue() );
+                    namespace = null;
+                    unacknowledgedServerStanzas.clear();
+                    return;
+                }
             }
 
             // When we have a sizable amount of unacknowledged stanzas, request acknowledgement.
@@ -586,17 +610,28 @@ public class StreamManager {
         synchronized (this) {
             if(isEnabled()) {
                 namespace = null; // disable stream management.
-                for (StreamManager.UnackedPacket unacked : unacknowledgedServerStanzas) {
-                    if (unacked.packet instanceof Message) {
-                        Message m = (Message) unacked.packet;
+                for (UnackedStanzaBuffer.Entry unacked : unacknowledgedServerStanzas.entries()) {
+                    if (unacked.isMessage()) {
+                        final Message m;
+                        try {
+                            m = (Message) unacked.toPacket();
+                        } catch (ExecutionException e) {
+                            Log.warn("Unable to parse unacknowledged stanza (x={}). It will not be redelivered.", unacked.sequence, e);
+                            continue;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            Log.warn("Interrupted while redelivering unacknowledged stanzas.", e);
+                            break;
+                        }
                         if (m.getExtension("delay", "urn:xmpp:delay") == null) {
                             Element delayInformation = m.addChildElement("delay", "urn:xmpp:delay");
-                            delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(unacked.timestamp));
+                            delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(unacked.getTimestamp()));
                             delayInformation.addAttribute("from", serverAddress.toBareJID());
                         }
-                        router.route(unacked.packet);
+                        router.route(m);
                     }
                 }
+                unacknowledgedServerStanzas.clear();
             }
         }
 
@@ -616,29 +651,36 @@ public class StreamManager {
         // Re-deliver unacknowledged stanzas from broken stream (XEP-0198)
         synchronized (this) {
             if(isEnabled()) {
-                for (StreamManager.UnackedPacket unacked : unacknowledgedServerStanzas) {
+                for (UnackedStanzaBuffer.Entry unacked : unacknowledgedServerStanzas.entries()) {
                     try {
-                        if (unacked.packet instanceof Message) {
-                            Message m = (Message) unacked.packet;
+                        if (unacked.isMessage()) {
+                            Message m = (Message) unacked.toPacket();
                             if (m.getExtension("delay", "urn:xmpp:delay") == null) {
                                 Element delayInformation = m.addChildElement("delay", "urn:xmpp:delay");
-                                delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(unacked.timestamp));
+                                delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(unacked.getTimestamp()));
                                 delayInformation.addAttribute("from", serverAddress.toBareJID());
                             }
                             connection.deliver(m);
-                        } else if (unacked.packet instanceof Presence) {
-                            Presence p = (Presence) unacked.packet;
+                        } else if (unacked.isPresence()) {
+                            Presence p = (Presence) unacked.toPacket();
                             if (p.getExtension("delay", "urn:xmpp:delay") == null) {
                                 Element delayInformation = p.addChildElement("delay", "urn:xmpp:delay");
-                                delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(unacked.timestamp));
+                                delayInformation.addAttribute("stamp", XMPPDateTimeFormat.format(unacked.getTimestamp()));
                                 delayInformation.addAttribute("from", serverAddress.toBareJID());
                             }
                             connection.deliver(p);
                         } else {
-                            connection.deliver(unacked.packet);
+                            // No need to parse stanzas that are redelivered unmodified.
+                            connection.deliverRawText(unacked.getXML());
                         }
                     } catch (UnauthorizedException e) {
                         Log.warn("Caught unauthorized exception, which seems worrying: ", e);
+                    } catch (ExecutionException e) {
+                        Log.warn("Unable to parse unacknowledged stanza (x={}). It will not be redelivered.", unacked.sequence, e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        Log.warn("Interrupted while redelivering unacknowledged stanzas.", e);
+                        break;
                     }
                 }
 
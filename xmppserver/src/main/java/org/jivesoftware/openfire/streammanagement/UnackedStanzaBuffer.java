@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.streammanagement;
+
+import org.dom4j.Element;
+import org.jivesoftware.util.SAXReaderUtil;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The stanzas that were sent to a client, but that have not yet been acknowledged by that client (XEP-0198).
+ *
+ * Stanzas are stored in a ring buffer, in serialized (UTF-8 encoded) form. As the sequence numbers of the stanzas
+ * that are stored are consecutive, the sequence number of each stanza is derived from its position in the buffer,
+ * instead of being stored. Stanzas are parsed again only when they are needed, which is when they are redelivered.
+ *
+ * Removing acknowledged stanzas takes time proportional to the amount of stanzas that are acknowledged: their slots
+ * are cleared, so that the serialized stanzas can be garbage collected. When all stanzas have been acknowledged, a
+ * buffer that has grown is reset to its initial capacity.
+ *
+ * This class is not thread-safe.
+ */
+final class UnackedStanzaBuffer
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final byte KIND_OTHER = 0;
+    private static final byte KIND_MESSAGE = 1;
+    private static final byte KIND_PRESENCE = 2;
+    private static final byte KIND_IQ = 3;
+
+    private byte[][] stanzas = new byte[INITIAL_CAPACITY][];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+
+    /**
+     * For each stanza, the value of {@link #bytesAdded} directly after that stanza was added.
+     */
+    private long[] ends = new long[INITIAL_CAPACITY];
+
+    /**
+     * Index of the oldest stanza in the arrays.
+     */
+    private int head = 0;
+
+    /**
+     * Amount of stanzas in the buffer.
+     */
+    private int size = 0;
+
+    /**
+     * Sequence number of the oldest stanza (only meaningful when the buffer is not empty).
+     */
+    private long firstSequence = 0;
+
+    /**
+     * Total amount of bytes of all stanzas that were added (and not removed by {@link #removeLast()}).
+     */
+    private long bytesAdded = 0;
+
+    /**
+     * Total amount of bytes of all stanzas that were acknowledged.
+     */
+    private long bytesRemoved = 0;
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the combined size of the serialized stanzas in this buffer.
+     *
+     * @return A size in bytes.
+     */
+    long byteSize()
+    {
+        return bytesAdded - bytesRemoved;
+    }
+
+    /**
+     * Returns the sequence number of the stanza that was added last.
+     *
+     * @return A sequence number.
+     * @throws NoSuchElementException when the buffer is empty.
+     */
+    long getLastSequence()
+    {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return firstSequence + size - 1;
+    }
+
+    /**
+     * Adds a stanza to the buffer. When the buffer is not empty, the sequence number must be one higher than that of
+     * the stanza that was added last.
+     *
+     * @param sequence The sequence number of the stanza.
+     * @param packet The stanza.
+     */
+    void add(final long sequence, @Nonnull final Packet packet)
+    {
+        add(sequence, packet, packet.getElement().asXML().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds a stanza that has already been serialized to the buffer. When the buffer is not empty, the sequence number
+     * must be one higher than that of the stanza that was added last.
+     *
+     * @param sequence The sequence number of the stanza.
+     * @param packet The stanza.
+     * @param data The stanza, serialized as UTF-8 encoded XML. This array is not copied, and must not be modified.
+     */
+    void add(final long sequence, @Nonnull final Packet packet, @Nonnull final byte[] data)
+    {
+        if (size > 0 && sequence != getLastSequence() + 1) {
+            throw new IllegalArgumentException("Sequence number " + sequence + " does not follow the last sequence number: " + getLastSequence());
+        }
+        if (size == stanzas.length) {
+            grow();
+        }
+        if (size == 0) {
+            firstSequence = sequence;
+        }
+        final int index = index(size);
+        bytesAdded += data.length;
+        stanzas[index] = data;
+        timestamps[index] = System.currentTimeMillis();
+        kinds[index] = kindOf(packet);
+        ends[index] = bytesAdded;
+        size++;
+    }
+
+    /**
+     * Removes all stanzas with a sequence number that is equal to or lower than the provided value.
+     *
+     * @param sequence The highest sequence number to remove.
+     */
+    void removeUpTo(final long sequence)
+    {
+        final int count = (int) Math.min(size, sequence - firstSequence + 1);
+        if (count <= 0) {
+            return;
+        }
+        if (count == size && stanzas.length > INITIAL_CAPACITY) {
+            clear();
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            stanzas[index(i)] = null;
+        }
+        if (count == size) {
+            head = 0;
+            size = 0;
+            bytesAdded = 0;
+            bytesRemoved = 0;
+            return;
+        }
+        bytesRemoved = ends[index(count - 1)];
+        head = index(count);
+        size -= count;
+        firstSequence += count;
+    }
+
+    /**
+     * Removes the stanza that was added last.
+     *
+     * @throws NoSuchElementException when the buffer is empty.
+     */
+    void removeLast()
+    {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        final int index = index(size - 1);
+        bytesAdded -= stanzas[index].length;
+        stanzas[index] = null;
+        size--;
+    }
+
+    void clear()
+    {
+        stanzas = new byte[INITIAL_CAPACITY][];
+        timestamps = new long[INITIAL_CAPACITY];
+        kinds = new byte[INITIAL_CAPACITY];
+        ends = new long[INITIAL_CAPACITY];
+        head = 0;
+        size = 0;
+        bytesAdded = 0;
+        bytesRemoved = 0;
+    }
+
+    /**
+     * Returns a snapshot of the stanzas in this buffer, oldest first.
+     *
+     * @return The stanzas in this buffer.
+     */
+    @Nonnull
+    List<Entry> entries()
+    {
+        final List<Entry> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final int index = index(i);
+            result.add(new Entry(firstSequence + i, stanzas[index], timestamps[index], kinds[index]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the amount of slots that reference a serialized stanza.
+     *
+     * @return An amount of slots.
+     */
+    // @VisibleForTesting
+    int retainedSlots()
+    {
+        int result = 0;
+        for (final byte[] stanza : stanzas) {
+            if (stanza != null) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private int index(final int offset)
+    {
+        return (head + offset) % stanzas.length;
+    }
+
+    private void grow()
+    {
+        final int capacity = stanzas.length * 2;
+        final byte[][] newStanzas = new byte[capacity][];
+        final long[] newTimestamps = new long[capacity];
+        final byte[] newKinds = new byte[capacity];
+        final long[] newEnds = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            final int index = index(i);
+            newStanzas[i] = stanzas[index];
+            newTimestamps[i] = timestamps[index];
+            newKinds[i] = kinds[index];
+            newEnds[i] = ends[index];
+        }
+        stanzas = newStanzas;
+        timestamps = newTimestamps;
+        kinds = newKinds;
+        ends = newEnds;
+        head = 0;
+    }
+
+    private static byte kindOf(@Nonnull final Packet packet)
+    {
+        if (packet instanceof Message) {
+            return KIND_MESSAGE;
+        }
+        if (packet instanceof Presence) {
+            return KIND_PRESENCE;
+        }
+        if (packet instanceof IQ) {
+            return KIND_IQ;
+        }
+        return KIND_OTHER;
+    }
+
+    /**
+     * A stanza that was sent, but not yet acknowledged.
+     */
+    static final class Entry
+    {
+        final long sequence;
+        private final byte[] data;
+        private final long timestamp;
+        private final byte kind;
+
+        private Entry(final long sequence, @Nonnull final byte[] data, final long timestamp, final byte kind)
+        {
+            this.sequence = sequence;
+            this.data = data;
+            this.timestamp = timestamp;
+            this.kind = kind;
+        }
+
+        boolean isMessage()
+        {
+            return kind == KIND_MESSAGE;
+        }
+
+        boolean isPresence()
+        {
+            return kind == KIND_PRESENCE;
+        }
+
+        /**
+         * Returns the moment at which the stanza was sent.
+         *
+         * @return A timestamp.
+         */
+        @Nonnull
+        Date getTimestamp()
+        {
+            return new Date(timestamp);
+        }
+
+        /**
+         * Returns the stanza in serialized form.
+         *
+         * @return XML.
+         */
+        @Nonnull
+        String getXML()
+        {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Parses the stanza.
+         *
+         * @return The stanza, which is a new instance on every invocation.
+         * @throws ExecutionException when the stanza cannot be parsed.
+         * @throws InterruptedException when interrupted while parsing.
+         */
+        @Nonnull
+        Packet toPacket() throws ExecutionException, InterruptedException
+        {
+            final Element element = SAXReaderUtil.readRootElement(getXML());
+            switch (kind) {
+                case KIND_MESSAGE:  return new Message(element, true);
+                case KIND_PRESENCE: return new Presence(element, true);
+                case KIND_IQ:       return new IQ(element, true);
+                default:
+                    throw new ExecutionException(new IllegalStateException("Unsupported stanza: " + element.getName()));
+            }
+        }
+    }
+}
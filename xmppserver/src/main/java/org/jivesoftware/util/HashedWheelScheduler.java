@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes tasks at a later time, using a hashed timing wheel.
+ *
+ * Unlike {@link java.util.Timer}, which keeps its tasks in a binary heap, scheduling and cancelling a task takes
+ * constant time, and cancelled tasks are removed from the wheel (rather than remaining queued until they are due). The
+ * price for this is precision: tasks are executed on the first tick of the wheel after they are due.
+ *
+ * Tasks are executed on the single thread of the scheduler, and therefore should complete quickly. Tasks that do not
+ * are to be handed off to another thread.
+ */
+public final class HashedWheelScheduler implements HashedWheelSchedulerMBean
+{
+    private static final Logger Log = LoggerFactory.getLogger(HashedWheelScheduler.class);
+
+    private final HashedWheelTimer timer;
+    private final Duration tickDuration;
+    private final int wheelSize;
+
+    private final LongAdder scheduledTasks = new LongAdder();
+    private final LongAdder executedTasks = new LongAdder();
+    private final LongAdder cancelledTasks = new LongAdder();
+    private final LongAdder totalLatenessNanos = new LongAdder();
+    private final LongAdder measuredExecutions = new LongAdder();
+    private final AtomicLong maximumLatenessNanos = new AtomicLong();
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param threadFactory the factory for the thread that advances the wheel and executes tasks.
+     * @param tickDuration the duration of one tick of the wheel.
+     * @param wheelSize the number of buckets in the wheel (rounded up to a power of two).
+     */
+    public HashedWheelScheduler(@Nonnull final ThreadFactory threadFactory, @Nonnull final Duration tickDuration, final int wheelSize)
+    {
+        this.timer = new HashedWheelTimer(threadFactory, tickDuration.toNanos(), TimeUnit.NANOSECONDS, wheelSize, false);
+        this.tickDuration = tickDuration;
+        int normalizedWheelSize = 1;
+        while (normalizedWheelSize < wheelSize) {
+            normalizedWheelSize <<= 1;
+        }
+        this.wheelSize = normalizedWheelSize;
+    }
+
+    /**
+     * Schedules a task for execution after a delay.
+     *
+     * @param task the task to execute.
+     * @param delay the delay (zero or positive).
+     * @return the scheduled task.
+     * @throws IllegalStateException if the scheduler was stopped.
+     */
+    @Nonnull
+    public ScheduledTask schedule(@Nonnull final Runnable task, @Nonnull final Duration delay)
+    {
+        return start(new ScheduledTask(task, 0, false), delay);
+    }
+
+    /**
+     * Schedules a task for repeated execution, in which each execution is scheduled relative to the actual time of the
+     * previous execution.
+     *
+     * @param task the task to execute.
+     * @param delay the delay before the first execution (zero or positive).
+     * @param period the time between executions (positive).
+     * @return the scheduled task.
+     * @throws IllegalStateException if the scheduler was stopped.
+     */
+    @Nonnull
+    public ScheduledTask scheduleWithFixedDelay(@Nonnull final Runnable task, @Nonnull final Duration delay, @Nonnull final Duration period)
+    {
+        return start(new ScheduledTask(task, period.toNanos(), false), delay);
+    }
+
+    /**
+     * Schedules a task for repeated execution, in which each execution is scheduled relative to the scheduled time of
+     * the first execution. Executions that are delayed are followed by executions in rapid succession, to catch up.
+     *
+     * @param task the task to execute.
+     * @param delay the delay before the first execution (zero or positive).
+     * @param period the time between executions (positive).
+     * @return the scheduled task.
+     * @throws IllegalStateException if the scheduler was stopped.
+     */
+    @Nonnull
+    public ScheduledTask scheduleAtFixedRate(@Nonnull final Runnable task, @Nonnull final Duration delay, @Nonnull final Duration period)
+    {
+        return start(new ScheduledTask(task, period.toNanos(), true), delay);
+    }
+
+    private ScheduledTask start(@Nonnull final ScheduledTask scheduledTask, @Nonnull final Duration delay)
+    {
+        final long delayNanos = Math.max(0, delay.toNanos());
+        scheduledTask.arm(System.nanoTime() + delayNanos, delayNanos);
+        scheduledTasks.increment();
+        return scheduledTask;
+    }
+
+    /**
+     * Stops the scheduler. Tasks that have not yet been executed are cancelled.
+     */
+    public void stop()
+    {
+        timer.stop();
+    }
+
+    @Override
+    public long getTickDurationMillis()
+    {
+        return tickDuration.toMillis();
+    }
+
+    @Override
+    public int getWheelSize()
+    {
+        return wheelSize;
+    }
+
+    @Override
+    public long getPendingTasks()
+    {
+        return timer.pendingTimeouts();
+    }
+
+    @Override
+    public long getScheduledTasks()
+    {
+        return scheduledTasks.sum();
+    }
+
+    @Override
+    public long getExecutedTasks()
+    {
+        return executedTasks.sum();
+    }
+
+    @Override
+    public long getCancelledTasks()
+    {
+        return cancelledTasks.sum();
+    }
+
+    @Override
+    public long getAverageLatenessMicros()
+    {
+        final long count = measuredExecutions.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLatenessNanos.sum() / count);
+    }
+
+    @Override
+    public long getMaximumLatenessMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(maximumLatenessNanos.get());
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        totalLatenessNanos.reset();
+        measuredExecutions.reset();
+        maximumLatenessNanos.set(0);
+    }
+
+    private void recordLateness(final long latenessNanos)
+    {
+        final long lateness = Math.max(0, latenessNanos);
+        totalLatenessNanos.add(lateness);
+        measuredExecutions.increment();
+        maximumLatenessNanos.accumulateAndGet(lateness, Math::max);
+    }
+
+    /**
+     * A task that is scheduled for (possibly repeated) execution.
+     */
+    public final class ScheduledTask implements io.netty.util.TimerTask
+    {
+        private final Runnable task;
+        private final long periodNanos;
+        private final boolean fixedRate;
+
+        /**
+         * The time (as in {@link System#nanoTime()}) at which the next execution is due. Only accessed by the thread
+         * that schedules the task, and by the scheduler thread afterwards.
+         */
+        private long deadline;
+        private volatile Timeout timeout;
+        private volatile boolean cancelled = false;
+
+        private ScheduledTask(@Nonnull final Runnable task, final long periodNanos, final boolean fixedRate)
+        {
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.fixedRate = fixedRate;
+        }
+
+        private void arm(final long deadline, final long delayNanos)
+        {
+            this.deadline = deadline;
+            this.timeout = timer.newTimeout(this, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run(final Timeout timeout)
+        {
+            if (cancelled) {
+                return;
+            }
+            final long now = System.nanoTime();
+            recordLateness(now - deadline);
+            executedTasks.increment();
+            try {
+                task.run();
+            } catch (final Throwable t) {
+                Log.error("Failed to execute scheduled task", t);
+            }
+
+            if (periodNanos > 0 && !cancelled) {
+                try {
+                    if (fixedRate) {
+                        final long next = deadline + periodNanos;
+                        arm(next, Math.max(0, next - System.nanoTime()));
+                    } else {
+                        arm(now + periodNanos, periodNanos);
+                    }
+                } catch (final IllegalStateException e) {
+                    Log.debug("Unable to schedule the next execution of a task, as the scheduler was stopped.");
+                }
+                // The task can have been cancelled after it was checked above, in which case cancel() may have
+                // cancelled the timeout that just expired instead of the one that was created here.
+                if (cancelled) {
+                    this.timeout.cancel();
+                }
+            }
+        }
+
+        /**
+         * Cancels the task. An execution that is in progress is not interrupted, but no further executions take place.
+         *
+         * @return false if the task was already cancelled, otherwise true.
+         */
+        public boolean cancel()
+        {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            final Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+            cancelledTasks.increment();
+            return true;
+        }
+
+        /**
+         * Checks if the task was cancelled.
+         *
+         * @return true if the task was cancelled.
+         */
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+    }
+}
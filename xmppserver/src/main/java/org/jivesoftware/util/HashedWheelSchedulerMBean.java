@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util;
+
+/**
+ * MBean definition for the scheduler that is used by the {@link TaskEngine} to execute tasks at a later time (as
+ * implemented by {@link HashedWheelScheduler}).
+ */
+public interface HashedWheelSchedulerMBean
+{
+    String OBJECT_NAME = "org.igniterealtime.openfire:type=TaskEngineScheduler";
+
+    /**
+     * Returns the duration (in milliseconds) of one tick of the timing wheel, which is the resolution of the scheduler.
+     *
+     * @return a duration in milliseconds.
+     */
+    long getTickDurationMillis();
+
+    /**
+     * Returns the number of buckets in the timing wheel.
+     *
+     * @return the wheel size.
+     */
+    int getWheelSize();
+
+    /**
+     * Returns the number of executions that are scheduled, but that have not yet taken place.
+     *
+     * @return the number of pending executions.
+     */
+    long getPendingTasks();
+
+    /**
+     * Returns the total number of tasks that have been scheduled.
+     *
+     * @return the number of scheduled tasks.
+     */
+    long getScheduledTasks();
+
+    /**
+     * Returns the total number of task executions that have taken place.
+     *
+     * @return the number of executions.
+     */
+    long getExecutedTasks();
+
+    /**
+     * Returns the total number of tasks that have been cancelled.
+     *
+     * @return the number of cancelled tasks.
+     */
+    long getCancelledTasks();
+
+    /**
+     * Returns the average time (in microseconds) by which executions took place later than the time they were
+     * scheduled for.
+     *
+     * @return an average duration in microseconds.
+     */
+    long getAverageLatenessMicros();
+
+    /**
+     * Returns the longest time (in microseconds) by which an execution took place later than the time it was scheduled
+     * for.
+     *
+     * @return a duration in microseconds.
+     */
+    long getMaximumLatenessMicros();
+
+    /**
+     * Resets the statistics that are collected for lateness.
+     */
+    void resetStatistics();
+}
@@ -40,6 +40,10 @@ import java.util.concurrent.*;
  * executor's thread pool. This means that the standard restriction that TimerTasks
  * should run quickly does not apply.
  *
+ * Scheduled tasks are kept in a hashed timing wheel (see {@link HashedWheelScheduler}),
+ * in which scheduling and cancelling a task takes constant time. Tasks are executed on
+ * the first tick of the wheel after they are due.
+ *
  * @author Matt Tucker
  */
 public class TaskEngine {
@@ -76,11 +80,38 @@ public class TaskEngine {
         .setDynamic(false)
         .build();
 
+    /**
+     * The duration of one tick of the timing wheel that is used to schedule tasks of Openfire's TaskEngine. This is the resolution with which tasks are executed at their scheduled time.
+     */
+    public static final SystemProperty<Duration> TIMER_TICK_DURATION = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.taskengine.timer.tick")
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDefaultValue(Duration.ofMillis(10))
+        .setMinValue(Duration.ofMillis(1))
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The number of buckets in the timing wheel that is used to schedule tasks of Openfire's TaskEngine (rounded up to a power of two).
+     */
+    public static final SystemProperty<Integer> TIMER_WHEEL_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.taskengine.timer.wheel-size")
+        .setMinValue(1)
+        .setMaxValue(1 << 30)
+        .setDefaultValue(512)
+        .setDynamic(false)
+        .build();
+
     /**
      * Object name used to register delegate MBean (JMX) for the taskengine thread pool executor.
      */
     private ObjectName objectName;
 
+    /**
+     * Object name used to register the MBean (JMX) for the scheduler of the taskengine.
+     */
+    private ObjectName schedulerObjectName;
+
     private static final TaskEngine instance = new TaskEngine();
 
     /**
@@ -92,15 +123,19 @@ public class TaskEngine {
         return instance;
     }
 
-    private Timer timer;
+    private HashedWheelScheduler scheduler;
     private ThreadPoolExecutor executor;
-    private final Map<TimerTask, TimerTaskWrapper> wrappedTasks = new ConcurrentHashMap<>();
+    private final Map<TimerTask, HashedWheelScheduler.ScheduledTask> wrappedTasks = new ConcurrentHashMap<>();
 
     /**
      * Constructs a new task engine.
      */
     private TaskEngine() {
-        timer = new Timer("TaskEngine-timer", true);
+        scheduler = new HashedWheelScheduler(runnable -> {
+            final Thread thread = new Thread(runnable, "TaskEngine-timer");
+            thread.setDaemon(true);
+            return thread;
+        }, TIMER_TICK_DURATION.getValue(), TIMER_WHEEL_SIZE.getValue());
         final ThreadFactory threadFactory = new NamedThreadFactory( "TaskEngine-pool-", true, Thread.NORM_PRIORITY, Thread.currentThread().getThreadGroup(), 0L );
         executor = new ThreadPoolExecutor(
             EXECUTOR_CORE_POOL_SIZE.getValue(),
@@ -113,6 +148,7 @@ public class TaskEngine {
         if (JMXManager.isEnabled()) {
             final ThreadPoolExecutorDelegateMBean mBean = new ThreadPoolExecutorDelegate(executor);
             objectName = JMXManager.tryRegister(mBean, ThreadPoolExecutorDelegateMBean.BASE_OBJECT_NAME + "taskEngine");
+            schedulerObjectName = JMXManager.tryRegister(scheduler, HashedWheelSchedulerMBean.OBJECT_NAME);
         }
     }
 
@@ -141,7 +177,7 @@ public class TaskEngine {
      */
     @Deprecated // Remove in Openfire 4.9.0 or later.
     public void schedule(TimerTask task, long delay) {
-        timer.schedule(new TimerTaskWrapper(task), delay);
+        schedule(task, Duration.ofMillis(delay));
     }
 
     /**
@@ -151,11 +187,11 @@ public class TaskEngine {
      * @param delay delay before task is to be executed.
      * @throws IllegalArgumentException if {@code delay} is negative, or
      *         {@code delay + System.currentTimeMillis()} is negative.
-     * @throws IllegalStateException if task was already scheduled or
-     *         cancelled, or timer was cancelled.
+     * @throws IllegalStateException if the task engine was shut down.
      */
     public void schedule(TimerTask task, Duration delay) {
-        timer.schedule(new TimerTaskWrapper(task), delay.toMillis());
+        checkDelay(delay);
+        getScheduler().schedule(new TimerTaskWrapper(task), delay);
     }
 
     /**
@@ -163,7 +199,7 @@ public class TaskEngine {
      */
     @Deprecated // Remove in Openfire 4.9.0 or later.
     public void schedule(TimerTask task, Date time) {
-        timer.schedule(new TimerTaskWrapper(task), time);
+        schedule(task, time.toInstant());
     }
 
     /**
@@ -173,11 +209,11 @@ public class TaskEngine {
      * @param task task to be scheduled.
      * @param time time at which task is to be executed.
      * @throws IllegalArgumentException if {@code time.getTime()} is negative.
-     * @throws IllegalStateException if task was already scheduled or
-     *         cancelled, timer was cancelled, or timer thread terminated.
+     * @throws IllegalStateException if the task engine was shut down.
      */
     public void schedule(TimerTask task, Instant time) {
-        timer.schedule(new TimerTaskWrapper(task), Date.from(time));
+        checkTime(time);
+        getScheduler().schedule(new TimerTaskWrapper(task), delayUntil(time));
     }
 
     /**
@@ -185,9 +221,7 @@ public class TaskEngine {
      */
     @Deprecated // Remove in Openfire 4.9.0 or later.
     public void schedule(TimerTask task, long delay, long period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.schedule(taskWrapper, delay, period);
+        schedule(task, Duration.ofMillis(delay), Duration.ofMillis(period));
     }
 
     /**
@@ -217,14 +251,13 @@ public class TaskEngine {
      * @param period time between successive task executions.
      * @throws IllegalArgumentException if {@code delay} is negative, or
      *         {@code delay + System.currentTimeMillis()} is negative.
-     * @throws IllegalStateException if task was already scheduled or
-     *         cancelled, timer was cancelled, or timer thread terminated.
+     * @throws IllegalStateException if the task engine was shut down.
      *
      */
     public void schedule(TimerTask task, Duration delay, Duration period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.schedule(taskWrapper, delay.toMillis(), period.toMillis());
+        checkDelay(delay);
+        checkPeriod(period);
+        wrappedTasks.put(task, getScheduler().scheduleWithFixedDelay(new TimerTaskWrapper(task), delay, period));
     }
 
     /**
@@ -232,9 +265,7 @@ public class TaskEngine {
      */
     @Deprecated // Remove in Openfire 4.9.0 or later.
     public void schedule(TimerTask task, Date firstTime, long period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.schedule(taskWrapper, firstTime, period);
+        schedule(task, firstTime.toInstant(), Duration.ofMillis(period));
     }
 
     /**
@@ -263,13 +294,12 @@ public class TaskEngine {
      * @param firstTime First time at which task is to be executed.
      * @param period time between successive task executions.
      * @throws IllegalArgumentException if {@code time.getTime()} is negative.
-     * @throws IllegalStateException if task was already scheduled or
-     *         cancelled, timer was cancelled, or timer thread terminated.
+     * @throws IllegalStateException if the task engine was shut down.
      */
     public void schedule(TimerTask task, Instant firstTime, Duration period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.schedule(taskWrapper, Date.from(firstTime), period.toMillis());
+        checkTime(firstTime);
+        checkPeriod(period);
+        wrappedTasks.put(task, getScheduler().scheduleWithFixedDelay(new TimerTaskWrapper(task), delayUntil(firstTime), period));
     }
 
     /**
@@ -277,9 +307,7 @@ public class TaskEngine {
      */
     @Deprecated // Remove in Openfire 4.9.0 or later.
     public void scheduleAtFixedRate(TimerTask task, long delay, long period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.scheduleAtFixedRate(taskWrapper, delay, period);
+        scheduleAtFixedRate(task, Duration.ofMillis(delay), Duration.ofMillis(period));
     }
 
     /**
@@ -310,13 +338,12 @@ public class TaskEngine {
      * @param period time between successive task executions.
      * @throws IllegalArgumentException if {@code delay} is negative, or
      *         {@code delay + System.currentTimeMillis()} is negative.
-     * @throws IllegalStateException if task was already scheduled or
-     *         cancelled, timer was cancelled, or timer thread terminated.
+     * @throws IllegalStateException if the task engine was shut down.
      */
     public void scheduleAtFixedRate(TimerTask task, Duration delay, Duration period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.scheduleAtFixedRate(taskWrapper, delay.toMillis(), period.toMillis());
+        checkDelay(delay);
+        checkPeriod(period);
+        wrappedTasks.put(task, getScheduler().scheduleAtFixedRate(new TimerTaskWrapper(task), delay, period));
     }
 
     /**
@@ -324,9 +351,7 @@ public class TaskEngine {
      */
     @Deprecated // Remove in Openfire 4.9.0 or later.
     public void scheduleAtFixedRate(TimerTask task, Date firstTime, long period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.scheduleAtFixedRate(taskWrapper, firstTime, period);
+        scheduleAtFixedRate(task, firstTime.toInstant(), Duration.ofMillis(period));
     }
 
     /**
@@ -356,13 +381,12 @@ public class TaskEngine {
      * @param firstTime First time at which task is to be executed.
      * @param period time between successive task executions.
      * @throws IllegalArgumentException if {@code time.getTime()} is negative.
-     * @throws IllegalStateException if task was already scheduled or
-     *         cancelled, timer was cancelled, or timer thread terminated.
+     * @throws IllegalStateException if the task engine was shut down.
      */
     public void scheduleAtFixedRate(TimerTask task, Instant firstTime, Duration period) {
-        TimerTaskWrapper taskWrapper = new TimerTaskWrapper(task);
-        wrappedTasks.put(task, taskWrapper);
-        timer.scheduleAtFixedRate(taskWrapper, Date.from(firstTime), period.toMillis());
+        checkTime(firstTime);
+        checkPeriod(period);
+        wrappedTasks.put(task, getScheduler().scheduleAtFixedRate(new TimerTaskWrapper(task), delayUntil(firstTime), period));
     }
 
     /**
@@ -371,12 +395,43 @@ public class TaskEngine {
      * @param task the scheduled task to cancel.
      */
     public void cancelScheduledTask(TimerTask task) {
-        TaskEngine.TimerTaskWrapper taskWrapper = wrappedTasks.remove(task);
-        if (taskWrapper != null) {
-            taskWrapper.cancel();
+        final HashedWheelScheduler.ScheduledTask scheduledTask = wrappedTasks.remove(task);
+        if (scheduledTask != null) {
+            scheduledTask.cancel();
         }
     }
 
+    private HashedWheelScheduler getScheduler() {
+        final HashedWheelScheduler result = scheduler;
+        if (result == null) {
+            throw new IllegalStateException("Task engine was shut down.");
+        }
+        return result;
+    }
+
+    private static void checkDelay(Duration delay) {
+        if (delay.isNegative()) {
+            throw new IllegalArgumentException("Negative delay.");
+        }
+    }
+
+    private static void checkTime(Instant time) {
+        if (time.toEpochMilli() < 0) {
+            throw new IllegalArgumentException("Illegal execution time.");
+        }
+    }
+
+    private static void checkPeriod(Duration period) {
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("Non-positive period.");
+        }
+    }
+
+    private static Duration delayUntil(Instant time) {
+        final Duration delay = Duration.between(Instant.now(), time);
+        return delay.isNegative() ? Duration.ZERO : delay;
+    }
+
     /**
      * Shuts down the task engine service.
      */
@@ -386,14 +441,19 @@ public class TaskEngine {
             objectName = null;
         }
 
+        if (schedulerObjectName != null) {
+            JMXManager.tryUnregister(schedulerObjectName);
+            schedulerObjectName = null;
+        }
+
         if (executor != null) {
             executor.shutdown();
             executor = null;
         }
 
-        if (timer != null) {
-            timer.cancel();
-            timer = null;
+        if (scheduler != null) {
+            scheduler.stop();
+            scheduler = null;
         }
     }
 
@@ -401,7 +461,7 @@ public class TaskEngine {
      * Wrapper class for a standard TimerTask. It simply executes the TimerTask
      * using the executor's thread pool.
      */
-    private class TimerTaskWrapper extends TimerTask {
+    private class TimerTaskWrapper implements Runnable {
 
         private TimerTask task;
 
@@ -414,7 +474,7 @@ public class TaskEngine {
             try {
                 submit(task);
             } catch (Throwable t) {
-                // need to catch here to prevent Timer from canceling TimerThread
+                // need to catch here to prevent the failure from affecting the scheduler
                 Log.error("Failed to execute TimerTask", t);
             }
         }
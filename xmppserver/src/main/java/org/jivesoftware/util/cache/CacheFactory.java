@@ -15,9 +15,11 @@
  */
 package org.jivesoftware.util.cache;
 
+import org.jivesoftware.openfire.RemotePacketRouter;
 import org.jivesoftware.openfire.SessionManager;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.XMPPServerListener;
+import org.jivesoftware.openfire.cluster.BatchingClusterPacketRouter;
 import org.jivesoftware.openfire.cluster.ClusterEventListener;
 import org.jivesoftware.openfire.cluster.ClusterManager;
 import org.jivesoftware.openfire.cluster.ClusterNodeInfo;
@@ -79,6 +81,11 @@ public class CacheFactory {
      * in local xml properties in previous versions.
      */
     private static final Map<String, String> cacheNames = new HashMap<>();
+    /**
+     * This map contains the short names of caches that have been replaced, by the name of the cache that replaced them.
+     * Properties that were defined for the replaced cache apply to its replacement, unless the replacement has its own.
+     */
+    private static final Map<String, String> replacedCacheNames = new HashMap<>();
     /**
      * Default properties to use for local caches. Default properties can be overridden
      * by setting the corresponding system properties.
@@ -101,7 +108,6 @@ public class CacheFactory {
         clusteredCacheFactoryClass = JiveGlobals.getProperty(CLUSTERED_CACHE_PROPERTY_NAME,
                 "org.jivesoftware.openfire.plugin.util.cache.ClusteredCacheFactory");
 
-        cacheNames.put("DNS Records", "dnsRecords");
         cacheNames.put("Favicon Hits", "faviconHits");
         cacheNames.put("Favicon Misses", "faviconMisses");
         cacheNames.put("Group", "group");
@@ -123,6 +129,8 @@ public class CacheFactory {
         cacheNames.put("File Transfer", "transferProxy");
         cacheNames.put("POP3 Authentication", "pop3");
         cacheNames.put("LDAP Authentication", "ldap");
+        cacheNames.put("LDAP UserDN", "ldapUserDN");
+        cacheNames.put("LDAP UserDN Misses", "ldapUserDNMisses");
         cacheNames.put("Routing Servers Cache", "routeServer");
         cacheNames.put("Routing Components Cache", "routeComponent");
         cacheNames.put("Routing Users Cache", "routeUser");
@@ -149,11 +157,14 @@ public class CacheFactory {
         cacheNames.put("JID Domain-parts", "jidDomainprep");
         cacheNames.put("JID Resource-parts", "jidResourceprep");
         cacheNames.put("Sequences", "sequences");
-        cacheNames.put("MUC History", "mucHistory");
+        cacheNames.put("MUC History Index", "mucHistoryIndex");
+        cacheNames.put("MUC History Entries", "mucHistoryEntries");
         cacheNames.put("MUC Service Pings Sent", "mucPings");
 
-        cacheProps.put(PROPERTY_PREFIX_CACHE + "dnsRecords" + PROPERTY_SUFFIX_SIZE, 1_048_576L);
-        cacheProps.put(PROPERTY_PREFIX_CACHE + "dnsRecords" + PROPERTY_SUFFIX_MAX_LIFE_TIME, Duration.ofMinutes(1).toMillis());
+        // The 'MUC History' cache, that held the entire history of each room, was split in an index per room and an
+        // entry per message. The memory that is used by the history is determined by the latter.
+        replacedCacheNames.put("MUC History Entries", "mucHistory");
+
         cacheProps.put(PROPERTY_PREFIX_CACHE + "fileTransfer" + PROPERTY_SUFFIX_SIZE, 1_048_576L);
         cacheProps.put(PROPERTY_PREFIX_CACHE + "fileTransfer" + PROPERTY_SUFFIX_MAX_LIFE_TIME, Duration.ofMinutes(10).toMillis());
         cacheProps.put(PROPERTY_PREFIX_CACHE + "multicast" + PROPERTY_SUFFIX_SIZE, 1_048_576L);
@@ -180,6 +191,10 @@ public class CacheFactory {
         cacheProps.put(PROPERTY_PREFIX_CACHE + "javascript" + PROPERTY_SUFFIX_MAX_LIFE_TIME, Duration.ofDays(10).toMillis());
         cacheProps.put(PROPERTY_PREFIX_CACHE + "ldap" + PROPERTY_SUFFIX_SIZE, 5_242_880L);
         cacheProps.put(PROPERTY_PREFIX_CACHE + "ldap" + PROPERTY_SUFFIX_MAX_LIFE_TIME, Duration.ofHours(2).toMillis());
+        cacheProps.put(PROPERTY_PREFIX_CACHE + "ldapUserDN" + PROPERTY_SUFFIX_SIZE, 5_242_880L);
+        cacheProps.put(PROPERTY_PREFIX_CACHE + "ldapUserDN" + PROPERTY_SUFFIX_MAX_LIFE_TIME, Duration.ofHours(2).toMillis());
+        cacheProps.put(PROPERTY_PREFIX_CACHE + "ldapUserDNMisses" + PROPERTY_SUFFIX_SIZE, 1_048_576L);
+        cacheProps.put(PROPERTY_PREFIX_CACHE + "ldapUserDNMisses" + PROPERTY_SUFFIX_MAX_LIFE_TIME, Duration.ofMinutes(5).toMillis());
         cacheProps.put(PROPERTY_PREFIX_CACHE + "listsCache" + PROPERTY_SUFFIX_SIZE, 5_242_880L);
         cacheProps.put(PROPERTY_PREFIX_CACHE + "offlinePresence" + PROPERTY_SUFFIX_SIZE, 5_242_880L);
         cacheProps.put(PROPERTY_PREFIX_CACHE + "lastActivity" + PROPERTY_SUFFIX_SIZE, 1_048_576L);
@@ -238,8 +253,10 @@ public class CacheFactory {
         cacheProps.put(PROPERTY_PREFIX_CACHE + "publishedItems" + PROPERTY_SUFFIX_MAX_LIFE_TIME, Duration.ofMinutes(15).toMillis());
         cacheProps.put(PROPERTY_PREFIX_CACHE + "sequences" + PROPERTY_SUFFIX_SIZE, -1L);
         cacheProps.put(PROPERTY_PREFIX_CACHE + "sequences" + PROPERTY_SUFFIX_MAX_LIFE_TIME, -1L);
-        cacheProps.put(PROPERTY_PREFIX_CACHE + "mucHistory" + PROPERTY_SUFFIX_SIZE, -1L);
-        cacheProps.put(PROPERTY_PREFIX_CACHE + "mucHistory" + PROPERTY_SUFFIX_MAX_LIFE_TIME, -1L);
+        cacheProps.put(PROPERTY_PREFIX_CACHE + "mucHistoryIndex" + PROPERTY_SUFFIX_SIZE, -1L);
+        cacheProps.put(PROPERTY_PREFIX_CACHE + "mucHistoryIndex" + PROPERTY_SUFFIX_MAX_LIFE_TIME, -1L);
+        cacheProps.put(PROPERTY_PREFIX_CACHE + "mucHistoryEntries" + PROPERTY_SUFFIX_SIZE, 268_435_456L);
+        cacheProps.put(PROPERTY_PREFIX_CACHE + "mucHistoryEntries" + PROPERTY_SUFFIX_MAX_LIFE_TIME, -1L);
         cacheProps.put(PROPERTY_PREFIX_CACHE + "mucPings" + PROPERTY_SUFFIX_SIZE, -1L);
         cacheProps.put(PROPERTY_PREFIX_CACHE + "mucPings" + PROPERTY_SUFFIX_MAX_LIFE_TIME, Duration.ofMinutes(30).toMillis());
 
@@ -407,6 +424,15 @@ public class CacheFactory {
             }
         }
 
+        // See if property is using the short name of a cache that was replaced.
+        for ( final Map.Entry<String, String> entry : replacedCacheNames.entrySet() )
+        {
+            if ( name.equals( entry.getValue() ) )
+            {
+                return caches.get( entry.getKey() );
+            }
+        }
+
         // If not a short name, then try for a normalized name.
         for ( final Map.Entry<String, Cache> entry : caches.entrySet() )
         {
@@ -428,6 +454,15 @@ public class CacheFactory {
             propName = PROPERTY_PREFIX_CACHE + cacheNames.get(cacheName) + suffix;
             sizeProp = JiveGlobals.getProperty(propName);
         }
+        if (sizeProp == null && replacedCacheNames.containsKey(cacheName)) {
+            // No system property was found for the cache, so try now with the short name of the cache that it replaced
+            final String replacedPropName = PROPERTY_PREFIX_CACHE + replacedCacheNames.get(cacheName) + suffix;
+            sizeProp = JiveGlobals.getProperty(replacedPropName);
+            if (sizeProp != null) {
+                log.warn("Using the value of deprecated property '{}' for cache '{}'. Please use '{}' instead.", replacedPropName, cacheName, propName);
+                propName = replacedPropName;
+            }
+        }
         if (sizeProp != null) {
             try {
                 return Long.parseLong(sizeProp);
@@ -450,6 +485,15 @@ public class CacheFactory {
             propName = PROPERTY_PREFIX_CACHE + cacheNames.get(cacheName) + suffix;
             sizeProp = JiveGlobals.getProperty(propName);
         }
+        if (sizeProp == null && replacedCacheNames.containsKey(cacheName)) {
+            // No system property was found for the cache, so try now with the short name of the cache that it replaced
+            final String replacedPropName = PROPERTY_PREFIX_CACHE + replacedCacheNames.get(cacheName) + suffix;
+            sizeProp = JiveGlobals.getProperty(replacedPropName);
+            if (sizeProp != null) {
+                log.warn("Using the value of deprecated property '{}' for cache '{}'. Please use '{}' instead.", replacedPropName, cacheName, propName);
+                propName = replacedPropName;
+            }
+        }
         if (sizeProp != null) {
             try {
                 Long.parseLong(sizeProp);
@@ -852,7 +896,13 @@ public class CacheFactory {
             // Set session locator to use when in a cluster
             XMPPServer.getInstance().setRemoteSessionLocator(new RemoteSessionLocatorImpl());
             // Set packet router to use to deliver packets to remote cluster nodes
-            XMPPServer.getInstance().getRoutingTable().setRemotePacketRouter(new ClusterPacketRouter());
+            if (BatchingClusterPacketRouter.ENABLED.getValue()) {
+                final BatchingClusterPacketRouter remotePacketRouter = new BatchingClusterPacketRouter();
+                ClusterManager.addListener(remotePacketRouter);
+                XMPPServer.getInstance().getRoutingTable().setRemotePacketRouter(remotePacketRouter);
+            } else {
+                XMPPServer.getInstance().getRoutingTable().setRemotePacketRouter(new ClusterPacketRouter());
+            }
             clusteringStarted = clusteredCacheFactoryStrategy.startCluster();
             clusteringStarting = false;
         }
@@ -923,11 +973,17 @@ public class CacheFactory {
     }
 
     public static void stopClustering() {
+        // Send the packets that are queued for other nodes while this node is still a member of the cluster.
+        final RemotePacketRouter remotePacketRouter = XMPPServer.getInstance().getRoutingTable().getRemotePacketRouter();
+        XMPPServer.getInstance().getRoutingTable().setRemotePacketRouter(null);
+        if (remotePacketRouter instanceof BatchingClusterPacketRouter) {
+            ClusterManager.removeListener((BatchingClusterPacketRouter) remotePacketRouter);
+            ((BatchingClusterPacketRouter) remotePacketRouter).shutdown();
+        }
         // Stop the cluster
         clusteredCacheFactoryStrategy.stopCluster();
         clusteredCacheFactoryStrategy = null;
         XMPPServer.getInstance().setRemoteSessionLocator(null);
-        XMPPServer.getInstance().getRoutingTable().setRemotePacketRouter(null);
         // Set the strategy to local
         cacheFactoryStrategy = localCacheFactoryStrategy;
     }
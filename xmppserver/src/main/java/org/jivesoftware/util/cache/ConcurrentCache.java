@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.jivesoftware.openfire.cluster.ClusteredCacheEntryListener;
+import org.jivesoftware.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Non-distributed implementation of the Cache interface that, unlike {@link DefaultCache}, does not synchronize on
+ * every access. It is backed by a Caffeine cache that is bounded by the (approximate) size of its content in bytes.
+ *
+ * This implementation is functionally equivalent to {@link DefaultCache}: the size of entries is calculated by
+ * {@link CacheSizes#sizeOfAnything(Object)}, entries expire a fixed amount of time after they were added, and objects
+ * that are larger than 90% of the maximum cache size are not added at all. The notable difference is the eviction
+ * policy: when the cache is full, Caffeine removes the entries that are least likely to be used again (based on both
+ * frequency and recency of access), one entry at a time, instead of removing the least recently used entries until
+ * the cache is 10% empty. Every second in which one or more entries were removed because the cache was full is
+ * counted as a 'cull'.
+ *
+ * As Caffeine does not support null keys, null keys are never stored, even when the 'cache.allow.null' property
+ * allows null values to be stored.
+ *
+ * @param <K> Cache key type.
+ * @param <V> Cache value type.
+ * @see ConcurrentLocalCacheStrategy
+ */
+public class ConcurrentCache<K extends Serializable, V extends Serializable> implements Cache<K, V> {
+
+    private static final Logger Log = LoggerFactory.getLogger(ConcurrentCache.class);
+
+    private final com.github.benmanes.caffeine.cache.Cache<K, CacheObject<V>> cache;
+
+    // Contains the set of (whole) seconds in which entries were evicted because the cache was full.
+    private final Set<Long> cullTimes = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    private volatile long maxCacheSize;
+    private volatile long maxLifetime;
+    private volatile String name;
+
+    /**
+     * Create a new cache and specify the maximum size of for the cache in
+     * bytes, and the maximum lifetime of objects.
+     *
+     * @param name a name for the cache.
+     * @param maxSize the maximum size of the cache in bytes. -1 means the cache
+     *      has no max size.
+     * @param maxLifetime the maximum amount of time objects can exist in
+     *      cache before being deleted. -1 means objects never expire.
+     */
+    public ConcurrentCache(final String name, final long maxSize, final long maxLifetime) {
+        this.name = name;
+        this.maxCacheSize = maxSize;
+        this.maxLifetime = maxLifetime;
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(maxSize < 0 ? Long.MAX_VALUE : maxSize)
+            .weigher((K key, CacheObject<V> value) -> value.size)
+            .expireAfter(new LifetimeExpiry())
+            .removalListener((K key, CacheObject<V> value, RemovalCause cause) -> {
+                if (cause == RemovalCause.SIZE) {
+                    final long now = System.currentTimeMillis();
+                    cullTimes.add(now - now % 1000);
+                }
+            })
+            // Perform maintenance (including eviction) on the calling thread, like DefaultCache does.
+            .executor(Runnable::run)
+            .build();
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        if (!checkNotNull(key, DefaultCache.NULL_KEY_IS_NOT_ALLOWED)) {
+            Log.debug("Cache: {} -- not storing value for null key.", name);
+            return null;
+        }
+        checkNotNull(value, DefaultCache.NULL_VALUE_IS_NOT_ALLOWED);
+
+        int objectSize = 1;
+        try {
+            objectSize = CacheSizes.sizeOfAnything(value);
+        }
+        catch (final CannotCalculateSizeException e) {
+            Log.warn(e.getMessage(), e);
+        }
+
+        // If the object is bigger than the entire cache, simply don't add it (but do remove the old entry).
+        if (maxCacheSize > 0 && objectSize > maxCacheSize * .90) {
+            Log.warn("Cache: " + name + " -- object with key " + key +
+                " is too large to fit in cache. Size is " + objectSize);
+            return unwrap(cache.asMap().remove(key));
+        }
+
+        return unwrap(cache.asMap().put(key, new CacheObject<>(value, objectSize)));
+    }
+
+    @Override
+    public V get(final Object key) {
+        if (!checkNotNull(key, DefaultCache.NULL_KEY_IS_NOT_ALLOWED)) {
+            cacheMisses.increment();
+            return null;
+        }
+        final CacheObject<V> cacheObject = cache.getIfPresent(key);
+        if (cacheObject == null) {
+            cacheMisses.increment();
+            return null;
+        }
+        cacheHits.increment();
+        return cacheObject.object;
+    }
+
+    @Override
+    public V remove(final Object key) {
+        if (!checkNotNull(key, DefaultCache.NULL_KEY_IS_NOT_ALLOWED)) {
+            return null;
+        }
+        return unwrap(cache.asMap().remove(key));
+    }
+
+    @Override
+    public void clear() {
+        cache.invalidateAll();
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, cache.estimatedSize());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return cache.asMap().isEmpty();
+    }
+
+    @Override
+    @Nonnull
+    public Collection<V> values() {
+        return cache.asMap().values().stream()
+            .map(cacheObject -> cacheObject.object)
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        if (!checkNotNull(key, DefaultCache.NULL_KEY_IS_NOT_ALLOWED)) {
+            return false;
+        }
+        return cache.asMap().containsKey(key);
+    }
+
+    @Override
+    public void putAll(final Map<? extends K, ? extends V> map) {
+        for (final Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public boolean containsValue(final Object value) {
+        checkNotNull(value, DefaultCache.NULL_VALUE_IS_NOT_ALLOWED);
+        return cache.asMap().values().stream().anyMatch(cacheObject -> Objects.equals(value, cacheObject.object));
+    }
+
+    @Override
+    @Nonnull
+    public Set<Entry<K, V>> entrySet() {
+        final Map<K, V> result = new HashMap<>();
+        cache.asMap().forEach((key, cacheObject) -> result.put(key, cacheObject.object));
+        return result.entrySet();
+    }
+
+    @Override
+    @Nonnull
+    public Set<K> keySet() {
+        return new HashSet<>(cache.asMap().keySet());
+    }
+
+    /**
+     * Returns the name of this cache. The name is completely arbitrary
+     * and used only for display to administrators.
+     *
+     * @return the name of this cache.
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the name of this cache.
+     *
+     * @param name the name of this cache.
+     */
+    @Override
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the number of cache hits. A cache hit occurs every
+     * time the get method is called and the cache contains the requested
+     * object.<p>
+     *
+     * Keeping track of cache hits and misses lets one measure how efficient
+     * the cache is; the higher the percentage of hits, the more efficient.
+     *
+     * @return the number of cache hits.
+     */
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Returns the number of cache misses. A cache miss occurs every
+     * time the get method is called and the cache does not contain the
+     * requested object.<p>
+     *
+     * Keeping track of cache hits and misses lets one measure how efficient
+     * the cache is; the higher the percentage of hits, the more efficient.
+     *
+     * @return the number of cache hits.
+     */
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getLongCacheSize() {
+        // The cache is always configured with a weight-based eviction policy.
+        return cache.policy().eviction().get().weightedSize().getAsLong();
+    }
+
+    /**
+     * Returns the maximum size of the cache (in bytes). If the cache grows larger
+     * than the max size, the least valuable items will be removed. If
+     * the max cache size is set to -1, there is no size limit.
+     *
+     * @return the maximum size of the cache (-1 indicates unlimited max size).
+     */
+    @Override
+    public long getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * Sets the maximum size of the cache in bytes. If the cache grows larger
+     * than the max size, the least valuable items will be removed. If
+     * the max cache size is set to -1, there is no size limit.
+     *
+     * @param maxSize the maximum size of the cache in bytes.
+     */
+    @Override
+    public void setMaxCacheSize(final long maxSize) {
+        this.maxCacheSize = maxSize;
+        CacheFactory.setMaxSizeProperty(name, maxSize);
+        // It's possible that the new max size is smaller than our current cache
+        // size. If so, Caffeine will evict entries immediately.
+        cache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(maxSize < 0 ? Long.MAX_VALUE : maxSize));
+    }
+
+    /**
+     * Returns the maximum number of milliseconds that any object can live
+     * in cache. Once the specified number of milliseconds passes, the object
+     * will be automatically expired from cache. If the max lifetime is set
+     * to -1, then objects never expire.
+     *
+     * @return the maximum number of milliseconds before objects are expired.
+     */
+    @Override
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    /**
+     * Sets the maximum number of milliseconds that any object can live
+     * in cache. Once the specified number of milliseconds passes, the object
+     * will be automatically expired from cache. If the max lifetime is set
+     * to -1, then objects never expire.
+     *
+     * The new lifetime is applied to all objects that are in the cache, based on the time at which they were added.
+     *
+     * @param maxLifetime the maximum number of milliseconds before objects are expired.
+     */
+    @Override
+    public void setMaxLifetime(final long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+        CacheFactory.setMaxLifetimeProperty(name, maxLifetime);
+        cache.policy().expireVariably().ifPresent(expiration -> {
+            final long now = System.currentTimeMillis();
+            for (final Entry<K, CacheObject<V>> entry : cache.asMap().entrySet()) {
+                if (maxLifetime <= 0) {
+                    expiration.setExpiresAfter(entry.getKey(), Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } else {
+                    final long remaining = entry.getValue().timestamp + maxLifetime - now;
+                    if (remaining <= 0) {
+                        cache.invalidate(entry.getKey());
+                    } else {
+                        expiration.setExpiresAfter(entry.getKey(), remaining, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of times that entries were removed from the cache because it was full, during a period of
+     * time that ends now. Evictions are counted once for every second in which they occurred.
+     *
+     * @param duration The period of time for which to count culls (cannot exceed twelve hours).
+     * @return the number of culls
+     */
+    public long getCacheCulls(final Duration duration) {
+        final long millis = duration.toMillis();
+        if (millis > DefaultCache.MAX_CULL_COUNT_PERIOD) {
+            throw new IllegalArgumentException("Request duration exceed maximum of " + StringUtils.getFullElapsedTime(duration));
+        }
+        cache.cleanUp();
+        final long now = System.currentTimeMillis();
+        cullTimes.removeIf(cullTime -> cullTime < now - DefaultCache.MAX_CULL_COUNT_PERIOD);
+        final long oldestCullToCount = now - millis;
+        return cullTimes.stream()
+            .filter(cullTime -> cullTime >= oldestCullToCount)
+            .count();
+    }
+
+    private V unwrap(final CacheObject<V> cacheObject) {
+        return cacheObject == null ? null : cacheObject.object;
+    }
+
+    /**
+     * Verifies that an argument is not null. When null values are allowed, a null argument is only logged.
+     *
+     * @return true if the argument is not null, otherwise false.
+     */
+    private boolean checkNotNull(final Object argument, final String message) {
+        if (argument != null) {
+            return true;
+        }
+        final NullPointerException e = new NullPointerException(message);
+        if (DefaultCache.allowNull) {
+            Log.debug("Allowing storage of null within Cache: ", e); // Gives us a trace for debugging.
+            return false;
+        }
+        throw e;
+    }
+
+    @Override
+    public String addClusteredCacheEntryListener(@Nonnull final ClusteredCacheEntryListener<K, V> listener, final boolean includeValues, final boolean includeEventsFromLocalNode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeClusteredCacheEntryListener(@Nonnull final String listenerId) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Expires entries after the maximum lifetime of the cache, counted from the moment that they were added.
+     */
+    private class LifetimeExpiry implements Expiry<K, CacheObject<V>> {
+
+        @Override
+        public long expireAfterCreate(final K key, final CacheObject<V> value, final long currentTime) {
+            final long lifetime = maxLifetime;
+            return lifetime <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(lifetime);
+        }
+
+        @Override
+        public long expireAfterUpdate(final K key, final CacheObject<V> value, final long currentTime, final long currentDuration) {
+            // A replaced value is considered to be a new entry.
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(final K key, final CacheObject<V> value, final long currentTime, final long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    /**
+     * Wrapper for all objects put into cache, which allows null values to be stored, and records the size of each
+     * object and the time at which it was added.
+     */
+    private static class CacheObject<V> {
+
+        final V object;
+        final int size;
+        final long timestamp = System.currentTimeMillis();
+
+        CacheObject(final V object, final int size) {
+            this.object = object;
+            this.size = size;
+        }
+    }
+}
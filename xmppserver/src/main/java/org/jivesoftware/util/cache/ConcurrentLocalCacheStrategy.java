@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util.cache;
+
+/**
+ * CacheFactoryStrategy for use in Openfire that creates and manages local caches that allow concurrent access. It
+ * differs from {@link DefaultLocalCacheStrategy} only in the type of cache that it creates: {@link ConcurrentCache}
+ * instead of {@link DefaultCache}.
+ *
+ * This strategy can be used by setting the 'cache.clustering.local.class' property to
+ * {@code org.jivesoftware.util.cache.ConcurrentLocalCacheStrategy}, after which Openfire needs to be restarted.
+ *
+ * @see ConcurrentCache
+ * @see CacheFactory
+ */
+public class ConcurrentLocalCacheStrategy extends DefaultLocalCacheStrategy {
+
+    @Override
+    public Cache createCache(String name) {
+        // Get cache configuration from system properties or default (hardcoded) values
+        long maxSize = CacheFactory.getMaxCacheSize(name);
+        long lifetime = CacheFactory.getMaxCacheLifetime(name);
+        // Create cache with located properties
+        return new ConcurrentCache(name, maxSize, lifetime);
+    }
+}
@@ -25,6 +25,7 @@
 <%@ page import="org.jivesoftware.util.StringUtils"%>
 <%@ page import="org.jivesoftware.util.cache.Cache" %>
 <%@ page import="org.jivesoftware.util.cache.CacheWrapper" %>
+<%@ page import="org.jivesoftware.util.cache.ConcurrentCache" %>
 <%@ page import="org.jivesoftware.util.cache.DefaultCache" %>
 
 <%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
@@ -205,6 +206,12 @@
             culls[0] = defaultCache.getCacheCulls(Duration.ofHours(3));
             culls[1] = defaultCache.getCacheCulls(Duration.ofHours(6));
             culls[2] = defaultCache.getCacheCulls(Duration.ofHours(12));
+        } else if (cache instanceof CacheWrapper && ((CacheWrapper) cache).getWrappedCache() instanceof ConcurrentCache) {
+            culls = new Long[3];
+            final ConcurrentCache concurrentCache = (ConcurrentCache) ((CacheWrapper) cache).getWrappedCache();
+            culls[0] = concurrentCache.getCacheCulls(Duration.ofHours(3));
+            culls[1] = concurrentCache.getCacheCulls(Duration.ofHours(6));
+            culls[2] = concurrentCache.getCacheCulls(Duration.ofHours(12));
         } else {
             culls = null;
         }
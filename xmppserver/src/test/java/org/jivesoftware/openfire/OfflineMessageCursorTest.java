@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.Message;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify the implementation of {@link OfflineMessageCursor}
+ */
+public class OfflineMessageCursorTest {
+
+    private static final String USERNAME = "john";
+
+    private OfflineMessageStore store;
+    private final List<OfflineMessageStore.StoredMessage> database = new ArrayList<>();
+    private final List<List<Long>> deletions = new ArrayList<>();
+
+    /**
+     * Sets up a store with five messages, of which the third one cannot be parsed.
+     */
+    @BeforeEach
+    public void setUp() throws Exception {
+        for (long i = 1; i <= 5; i++) {
+            database.add(new OfflineMessageStore.StoredMessage(i, String.valueOf(1000 + i), i == 3 ? "invalid" : "message-" + i));
+        }
+
+        store = mock(OfflineMessageStore.class);
+        when(store.loadMessagePage(anyString(), any(), anyInt())).thenAnswer(invocation -> {
+            final OfflineMessageStore.StoredMessage after = invocation.getArgument(1);
+            final int pageSize = invocation.getArgument(2);
+            final List<OfflineMessageStore.StoredMessage> result = new ArrayList<>();
+            for (final OfflineMessageStore.StoredMessage stored : database) {
+                if ((after == null || stored.messageID > after.messageID) && result.size() < pageSize) {
+                    result.add(stored);
+                }
+            }
+            return result;
+        });
+        when(store.parseMessage(any())).thenAnswer(invocation -> {
+            final OfflineMessageStore.StoredMessage stored = invocation.getArgument(0);
+            if (stored.stanza.equals("invalid")) {
+                return null;
+            }
+            final Message message = new Message();
+            message.setBody(stored.stanza);
+            return new OfflineMessage(new Date(Long.parseLong(stored.creationDate)), message.getElement());
+        });
+        doAnswer(invocation -> {
+            final Collection<Long> messageIDs = invocation.getArgument(1);
+            deletions.add(new ArrayList<>(messageIDs));
+            return null;
+        }).when(store).deleteMessages(anyString(), any());
+    }
+
+    /**
+     * Asserts that all messages that can be parsed are returned in order, and that all messages are deleted, one page
+     * at a time.
+     */
+    @Test
+    public void testIterateAndDelete() throws Exception
+    {
+        // Execute system under test.
+        final List<String> result = new ArrayList<>();
+        try (final OfflineMessageCursor cursor = new OfflineMessageCursor(store, USERNAME, true, 2)) {
+            while (cursor.hasNext()) {
+                result.add(cursor.next().getBody());
+            }
+        }
+
+        // Verify results.
+        assertEquals(List.of("message-1", "message-2", "message-4", "message-5"), result);
+        assertEquals(List.of(List.of(1L, 2L), List.of(3L, 4L), List.of(5L)), deletions);
+        verify(store, times(3)).loadMessagePage(anyString(), any(), anyInt());
+    }
+
+    /**
+     * Asserts that messages are not deleted when the cursor is not created to delete them.
+     */
+    @Test
+    public void testIterateWithoutDelete() throws Exception
+    {
+        // Execute system under test.
+        int count = 0;
+        try (final OfflineMessageCursor cursor = new OfflineMessageCursor(store, USERNAME, false, 2)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                count++;
+            }
+        }
+
+        // Verify results.
+        assertEquals(4, count);
+        assertTrue(deletions.isEmpty());
+    }
+
+    /**
+     * Asserts that when a cursor is closed early, only the messages that were returned are deleted.
+     */
+    @Test
+    public void testCloseEarly() throws Exception
+    {
+        // Setup test fixture.
+        final OfflineMessageCursor cursor = new OfflineMessageCursor(store, USERNAME, true, 2);
+
+        // Execute system under test.
+        final OfflineMessage first = cursor.next();
+        assertTrue(cursor.hasNext()); // Reads, but does not return, the second message.
+        cursor.close();
+
+        // Verify results.
+        assertEquals("message-1", first.getBody());
+        assertEquals(List.of(List.of(1L)), deletions);
+        assertFalse(cursor.hasNext());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link OfflineMessageStore} when offline messages are
+ * written to the database in batches.
+ */
+public class OfflineMessageStoreWriteBehindTest {
+
+    private OfflineMessageStore store;
+    private OfflineMessageStore.PendingOfflineMessage first;
+    private OfflineMessageStore.PendingOfflineMessage second;
+    private OfflineMessageStore.PendingOfflineMessage third;
+
+    /**
+     * The messages that were written to the (simulated) database.
+     */
+    private final List<OfflineMessageStore.PendingOfflineMessage> database = new ArrayList<>();
+
+    /**
+     * The amount of attempts to write messages to the (simulated) database.
+     */
+    private int attempts;
+
+    @BeforeAll
+    public static void setUpClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+        Fixtures.disableDatabasePersistence();
+        CacheFactory.initialize();
+    }
+
+    /**
+     * Sets up a store of which the (simulated) database fails to write more than one message at a time, and fails to
+     * write the second message at all.
+     */
+    @BeforeEach
+    public void setUp() throws Exception {
+        first = new OfflineMessageStore.PendingOfflineMessage("john", 1, new Date(), "<message>1</message>");
+        second = new OfflineMessageStore.PendingOfflineMessage("john", 2, new Date(), "<message>2</message>");
+        third = new OfflineMessageStore.PendingOfflineMessage("jane", 3, new Date(), "<message>3</message>");
+        database.clear();
+        attempts = 0;
+
+        store = spy(new OfflineMessageStore());
+        doAnswer(invocation -> {
+            attempts++;
+            final List<OfflineMessageStore.PendingOfflineMessage> messages = invocation.getArgument(0);
+            if (messages.size() > 1 || messages.contains(second)) {
+                throw new SQLException("Test");
+            }
+            database.addAll(messages);
+            return null;
+        }).when(store).insertMessages(any());
+    }
+
+    /**
+     * Asserts that when a batch of messages cannot be written, each message of that batch is written individually.
+     */
+    @Test
+    public void testFallbackToIndividualMessages() throws Exception
+    {
+        // Setup test fixture.
+        final List<OfflineMessageStore.PendingOfflineMessage> batch = List.of(first, second, third);
+        batch.forEach(OfflineMessageStore.PendingOfflineMessage::claim);
+
+        // Execute system under test.
+        store.storePendingMessages(batch);
+
+        // Verify results.
+        assertEquals(List.of(first, third), database);
+        assertEquals(4, attempts);
+    }
+
+    /**
+     * Asserts that a batch of messages is written only once when that succeeds.
+     */
+    @Test
+    public void testSingleMessage() throws Exception
+    {
+        // Setup test fixture.
+        final List<OfflineMessageStore.PendingOfflineMessage> batch = List.of(first);
+        first.claim();
+
+        // Execute system under test.
+        store.storePendingMessages(batch);
+
+        // Verify results.
+        assertEquals(List.of(first), database);
+        assertEquals(1, attempts);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire;
+
+import org.jivesoftware.openfire.cluster.NodeID;
+import org.jivesoftware.openfire.session.ClientSession;
+import org.jivesoftware.openfire.session.ClientSessionSummary;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify the implementation of the session summary processing in {@link SessionResultFilter}.
+ */
+public class SessionResultFilterTest {
+
+    private static final NodeID NODE_A = NodeID.getInstance(new byte[] { 1 });
+    private static final NodeID NODE_B = NodeID.getInstance(new byte[] { 2 });
+
+    private static ClientSessionSummary createSummary(final String address, final long creationDate, final NodeID nodeID) {
+        final ClientSession session = mock(ClientSession.class);
+        when(session.getAddress()).thenReturn(new JID(address));
+        when(session.getCreationDate()).thenReturn(new Date(creationDate));
+        when(session.getLastActiveDate()).thenReturn(new Date(creationDate));
+        return new ClientSessionSummary(session, nodeID);
+    }
+
+    private static List<String> addresses(final List<ClientSessionSummary> summaries) {
+        return summaries.stream().map(summary -> summary.getAddress().toString()).collect(Collectors.toList());
+    }
+
+    /**
+     * Asserts that combining the selections of disjoint sets of sessions (as hosted by different cluster nodes) yields
+     * the same page as paginating all sessions at once.
+     */
+    @Test
+    public void testPageOfCombinedSelections() throws Exception
+    {
+        // Setup test fixture.
+        final List<ClientSessionSummary> onNodeA = new ArrayList<>();
+        final List<ClientSessionSummary> onNodeB = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            onNodeA.add(createSummary("user" + i + "@example.org/a", i * 2, NODE_A));
+            onNodeB.add(createSummary("user" + i + "@example.org/b", i * 2 + 1, NODE_B));
+        }
+        final List<ClientSessionSummary> all = new ArrayList<>(onNodeA);
+        all.addAll(onNodeB);
+
+        final SessionResultFilter filter = new SessionResultFilter();
+        filter.setSortField(SessionResultFilter.SORT_CREATION_DATE);
+        filter.setSortOrder(SessionResultFilter.DESCENDING);
+        filter.setStartIndex(5);
+        filter.setNumResults(4);
+
+        // Execute system under test.
+        final List<ClientSessionSummary> selectionA = filter.select(onNodeA);
+        final List<ClientSessionSummary> selectionB = filter.select(onNodeB);
+        final List<ClientSessionSummary> combined = new ArrayList<>(selectionA);
+        combined.addAll(selectionB);
+        final List<ClientSessionSummary> result = filter.page(combined);
+
+        // Verify results.
+        assertEquals(9, selectionA.size());
+        assertEquals(9, selectionB.size());
+        assertEquals(addresses(filter.page(all)), addresses(result));
+        assertEquals(List.of("user17@example.org/a", "user16@example.org/b", "user16@example.org/a", "user15@example.org/b"), addresses(result));
+    }
+
+    /**
+     * Asserts that sessions are filtered by username and creation date.
+     */
+    @Test
+    public void testMatches() throws Exception
+    {
+        // Setup test fixture.
+        final List<ClientSessionSummary> sessions = List.of(
+            createSummary("john@example.org/desktop", 10, NODE_A),
+            createSummary("john@example.org/mobile", 20, NODE_B),
+            createSummary("jane@example.org/desktop", 30, NODE_A));
+
+        final SessionResultFilter filter = SessionResultFilter.createDefaultSessionFilter();
+        filter.setUsername("john");
+        filter.setCreationDateRangeMin(new Date(15));
+
+        // Execute system under test.
+        final List<ClientSessionSummary> result = filter.page(sessions);
+
+        // Verify results.
+        assertEquals(List.of("john@example.org/mobile"), addresses(result));
+        assertEquals(NODE_B, result.get(0).getNodeID());
+    }
+
+    /**
+     * Asserts that an empty list is returned when the requested page is beyond the last matching session.
+     */
+    @Test
+    public void testPageBeyondResults() throws Exception
+    {
+        // Setup test fixture.
+        final List<ClientSessionSummary> sessions = List.of(createSummary("john@example.org/desktop", 10, NODE_A));
+        final SessionResultFilter filter = SessionResultFilter.createDefaultSessionFilter();
+        filter.setStartIndex(1);
+        filter.setNumResults(10);
+
+        // Execute system under test & Verify results.
+        assertTrue(filter.page(sessions).isEmpty());
+    }
+}
@@ -283,6 +283,33 @@ public class ArchiverTest
         }
     }
 
+    /**
+     * Verifies that data that was provided to an archiver before it was stopped is stored, and that the archiver
+     * terminates after that.
+     */
+    @Test
+    public void testStopStoresQueuedData() throws Exception
+    {
+        // Setup fixture.
+        final int maxWorkQueueSize = 10;
+        final Duration maxPurgeInterval = Duration.ofMillis( 5000 );
+        final Duration gracePeriod = Duration.ofMillis( 1000 );
+        final DummyArchiver archiver = new DummyArchiver( "test", maxWorkQueueSize, maxPurgeInterval, gracePeriod );
+        for ( int i = 0; i < 25; i++ ) {
+            archiver.archive( i );
+        }
+        archiver.stop();
+        final Thread thread = new Thread( archiver );
+
+        // Execute system under test.
+        thread.start();
+        final boolean result = archiver.awaitTermination( Duration.ofSeconds( 10 ) );
+
+        // Verify result.
+        assertTrue( result );
+        assertEquals( 25, archiver.store.size() );
+    }
+
     /**
      * A utility method that blocks until the archiver should reasonably have finished storing data.
      *
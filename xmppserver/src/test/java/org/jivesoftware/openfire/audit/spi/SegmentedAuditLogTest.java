@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.audit.spi;
+
+import org.jivesoftware.openfire.audit.AuditLogEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xmpp.packet.JID;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link SegmentedAuditLog}
+ */
+public class SegmentedAuditLogTest {
+
+    private static final Instant NOW = Instant.parse("2023-06-01T12:00:00Z");
+
+    @TempDir
+    File directory;
+
+    private static SegmentedAuditLog.Record record(final Instant timestamp, final String from, final String to) {
+        final String xml = "<packet xmlns=\"http://www.jivesoftware.org\"><message from=\"" + from + "\" to=\"" + to + "\"/></packet>";
+        return new SegmentedAuditLog.Record(timestamp.toEpochMilli(), from, to, xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Asserts that records that are appended are written to a segment, and can be found again.
+     */
+    @Test
+    public void testAppendAndSearch() throws Exception
+    {
+        // Setup test fixture.
+        final SegmentedAuditLog log = new SegmentedAuditLog(directory, 100, true);
+        log.start();
+
+        // Execute system under test.
+        assertTrue(log.append(record(NOW, "john@example.org/desktop", "jane@example.org")));
+        assertTrue(log.append(record(NOW.plusSeconds(1), "jane@example.org/phone", "john@example.org/desktop")));
+        log.stop();
+
+        // Verify results.
+        final File segment = new File(directory, "jive.audit-20230601-000.log");
+        assertTrue(segment.exists());
+        assertTrue(new File(directory, "jive.audit-20230601-000.idx").exists());
+        final String content = new String(Files.readAllBytes(segment.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.startsWith("<jive xmlns=\"http://www.jivesoftware.org\">"));
+        assertTrue(content.endsWith("</jive>"));
+
+        final List<AuditLogEntry> result = log.search(null, null, null, 10);
+        assertEquals(2, result.size());
+        assertEquals(NOW, result.get(0).getTimestamp());
+        assertEquals("john@example.org/desktop", result.get(0).getFrom());
+        assertTrue(result.get(0).getXml().contains("<message from=\"john@example.org/desktop\""));
+        assertFalse(log.append(record(NOW, "john@example.org", "jane@example.org")));
+    }
+
+    /**
+     * Asserts that searches can be restricted by address and time, and that a bare JID matches full JIDs.
+     */
+    @Test
+    public void testSearchByJIDAndTime() throws Exception
+    {
+        // Setup test fixture.
+        final SegmentedAuditLog log = new SegmentedAuditLog(directory, 100, false);
+        log.write(Arrays.asList(
+            record(NOW, "john@example.org/desktop", "jane@example.org"),
+            record(NOW.plusSeconds(1), "jane@example.org/phone", "bob@example.org"),
+            record(NOW.plus(Duration.ofDays(1)), "bob@example.org", "john@example.org/phone")
+        ));
+
+        // Execute system under test.
+        final List<AuditLogEntry> byBareJID = log.search(new JID("john@example.org"), null, null, 10);
+        final List<AuditLogEntry> byFullJID = log.search(new JID("john@example.org/desktop"), null, null, 10);
+        final List<AuditLogEntry> byTime = log.search(null, NOW.plusSeconds(1), NOW.plus(Duration.ofHours(1)), 10);
+        final List<AuditLogEntry> limited = log.search(null, null, null, 2);
+
+        // Verify results.
+        assertEquals(2, byBareJID.size());
+        assertEquals(1, byFullJID.size());
+        assertEquals(1, byTime.size());
+        assertEquals("jane@example.org/phone", byTime.get(0).getFrom());
+        assertEquals(2, limited.size());
+        assertTrue(new File(directory, "jive.audit-20230602-000.log").exists());
+    }
+
+    /**
+     * Asserts that new segments are started when a segment exceeds its maximum size, and that the oldest segments are
+     * removed when the total size exceeds its maximum.
+     */
+    @Test
+    public void testRetentionBySize() throws Exception
+    {
+        // Setup test fixture.
+        final SegmentedAuditLog log = new SegmentedAuditLog(directory, 100, false);
+        log.setLimits(1024, 100, Duration.ofDays(-1));
+
+        // Execute system under test.
+        for (int i = 0; i < 20; i++) {
+            log.write(List.of(record(NOW.plusSeconds(i), "john@example.org", "jane@example.org")));
+        }
+        log.ensureMaxTotalSize();
+
+        // Verify results.
+        final List<File> segments = SegmentedAuditLog.listSegments(directory);
+        assertTrue(segments.size() > 1);
+        assertFalse(new File(directory, "jive.audit-20230601-000.log").exists());
+        assertFalse(new File(directory, "jive.audit-20230601-000.idx").exists());
+        long totalSize = 0;
+        for (final File segment : segments) {
+            totalSize += segment.length() + SegmentedAuditLog.indexFileOf(segment).length();
+        }
+        assertTrue(totalSize <= 1024);
+    }
+
+    /**
+     * Asserts that records that could not be written are retained, and written once writing succeeds again.
+     */
+    @Test
+    public void testRetryAfterFailure() throws Exception
+    {
+        // Setup test fixture.
+        final File notADirectory = new File(directory, "file");
+        Files.write(notADirectory.toPath(), new byte[0]);
+        final File target = new File(directory, "logs");
+        final SegmentedAuditLog log = new SegmentedAuditLog(notADirectory, 100, true);
+        log.start();
+        assertTrue(log.append(record(NOW, "john@example.org/desktop", "jane@example.org")));
+        assertTrue(log.append(record(NOW.plusSeconds(1), "jane@example.org/phone", "john@example.org/desktop")));
+        final long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (log.getQueuedRecords() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Execute system under test.
+        log.setDirectory(target);
+        log.stop();
+
+        // Verify results.
+        final List<AuditLogEntry> result = log.search(null, null, null, 10);
+        assertEquals(2, result.size());
+        assertTrue(new File(target, "jive.audit-20230601-000.log").exists());
+    }
+
+    /**
+     * Asserts that stopping the log does not block indefinitely when records persistently cannot be written, while the
+     * queue is full.
+     */
+    @Test
+    public void testStopWhenFullAndFailing() throws Exception
+    {
+        // Setup test fixture.
+        final File notADirectory = new File(directory, "file");
+        Files.write(notADirectory.toPath(), new byte[0]);
+        final SegmentedAuditLog log = new SegmentedAuditLog(notADirectory, 10, true);
+        log.start();
+        final long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (log.getDroppedRecords() == 0 && System.nanoTime() < deadline) {
+            log.append(record(NOW, "john@example.org/desktop", "jane@example.org"));
+        }
+        assertTrue(log.getDroppedRecords() > 0);
+
+        // Execute system under test.
+        assertTimeoutPreemptively(Duration.ofSeconds(20), log::stop);
+
+        // Verify results.
+        assertFalse(log.append(record(NOW, "john@example.org/desktop", "jane@example.org")));
+    }
+
+    /**
+     * Asserts that when the maximum number of segments for a day has been reached, records are appended to the last
+     * segment in a way that keeps it a well-formed XML document.
+     */
+    @Test
+    public void testAppendToLastSegment() throws Exception
+    {
+        // Setup test fixture.
+        final String header = "<jive xmlns=\"http://www.jivesoftware.org\">";
+        final String footer = "</jive>";
+        final File last = new File(directory, "jive.audit-20230601-999.log");
+        final String existing = "<packet xmlns=\"http://www.jivesoftware.org\"><message from=\"john@example.org\" to=\"jane@example.org\"/></packet>";
+        Files.write(last.toPath(), (header + existing + footer).getBytes(StandardCharsets.UTF_8));
+        final SegmentedAuditLog log = new SegmentedAuditLog(directory, 100, true);
+        log.start();
+
+        // Execute system under test.
+        assertTrue(log.append(record(NOW.plusSeconds(1), "jane@example.org/phone", "john@example.org/desktop")));
+        log.stop();
+
+        // Verify results.
+        final String content = new String(Files.readAllBytes(last.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.startsWith(header));
+        assertTrue(content.endsWith(footer));
+        assertEquals(content.indexOf(header), content.lastIndexOf(header));
+        assertEquals(content.indexOf(footer), content.lastIndexOf(footer));
+        assertTrue(content.contains("<message from=\"jane@example.org/phone\""));
+        final List<AuditLogEntry> result = log.search(null, null, null, 10);
+        assertEquals(1, result.size());
+        assertEquals("jane@example.org/phone", result.get(0).getFrom());
+    }
+}
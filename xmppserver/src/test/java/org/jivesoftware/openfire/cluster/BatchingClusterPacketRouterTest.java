@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.cluster;
+
+import org.jivesoftware.util.cache.ClusterTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link BatchingClusterPacketRouter} and {@link StanzaCodec}
+ */
+public class BatchingClusterPacketRouterTest
+{
+    private static final byte[] NODE_ID = "unit-test-node".getBytes(StandardCharsets.UTF_8);
+
+    private final BlockingQueue<ClusterTask<?>> sent = new LinkedBlockingQueue<>();
+    private final AtomicBoolean member = new AtomicBoolean();
+    private BatchingClusterPacketRouter router;
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        sent.clear();
+        member.set(true);
+        router = new BatchingClusterPacketRouter((nodeID, task) -> sent.add(task), nodeID -> member.get());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception
+    {
+        router.shutdown();
+    }
+
+    private static RemotePacketBatch copy(final ClusterTask<?> task) throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            task.writeExternal(out);
+        }
+        final RemotePacketBatch result = new RemotePacketBatch();
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result.readExternal(in);
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that a batch is sent as soon as it contains the maximum number of packets.
+     */
+    @Test
+    public void testFlushOnSize() throws Exception
+    {
+        // Setup test fixture.
+        final int size = BatchingClusterPacketRouter.MAX_BATCH_SIZE.getValue();
+
+        // Execute system under test.
+        for (int i = 0; i < size; i++) {
+            final Message message = new Message();
+            message.setTo("user" + i + "@example.org");
+            message.setBody("test " + i);
+            router.routePacket(NODE_ID, message.getTo(), message);
+        }
+
+        // Verify results.
+        final ClusterTask<?> task = sent.poll();
+        assertNotNull(task);
+        assertEquals(size, copy(task).getPackets().size());
+        assertTrue(sent.isEmpty());
+    }
+
+    /**
+     * Asserts that a batch is sent after the maximum delay, and that changes to a packet after it was routed do not
+     * affect the packet that is sent.
+     */
+    @Test
+    public void testFlushOnDeadline() throws Exception
+    {
+        // Setup test fixture.
+        final JID recipient = new JID("user", "example.org", "résource");
+        final Message message = new Message();
+        message.setTo(recipient);
+        message.setBody("original");
+
+        // Execute system under test.
+        router.routePacket(NODE_ID, recipient, message);
+        message.setBody("changed");
+
+        // Verify results.
+        final ClusterTask<?> task = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(task);
+        final RemotePacketBatch batch = copy(task);
+        assertEquals(1, batch.getPackets().size());
+        assertEquals(recipient, batch.getRecipients().get(0));
+        assertEquals("original", ((Message) batch.getPackets().get(0)).getBody());
+    }
+
+    /**
+     * Asserts that a packet that is addressed to a node that is not a member of the cluster is reported as not routed,
+     * so that the routing table can drop the route or try another node.
+     */
+    @Test
+    public void testNotAMember() throws Exception
+    {
+        // Setup test fixture.
+        member.set(false);
+        final Message message = new Message();
+        message.setTo("user@example.org/resource");
+
+        // Execute system under test.
+        final boolean result = router.routePacket(NODE_ID, message.getTo(), message);
+
+        // Verify results.
+        assertFalse(result);
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, router.getNodeCount());
+    }
+
+    /**
+     * Asserts that the state that is kept for a node is removed when that node leaves the cluster.
+     */
+    @Test
+    public void testNodeLeft() throws Exception
+    {
+        // Setup test fixture.
+        final Message message = new Message();
+        message.setTo("user@example.org/resource");
+        assertTrue(router.routePacket(NODE_ID, message.getTo(), message));
+        assertNotNull(sent.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, router.getNodeCount());
+
+        // Execute system under test.
+        member.set(false);
+        router.leftCluster(NODE_ID);
+
+        // Verify results.
+        assertEquals(0, router.getNodeCount());
+    }
+
+    /**
+     * Asserts that stanzas of each type are decoded to an equivalent stanza of the same type, in the order in which
+     * they were encoded.
+     */
+    @Test
+    public void testCodecRoundTrip() throws Exception
+    {
+        // Setup test fixture.
+        final IQ iq = new IQ(IQ.Type.get);
+        iq.setTo("example.org");
+        iq.setChildElement("query", "jabber:iq:version");
+        final Presence presence = new Presence();
+        presence.setFrom("user@example.org/resource");
+        presence.setStatus("Away & <busy>");
+        final Message message = new Message();
+        message.setTo("room@conference.example.org");
+        message.setType(Message.Type.groupchat);
+        message.setBody("é中😀");
+
+        final RemotePacketBatch batch = new RemotePacketBatch(
+            List.of(iq.getTo(), new JID("user@example.org"), message.getTo()),
+            List.of(StanzaCodec.encode(iq), StanzaCodec.encode(presence), StanzaCodec.encode(message)));
+
+        // Execute system under test.
+        final RemotePacketBatch result = copy(batch);
+
+        // Verify results.
+        final List<Packet> packets = result.getPackets();
+        assertEquals(3, packets.size());
+        assertTrue(packets.get(0) instanceof IQ);
+        assertTrue(packets.get(1) instanceof Presence);
+        assertTrue(packets.get(2) instanceof Message);
+        assertEquals(iq.toXML(), packets.get(0).toXML());
+        assertEquals(presence.toXML(), packets.get(1).toXML());
+        assertEquals(message.toXML(), packets.get(2).toXML());
+        assertEquals(new JID("example.org"), result.getRecipients().get(0));
+        assertEquals(new JID("user@example.org"), result.getRecipients().get(1));
+    }
+}
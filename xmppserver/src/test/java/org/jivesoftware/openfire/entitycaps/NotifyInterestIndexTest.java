@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.entitycaps;
+
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link NotifyInterestIndex}
+ */
+public class NotifyInterestIndexTest {
+
+    private static EntityCapabilities createCapabilities(final String ver, final String... features) {
+        final EntityCapabilities caps = new EntityCapabilities();
+        caps.setVerAttribute(ver);
+        caps.setHashAttribute("sha-1");
+        for (final String feature : features) {
+            caps.addFeature(feature);
+        }
+        return caps;
+    }
+
+    /**
+     * Asserts that entities are indexed by the nodes of their '+notify' features.
+     */
+    @Test
+    public void testInterestedEntities() throws Exception
+    {
+        // Setup test fixture.
+        final NotifyInterestIndex index = new NotifyInterestIndex();
+        final JID john = new JID("john@example.org/mobile");
+        final JID jane = new JID("jane@example.org/desktop");
+
+        // Execute system under test.
+        index.update(john, createCapabilities("a", "urn:xmpp:avatar:metadata+notify", "http://jabber.org/protocol/nick+notify", "urn:xmpp:ping"));
+        index.update(jane, createCapabilities("b", "urn:xmpp:avatar:metadata+notify"));
+
+        // Verify results.
+        assertEquals(Set.of(john, jane), index.getInterestedEntities("urn:xmpp:avatar:metadata"));
+        assertEquals(Set.of(john), index.getInterestedEntities("http://jabber.org/protocol/nick"));
+        assertEquals(Set.of(), index.getInterestedEntities("urn:xmpp:ping"));
+        assertEquals(Set.of(), index.getInterestedEntities(null));
+    }
+
+    /**
+     * Asserts that changed capabilities replace the previous registration, and that removed capabilities cause the
+     * entity to be no longer known.
+     */
+    @Test
+    public void testUpdateAndRemove() throws Exception
+    {
+        // Setup test fixture.
+        final NotifyInterestIndex index = new NotifyInterestIndex();
+        final JID john = new JID("john@example.org/mobile");
+        index.update(john, createCapabilities("a", "urn:xmpp:avatar:metadata+notify"));
+
+        // Execute system under test.
+        index.update(john, createCapabilities("b", "http://jabber.org/protocol/nick+notify"));
+
+        // Verify results.
+        assertTrue(index.isKnown(john));
+        assertEquals(Set.of(), index.getInterestedEntities("urn:xmpp:avatar:metadata"));
+        assertEquals(Set.of(john), index.getInterestedEntities("http://jabber.org/protocol/nick"));
+
+        // Execute system under test.
+        index.update(john, null);
+
+        // Verify results.
+        assertFalse(index.isKnown(john));
+        assertEquals(Set.of(), index.getInterestedEntities("http://jabber.org/protocol/nick"));
+    }
+
+    /**
+     * Asserts that notifications are to be sent to interested entities, and to entities of which the capabilities are
+     * unknown, but not to entities that did not express interest.
+     */
+    @Test
+    public void testFilter() throws Exception
+    {
+        // Setup test fixture.
+        final NotifyInterestIndex index = new NotifyInterestIndex();
+        final JID interested = new JID("john@example.org/mobile");
+        final JID uninterested = new JID("john@example.org/desktop");
+        final JID unknown = new JID("john@example.org/tablet");
+        index.update(interested, createCapabilities("a", "urn:xmpp:avatar:metadata+notify"));
+        index.update(uninterested, createCapabilities("b", "urn:xmpp:ping"));
+
+        // Execute system under test.
+        final List<JID> result = index.filter("urn:xmpp:avatar:metadata", List.of(interested, uninterested, unknown));
+        final List<JID> resultWithoutNode = index.filter(null, List.of(interested, uninterested, unknown));
+
+        // Verify results.
+        assertEquals(List.of(interested, unknown), result);
+        assertEquals(List.of(unknown), resultWithoutNode);
+    }
+
+    /**
+     * Asserts that an entity of which the registration has expired is treated as an entity of which the capabilities
+     * are unknown, and that its registration can then be removed.
+     */
+    @Test
+    public void testExpiry() throws Exception
+    {
+        // Setup test fixture.
+        final AtomicLong now = new AtomicLong(1000);
+        final NotifyInterestIndex index = new NotifyInterestIndex(() -> 500, now::get);
+        final JID interested = new JID("john@example.org/mobile");
+        final JID uninterested = new JID("john@example.org/desktop");
+        index.update(interested, createCapabilities("a", "urn:xmpp:avatar:metadata+notify"));
+        index.update(uninterested, createCapabilities("b", "urn:xmpp:ping"));
+        assertFalse(index.removeIfExpired(uninterested));
+
+        // Execute system under test.
+        now.addAndGet(501);
+
+        // Verify results.
+        assertFalse(index.isKnown(interested));
+        assertEquals(Set.of(), index.getInterestedEntities("urn:xmpp:avatar:metadata"));
+        assertEquals(List.of(interested, uninterested), index.filter("urn:xmpp:avatar:metadata", List.of(interested, uninterested)));
+        assertEquals(Set.of(interested, uninterested), Set.copyOf(index.getExpiredEntities()));
+
+        // Execute system under test.
+        index.update(interested, createCapabilities("a", "urn:xmpp:avatar:metadata+notify"));
+        assertFalse(index.removeIfExpired(interested));
+        assertTrue(index.removeIfExpired(uninterested));
+
+        // Verify results.
+        assertEquals(Set.of(interested), index.getInterestedEntities("urn:xmpp:avatar:metadata"));
+        assertTrue(index.getExpiredEntities().isEmpty());
+        assertFalse(index.isKnown(uninterested));
+    }
+}
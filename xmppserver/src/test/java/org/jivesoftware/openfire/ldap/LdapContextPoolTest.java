@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.spi.InitialContextFactory;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link LdapContextPool}
+ */
+public class LdapContextPoolTest
+{
+    /**
+     * The connections that were opened by {@link StubContextFactory}.
+     */
+    private static final List<LdapContext> connections = new CopyOnWriteArrayList<>();
+
+    /**
+     * Opens a (mock) connection for every context that is created.
+     */
+    public static class StubContextFactory implements InitialContextFactory
+    {
+        @Override
+        public Context getInitialContext(final Hashtable<?, ?> environment)
+        {
+            final LdapContext result = mock(LdapContext.class);
+            connections.add(result);
+            return result;
+        }
+    }
+
+    private LdapName baseDN;
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        connections.clear();
+        baseDN = new LdapName("ou=people,dc=example,dc=org");
+    }
+
+    private static LdapContextPool.ContextFactory factory(final LdapContextPool pool)
+    {
+        final Hashtable<String, Object> env = new Hashtable<>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, StubContextFactory.class.getName());
+        return dn -> new LdapContextPool.PooledContext(env, pool, dn);
+    }
+
+    /**
+     * Asserts that a context that is closed is reused, rather than a new connection being opened.
+     */
+    @Test
+    public void testReuse() throws Exception
+    {
+        // Setup test fixture.
+        final LdapContextPool pool = new LdapContextPool(2, 2);
+        final LdapContext first = pool.borrow(baseDN, factory(pool));
+        first.close();
+
+        // Execute system under test.
+        final LdapContext second = pool.borrow(baseDN, factory(pool));
+
+        // Verify results.
+        assertSame(first, second);
+        assertEquals(1, connections.size());
+        verify(connections.get(0), never()).close();
+        verify(connections.get(0)).setRequestControls(null);
+        assertEquals(1, pool.getLeasedCount());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    /**
+     * Asserts that a context that is closed more than once is returned to the pool only once.
+     */
+    @Test
+    public void testCloseTwice() throws Exception
+    {
+        // Setup test fixture.
+        final LdapContextPool pool = new LdapContextPool(2, 2);
+        final LdapContext context = pool.borrow(baseDN, factory(pool));
+
+        // Execute system under test.
+        context.close();
+        context.close();
+
+        // Verify results.
+        assertEquals(0, pool.getLeasedCount());
+        assertEquals(1, pool.getIdleCount());
+        final LdapContext first = pool.borrow(baseDN, factory(pool));
+        final LdapContext second = pool.borrow(baseDN, factory(pool));
+        assertNotSame(first, second);
+        assertEquals(2, connections.size());
+    }
+
+    /**
+     * Asserts that contexts are not shared between base DNs.
+     */
+    @Test
+    public void testPerBaseDN() throws Exception
+    {
+        // Setup test fixture.
+        final LdapContextPool pool = new LdapContextPool(2, 2);
+        pool.borrow(baseDN, factory(pool)).close();
+
+        // Execute system under test.
+        final LdapContext result = pool.borrow(new LdapName("ou=groups,dc=example,dc=org"), factory(pool));
+
+        // Verify results.
+        assertEquals(2, connections.size());
+        assertEquals(1, pool.getIdleCount());
+        result.close();
+    }
+
+    /**
+     * Asserts that clearing the pool closes idle connections immediately, and connections that are in use when they
+     * are no longer used.
+     */
+    @Test
+    public void testClear() throws Exception
+    {
+        // Setup test fixture.
+        final LdapContextPool pool = new LdapContextPool(2, 2);
+        final LdapContext idle = pool.borrow(baseDN, factory(pool));
+        final LdapContext leased = pool.borrow(baseDN, factory(pool));
+        idle.close();
+
+        // Execute system under test.
+        pool.clear();
+
+        // Verify results.
+        verify(connections.get(0)).close();
+        verify(connections.get(1), never()).close();
+        leased.close();
+        verify(connections.get(1)).close();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(0, pool.getLeasedCount());
+    }
+
+    /**
+     * Asserts that the permit is returned when a new context cannot be created.
+     */
+    @Test
+    public void testFailedCreation() throws Exception
+    {
+        // Setup test fixture.
+        final LdapContextPool pool = new LdapContextPool(1, 1);
+
+        // Execute system under test.
+        assertThrows(NamingException.class, () -> pool.borrow(baseDN, dn -> { throw new NamingException("Test"); }));
+
+        // Verify results.
+        assertEquals(0, pool.getLeasedCount());
+        pool.borrow(baseDN, factory(pool)).close();
+    }
+
+    /**
+     * Asserts that a thread that uses a context can obtain another context when all contexts are in use and other
+     * threads are waiting, and that the waiting threads obtain a context once the first thread closed all of its
+     * contexts.
+     */
+    @Test
+    public void testNestedBorrow() throws Exception
+    {
+        // Setup test fixture.
+        final LdapContextPool pool = new LdapContextPool(1, 1);
+        final LdapContext outer = pool.borrow(baseDN, factory(pool));
+        final CompletableFuture<LdapContext> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrow(baseDN, factory(pool));
+            } catch (NamingException e) {
+                throw new CompletionException(e);
+            }
+        });
+
+        // Execute system under test.
+        final LdapContext nested = pool.borrow(baseDN, factory(pool));
+
+        // Verify results.
+        assertNotSame(outer, nested);
+        assertEquals(2, pool.getLeasedCount());
+        nested.close();
+        assertFalse(waiting.isDone());
+        outer.close();
+        final LdapContext result = waiting.get(5, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertEquals(1, pool.getLeasedCount());
+        result.close();
+        assertEquals(0, pool.getLeasedCount());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc;
+
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.XMPPDateTimeFormat;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link HistoryStore}
+ */
+public class HistoryStoreTest
+{
+    private JID roomJID;
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        roomJID = new JID("room" + StringUtils.randomString(8).toLowerCase() + "@conference.example.org");
+    }
+
+    private static Message message(final String body, final long timestamp)
+    {
+        final Message result = new Message();
+        result.setType(Message.Type.groupchat);
+        result.setBody(body);
+        result.addChildElement("delay", "urn:xmpp:delay").addAttribute("stamp", XMPPDateTimeFormat.format(new Date(timestamp)));
+        return result;
+    }
+
+    private static List<String> bodies(final List<Message> messages)
+    {
+        return messages.stream().map(Message::getBody).collect(Collectors.toList());
+    }
+
+    /**
+     * Asserts that the history of a room is removed from the cache when one of its messages has been evicted, so that
+     * it is loaded again.
+     */
+    @Test
+    public void testEvictedMessage() throws Exception
+    {
+        // Setup test fixture.
+        final List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(message("message " + i, System.currentTimeMillis()));
+        }
+        HistoryStore.append(roomJID, messages, 10);
+        final Cache<String, HistoryStore.Entry> entries = CacheFactory.createCache("MUC History Entries");
+        entries.remove(roomJID.toBareJID() + "#1");
+
+        // Execute system under test.
+        final List<Message> result = HistoryStore.getMessages(roomJID);
+
+        // Verify results.
+        assertEquals(List.of("message 0", "message 2"), bodies(result));
+        assertFalse(HistoryStore.isLoaded(roomJID));
+        assertNull(entries.get(roomJID.toBareJID() + "#0"));
+    }
+
+    /**
+     * Asserts that the oldest messages are removed when the history exceeds its maximum size.
+     */
+    @Test
+    public void testTrim() throws Exception
+    {
+        // Setup test fixture.
+        final List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            messages.add(message("message " + i, System.currentTimeMillis()));
+        }
+
+        // Execute system under test.
+        HistoryStore.append(roomJID, messages.subList(0, 2), 3);
+        HistoryStore.append(roomJID, messages.subList(2, 5), 3);
+
+        // Verify results.
+        assertTrue(HistoryStore.isLoaded(roomJID));
+        assertEquals(List.of("message 2", "message 3", "message 4"), bodies(HistoryStore.getMessages(roomJID)));
+    }
+
+    /**
+     * Asserts that the most recent messages are returned, as limited by the maximum number of stanzas, maximum number
+     * of characters and earliest date.
+     */
+    @Test
+    public void testRecentMessages() throws Exception
+    {
+        // Setup test fixture.
+        final long now = System.currentTimeMillis();
+        HistoryStore.append(roomJID, List.of(
+            message("aaaa", now - 4000),
+            message("bbbb", now - 3000),
+            message("cccc", now - 2000),
+            message("dddd", now - 1000)), Integer.MAX_VALUE);
+
+        // Execute system under test & verify results.
+        assertEquals(List.of("aaaa", "bbbb", "cccc", "dddd"), bodies(HistoryStore.getRecentMessages(roomJID, -1, -1, Long.MIN_VALUE)));
+        assertEquals(List.of("cccc", "dddd"), bodies(HistoryStore.getRecentMessages(roomJID, 2, -1, Long.MIN_VALUE)));
+        assertEquals(List.of("bbbb", "cccc", "dddd"), bodies(HistoryStore.getRecentMessages(roomJID, -1, 15, Long.MIN_VALUE)));
+        assertEquals(List.of("cccc", "dddd"), bodies(HistoryStore.getRecentMessages(roomJID, -1, -1, now - 2500)));
+    }
+
+    /**
+     * Asserts that messages that are added after newer messages (as happens when history is loaded from the database
+     * after messages were added to the room) are returned in the order in which they were sent.
+     */
+    @Test
+    public void testOutOfOrder() throws Exception
+    {
+        // Setup test fixture.
+        final long now = System.currentTimeMillis();
+        HistoryStore.append(roomJID, List.of(message("live", now)), Integer.MAX_VALUE);
+
+        // Execute system under test.
+        HistoryStore.append(roomJID, List.of(
+            message("loaded 1", now - 3000),
+            message("loaded 2", now - 2000),
+            message("loaded 3", now - 1000)), Integer.MAX_VALUE);
+
+        // Verify results.
+        assertEquals(List.of("loaded 1", "loaded 2", "loaded 3", "live"), bodies(HistoryStore.getMessages(roomJID)));
+        assertEquals(List.of("loaded 3", "live"), bodies(HistoryStore.getRecentMessages(roomJID, 2, -1, Long.MIN_VALUE)));
+    }
+
+    /**
+     * Asserts that when messages are added out of order to a history that exceeds its maximum size, the most recent
+     * messages are retained.
+     */
+    @Test
+    public void testOutOfOrderTrim() throws Exception
+    {
+        // Setup test fixture.
+        final long now = System.currentTimeMillis();
+        HistoryStore.append(roomJID, List.of(message("live 1", now - 1000), message("live 2", now)), 3);
+
+        // Execute system under test.
+        HistoryStore.append(roomJID, List.of(
+            message("loaded 1", now - 4000),
+            message("loaded 2", now - 3000),
+            message("loaded 3", now - 2000)), 3);
+
+        // Verify results.
+        assertEquals(List.of("loaded 3", "live 1", "live 2"), bodies(HistoryStore.getMessages(roomJID)));
+    }
+
+    /**
+     * Asserts that a purged history is empty, but remains loaded (so that it is not reloaded from the database).
+     */
+    @Test
+    public void testPurge() throws Exception
+    {
+        // Setup test fixture.
+        HistoryStore.append(roomJID, List.of(message("test", System.currentTimeMillis())), Integer.MAX_VALUE);
+
+        // Execute system under test.
+        HistoryStore.purge(roomJID);
+
+        // Verify results.
+        assertTrue(HistoryStore.isLoaded(roomJID));
+        assertTrue(HistoryStore.getMessages(roomJID).isEmpty());
+
+        HistoryStore.append(roomJID, List.of(message("after purge", System.currentTimeMillis())), Integer.MAX_VALUE);
+        assertEquals(List.of("after purge"), bodies(HistoryStore.getMessages(roomJID)));
+    }
+}
@@ -85,7 +85,7 @@ public class MUCRoomTest {
         populateField(roomRole, "affiliation", MUCRole.Affiliation.member);
         populateField(roomRole, "rJID", new JID("room-test-jid@conference.example.org"));
 
-        final List<MUCRole> occupants = new ArrayList<>();
+        final OccupantRegistry occupants = new OccupantRegistry();
         final MUCRole occupantA = new MUCRole();
         populateField(occupantA, "roomJid", new JID("occupantA@example.org"));
         populateField(occupantA, "role", MUCRole.Role.participant);
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc;
+
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Presence;
+
+import java.util.List;
+
+import static org.jivesoftware.openfire.muc.MUCRoomTest.populateField;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the implementation of {@link OccupantRegistry}.
+ */
+public class OccupantRegistryTest {
+
+    private static final JID ROOM = new JID("room@conference.example.org");
+
+    private static MUCRole createOccupant(final String nickname, final JID userAddress) throws Exception {
+        final MUCRole result = new MUCRole();
+        populateField(result, "roomJid", ROOM);
+        populateField(result, "nick", nickname);
+        populateField(result, "userJid", userAddress);
+        populateField(result, "rJID", new JID(ROOM.getNode(), ROOM.getDomain(), nickname));
+        populateField(result, "presence", new Presence());
+        return result;
+    }
+
+    /**
+     * Asserts that occupants can be found by nickname (case-insensitively), bare JID and full JID.
+     */
+    @Test
+    public void testLookups() throws Exception
+    {
+        // Setup test fixture.
+        final OccupantRegistry registry = new OccupantRegistry();
+        final MUCRole johnDesktop = createOccupant("John", new JID("john@example.org/desktop"));
+        final MUCRole johnMobile = createOccupant("John", new JID("john@example.org/mobile"));
+        final MUCRole jane = createOccupant("Jane", new JID("jane@example.org/desktop"));
+
+        // Execute system under test.
+        registry.add(johnDesktop);
+        registry.add(johnMobile);
+        registry.add(jane);
+
+        // Verify results.
+        assertEquals(List.of(johnDesktop, johnMobile), registry.getByNickname("jOHN"));
+        assertEquals(List.of(johnDesktop, johnMobile), registry.getByBareJID(new JID("john@example.org")));
+        assertEquals(List.of(jane), registry.getByFullJID(new JID("jane@example.org/desktop")));
+        assertTrue(registry.getByFullJID(new JID("jane@example.org/mobile")).isEmpty());
+        assertTrue(registry.getByNickname("nobody").isEmpty());
+        assertEquals(3, registry.size());
+        assertTrue(registry.contains(jane));
+    }
+
+    /**
+     * Asserts that a removed occupant can no longer be found, and that a snapshot that was taken earlier is not
+     * affected by the removal.
+     */
+    @Test
+    public void testRemove() throws Exception
+    {
+        // Setup test fixture.
+        final OccupantRegistry registry = new OccupantRegistry();
+        final MUCRole john = createOccupant("John", new JID("john@example.org/desktop"));
+        final MUCRole jane = createOccupant("Jane", new JID("jane@example.org/desktop"));
+        registry.add(john);
+        registry.add(jane);
+        final List<MUCRole> snapshot = registry.snapshot();
+
+        // Execute system under test.
+        final boolean result = registry.remove(john);
+
+        // Verify results.
+        assertTrue(result);
+        assertFalse(registry.contains(john));
+        assertTrue(registry.getByNickname("john").isEmpty());
+        assertTrue(registry.getByBareJID(new JID("john@example.org")).isEmpty());
+        assertEquals(List.of(jane), registry.snapshot());
+        assertEquals(List.of(john, jane), snapshot);
+    }
+
+    /**
+     * Asserts that after a nickname change, an occupant can be found by its new nickname, but not by its old one.
+     */
+    @Test
+    public void testChangeNickname() throws Exception
+    {
+        // Setup test fixture.
+        final OccupantRegistry registry = new OccupantRegistry();
+        final MUCRole john = createOccupant("John", new JID("john@example.org/desktop"));
+        registry.add(john);
+
+        // Execute system under test.
+        registry.changeNickname(john, "Johnny");
+
+        // Verify results.
+        assertTrue(registry.getByNickname("John").isEmpty());
+        assertEquals(List.of(john), registry.getByNickname("johnny"));
+        assertTrue(registry.contains(john));
+        assertTrue(registry.remove(john));
+        assertTrue(registry.isEmpty());
+        assertTrue(registry.getByFullJID(new JID("john@example.org/desktop")).isEmpty());
+    }
+
+    /**
+     * Asserts that case-folding yields equal results for nicknames that are equal ignoring case.
+     */
+    @Test
+    public void testFold() throws Exception
+    {
+        assertEquals(OccupantRegistry.fold("ÄbC"), OccupantRegistry.fold("äBc"));
+        assertNotEquals(OccupantRegistry.fold("abc"), OccupantRegistry.fold("abd"));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc.spi;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link LocalMUCRoomManager}
+ */
+public class LocalMUCRoomManagerTest
+{
+    @BeforeAll
+    public static void setUpClass() throws Exception
+    {
+        Fixtures.reconfigureOpenfireHome();
+        Fixtures.disableDatabasePersistence();
+        CacheFactory.initialize();
+    }
+
+    private static LocalMUCRoomManager createManager(final String serviceName)
+    {
+        final MultiUserChatService service = mock(MultiUserChatService.class);
+        when(service.getServiceName()).thenReturn(serviceName);
+        return new LocalMUCRoomManager(service);
+    }
+
+    private static MUCRoomSearchInfo searchInfo(final String serviceName, final String roomName)
+    {
+        return new MUCRoomSearchInfo(serviceName, new JID(roomName, serviceName + ".example.org", null), null, roomName,
+            null, false, true, 30, false, false, true, null);
+    }
+
+    private static List<String> names(final Collection<MUCRoomSearchInfo> searchInfo)
+    {
+        return searchInfo.stream().map(MUCRoomSearchInfo::getName).sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * Asserts that the information of rooms that are not loaded in memory is available again after the cache that
+     * holds it has been reset, as happens when joining or leaving a cluster.
+     */
+    @Test
+    public void testRestoreUnloadedRoomIndex() throws Exception
+    {
+        // Setup test fixture.
+        final String serviceName = "service" + StringUtils.randomString(8).toLowerCase();
+        final LocalMUCRoomManager manager = createManager(serviceName);
+        final List<MUCRoomSearchInfo> searchInfo = List.of(searchInfo(serviceName, "alpha"), searchInfo(serviceName, "beta"));
+        manager.indexUnloadedRooms(searchInfo);
+        CacheFactory.createCache("MUC Service '" + serviceName + "' Room Search Info").clear();
+        assertTrue(manager.getUnloadedRoomSearchInfo().isEmpty());
+
+        // Execute system under test.
+        manager.restoreUnloadedRoomIndex(() -> searchInfo);
+
+        // Verify results.
+        assertEquals(List.of("alpha", "beta"), names(manager.getUnloadedRoomSearchInfo()));
+    }
+
+    /**
+     * Asserts that the information of rooms that are not loaded in memory is not loaded when that information is not
+     * maintained (as rooms are not loaded on first access).
+     */
+    @Test
+    public void testRestoreUnloadedRoomIndexWhenNotIndexed() throws Exception
+    {
+        // Setup test fixture.
+        final String serviceName = "service" + StringUtils.randomString(8).toLowerCase();
+        final LocalMUCRoomManager manager = createManager(serviceName);
+
+        // Execute system under test.
+        manager.restoreUnloadedRoomIndex(() -> fail("The information of rooms should not be loaded."));
+
+        // Verify results.
+        assertTrue(manager.getUnloadedRoomSearchInfo().isEmpty());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc.spi;
+
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link MUCRoomSearchInfo}
+ */
+public class MUCRoomSearchInfoTest
+{
+    private static MUCRoomSearchInfo copy(final MUCRoomSearchInfo input) throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            input.writeExternal(out);
+        }
+        final MUCRoomSearchInfo result = new MUCRoomSearchInfo();
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result.readExternal(in);
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that the information of a room that is not loaded in memory is unchanged after it has been serialized
+     * and deserialized, including values that are absent.
+     */
+    @Test
+    public void testExternalizedEquals() throws Exception
+    {
+        // Setup test fixture.
+        final MUCRoomSearchInfo input = new MUCRoomSearchInfo("conference", new JID("room@conference.example.org"),
+            null, "Test Room", null, true, false, 25, true, true, false, Set.of(new JID("john@example.org")));
+
+        // Execute system under test.
+        final MUCRoomSearchInfo result = copy(input);
+
+        // Verify results.
+        assertEquals("conference", result.getServiceName());
+        assertEquals(new JID("room@conference.example.org"), result.getJID());
+        assertEquals("room", result.getName());
+        assertNull(result.getSubject());
+        assertEquals("Test Room", result.getNaturalLanguageName());
+        assertNull(result.getDescription());
+        assertTrue(result.isLocked());
+        assertFalse(result.isPublicRoom());
+        assertEquals(0, result.getOccupantsCount());
+        assertEquals(0, result.getParticipantCount());
+        assertEquals(25, result.getMaxUsers());
+        assertTrue(result.isMembersOnly());
+        assertTrue(result.isPasswordProtected());
+        assertFalse(result.canAnyoneDiscoverJID());
+        assertEquals(Set.of(new JID("john@example.org")), result.getDiscoverers());
+        assertEquals(input.getUID(), result.getUID());
+    }
+
+    /**
+     * Asserts that the users that can discover a room that is not public are its owners, admins and members, except
+     * for members that are also outcasts.
+     */
+    @Test
+    public void testDiscoverers() throws Exception
+    {
+        // Setup test fixture.
+        final List<JID> owners = List.of(new JID("owner@example.org"));
+        final List<JID> admins = List.of(new JID("admin@example.org/resource"));
+        final List<JID> members = List.of(new JID("member@example.org"), new JID("banned@example.org"));
+        final List<JID> outcasts = List.of(new JID("banned@example.org"));
+
+        // Execute system under test.
+        final Set<JID> result = MUCRoomSearchInfo.discoverers(owners, admins, members, outcasts);
+
+        // Verify results.
+        assertEquals(Set.of(new JID("owner@example.org"), new JID("admin@example.org"), new JID("member@example.org")), result);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc.spi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link ParallelRoomLoader}
+ */
+public class ParallelRoomLoaderTest
+{
+    /**
+     * Asserts that the rows of rooms that are read interleaved are retained per room, in the order in which they were
+     * read, and that only the most recent rows of each room are retained.
+     */
+    @Test
+    public void testAddRecent() throws Exception
+    {
+        // Setup test fixture.
+        final Map<Long, Deque<String>> rows = new HashMap<>();
+
+        // Execute system under test.
+        for (int i = 0; i < 5; i++) {
+            ParallelRoomLoader.addRecent(rows, 1L, "room 1, row " + i, 3);
+            ParallelRoomLoader.addRecent(rows, 2L, "room 2, row " + i, 10);
+        }
+
+        // Verify results.
+        assertEquals(List.of("room 1, row 2", "room 1, row 3", "room 1, row 4"), new ArrayList<>(rows.get(1L)));
+        assertEquals(List.of("room 2, row 0", "room 2, row 1", "room 2, row 2", "room 2, row 3", "room 2, row 4"), new ArrayList<>(rows.get(2L)));
+    }
+
+    /**
+     * Asserts that no rows are retained for a room of which no history is kept.
+     */
+    @Test
+    public void testAddRecentWithoutHistory() throws Exception
+    {
+        // Setup test fixture.
+        final Map<Long, Deque<String>> rows = new HashMap<>();
+        ParallelRoomLoader.addRecent(rows, 1L, "row 0", 10);
+
+        // Execute system under test.
+        ParallelRoomLoader.addRecent(rows, 1L, "row 1", 0);
+
+        // Verify results.
+        assertFalse(rows.containsKey(1L));
+    }
+
+    /**
+     * Asserts that trimming retains the most recent rows, in order.
+     */
+    @Test
+    public void testTrim() throws Exception
+    {
+        // Setup test fixture.
+        final Map<Long, Deque<String>> rows = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            ParallelRoomLoader.addRecent(rows, 1L, "row " + i, 10);
+        }
+
+        // Execute system under test.
+        ParallelRoomLoader.trim(rows.get(1L), 2);
+
+        // Verify results.
+        assertEquals(List.of("row 3", "row 4"), new ArrayList<>(rows.get(1L)));
+    }
+}
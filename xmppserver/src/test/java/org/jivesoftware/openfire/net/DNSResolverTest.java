@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.net;
+
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link DNSResolver}, using a stub DNS server that listens
+ * on the loopback interface.
+ */
+public class DNSResolverTest {
+
+    private StubDnsServer server;
+    private DNSResolver resolver;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new StubDnsServer();
+        resolver = new DNSResolver(new SingletonDnsServerAddressStreamProvider(server.getAddress()), Duration.ofSeconds(2));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        resolver.close();
+        server.close();
+    }
+
+    /**
+     * Asserts that the SRV records of all service names are combined, and that results are cached according to the
+     * TTL of the records.
+     */
+    @Test
+    public void testResolveXMPPDomain() throws Exception
+    {
+        // Setup test fixture.
+        server.answer("_xmpp-server._tcp.example.org.", 3600, srv(10, 0, 5269, "xmpp.example.org."));
+        server.answer("_xmpps-server._tcp.example.org.", 3600, srv(10, 0, 5270, "xmpps.example.org."));
+        server.nxdomain("_jabber._tcp.example.org.", 300);
+
+        // Execute system under test.
+        final List<DNSUtil.HostAddress> result = resolver.resolveXMPPDomain("example.org", 5269, true).get(5, TimeUnit.SECONDS);
+        final List<DNSUtil.HostAddress> cached = resolver.resolveXMPPDomain("example.org", 5269, true).get(5, TimeUnit.SECONDS);
+
+        // Verify results.
+        assertEquals(2, result.size());
+        assertTrue(result.stream().anyMatch(host -> host.getHost().equals("xmpp.example.org") && host.getPort() == 5269 && !host.isDirectTLS()));
+        assertTrue(result.stream().anyMatch(host -> host.getHost().equals("xmpps.example.org") && host.getPort() == 5270 && host.isDirectTLS()));
+        assertEquals(2, cached.size());
+        assertEquals(1, server.getQueryCount("_xmpp-server._tcp.example.org."));
+        assertEquals(1, server.getQueryCount("_xmpps-server._tcp.example.org."));
+        assertEquals(1, server.getQueryCount("_jabber._tcp.example.org."));
+    }
+
+    /**
+     * Asserts that the legacy service name is used when no other records exist, and that the domain itself is used when
+     * no records exist at all.
+     */
+    @Test
+    public void testFallbacks() throws Exception
+    {
+        // Setup test fixture.
+        server.nxdomain("_xmpp-server._tcp.example.org.", 300);
+        server.answer("_jabber._tcp.example.org.", 3600, srv(0, 0, 5269, "legacy.example.org."));
+        server.nxdomain("_xmpp-server._tcp.example.com.", 300);
+        server.nxdomain("_jabber._tcp.example.com.", 300);
+
+        // Execute system under test.
+        final List<DNSUtil.HostAddress> legacy = resolver.resolveXMPPDomain("example.org", 5269, false).get(5, TimeUnit.SECONDS);
+        final List<DNSUtil.HostAddress> fallback = resolver.resolveXMPPDomain("example.com", 5269, false).get(5, TimeUnit.SECONDS);
+
+        // Verify results.
+        assertEquals(1, legacy.size());
+        assertEquals("legacy.example.org", legacy.get(0).getHost());
+        assertEquals(1, fallback.size());
+        assertEquals("example.com", fallback.get(0).getHost());
+        assertEquals(5269, fallback.get(0).getPort());
+        assertEquals(0, server.getQueryCount("_xmpps-server._tcp.example.org."));
+    }
+
+    /**
+     * Asserts that records with a TTL of zero are not cached.
+     */
+    @Test
+    public void testZeroTtlNotCached() throws Exception
+    {
+        // Setup test fixture.
+        server.answer("_xmpp-server._tcp.example.org.", 0, srv(10, 0, 5269, "xmpp.example.org."));
+
+        // Execute system under test.
+        resolver.srvLookup("xmpp-server", "tcp", "example.org").get(5, TimeUnit.SECONDS);
+        final List<DNSUtil.WeightedHostAddress> result = resolver.srvLookup("xmpp-server", "tcp", "example.org").get(5, TimeUnit.SECONDS);
+
+        // Verify results.
+        assertEquals(1, result.size());
+        assertEquals(2, server.getQueryCount("_xmpp-server._tcp.example.org."));
+    }
+
+    /**
+     * Asserts that the absence of records is cached for the duration defined by the SOA record in the answer.
+     */
+    @Test
+    public void testNegativeCachingBySoaMinimum() throws Exception
+    {
+        // Setup test fixture.
+        server.nxdomain("_xmpp-server._tcp.example.org.", 300);
+        server.nxdomain("_xmpp-server._tcp.example.com.", 0);
+
+        // Execute system under test.
+        for (int i = 0; i < 2; i++) {
+            assertTrue(resolver.srvLookup("xmpp-server", "tcp", "example.org").get(5, TimeUnit.SECONDS).isEmpty());
+            assertTrue(resolver.srvLookup("xmpp-server", "tcp", "example.com").get(5, TimeUnit.SECONDS).isEmpty());
+        }
+
+        // Verify results.
+        assertEquals(1, server.getQueryCount("_xmpp-server._tcp.example.org."));
+        assertEquals(2, server.getQueryCount("_xmpp-server._tcp.example.com."));
+    }
+
+    /**
+     * Asserts that the number of cached results does not exceed the configured maximum.
+     */
+    @Test
+    public void testCacheSizeBounded() throws Exception
+    {
+        // Setup test fixture.
+        final DNSResolver bounded = new DNSResolver(new SingletonDnsServerAddressStreamProvider(server.getAddress()), Duration.ofSeconds(2), 2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                server.answer("_xmpp-server._tcp.example" + i + ".org.", 3600, srv(10, 0, 5269, "xmpp.example" + i + ".org."));
+            }
+
+            // Execute system under test.
+            for (int i = 0; i < 5; i++) {
+                assertEquals(1, bounded.srvLookup("xmpp-server", "tcp", "example" + i + ".org").get(5, TimeUnit.SECONDS).size());
+            }
+
+            // Verify results.
+            assertTrue(bounded.getCacheSize() <= 2);
+        } finally {
+            bounded.close();
+        }
+    }
+
+    /**
+     * Asserts that concurrent requests for the same look-up share one DNS query.
+     */
+    @Test
+    public void testInFlightDeduplication() throws Exception
+    {
+        // Setup test fixture.
+        server.answer("_xmpp-server._tcp.example.org.", 3600, srv(10, 0, 5269, "xmpp.example.org."));
+        server.hold();
+
+        // Execute system under test.
+        final CompletableFuture<List<DNSUtil.WeightedHostAddress>> first = resolver.srvLookup("xmpp-server", "tcp", "example.org");
+        final CompletableFuture<List<DNSUtil.WeightedHostAddress>> second = resolver.srvLookup("xmpp-server", "tcp", "example.org");
+        server.release();
+
+        // Verify results.
+        assertEquals(1, first.get(5, TimeUnit.SECONDS).size());
+        assertEquals(1, second.get(5, TimeUnit.SECONDS).size());
+        assertEquals(1, server.getQueryCount("_xmpp-server._tcp.example.org."));
+    }
+
+    private static byte[] srv(final int priority, final int weight, final int port, final String target) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(priority);
+        out.writeShort(weight);
+        out.writeShort(port);
+        writeName(out, target);
+        return bytes.toByteArray();
+    }
+
+    private static void writeName(final DataOutputStream out, final String name) throws IOException {
+        for (final String label : name.split("\\.")) {
+            if (!label.isEmpty()) {
+                final byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+                out.writeByte(bytes.length);
+                out.write(bytes);
+            }
+        }
+        out.writeByte(0);
+    }
+
+    /**
+     * A DNS server that answers queries with preconfigured SRV records, or with NXDOMAIN and an SOA record.
+     */
+    private static final class StubDnsServer implements AutoCloseable
+    {
+        private final DatagramSocket socket;
+        private final Thread thread;
+        private final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+        private final Map<String, Integer> ttls = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> queryCounts = new ConcurrentHashMap<>();
+        private volatile CountDownLatch hold = new CountDownLatch(0);
+
+        StubDnsServer() throws SocketException {
+            socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            thread = new Thread(this::serve, "stub-dns-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        InetSocketAddress getAddress() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        }
+
+        void answer(final String name, final int ttl, final byte[] srvData) {
+            responses.put(name, srvData);
+            ttls.put(name, ttl);
+        }
+
+        void nxdomain(final String name, final int soaMinimum) {
+            responses.put(name, new byte[0]);
+            ttls.put(name, soaMinimum);
+        }
+
+        void hold() {
+            hold = new CountDownLatch(1);
+        }
+
+        void release() {
+            hold.countDown();
+        }
+
+        int getQueryCount(final String name) {
+            final AtomicInteger count = queryCounts.get(name);
+            return count == null ? 0 : count.get();
+        }
+
+        private void serve() {
+            final byte[] buffer = new byte[512];
+            while (!socket.isClosed()) {
+                try {
+                    final DatagramPacket query = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(query);
+
+                    // Parse the name of the (only) question, which starts after the 12 byte header.
+                    final StringBuilder name = new StringBuilder();
+                    int position = 12;
+                    while (buffer[position] != 0) {
+                        final int length = buffer[position];
+                        name.append(new String(buffer, position + 1, length, StandardCharsets.US_ASCII)).append('.');
+                        position += length + 1;
+                    }
+                    final int questionEnd = position + 5; // terminating zero, QTYPE and QCLASS.
+                    final String qname = name.toString().toLowerCase();
+                    queryCounts.computeIfAbsent(qname, k -> new AtomicInteger()).incrementAndGet();
+                    hold.await(5, TimeUnit.SECONDS);
+
+                    final byte[] data = responses.get(qname);
+                    final int ttl = ttls.getOrDefault(qname, 0);
+                    final boolean nxdomain = data == null || data.length == 0;
+
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    final DataOutputStream out = new DataOutputStream(bytes);
+                    out.write(buffer, 0, 2); // ID
+                    out.writeShort(0x8180 | (nxdomain ? 3 : 0)); // QR, RD, RA and RCODE
+                    out.writeShort(1); // QDCOUNT
+                    out.writeShort(nxdomain ? 0 : 1); // ANCOUNT
+                    out.writeShort(nxdomain ? 1 : 0); // NSCOUNT
+                    out.writeShort(0); // ARCOUNT
+                    out.write(buffer, 12, questionEnd - 12);
+                    if (nxdomain) {
+                        writeName(out, "example.org.");
+                        out.writeShort(6); // SOA
+                        out.writeShort(1); // IN
+                        out.writeInt(3600);
+                        final ByteArrayOutputStream soa = new ByteArrayOutputStream();
+                        final DataOutputStream soaOut = new DataOutputStream(soa);
+                        writeName(soaOut, "ns.example.org.");
+                        writeName(soaOut, "hostmaster.example.org.");
+                        soaOut.writeInt(1); // SERIAL
+                        soaOut.writeInt(7200); // REFRESH
+                        soaOut.writeInt(900); // RETRY
+                        soaOut.writeInt(1209600); // EXPIRE
+                        soaOut.writeInt(ttl); // MINIMUM
+                        out.writeShort(soa.size());
+                        out.write(soa.toByteArray());
+                    } else {
+                        writeName(out, qname);
+                        out.writeShort(33); // SRV
+                        out.writeShort(1); // IN
+                        out.writeInt(ttl);
+                        out.writeShort(data.length);
+                        out.write(data);
+                    }
+                    final byte[] response = bytes.toByteArray();
+                    socket.send(new DatagramPacket(response, response.length, query.getSocketAddress()));
+                } catch (final IOException | InterruptedException e) {
+                    // Socket closed (or the test was interrupted).
+                }
+            }
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            hold.countDown();
+            socket.close();
+            thread.join(5000);
+        }
+    }
+}
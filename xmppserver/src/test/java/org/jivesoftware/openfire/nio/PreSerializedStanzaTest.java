@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import io.netty.buffer.ByteBuf;
+import org.dom4j.DocumentHelper;
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.openfire.filetransfer.DefaultFileTransferManager;
+import org.jivesoftware.openfire.interceptor.InterceptorManager;
+import org.jivesoftware.openfire.interceptor.PacketInterceptor;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Presence;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link PreSerializedStanza}
+ */
+public class PreSerializedStanzaTest {
+
+    @BeforeAll
+    public static void setUpClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+        Fixtures.disableDatabasePersistence();
+        CacheFactory.initialize();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (final PacketInterceptor interceptor : InterceptorManager.getInstance().getInterceptors()) {
+            InterceptorManager.getInstance().removeInterceptor(interceptor);
+        }
+    }
+
+    private static Message createMessage() {
+        final Message message = new Message();
+        message.setType(Message.Type.groupchat);
+        message.setFrom(new JID("room@conference.example.org/nick"));
+        message.setID("abc");
+        message.setBody("Hello & <world> \"quoted\"");
+        return message;
+    }
+
+    private static String encodeToString(final Message message) {
+        final ByteBuf buffer = PreSerializedStanza.encode(message, null);
+        assertNotNull(buffer);
+        try {
+            return buffer.toString(StandardCharsets.UTF_8);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Asserts that the data that is generated for each recipient is equal to the stanza, addressed to that recipient.
+     */
+    @Test
+    public void testEncodePerRecipient() throws Exception
+    {
+        // Setup test fixture.
+        final Message message = createMessage();
+        final JID[] recipients = new JID[] { new JID("john@example.org/desktop"), new JID("jane@example.org/a&b<c>\"d") };
+
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(message)) {
+            for (final JID recipient : recipients) {
+                // Execute system under test.
+                message.setTo(recipient);
+                final String result = encodeToString(message);
+
+                // Verify results.
+                final Message parsed = new Message(DocumentHelper.parseText(result).getRootElement());
+                assertEquals(recipient, parsed.getTo());
+                assertEquals(message.getFrom(), parsed.getFrom());
+                assertEquals(message.getID(), parsed.getID());
+                assertEquals(message.getType(), parsed.getType());
+                assertEquals(message.getBody(), parsed.getBody());
+            }
+        }
+
+        // The stanza itself should be unaffected.
+        assertEquals(recipients[1], message.getTo());
+    }
+
+    /**
+     * Asserts that stanzas that are not registered with an open scope are not pre-serialized.
+     */
+    @Test
+    public void testNoScope() throws Exception
+    {
+        // Setup test fixture.
+        final Message message = createMessage();
+        message.setTo(new JID("john@example.org/desktop"));
+
+        // Execute system under test & Verify results.
+        assertNull(PreSerializedStanza.encode(message, null));
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(new Presence())) {
+            assertNull(PreSerializedStanza.encode(message, null));
+        }
+    }
+
+    /**
+     * Asserts that a stanza is no longer pre-serialized after its scope has been closed, and that an enclosing scope
+     * remains in effect.
+     */
+    @Test
+    public void testNestedScopes() throws Exception
+    {
+        // Setup test fixture.
+        final Message outer = createMessage();
+        outer.setTo(new JID("john@example.org/desktop"));
+        final Message inner = createMessage();
+        inner.setTo(new JID("jane@example.org/desktop"));
+
+        // Execute system under test & Verify results.
+        try (final PreSerializedStanza.Scope ignoredOuter = PreSerializedStanza.open(outer)) {
+            try (final PreSerializedStanza.Scope ignoredInner = PreSerializedStanza.open(inner)) {
+                assertNotNull(encodeToString(inner));
+                assertNotNull(encodeToString(outer));
+            }
+            assertNull(PreSerializedStanza.encode(inner, null));
+            assertNotNull(encodeToString(outer));
+        }
+        assertNull(PreSerializedStanza.encode(outer, null));
+    }
+
+    /**
+     * Asserts that stanzas are pre-serialized when the interceptor of the file transfer manager (which is registered
+     * by default, and does not modify sent packets) is registered.
+     */
+    @Test
+    public void testNonModifyingInterceptor() throws Exception
+    {
+        // Setup test fixture.
+        new DefaultFileTransferManager();
+        assertFalse(InterceptorManager.getInstance().getInterceptors().isEmpty());
+        final Message message = createMessage();
+        message.setTo(new JID("john@example.org/desktop"));
+
+        // Execute system under test & Verify results.
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(message)) {
+            assertNotNull(encodeToString(message));
+        }
+    }
+
+    /**
+     * Asserts that stanzas are not pre-serialized when an interceptor is registered that can modify sent packets.
+     */
+    @Test
+    public void testModifyingInterceptor() throws Exception
+    {
+        // Setup test fixture.
+        new DefaultFileTransferManager();
+        InterceptorManager.getInstance().addInterceptor((packet, session, incoming, processed) -> {});
+        final Message message = createMessage();
+        message.setTo(new JID("john@example.org/desktop"));
+
+        // Execute system under test & Verify results.
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(message)) {
+            assertNull(PreSerializedStanza.encode(message, null));
+        }
+    }
+
+    /**
+     * Asserts that the serialized form of a stanza that is obtained as an array of bytes is equal to the stanza, both
+     * when the stanza is, and is not, part of a broadcast.
+     */
+    @Test
+    public void testToBytes() throws Exception
+    {
+        // Setup test fixture.
+        final Message message = createMessage();
+        message.setTo(new JID("john@example.org/desktop"));
+
+        // Execute system under test.
+        final String withoutScope = new String(PreSerializedStanza.toBytes(message, null), StandardCharsets.UTF_8);
+        final String withScope;
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(message)) {
+            withScope = new String(PreSerializedStanza.toBytes(message, null), StandardCharsets.UTF_8);
+        }
+
+        // Verify results.
+        assertEquals(message.toXML(), withoutScope);
+        final Message parsed = new Message(DocumentHelper.parseText(withScope).getRootElement());
+        assertEquals(message.getTo(), parsed.getTo());
+        assertEquals(message.getBody(), parsed.getBody());
+    }
+
+    /**
+     * Asserts that the data that is generated for each recipient contains the ID of the stanza at the time of its
+     * delivery, so that each recipient can receive a stanza with a distinct ID, while the stanza is serialized once.
+     */
+    @Test
+    public void testEncodePerRecipientID() throws Exception
+    {
+        // Setup test fixture.
+        final Message message = createMessage();
+        final String[] ids = new String[] { "first", "second&\"third\"" };
+
+        try (final PreSerializedStanza.Scope ignored = PreSerializedStanza.open(message)) {
+            for (final String id : ids) {
+                // Execute system under test.
+                message.setTo(new JID("john@example.org/desktop"));
+                message.setID(id);
+                final String result = encodeToString(message);
+
+                // Verify results.
+                final Message parsed = new Message(DocumentHelper.parseText(result).getRootElement());
+                assertEquals(id, parsed.getID());
+                assertEquals(message.getBody(), parsed.getBody());
+            }
+
+            // Execute system under test.
+            message.setID(null);
+            final String result = encodeToString(message);
+
+            // Verify results.
+            assertNull(new Message(DocumentHelper.parseText(result).getRootElement()).getID());
+        }
+    }
+}
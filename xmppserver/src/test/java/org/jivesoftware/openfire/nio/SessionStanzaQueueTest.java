@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link SessionStanzaQueue}
+ */
+public class SessionStanzaQueueTest {
+
+    private StanzaProcessingExecutor executor;
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        executor = new StanzaProcessingExecutor(StanzaProcessingExecutor.Mode.PLATFORM_THREADS, 4);
+        channel = new EmbeddedChannel();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        executor.getService().shutdownNow();
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * Asserts that tasks are executed in the order in which they were submitted, and never concurrently.
+     */
+    @Test
+    public void testOrderIsRetained() throws Exception
+    {
+        // Setup test fixture.
+        final SessionStanzaQueue queue = new SessionStanzaQueue(channel, executor);
+        final int count = 1000;
+        final List<Integer> result = Collections.synchronizedList(new ArrayList<>());
+        final AtomicBoolean running = new AtomicBoolean();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+
+        // Execute system under test.
+        for (int i = 0; i < count; i++) {
+            final int value = i;
+            queue.submit(() -> {
+                if (!running.compareAndSet(false, true)) {
+                    overlaps.incrementAndGet();
+                }
+                result.add(value);
+                running.set(false);
+                done.countDown();
+            }, false);
+        }
+
+        // Verify results.
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, result.get(i));
+        }
+    }
+
+    /**
+     * Asserts that reading from the channel is suspended until a barrier task has been executed.
+     */
+    @Test
+    public void testBarrierSuspendsReading() throws Exception
+    {
+        // Setup test fixture.
+        final SessionStanzaQueue queue = new SessionStanzaQueue(channel, executor);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // Execute system under test.
+        queue.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, true);
+        queue.submit(done::countDown, false);
+
+        // Verify results.
+        assertFalse(channel.config().isAutoRead());
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        waitForDrain(queue);
+        assertTrue(channel.config().isAutoRead());
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * Asserts that reading from the channel is suspended when the queue reaches its high watermark, and is resumed when
+     * the queue has been drained.
+     */
+    @Test
+    public void testHighWatermarkSuspendsReading() throws Exception
+    {
+        // Setup test fixture.
+        final SessionStanzaQueue queue = new SessionStanzaQueue(channel, executor);
+        final int highWatermark = StanzaProcessingExecutor.SESSION_QUEUE_HIGH_WATERMARK.getValue();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(highWatermark - 1);
+
+        // Execute system under test.
+        queue.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, false);
+        for (int i = 1; i < highWatermark; i++) {
+            assertTrue(channel.config().isAutoRead());
+            queue.submit(done::countDown, false);
+        }
+
+        // Verify results.
+        assertFalse(channel.config().isAutoRead());
+        assertEquals(1, executor.getReadSuspensions());
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        waitForDrain(queue);
+        assertTrue(channel.config().isAutoRead());
+        assertEquals(highWatermark, executor.getProcessedStanzas());
+    }
+
+    private static void waitForDrain(final SessionStanzaQueue queue) throws InterruptedException
+    {
+        // The last task may have been executed, while the queue has not yet finished its bookkeeping.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.size() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link XMLStanzaFramer}
+ */
+public class XMLStanzaFramerTest {
+
+    private XMLStanzaFramer framer;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        framer = new XMLStanzaFramer();
+    }
+
+    /**
+     * Feeds each of the provided chunks to the framer (accumulating the data, like Netty's ByteToMessageDecoder would)
+     * and returns all stanzas that were found, decoded as Strings.
+     */
+    private List<String> frame(final byte[]... chunks) throws Exception {
+        final ByteBuf cumulation = Unpooled.buffer();
+        final List<String> result = new ArrayList<>();
+        try {
+            for (final byte[] chunk : chunks) {
+                cumulation.writeBytes(chunk);
+                final List<Object> out = new ArrayList<>();
+                framer.decode(cumulation, out);
+                for (final Object o : out) {
+                    final ByteBuf stanza = (ByteBuf) o;
+                    result.add(stanza.toString(StandardCharsets.UTF_8));
+                    stanza.release();
+                }
+            }
+        } finally {
+            cumulation.release();
+        }
+        return result;
+    }
+
+    private List<String> frame(final String... chunks) throws Exception {
+        final byte[][] data = new byte[chunks.length][];
+        for (int i = 0; i < chunks.length; i++) {
+            data[i] = chunks[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return frame(data);
+    }
+
+    /**
+     * Asserts that a stanza with nested child elements is returned as one message.
+     */
+    @Test
+    public void testSingleStanza() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<message to='foo@example.org'><body>Hello <b>world</b></body></message>";
+
+        // Execute system under test.
+        final List<String> result = frame(input);
+
+        // Verify results.
+        assertEquals(List.of(input), result);
+    }
+
+    /**
+     * Asserts that a stanza that is received in many small chunks is returned as one message, once complete.
+     */
+    @Test
+    public void testStanzaSplitOverReads() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<presence to=\"foo@example.org\"><status>away</status></presence>";
+        final String[] chunks = new String[input.length()];
+        for (int i = 0; i < input.length(); i++) {
+            chunks[i] = input.substring(i, i + 1);
+        }
+
+        // Execute system under test.
+        final List<String> result = frame(chunks);
+
+        // Verify results.
+        assertEquals(List.of(input), result);
+    }
+
+    /**
+     * Asserts that several stanzas that are received in one read, separated by whitespace, are all returned.
+     */
+    @Test
+    public void testMultipleStanzasInOneRead() throws Exception
+    {
+        // Execute system under test.
+        final List<String> result = frame("<presence/>\n <iq type='get' id='1'><ping xmlns='urn:xmpp:ping'/></iq>\r\n<message><body>a</body></message><message");
+
+        // Verify results.
+        assertEquals(List.of("<presence/>", "<iq type='get' id='1'><ping xmlns='urn:xmpp:ping'/></iq>", "<message><body>a</body></message>"), result);
+    }
+
+    /**
+     * Asserts that the opening and closing stream elements (and an XML declaration) are returned as individual messages.
+     */
+    @Test
+    public void testStreamHeaderAndFooter() throws Exception
+    {
+        // Execute system under test.
+        final List<String> result = frame("<?xml version='1.0'?><stream:stream to='example.org' xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' version='1.0'>", "<presence/></stream:stream>");
+
+        // Verify results.
+        assertEquals(List.of("<?xml version='1.0'?>", "<stream:stream to='example.org' xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' version='1.0'>", "<presence/>", "</stream:stream>"), result);
+    }
+
+    /**
+     * Asserts that markup-like data in CDATA sections and attribute values does not end a stanza prematurely.
+     */
+    @Test
+    public void testCdataAndAttributeValues() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<message id='a>b' type=\"c/>d\"><body><![CDATA[</message>]]]></body></message>";
+
+        // Execute system under test.
+        final List<String> result = frame(input);
+
+        // Verify results.
+        assertEquals(List.of(input), result);
+    }
+
+    /**
+     * Asserts that multibyte characters are retained, even when their bytes are split over multiple reads.
+     */
+    @Test
+    public void testMultibyteCharacterSplitOverReads() throws Exception
+    {
+        // Setup test fixture.
+        final byte[] input = "<message><body>café 😀</body></message>".getBytes(StandardCharsets.UTF_8);
+        final int split = 23; // in the middle of the four-byte encoding of the emoji.
+        final byte[] first = new byte[split];
+        final byte[] second = new byte[input.length - split];
+        System.arraycopy(input, 0, first, 0, split);
+        System.arraycopy(input, split, second, 0, second.length);
+
+        // Execute system under test.
+        final List<String> result = frame(first, second);
+
+        // Verify results.
+        assertEquals(List.of("<message><body>café 😀</body></message>"), result);
+    }
+
+    /**
+     * Asserts that a control character that is not allowed in XML causes an exception.
+     */
+    @Test
+    public void testInvalidControlCharacter() throws Exception
+    {
+        assertThrows(XMLNotWellFormedException.class, () -> frame("<message><body>\u0001</body></message>"));
+    }
+
+    /**
+     * Asserts that an (UTF-8 encoded) surrogate code point causes an exception.
+     */
+    @Test
+    public void testEncodedSurrogate() throws Exception
+    {
+        final byte[] input = new byte[] { '<', 'a', '>', (byte) 0xED, (byte) 0xA0, (byte) 0x80, '<', '/', 'a', '>' };
+        assertThrows(XMLNotWellFormedException.class, () -> frame(input));
+    }
+
+    /**
+     * Asserts that a malformed UTF-8 sequence causes an exception.
+     */
+    @Test
+    public void testMalformedUtf8() throws Exception
+    {
+        final byte[] input = new byte[] { '<', 'a', '>', (byte) 0xC3, 'x', '<', '/', 'a', '>' };
+        assertThrows(XMLNotWellFormedException.class, () -> frame(input));
+    }
+
+    /**
+     * Asserts that a numeric character reference to a character that is not allowed in XML causes an exception.
+     */
+    @Test
+    public void testIllegalCharacterReference() throws Exception
+    {
+        assertThrows(XMLNotWellFormedException.class, () -> frame("<message><body>&#x1;</body></message>"));
+    }
+
+    /**
+     * Asserts that legal character and entity references are accepted.
+     */
+    @Test
+    public void testLegalCharacterReferences() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<message><body>&amp;&#65;&#x42;&#;&#xZZ;</body></message>";
+
+        // Execute system under test.
+        final List<String> result = frame(input);
+
+        // Verify results.
+        assertEquals(List.of(input), result);
+    }
+
+    /**
+     * Asserts that data for one stanza that exceeds the maximum buffer size causes an exception.
+     */
+    @Test
+    public void testMaxBufferSizeExceeded() throws Exception
+    {
+        // Setup test fixture.
+        final int max = XMLLightweightParser.XMPP_PARSER_BUFFER_SIZE.getValue().intValue();
+        final StringBuilder input = new StringBuilder("<message><body>");
+        while (input.length() <= max) {
+            input.append("0123456789");
+        }
+
+        // Execute system under test.
+        assertThrows(InboundBufferSizeException.class, () -> frame(input.toString()));
+
+        // Verify results.
+        assertTrue(framer.isMaxBufferSizeExceeded());
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.privacy;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.jivesoftware.openfire.roster.Roster;
+import org.jivesoftware.openfire.roster.RosterItem;
+import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify that {@link PrivacyListEvaluator} yields the same results as evaluating each item of a privacy
+ * list in order.
+ */
+public class PrivacyListEvaluatorTest {
+
+    private static final JID OWNER = new JID("owner@example.org");
+    private static final String[] GROUPS = { "friends", "work", "family" };
+    private static final String[] SUBSCRIPTIONS = { "both", "to", "from", "none" };
+    private static final String[] STANZAS = { "iq", "message", "presence-in", "presence-out" };
+
+    private static final List<JID> ADDRESSES = new ArrayList<>();
+    static {
+        for (final String domain : List.of("example.org", "example.com")) {
+            ADDRESSES.add(new JID(domain));
+            ADDRESSES.add(new JID(null, domain, "resource"));
+            for (int i = 0; i < 5; i++) {
+                ADDRESSES.add(new JID("contact" + i, domain, null));
+                ADDRESSES.add(new JID("contact" + i, domain, "desktop"));
+                ADDRESSES.add(new JID("contact" + i, domain, "mobile"));
+            }
+        }
+        ADDRESSES.add(new JID(OWNER.getNode(), OWNER.getDomain(), "desktop"));
+    }
+
+    private static PrivacyItem createItem(final Random random, final int order) {
+        final Element element = DocumentHelper.createElement("item");
+        element.addAttribute("action", random.nextBoolean() ? "allow" : "deny");
+        element.addAttribute("order", String.valueOf(order));
+        switch (random.nextInt(5)) {
+            case 0:
+                // Fall-through item
+                break;
+            case 1:
+                element.addAttribute("type", "group");
+                element.addAttribute("value", GROUPS[random.nextInt(GROUPS.length)]);
+                break;
+            case 2:
+                element.addAttribute("type", "subscription");
+                element.addAttribute("value", SUBSCRIPTIONS[random.nextInt(SUBSCRIPTIONS.length)]);
+                break;
+            default:
+                element.addAttribute("type", "jid");
+                element.addAttribute("value", ADDRESSES.get(random.nextInt(ADDRESSES.size())).toString());
+        }
+        for (final String stanza : STANZAS) {
+            if (random.nextInt(3) == 0) {
+                element.addElement(stanza);
+            }
+        }
+        return new PrivacyItem(element);
+    }
+
+    private static List<PrivacyItem> createItems(final Random random, final int size, final boolean withFallThrough) {
+        final List<PrivacyItem> result = new ArrayList<>();
+        while (result.size() < size) {
+            final PrivacyItem item = createItem(random, random.nextInt(size * 2));
+            if (withFallThrough || item.getType() != null) {
+                result.add(item);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static Roster createRoster(final Random random) throws Exception {
+        final Map<String, RosterItem> items = new HashMap<>();
+        for (final JID address : ADDRESSES) {
+            if (address.getNode() != null && random.nextBoolean()) {
+                final List<String> groups = new ArrayList<>();
+                for (final String group : GROUPS) {
+                    if (random.nextBoolean()) {
+                        groups.add(group);
+                    }
+                }
+                final RosterItem.SubType[] subTypes = { RosterItem.SUB_BOTH, RosterItem.SUB_TO, RosterItem.SUB_FROM, RosterItem.SUB_NONE };
+                items.put(address.toBareJID(), new RosterItem(address.asBareJID(), subTypes[random.nextInt(subTypes.length)], RosterItem.ASK_NONE, RosterItem.RECV_NONE, null, groups));
+            }
+        }
+        final Roster roster = mock(Roster.class);
+        when(roster.getRosterItem(any(JID.class))).thenAnswer(invocation -> {
+            final RosterItem item = items.get(((JID) invocation.getArgument(0)).toBareJID());
+            if (item == null) {
+                throw new UserNotFoundException();
+            }
+            return item;
+        });
+        return roster;
+    }
+
+    private static Packet createPacket(final Random random) {
+        final Packet packet;
+        switch (random.nextInt(5)) {
+            case 0:
+                packet = new Message();
+                break;
+            case 1:
+                packet = new IQ();
+                break;
+            case 2:
+                packet = new Presence(Presence.Type.unavailable);
+                break;
+            case 3:
+                packet = new Presence(Presence.Type.subscribe);
+                break;
+            default:
+                packet = new Presence();
+        }
+        final JID owner = random.nextBoolean() ? OWNER : new JID(OWNER.getNode(), OWNER.getDomain(), "mobile");
+        final JID contact = ADDRESSES.get(random.nextInt(ADDRESSES.size()));
+        final boolean outgoing = random.nextBoolean();
+        packet.setFrom(outgoing ? owner : contact);
+        if (random.nextInt(10) > 0) {
+            packet.setTo(outgoing ? contact : owner);
+        }
+        return packet;
+    }
+
+    private static PrivacyItem findMatchInOrder(final List<PrivacyItem> items, final Packet packet, final Roster roster) {
+        for (final PrivacyItem item : items) {
+            if (item.matchesCondition(packet, roster, OWNER)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private static void assertEquivalent(final long seed, final int listSize, final boolean withFallThrough, final int packets) throws Exception {
+        final Random random = new Random(seed);
+        final List<PrivacyItem> items = createItems(random, listSize, withFallThrough);
+        final Roster roster = createRoster(random);
+        final PrivacyListEvaluator evaluator = new PrivacyListEvaluator(items, OWNER);
+        for (int i = 0; i < packets; i++) {
+            final Packet packet = createPacket(random);
+            assertSame(findMatchInOrder(items, packet, roster), evaluator.findMatch(packet, () -> roster), "Mismatch (seed " + seed + ") for " + packet.toXML());
+        }
+    }
+
+    /**
+     * Asserts that the first matching item is found for randomly generated privacy lists and stanzas.
+     */
+    @Test
+    public void testEquivalenceRandomLists() throws Exception
+    {
+        for (long seed = 0; seed < 200; seed++) {
+            assertEquivalent(seed, 1 + (int) (seed % 20), seed % 2 == 0, 200);
+        }
+    }
+
+    /**
+     * Asserts that the first matching item is found for long lists (as used for XEP-0191 blocklists).
+     */
+    @Test
+    public void testEquivalenceLongLists() throws Exception
+    {
+        for (long seed = 0; seed < 5; seed++) {
+            assertEquivalent(seed, 5000, false, 2000);
+        }
+    }
+
+    /**
+     * Asserts that the roster is not obtained when the list has no items that depend on it.
+     */
+    @Test
+    public void testRosterNotRequired() throws Exception
+    {
+        // Setup test fixture.
+        final Element element = DocumentHelper.createElement("item");
+        element.addAttribute("action", "deny");
+        element.addAttribute("order", "1");
+        element.addAttribute("type", "jid");
+        element.addAttribute("value", "contact1@example.org");
+        final PrivacyItem item = new PrivacyItem(element);
+        final PrivacyListEvaluator evaluator = new PrivacyListEvaluator(List.of(item), OWNER);
+        final Message message = new Message();
+        message.setFrom(new JID("contact1@example.org/desktop"));
+        message.setTo(OWNER);
+
+        // Execute system under test.
+        final PrivacyItem result = evaluator.findMatch(message, () -> { throw new IllegalStateException("Roster should not be needed."); });
+
+        // Verify results.
+        assertSame(item, result);
+    }
+
+    /**
+     * Asserts that the size of the evaluator grows with the amount of items that it indexes.
+     */
+    @Test
+    public void testCachedSizeIncludesIndexes() throws Exception
+    {
+        // Setup test fixture.
+        final Random random = new Random(0);
+        final PrivacyListEvaluator small = new PrivacyListEvaluator(createItems(random, 10, false), OWNER);
+        final PrivacyListEvaluator large = new PrivacyListEvaluator(createItems(random, 1000, false), OWNER);
+
+        // Execute system under test.
+        final int smallSize = small.getCachedSize();
+        final int largeSize = large.getCachedSize();
+
+        // Verify results.
+        assertTrue(smallSize > 0);
+        assertTrue(largeSize > smallSize);
+    }
+}
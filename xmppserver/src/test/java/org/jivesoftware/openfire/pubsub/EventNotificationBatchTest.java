@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.pubsub;
+
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.Message;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link EventNotificationBatch}
+ */
+public class EventNotificationBatchTest {
+
+    /**
+     * Asserts that a notification is built only once for each key while a batch is open.
+     */
+    @Test
+    public void testShareWithinBatch() throws Exception
+    {
+        // Setup test fixture.
+        final Message original = new Message();
+        final AtomicInteger built = new AtomicInteger();
+
+        try (final EventNotificationBatch ignored = EventNotificationBatch.open()) {
+            // Execute system under test.
+            final Message first = EventNotificationBatch.share(Arrays.asList(original, "items"), () -> { built.incrementAndGet(); return original.createCopy(); });
+            final Message second = EventNotificationBatch.share(Arrays.asList(original, "items"), () -> { built.incrementAndGet(); return original.createCopy(); });
+            final Message other = EventNotificationBatch.share(Arrays.asList(original, "retract"), () -> { built.incrementAndGet(); return original.createCopy(); });
+
+            // Verify results.
+            assertSame(first, second);
+            assertNotSame(first, other);
+            assertEquals(2, built.get());
+            assertTrue(EventNotificationBatch.isShared(first));
+            assertTrue(EventNotificationBatch.isShared(other));
+            assertFalse(EventNotificationBatch.isShared(original));
+        }
+    }
+
+    /**
+     * Asserts that a new notification is built for each request when no batch is open, and that notifications are no
+     * longer shared after the batch that shared them is closed.
+     */
+    @Test
+    public void testShareWithoutBatch() throws Exception
+    {
+        // Setup test fixture.
+        final Message original = new Message();
+        final Message shared;
+        try (final EventNotificationBatch ignored = EventNotificationBatch.open()) {
+            shared = EventNotificationBatch.share(original, original::createCopy);
+        }
+
+        // Execute system under test.
+        final Message first = EventNotificationBatch.share(original, original::createCopy);
+        final Message second = EventNotificationBatch.share(original, original::createCopy);
+
+        // Verify results.
+        assertNotSame(first, second);
+        assertNotSame(shared, first);
+        assertFalse(EventNotificationBatch.isShared(shared));
+        assertFalse(EventNotificationBatch.isShared(first));
+    }
+
+    /**
+     * Asserts that closing a nested batch restores the batch in which it was opened.
+     */
+    @Test
+    public void testNestedBatch() throws Exception
+    {
+        // Setup test fixture.
+        final Message original = new Message();
+
+        try (final EventNotificationBatch ignored = EventNotificationBatch.open()) {
+            final Message outer = EventNotificationBatch.share(original, original::createCopy);
+
+            // Execute system under test.
+            final Message inner;
+            try (final EventNotificationBatch nested = EventNotificationBatch.open()) {
+                inner = EventNotificationBatch.share(original, original::createCopy);
+                assertFalse(EventNotificationBatch.isShared(outer));
+            }
+
+            // Verify results.
+            assertNotSame(outer, inner);
+            assertTrue(EventNotificationBatch.isShared(outer));
+            assertSame(outer, EventNotificationBatch.share(original, original::createCopy));
+        }
+    }
+}
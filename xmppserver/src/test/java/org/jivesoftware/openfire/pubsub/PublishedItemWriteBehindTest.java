@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.pubsub;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link PublishedItemWriteBehind}
+ */
+public class PublishedItemWriteBehindTest
+{
+    private static final JID PUBLISHER = new JID("unit-test@example.org");
+
+    private final List<List<PublishedItem>> written = new ArrayList<>();
+    private final List<List<PublishedItem>> removed = new ArrayList<>();
+    private PublishedItemWriteBehind writeBehind;
+    private LeafNode nodeA;
+    private LeafNode nodeB;
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        written.clear();
+        removed.clear();
+        writeBehind = new PublishedItemWriteBehind((addList, delList) -> {
+            written.add(addList);
+            removed.add(delList);
+        });
+        final PubSubService.UniqueIdentifier service = new PubSubService.UniqueIdentifier("test-service-id");
+        nodeA = new LeafNode(service, null, "node-a", PUBLISHER, new DefaultNodeConfiguration(true));
+        nodeB = new LeafNode(service, null, "node-b", PUBLISHER, new DefaultNodeConfiguration(true));
+    }
+
+    private static PublishedItem item(final LeafNode node, final String id, final String payload)
+    {
+        final PublishedItem result = new PublishedItem(node, PUBLISHER, id, new Date());
+        result.setPayloadXML(payload);
+        return result;
+    }
+
+    /**
+     * Asserts that a change to an item replaces an earlier pending change to the same item.
+     */
+    @Test
+    public void testReplace() throws Exception
+    {
+        // Setup test fixture.
+        writeBehind.save(item(nodeA, "1", "<first/>"));
+        final PublishedItem replacement = item(nodeA, "1", "<second/>");
+
+        // Execute system under test.
+        writeBehind.save(replacement);
+
+        // Verify results.
+        assertEquals(1, writeBehind.getPendingItems());
+        assertEquals(PublishedItemWriteBehind.CHANGE_OVERHEAD_BYTES + 2 * "<second/>".length(), writeBehind.getPendingBytes());
+        writeBehind.flushAll();
+        assertEquals(1, written.size());
+        assertEquals(1, written.get(0).size());
+        assertSame(replacement, written.get(0).get(0));
+        assertEquals(0, writeBehind.getPendingItems());
+        assertEquals(0, writeBehind.getPendingBytes());
+    }
+
+    /**
+     * Asserts that removing an item that is pending to be saved results in the item being removed only.
+     */
+    @Test
+    public void testRemoveAfterSave() throws Exception
+    {
+        // Setup test fixture.
+        writeBehind.save(item(nodeA, "1", "<payload/>"));
+
+        // Execute system under test.
+        writeBehind.remove(item(nodeA, "1", null));
+        writeBehind.flushAll();
+
+        // Verify results.
+        assertEquals(1, written.size());
+        assertTrue(written.get(0).isEmpty());
+        assertEquals(1, removed.get(0).size());
+    }
+
+    /**
+     * Asserts that changes are written per node, and that flushing one node leaves the changes of other nodes pending.
+     */
+    @Test
+    public void testFlushPerNode() throws Exception
+    {
+        // Setup test fixture.
+        writeBehind.save(item(nodeA, "1", "<payload/>"));
+        writeBehind.save(item(nodeA, "2", "<payload/>"));
+        writeBehind.save(item(nodeB, "1", "<payload/>"));
+
+        // Execute system under test.
+        writeBehind.flush(nodeA.getUniqueIdentifier());
+
+        // Verify results.
+        assertEquals(1, written.size());
+        assertEquals(2, written.get(0).size());
+        assertEquals(1, writeBehind.getPendingItems());
+        assertEquals(1, writeBehind.getPendingNodes());
+        assertTrue(writeBehind.getFlushLagMillis() >= 0);
+
+        writeBehind.flushAll();
+        assertEquals(2, written.size());
+        assertEquals(3, writeBehind.getFlushedItems());
+        assertEquals(2, writeBehind.getNodeFlushes());
+        assertEquals(0, writeBehind.getFlushLagMillis());
+    }
+
+    /**
+     * Asserts that pending changes of a node that are discarded are not written.
+     */
+    @Test
+    public void testDiscard() throws Exception
+    {
+        // Setup test fixture.
+        writeBehind.save(item(nodeA, "1", "<payload/>"));
+        writeBehind.save(item(nodeB, "1", "<payload/>"));
+
+        // Execute system under test.
+        writeBehind.discard(nodeA.getUniqueIdentifier());
+        writeBehind.flushAll();
+
+        // Verify results.
+        assertEquals(1, written.size());
+        assertEquals(nodeB.getUniqueIdentifier(), written.get(0).get(0).getNode().getUniqueIdentifier());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.server;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link OutgoingSessionPromise}
+ */
+public class OutgoingSessionPromiseTest
+{
+    @BeforeAll
+    public static void setUpClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+        Fixtures.disableDatabasePersistence();
+        CacheFactory.initialize();
+        XMPPServer.setInstance(Fixtures.mockXMPPServer());
+    }
+
+    /**
+     * Asserts that the size of a stanza is the amount of bytes of its UTF-8 encoded serialization, rather than the
+     * amount of characters.
+     */
+    @Test
+    public void testSizeOfCountsBytes() throws Exception
+    {
+        // Setup test fixture.
+        final Message message = new Message();
+        message.setFrom("user@example.org");
+        message.setTo("user@example.com");
+        message.setBody("éééé 中文 😀");
+
+        // Execute system under test.
+        final long result = OutgoingSessionPromise.sizeOf(message);
+
+        // Verify results.
+        assertEquals(message.toXML().getBytes(StandardCharsets.UTF_8).length, result);
+        assertTrue(result > message.toXML().length());
+    }
+
+    /**
+     * Asserts that stanzas are accepted until the maximum amount of queued data would be exceeded.
+     */
+    @Test
+    public void testReserveUpToMaximum() throws Exception
+    {
+        // Setup test fixture.
+        final AtomicLong queuedBytes = new AtomicLong();
+
+        // Execute system under test.
+        final boolean first = OutgoingSessionPromise.reserve(queuedBytes, 40, 100);
+        final boolean second = OutgoingSessionPromise.reserve(queuedBytes, 60, 100);
+        final boolean third = OutgoingSessionPromise.reserve(queuedBytes, 1, 100);
+
+        // Verify results.
+        assertTrue(first);
+        assertTrue(second);
+        assertFalse(third);
+        assertEquals(100, queuedBytes.get());
+    }
+
+    /**
+     * Asserts that a single stanza that is larger than the maximum amount of queued data is accepted when nothing is
+     * queued, but not when data is queued.
+     */
+    @Test
+    public void testReserveOversizedStanza() throws Exception
+    {
+        // Setup test fixture.
+        final AtomicLong emptyQueue = new AtomicLong();
+        final AtomicLong nonEmptyQueue = new AtomicLong(10);
+
+        // Execute system under test.
+        final boolean acceptedWhenEmpty = OutgoingSessionPromise.reserve(emptyQueue, 150, 100);
+        final boolean acceptedWhenNonEmpty = OutgoingSessionPromise.reserve(nonEmptyQueue, 150, 100);
+
+        // Verify results.
+        assertTrue(acceptedWhenEmpty);
+        assertEquals(150, emptyQueue.get());
+        assertFalse(acceptedWhenNonEmpty);
+        assertEquals(10, nonEmptyQueue.get());
+    }
+}
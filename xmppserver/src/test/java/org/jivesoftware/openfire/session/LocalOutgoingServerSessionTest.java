@@ -26,10 +26,12 @@ import org.jivesoftware.openfire.spi.ConnectionConfiguration;
 import org.jivesoftware.openfire.spi.ConnectionListener;
 import org.jivesoftware.openfire.spi.ConnectionType;
 import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.util.TaskEngine;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
@@ -39,10 +41,13 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.Answer;
 
 import java.io.File;
+import java.net.ServerSocket;
 import java.security.Key;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -328,6 +333,66 @@ public class LocalOutgoingServerSessionTest
         }
     }
 
+    /**
+     * Asserts that when a connection to the first remote host cannot be established, a session is established using
+     * the next remote host.
+     */
+    @Test
+    public void testFailoverToNextHost() throws Exception
+    {
+        // Setup test fixture.
+        JiveGlobals.setProperty("xmpp.domain", Fixtures.XMPP_DOMAIN);
+        JiveGlobals.setProperty("xmpp.server.session.initialise-timeout", Long.toString(10));
+        JiveGlobals.setProperty(ConnectionSettings.Server.TLS_POLICY, Connection.TLSPolicy.disabled.toString());
+        JiveGlobals.setProperty(ConnectionSettings.Server.DIALBACK_ENABLED, "true");
+        remoteReceivingServerDummy.setEncryptionPolicy(Connection.TLSPolicy.disabled);
+        remoteReceivingServerDummy.setDisableDialback(false);
+
+        final int unusedPort;
+        try (final ServerSocket serverSocket = new ServerSocket(0)) {
+            unusedPort = serverSocket.getLocalPort();
+        }
+        final List<DNSUtil.HostAddress> remoteHosts = List.of(
+            new DNSUtil.HostAddress("localhost", unusedPort, false),
+            new DNSUtil.HostAddress("localhost", remoteReceivingServerDummy.getPort(), false));
+        final DomainPair domainPair = new DomainPair(Fixtures.XMPP_DOMAIN, RemoteReceivingServerDummy.XMPP_DOMAIN);
+
+        // Execute system under test.
+        final LocalOutgoingServerSession result = LocalOutgoingServerSession.createOutgoingSessionAsync(domainPair, remoteReceivingServerDummy.getPort(), remoteHosts, TaskEngine.getInstance()::submit)
+            .get(30, TimeUnit.SECONDS);
+
+        // Verify results.
+        assertNotNull(result);
+        assertFalse(result.isClosed());
+        assertTrue(result.isAuthenticated());
+        assertEquals(ServerSession.AuthenticationMethod.DIALBACK, result.getAuthenticationMethod());
+    }
+
+    /**
+     * Asserts that no session is returned when the remote host accepts a connection, but does not respond, after the
+     * session initialisation timeout has passed.
+     */
+    @Test
+    public void testTimeout() throws Exception
+    {
+        // Setup test fixture.
+        JiveGlobals.setProperty("xmpp.domain", Fixtures.XMPP_DOMAIN);
+        JiveGlobals.setProperty("xmpp.server.session.initialise-timeout", Long.toString(1));
+        JiveGlobals.setProperty(ConnectionSettings.Server.TLS_POLICY, Connection.TLSPolicy.disabled.toString());
+
+        try (final ServerSocket unresponsiveServer = new ServerSocket(0)) // Connections are accepted in its backlog, but never read from.
+        {
+            DNSUtil.setDnsOverride(Map.of(RemoteReceivingServerDummy.XMPP_DOMAIN, new DNSUtil.HostAddress("localhost", unresponsiveServer.getLocalPort(), false)));
+            final DomainPair domainPair = new DomainPair(Fixtures.XMPP_DOMAIN, RemoteReceivingServerDummy.XMPP_DOMAIN);
+
+            // Execute system under test.
+            final LocalOutgoingServerSession result = assertTimeoutPreemptively(Duration.ofSeconds(20), () -> LocalOutgoingServerSession.createOutgoingSession(domainPair, unresponsiveServer.getLocalPort()));
+
+            // Verify results.
+            assertNull(result);
+        }
+    }
+
     /**
      * Provides the arguments for the method that implements the unit test.
      * @return Unit test arguments
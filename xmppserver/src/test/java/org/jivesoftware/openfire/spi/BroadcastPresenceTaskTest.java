@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.spi;
+
+import org.jivesoftware.openfire.RoutingTable;
+import org.jivesoftware.openfire.session.ClientSession;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify the implementation of {@link BroadcastPresenceTask}.
+ */
+public class BroadcastPresenceTaskTest {
+
+    /**
+     * Asserts that each session receives the presence stanza, addressed to the bare JID of its user, and that routes
+     * for which no session exists are skipped.
+     */
+    @Test
+    public void testDeliver() throws Exception
+    {
+        // Setup test fixture.
+        final JID johnDesktop = new JID("john@example.org/desktop");
+        final JID johnMobile = new JID("john@example.org/mobile");
+        final JID jane = new JID("jane@example.org/desktop");
+        final JID gone = new JID("gone@example.org/desktop");
+
+        final List<JID> received = new ArrayList<>();
+        final RoutingTable routingTable = mock(RoutingTable.class);
+        for (final JID route : List.of(johnDesktop, johnMobile, jane)) {
+            final ClientSession session = mock(ClientSession.class);
+            doAnswer(invocation -> received.add(((Packet) invocation.getArgument(0)).getTo())).when(session).process(any(Packet.class));
+            when(routingTable.getClientRoute(route)).thenReturn(session);
+        }
+
+        final Presence presence = new Presence();
+        presence.setFrom(new JID("sender@example.org/desktop"));
+
+        // Execute system under test.
+        BroadcastPresenceTask.deliver(routingTable, presence, List.of(johnDesktop, gone, johnMobile, jane));
+
+        // Verify results.
+        assertEquals(List.of(new JID("john@example.org"), new JID("john@example.org"), new JID("jane@example.org")), received);
+    }
+
+    /**
+     * Asserts that a failure to deliver the presence stanza to one session does not prevent it from being delivered to
+     * the other sessions.
+     */
+    @Test
+    public void testDeliverAfterFailure() throws Exception
+    {
+        // Setup test fixture.
+        final JID john = new JID("john@example.org/desktop");
+        final JID jane = new JID("jane@example.org/desktop");
+
+        final List<JID> received = new ArrayList<>();
+        final RoutingTable routingTable = mock(RoutingTable.class);
+        final ClientSession failing = mock(ClientSession.class);
+        doThrow(new IllegalStateException("Test")).when(failing).process(any(Packet.class));
+        when(routingTable.getClientRoute(john)).thenReturn(failing);
+        final ClientSession session = mock(ClientSession.class);
+        doAnswer(invocation -> received.add(((Packet) invocation.getArgument(0)).getTo())).when(session).process(any(Packet.class));
+        when(routingTable.getClientRoute(jane)).thenReturn(session);
+
+        // Execute system under test.
+        BroadcastPresenceTask.deliver(routingTable, new Presence(), List.of(john, jane));
+
+        // Verify results.
+        assertEquals(List.of(new JID("jane@example.org")), received);
+    }
+
+    private static byte[] serialize(final BroadcastPresenceTask task) throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            task.writeExternal(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Asserts that a task that is read from its serialized form is serialized to the same form again.
+     */
+    @Test
+    public void testSerializationRoundTrip() throws Exception
+    {
+        // Setup test fixture.
+        final Presence presence = new Presence(Presence.Type.unavailable);
+        presence.setFrom(new JID("sender@example.org/desktop"));
+        presence.setStatus("Gone fishing");
+        final byte[] serialized = serialize(new BroadcastPresenceTask(presence, List.of(new JID("john@example.org/desktop"), new JID("jane@example.org/mobile"))));
+
+        // Execute system under test.
+        final BroadcastPresenceTask result = new BroadcastPresenceTask();
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            result.readExternal(in);
+        }
+
+        // Verify results.
+        assertArrayEquals(serialized, serialize(result));
+    }
+}
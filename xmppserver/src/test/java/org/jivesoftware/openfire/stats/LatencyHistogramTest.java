@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.stats;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link LatencyHistogram} and {@link StanzaPipelineMetrics}
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Asserts that each value is counted in a bucket of which the bounds include the value, and that buckets are
+     * contiguous.
+     */
+    @Test
+    public void testBucketBounds() throws Exception
+    {
+        long previousHighest = -1;
+        for (int index = 0; index < LatencyHistogram.bucketIndex(LatencyHistogram.HIGHEST_TRACKABLE_NANOS); index++) {
+            final long highest = LatencyHistogram.highestEquivalentValue(index);
+            assertEquals(index, LatencyHistogram.bucketIndex(previousHighest + 1));
+            assertEquals(index, LatencyHistogram.bucketIndex(highest));
+            assertTrue(highest - previousHighest <= Math.max(1, highest / LatencyHistogram.SUB_BUCKETS));
+            previousHighest = highest;
+        }
+    }
+
+    /**
+     * Asserts that percentiles are reported within the precision of the histogram.
+     */
+    @Test
+    public void testPercentiles() throws Exception
+    {
+        // Setup test fixture.
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        // Execute system under test.
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        // Verify results.
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getMeanMicros(), 1);
+        assertEquals(1000, histogram.getMaximumMicros());
+        assertEquals(500, histogram.get50thPercentileMicros(), 500 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990, histogram.get99thPercentileMicros(), 990 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000, histogram.get999thPercentileMicros());
+    }
+
+    /**
+     * Asserts that a histogram that is reset no longer reports values that were recorded earlier.
+     */
+    @Test
+    public void testReset() throws Exception
+    {
+        // Setup test fixture.
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.SECONDS.toNanos(200));
+
+        // Execute system under test.
+        histogram.resetStatistics();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(10));
+
+        // Verify results.
+        assertEquals(1, histogram.getCount());
+        assertEquals(10, histogram.getMaximumMicros());
+        assertEquals(10, histogram.get999thPercentileMicros());
+    }
+
+    /**
+     * Asserts that stanzas are classified by their element name, and IQ stanzas by the namespace of their child element.
+     */
+    @Test
+    public void testKindOf() throws Exception
+    {
+        assertEquals("message", StanzaPipelineMetrics.kindOf(DocumentHelper.parseText("<message><body>test</body></message>").getRootElement()));
+        assertEquals("presence", StanzaPipelineMetrics.kindOf(DocumentHelper.parseText("<presence/>").getRootElement()));
+        assertEquals("iq:jabber:iq:roster", StanzaPipelineMetrics.kindOf(DocumentHelper.parseText("<iq type='get'><query xmlns='jabber:iq:roster'/></iq>").getRootElement()));
+        assertEquals("iq:result", StanzaPipelineMetrics.kindOf(DocumentHelper.parseText("<iq type='result'/>").getRootElement()));
+    }
+
+    /**
+     * Asserts that the number of distinct kinds that is recorded per stage is limited.
+     */
+    @Test
+    public void testMaximumKinds() throws Exception
+    {
+        // Setup test fixture.
+        final StanzaPipelineMetrics metrics = new StanzaPipelineMetrics();
+
+        // Execute system under test.
+        for (int i = 0; i < StanzaPipelineMetrics.MAX_KINDS * 2; i++) {
+            final Element iq = DocumentHelper.parseText("<iq type='get'><query xmlns='urn:test:" + i + "'/></iq>").getRootElement();
+            metrics.record(StanzaPipelineMetrics.Stage.ROUTING_TABLE, iq, System.nanoTime());
+        }
+
+        // Verify results.
+        assertEquals(StanzaPipelineMetrics.MAX_KINDS + 1, metrics.getHistograms(StanzaPipelineMetrics.Stage.ROUTING_TABLE).size());
+        assertEquals(StanzaPipelineMetrics.MAX_KINDS, metrics.getHistograms(StanzaPipelineMetrics.Stage.ROUTING_TABLE).get(StanzaPipelineMetrics.OTHER).getCount());
+    }
+}
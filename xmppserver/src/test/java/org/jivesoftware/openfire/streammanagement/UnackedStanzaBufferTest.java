@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.streammanagement;
+
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the implementation of {@link UnackedStanzaBuffer}.
+ */
+public class UnackedStanzaBufferTest
+{
+    private static Message createMessage(final long sequence)
+    {
+        final Message message = new Message();
+        message.setTo("john@example.org/desktop");
+        message.setBody("Message " + sequence);
+        return message;
+    }
+
+    /**
+     * Asserts that acknowledged stanzas are removed, also after the buffer has wrapped around and grown.
+     */
+    @Test
+    public void testAddAndRemoveUpTo() throws Exception
+    {
+        // Setup test fixture.
+        final UnackedStanzaBuffer buffer = new UnackedStanzaBuffer();
+        long next = 1;
+        for (; next <= 10; next++) {
+            buffer.add(next, createMessage(next));
+        }
+        buffer.removeUpTo(8);
+
+        // Execute system under test.
+        for (; next <= 60; next++) {
+            buffer.add(next, createMessage(next));
+        }
+        buffer.removeUpTo(20);
+
+        // Verify results.
+        assertEquals(40, buffer.size());
+        assertEquals(60, buffer.getLastSequence());
+        final List<UnackedStanzaBuffer.Entry> entries = buffer.entries();
+        assertEquals(21, entries.get(0).sequence);
+        assertEquals("Message 21", ((Message) entries.get(0).toPacket()).getBody());
+        assertEquals("Message 60", ((Message) entries.get(39).toPacket()).getBody());
+    }
+
+    /**
+     * Asserts that the byte size of the buffer reflects the stanzas that it contains.
+     */
+    @Test
+    public void testByteSize() throws Exception
+    {
+        // Setup test fixture.
+        final UnackedStanzaBuffer buffer = new UnackedStanzaBuffer();
+
+        // Execute system under test & Verify results.
+        buffer.add(1, createMessage(1));
+        final long oneStanza = buffer.byteSize();
+        assertTrue(oneStanza > 0);
+        buffer.add(2, createMessage(2));
+        assertEquals(2 * oneStanza, buffer.byteSize());
+        buffer.removeLast();
+        assertEquals(oneStanza, buffer.byteSize());
+        buffer.removeUpTo(1);
+        assertEquals(0, buffer.byteSize());
+        assertTrue(buffer.isEmpty());
+    }
+
+    /**
+     * Asserts that stanzas are parsed into instances of their original type.
+     */
+    @Test
+    public void testStanzaTypes() throws Exception
+    {
+        // Setup test fixture.
+        final UnackedStanzaBuffer buffer = new UnackedStanzaBuffer();
+        final IQ iq = new IQ(IQ.Type.result, "abc");
+
+        // Execute system under test.
+        buffer.add(5, createMessage(5));
+        buffer.add(6, new Presence());
+        buffer.add(7, iq);
+
+        // Verify results.
+        final List<UnackedStanzaBuffer.Entry> entries = buffer.entries();
+        assertTrue(entries.get(0).isMessage());
+        assertTrue(entries.get(1).isPresence());
+        final Packet parsed = entries.get(2).toPacket();
+        assertTrue(parsed instanceof IQ);
+        assertEquals("abc", parsed.getID());
+    }
+
+    /**
+     * Asserts that sequence numbers of stanzas must be consecutive.
+     */
+    @Test
+    public void testNonConsecutiveSequence() throws Exception
+    {
+        // Setup test fixture.
+        final UnackedStanzaBuffer buffer = new UnackedStanzaBuffer();
+        buffer.add(1, createMessage(1));
+
+        // Execute system under test & Verify results.
+        assertThrows(IllegalArgumentException.class, () -> buffer.add(3, createMessage(3)));
+    }
+
+    /**
+     * Asserts that the byte size of the buffer reflects the stanzas that it contains after some, but not all, of these
+     * have been acknowledged, and after more stanzas have been added to it.
+     */
+    @Test
+    public void testByteSizeAfterPartialAcknowledgement() throws Exception
+    {
+        // Setup test fixture.
+        final UnackedStanzaBuffer buffer = new UnackedStanzaBuffer();
+        for (long next = 1; next <= 20; next++) {
+            buffer.add(next, createMessage(next), new byte[(int) next]);
+        }
+
+        // Execute system under test.
+        buffer.removeUpTo(15);
+        buffer.add(21, createMessage(21), new byte[21]);
+
+        // Verify results.
+        assertEquals(6, buffer.size());
+        assertEquals(16 + 17 + 18 + 19 + 20 + 21, buffer.byteSize());
+        assertEquals(16, buffer.entries().get(0).sequence);
+    }
+
+    /**
+     * Asserts that the serialized form of a stanza that is provided when it is added is used, instead of the stanza
+     * being serialized again.
+     */
+    @Test
+    public void testAddSerialized() throws Exception
+    {
+        // Setup test fixture.
+        final UnackedStanzaBuffer buffer = new UnackedStanzaBuffer();
+        final String xml = "<message to=\"john@example.org/desktop\"><body>Serialized</body></message>";
+
+        // Execute system under test.
+        buffer.add(1, createMessage(1), xml.getBytes(StandardCharsets.UTF_8));
+
+        // Verify results.
+        assertEquals(xml, buffer.entries().get(0).getXML());
+        assertEquals("Serialized", ((Message) buffer.entries().get(0).toPacket()).getBody());
+    }
+
+    /**
+     * Asserts that acknowledging all stanzas empties the buffer, after which it can be used again.
+     */
+    @Test
+    public void testAcknowledgeAll() throws Exception
+    {
+        // Setup test fixture.
+        final UnackedStanzaBuffer buffer = new UnackedStanzaBuffer();
+        for (long next = 1; next <= 40; next++) {
+            buffer.add(next, createMessage(next));
+        }
+
+        // Execute system under test.
+        buffer.removeUpTo(40);
+
+        // Verify results.
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.byteSize());
+        buffer.add(41, createMessage(41));
+        assertEquals(41, buffer.getLastSequence());
+        assertEquals(1, buffer.entries().size());
+    }
+
+    /**
+     * Asserts that the buffer no longer references stanzas that have been acknowledged.
+     */
+    @Test
+    public void testAcknowledgedStanzasAreReleased() throws Exception
+    {
+        // Setup test fixture.
+        final UnackedStanzaBuffer buffer = new UnackedStanzaBuffer();
+        for (long next = 1; next <= 10; next++) {
+            buffer.add(next, createMessage(next));
+        }
+
+        // Execute system under test.
+        buffer.removeUpTo(7);
+
+        // Verify results.
+        assertEquals(3, buffer.retainedSlots());
+        buffer.removeUpTo(10);
+        assertEquals(0, buffer.retainedSlots());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link HashedWheelScheduler}
+ */
+public class HashedWheelSchedulerTest {
+
+    private HashedWheelScheduler scheduler;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        scheduler = new HashedWheelScheduler(new NamedThreadFactory("test-scheduler-", true, null, null, null), Duration.ofMillis(5), 100);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        scheduler.stop();
+    }
+
+    /**
+     * Asserts that a task is executed once, no earlier than its delay.
+     */
+    @Test
+    public void testScheduleOnce() throws Exception
+    {
+        // Setup test fixture.
+        final CountDownLatch executed = new CountDownLatch(1);
+        final long start = System.nanoTime();
+
+        // Execute system under test.
+        scheduler.schedule(executed::countDown, Duration.ofMillis(50));
+
+        // Verify results.
+        assertTrue(executed.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, scheduler.getScheduledTasks());
+        assertEquals(1, scheduler.getExecutedTasks());
+        assertTrue(scheduler.getMaximumLatenessMicros() >= scheduler.getAverageLatenessMicros());
+    }
+
+    /**
+     * Asserts that a cancelled task is not executed, and no longer is pending.
+     */
+    @Test
+    public void testCancel() throws Exception
+    {
+        // Setup test fixture.
+        final AtomicInteger executions = new AtomicInteger();
+        final HashedWheelScheduler.ScheduledTask task = scheduler.schedule(executions::incrementAndGet, Duration.ofMillis(100));
+
+        // Execute system under test.
+        final boolean cancelled = task.cancel();
+        final boolean cancelledAgain = task.cancel();
+        Thread.sleep(200);
+
+        // Verify results.
+        assertTrue(cancelled);
+        assertFalse(cancelledAgain);
+        assertTrue(task.isCancelled());
+        assertEquals(0, executions.get());
+        assertEquals(0, scheduler.getPendingTasks());
+        assertEquals(1, scheduler.getCancelledTasks());
+    }
+
+    /**
+     * Asserts that a periodic task is executed repeatedly, until it is cancelled.
+     */
+    @Test
+    public void testPeriodic() throws Exception
+    {
+        // Setup test fixture.
+        final CountDownLatch fixedDelay = new CountDownLatch(3);
+        final CountDownLatch fixedRate = new CountDownLatch(3);
+
+        // Execute system under test.
+        final HashedWheelScheduler.ScheduledTask first = scheduler.scheduleWithFixedDelay(fixedDelay::countDown, Duration.ZERO, Duration.ofMillis(20));
+        final HashedWheelScheduler.ScheduledTask second = scheduler.scheduleAtFixedRate(fixedRate::countDown, Duration.ZERO, Duration.ofMillis(20));
+
+        // Verify results.
+        assertTrue(fixedDelay.await(5, TimeUnit.SECONDS));
+        assertTrue(fixedRate.await(5, TimeUnit.SECONDS));
+
+        first.cancel();
+        second.cancel();
+        Thread.sleep(50);
+        final long executions = scheduler.getExecutedTasks();
+        Thread.sleep(100);
+        assertEquals(executions, scheduler.getExecutedTasks());
+        assertEquals(0, scheduler.getPendingTasks());
+    }
+
+    /**
+     * Asserts that a periodic task that is cancelled while it is being executed is not executed again, and no longer
+     * is pending.
+     */
+    @Test
+    public void testCancelWhileExecuting() throws Exception
+    {
+        // Setup test fixture.
+        final CountDownLatch executing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger executions = new AtomicInteger();
+        final HashedWheelScheduler.ScheduledTask task = scheduler.scheduleWithFixedDelay(() -> {
+            executions.incrementAndGet();
+            executing.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, Duration.ZERO, Duration.ofMillis(10));
+        assertTrue(executing.await(5, TimeUnit.SECONDS));
+
+        // Execute system under test.
+        final boolean cancelled = task.cancel();
+        release.countDown();
+        Thread.sleep(100);
+
+        // Verify results.
+        assertTrue(cancelled);
+        assertEquals(1, executions.get());
+        assertEquals(0, scheduler.getPendingTasks());
+    }
+
+    /**
+     * Asserts that a task that fails does not prevent other tasks from being executed.
+     */
+    @Test
+    public void testFailingTask() throws Exception
+    {
+        // Setup test fixture.
+        final CountDownLatch executed = new CountDownLatch(1);
+
+        // Execute system under test.
+        scheduler.schedule(() -> { throw new IllegalStateException("Test failure"); }, Duration.ZERO);
+        scheduler.schedule(executed::countDown, Duration.ofMillis(20));
+
+        // Verify results.
+        assertTrue(executed.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Asserts that the size of the wheel is rounded up to a power of two.
+     */
+    @Test
+    public void testWheelSize() throws Exception
+    {
+        assertEquals(128, scheduler.getWheelSize());
+        assertEquals(5, scheduler.getTickDurationMillis());
+    }
+}
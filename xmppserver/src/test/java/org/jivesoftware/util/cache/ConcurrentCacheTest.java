@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests that verify the implementation of {@link ConcurrentCache}
+ */
+public class ConcurrentCacheTest
+{
+    private static String createValue(final int index) {
+        final StringBuilder result = new StringBuilder("value-").append(index);
+        while (result.length() < 100) {
+            result.append('x');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Asserts that values can be stored and retrieved, and that hits and misses are counted.
+     */
+    @Test
+    public void testPutGet() throws Exception
+    {
+        // Setup test fixture.
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>("unittest-concurrent-put-get", -1, -1);
+
+        // Execute system under test.
+        final String firstPut = cache.put("a", "1");
+        final String secondPut = cache.put("a", "2");
+        final String hit = cache.get("a");
+        final String miss = cache.get("b");
+
+        // Verify results.
+        assertNull(firstPut);
+        assertEquals("1", secondPut);
+        assertEquals("2", hit);
+        assertNull(miss);
+        assertEquals(1, cache.getCacheHits());
+        assertEquals(1, cache.getCacheMisses());
+        assertEquals(1, cache.size());
+        assertTrue(cache.getLongCacheSize() > 0);
+        assertTrue(cache.containsKey("a"));
+        assertTrue(cache.containsValue("2"));
+        assertEquals("2", cache.remove("a"));
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.getLongCacheSize());
+    }
+
+    /**
+     * Asserts that the cache does not grow beyond its maximum size, and that evictions are counted as culls.
+     */
+    @Test
+    public void testMaxSize() throws Exception
+    {
+        // Setup test fixture.
+        final long maxSize = 10_000;
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>("unittest-concurrent-max-size", maxSize, -1);
+
+        // Execute system under test.
+        for (int i = 0; i < 200; i++) {
+            cache.put("key-" + i, createValue(i));
+        }
+
+        // Verify results.
+        assertTrue(cache.getLongCacheSize() <= maxSize);
+        assertTrue(cache.size() < 200);
+        assertTrue(cache.getCacheCulls(Duration.ofHours(3)) > 0);
+    }
+
+    /**
+     * Asserts that an object that is larger than 90% of the maximum cache size is not stored.
+     */
+    @Test
+    public void testObjectTooLarge() throws Exception
+    {
+        // Setup test fixture.
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>("unittest-concurrent-too-large", 100, -1);
+        cache.put("key", "small");
+
+        // Execute system under test.
+        final String result = cache.put("key", createValue(1));
+
+        // Verify results.
+        assertEquals("small", result);
+        assertNull(cache.get("key"));
+        assertTrue(cache.isEmpty());
+    }
+
+    /**
+     * Asserts that entries expire after the maximum lifetime of the cache.
+     */
+    @Test
+    public void testMaxLifetime() throws Exception
+    {
+        // Setup test fixture.
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>("unittest-concurrent-lifetime", -1, 50);
+        cache.put("key", "value");
+        assertEquals("value", cache.get("key"));
+
+        // Execute system under test.
+        Thread.sleep(100);
+
+        // Verify results.
+        assertNull(cache.get("key"));
+        assertFalse(cache.containsKey("key"));
+    }
+
+    /**
+     * Asserts that clearing the cache removes all entries and resets the statistics.
+     */
+    @Test
+    public void testClear() throws Exception
+    {
+        // Setup test fixture.
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>("unittest-concurrent-clear", -1, -1);
+        cache.put("a", "1");
+        cache.get("a");
+        cache.get("b");
+
+        // Execute system under test.
+        cache.clear();
+
+        // Verify results.
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.getCacheHits());
+        assertEquals(0, cache.getCacheMisses());
+        assertTrue(cache.keySet().isEmpty());
+    }
+}